@@ -0,0 +1,118 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import java.util.Arrays;
+import org.apereo.portal.events.PortalEvent;
+import org.joda.time.DateTime;
+
+/**
+ * Events of a single event session that were accumulated in memory for one {@link
+ * AccumulatingPortalEventAggregator} during one minute and share the same accumulation key. All of
+ * the events map to the same aggregations so the first event stands in for the others when the
+ * aggregation keys are built, only the value of each event and the time of the last one are kept.
+ *
+ * @param <E> The {@link PortalEvent} type accumulated
+ */
+public final class AccumulatedPortalEvents<E extends PortalEvent> {
+    private final AccumulatingPortalEventAggregator<E> aggregator;
+    private final E firstEvent;
+    private final DateTime minute;
+    private DateTime lastEventDate;
+    private double[] values;
+    private int count;
+
+    public AccumulatedPortalEvents(AccumulatingPortalEventAggregator<E> aggregator, E firstEvent) {
+        this.aggregator = aggregator;
+        this.firstEvent = firstEvent;
+        this.lastEventDate = firstEvent.getTimestampAsDate();
+        this.minute = this.lastEventDate.minuteOfHour().roundFloorCopy();
+        this.values = new double[4];
+    }
+
+    /** Add an event and its value */
+    public void add(E event, double value) {
+        final DateTime eventDate = event.getTimestampAsDate();
+        if (eventDate.isAfter(this.lastEventDate)) {
+            this.lastEventDate = eventDate;
+        }
+        this.addValue(value);
+    }
+
+    /** Add all of the events accumulated by another instance for the same bucket */
+    public void addAll(AccumulatedPortalEvents<E> other) {
+        if (other.lastEventDate.isAfter(this.lastEventDate)) {
+            this.lastEventDate = other.lastEventDate;
+        }
+        for (int i = 0; i < other.count; i++) {
+            this.addValue(other.values[i]);
+        }
+    }
+
+    private void addValue(double value) {
+        if (this.count == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.count * 2);
+        }
+        this.values[this.count++] = value;
+    }
+
+    /** @return The aggregator the events were accumulated for */
+    public AccumulatingPortalEventAggregator<E> getAggregator() {
+        return this.aggregator;
+    }
+
+    /** @return The first event accumulated, used to build the aggregation keys */
+    public E getFirstEvent() {
+        return this.firstEvent;
+    }
+
+    /** @return The start of the minute the events happened in */
+    public DateTime getMinute() {
+        return this.minute;
+    }
+
+    /** @return The timestamp of the most recent event accumulated */
+    public DateTime getLastEventDate() {
+        return this.lastEventDate;
+    }
+
+    /** @return The number of events accumulated */
+    public int getCount() {
+        return this.count;
+    }
+
+    /** @return The value of the accumulated event at the index */
+    public double getValue(int index) {
+        if (index >= this.count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Count: " + this.count);
+        }
+        return this.values[index];
+    }
+
+    @Override
+    public String toString() {
+        return "AccumulatedPortalEvents [aggregator="
+                + this.aggregator
+                + ", firstEvent="
+                + this.firstEvent
+                + ", minute="
+                + this.minute
+                + ", lastEventDate="
+                + this.lastEventDate
+                + ", count="
+                + this.count
+                + "]";
+    }
+}
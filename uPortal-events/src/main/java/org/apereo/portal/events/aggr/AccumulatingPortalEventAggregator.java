@@ -0,0 +1,57 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import java.io.Serializable;
+import java.util.Map;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.aggr.session.EventSession;
+
+/**
+ * An {@link IntervalAwarePortalEventAggregator} whose events can be accumulated in memory before
+ * being aggregated. Events from the same event session, in the same minute and with equal
+ * accumulation keys MUST update exactly the same aggregations, the only per-event data the
+ * aggregator may use is the value returned by {@link #getAccumulatedValue(PortalEvent)}.
+ *
+ * @param <E> The {@link PortalEvent} type handled by this aggregator
+ * @see PortalEventAccumulator
+ */
+public interface AccumulatingPortalEventAggregator<E extends PortalEvent>
+        extends IntervalAwarePortalEventAggregator<E> {
+    /**
+     * @return Key that, along with the event session and the minute, identifies the aggregations
+     *     the event updates. May be null.
+     */
+    Serializable getAccumulationKey(E e);
+
+    /** @return The value the event contributes to its aggregations */
+    double getAccumulatedValue(E e);
+
+    /**
+     * Add the accumulated events to the aggregate, the equivalent of calling {@link
+     * #aggregateEvent(PortalEvent, EventSession, EventAggregationContext, Map)} for each of them.
+     *
+     * @param accumulatedEvents The events to aggregate
+     * @param eventSession Information about the event session associated with the events
+     * @param eventAggregationContext Context used to store stateful information for an event
+     *     aggregation run
+     * @param currentIntervals Information about all of the intervals the events exist in.
+     */
+    void aggregateAccumulatedEvents(
+            AccumulatedPortalEvents<E> accumulatedEvents,
+            EventSession eventSession,
+            EventAggregationContext eventAggregationContext,
+            Map<AggregationInterval, AggregationIntervalInfo> currentIntervals);
+}
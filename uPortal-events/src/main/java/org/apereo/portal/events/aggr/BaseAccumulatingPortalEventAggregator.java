@@ -0,0 +1,96 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import java.util.Map;
+import java.util.Set;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.session.EventSession;
+import org.apereo.portal.jpa.BaseAggrEventsJpaDao.AggrEventsTransactional;
+
+/**
+ * Base {@link AccumulatingPortalEventAggregator}, aggregates events accumulated by the {@link
+ * PortalEventAccumulator} into the same aggregations {@link
+ * BaseIntervalAwarePortalEventAggregator} updates for individual events.
+ *
+ * @param <E> The {@link PortalEvent} type handled by this aggregator
+ * @param <T> The {@link BaseAggregationImpl} subclass operated on by this aggregator
+ * @param <K> The {@link BaseAggregationKey} type used by this aggregator
+ */
+public abstract class BaseAccumulatingPortalEventAggregator<
+                E extends PortalEvent,
+                T extends BaseAggregationImpl<K, ?>,
+                K extends BaseAggregationKey>
+        extends BaseIntervalAwarePortalEventAggregator<E, T, K>
+        implements AccumulatingPortalEventAggregator<E> {
+
+    /**
+     * Called for each {@link BaseAggregationImpl} that needs to be updated with accumulated events
+     *
+     * @param accumulatedEvents The events to get the data from
+     * @param intervalInfo The info about the interval the aggregation is for
+     * @param aggregation The aggregation to update
+     */
+    protected abstract void updateAccumulatedAggregation(
+            AccumulatedPortalEvents<E> accumulatedEvents,
+            EventAggregationContext eventAggregationContext,
+            AggregationIntervalInfo intervalInfo,
+            T aggregation);
+
+    @AggrEventsTransactional
+    @Override
+    public final void aggregateAccumulatedEvents(
+            AccumulatedPortalEvents<E> accumulatedEvents,
+            EventSession eventSession,
+            EventAggregationContext eventAggregationContext,
+            Map<AggregationInterval, AggregationIntervalInfo> currentIntervals) {
+
+        final BaseAggregationPrivateDao<T, K> aggregationDao = this.getAggregationDao();
+        final Map<K, T> aggregationsCache = this.getAggregationsCache(eventAggregationContext);
+        final Set<AggregatedGroupMapping> groupMappings = eventSession.getGroupMappings();
+
+        //All of the accumulated events share aggregations so the first event is used for the keys
+        final E e = accumulatedEvents.getFirstEvent();
+        for (Map.Entry<AggregationInterval, AggregationIntervalInfo> intervalInfoEntry :
+                currentIntervals.entrySet()) {
+            final AggregationIntervalInfo intervalInfo = intervalInfoEntry.getValue();
+
+            for (final AggregatedGroupMapping groupMapping : groupMappings) {
+                final K key =
+                        this.createAggregationKey(
+                                e, eventAggregationContext, intervalInfo, groupMapping);
+                final T aggregation = this.getAggregation(key, aggregationsCache, aggregationDao);
+
+                updateAccumulatedAggregation(
+                        accumulatedEvents, eventAggregationContext, intervalInfo, aggregation);
+            }
+        }
+    }
+
+    /**
+     * Set the duration of the aggregation to the end of the accumulated events. Accumulated events
+     * can be aggregated after later events so the duration is never reduced.
+     */
+    protected final void updateDuration(
+            AccumulatedPortalEvents<E> accumulatedEvents,
+            AggregationIntervalInfo intervalInfo,
+            T aggregation) {
+        final int duration = intervalInfo.getDurationTo(accumulatedEvents.getLastEventDate());
+        if (duration > aggregation.getDuration()) {
+            aggregation.setDuration(duration);
+        }
+    }
+}
@@ -89,40 +89,22 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
 
         final BaseAggregationPrivateDao<T, K> aggregationDao = this.getAggregationDao();
 
+        //Map used to cache aggregations locally after loading
+        final Map<K, T> aggregationsCache = this.getAggregationsCache(eventAggregationContext);
+
+        //Groups this event is for
+        final Set<AggregatedGroupMapping> groupMappings = eventSession.getGroupMappings();
+
         for (Map.Entry<AggregationInterval, AggregationIntervalInfo> intervalInfoEntry :
                 currentIntervals.entrySet()) {
             final AggregationIntervalInfo intervalInfo = intervalInfoEntry.getValue();
 
-            //Map used to cache aggregations locally after loading
-            Map<K, T> aggregationsCache =
-                    eventAggregationContext.getAttribute(this.aggregationsCacheKey);
-            if (aggregationsCache == null) {
-                aggregationsCache = new HashMap<K, T>();
-                eventAggregationContext.setAttribute(this.aggregationsCacheKey, aggregationsCache);
-            }
-
-            //Groups this event is for
-            final Set<AggregatedGroupMapping> groupMappings = eventSession.getGroupMappings();
-
             //For each group get/create then update the aggregation
             for (final AggregatedGroupMapping groupMapping : groupMappings) {
                 final K key =
                         this.createAggregationKey(
                                 e, eventAggregationContext, intervalInfo, groupMapping);
-
-                //Load the aggregation, try from the cache first
-                T aggregation = aggregationsCache.get(key);
-                if (aggregation == null) {
-                    //Then try loading from the db
-                    aggregation = aggregationDao.getAggregation(key);
-                    if (aggregation == null) {
-                        //Finally create the aggregation
-                        aggregation = aggregationDao.createAggregation(key);
-                    }
-
-                    //Store the loaded/created aggregation in the local cache
-                    aggregationsCache.put(key, aggregation);
-                }
+                final T aggregation = this.getAggregation(key, aggregationsCache, aggregationDao);
 
                 //Update the aggregation with the event
                 updateAggregation(e, eventAggregationContext, intervalInfo, aggregation);
@@ -130,6 +112,36 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
         }
     }
 
+    /** @return Aggregations loaded during the aggregation run, keyed by aggregation key */
+    final Map<K, T> getAggregationsCache(EventAggregationContext eventAggregationContext) {
+        Map<K, T> aggregationsCache =
+                eventAggregationContext.getAttribute(this.aggregationsCacheKey);
+        if (aggregationsCache == null) {
+            aggregationsCache = new HashMap<K, T>();
+            eventAggregationContext.setAttribute(this.aggregationsCacheKey, aggregationsCache);
+        }
+        return aggregationsCache;
+    }
+
+    /** Get the aggregation from the aggregations cache or the database, creating it if missing */
+    final T getAggregation(
+            K key, Map<K, T> aggregationsCache, BaseAggregationPrivateDao<T, K> aggregationDao) {
+        //Load the aggregation, try from the cache first
+        T aggregation = aggregationsCache.get(key);
+        if (aggregation == null) {
+            //Then try loading from the db
+            aggregation = aggregationDao.getAggregation(key);
+            if (aggregation == null) {
+                //Finally create the aggregation
+                aggregation = aggregationDao.createAggregation(key);
+            }
+
+            //Store the loaded/created aggregation in the local cache
+            aggregationsCache.put(key, aggregation);
+        }
+        return aggregation;
+    }
+
     @AggrEventsTransactional
     @Override
     public final void handleIntervalBoundary(
@@ -0,0 +1,163 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * HyperLogLog sketch used to estimate the number of distinct strings in a set using a fixed amount
+ * of memory. With a precision of p the sketch uses 2^p one byte registers and has a standard error
+ * of about 1.04/sqrt(2^p). Sketches with the same precision can be merged, the result estimates the
+ * size of the union of the two sets.
+ *
+ * <p>The registers are kept in the same byte array that {@link #toBytes()} returns a copy of, a
+ * sketch created by {@link #wrap(byte[])} updates the array it was read from.
+ */
+public final class HyperLogLog {
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 2;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final int precision;
+    /** Header followed by the registers */
+    private final byte[] data;
+
+    /** @param precision Number of hash bits used to pick a register, between 4 and 16 */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException(
+                    "precision must be between 4 and 16, was: " + precision);
+        }
+        this.precision = precision;
+        this.data = new byte[HEADER_SIZE + (1 << precision)];
+        this.data[0] = FORMAT_VERSION;
+        this.data[1] = (byte) precision;
+    }
+
+    private HyperLogLog(byte[] data) {
+        this.precision = data[1];
+        this.data = data;
+    }
+
+    /** Read a sketch written by {@link #toBytes()} */
+    public static HyperLogLog fromBytes(byte[] data) {
+        return wrap(data.clone());
+    }
+
+    /**
+     * Use a sketch written by {@link #toBytes()} without copying it, changes to the sketch are
+     * written to the array.
+     */
+    public static HyperLogLog wrap(byte[] data) {
+        if (data.length < HEADER_SIZE || data[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported HyperLogLog data");
+        }
+        final int precision = data[1];
+        if (data.length != HEADER_SIZE + (1 << precision)) {
+            throw new IllegalArgumentException(
+                    "HyperLogLog data with precision "
+                            + precision
+                            + " has the wrong length: "
+                            + data.length);
+        }
+        return new HyperLogLog(data);
+    }
+
+    /** @return The sketch as a byte array that can be read by {@link #fromBytes(byte[])} */
+    public byte[] toBytes() {
+        return this.data.clone();
+    }
+
+    /** @return true if changes to this sketch are written to the array */
+    boolean wraps(byte[] data) {
+        return this.data == data;
+    }
+
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /** @return true if the sketch changed, false means the string was probably already counted */
+    public boolean add(String s) {
+        return this.addHash(HASH_FUNCTION.hashString(s, Charsets.UTF_8).asLong());
+    }
+
+    private boolean addHash(long hash) {
+        final int index = HEADER_SIZE + (int) (hash >>> (64 - this.precision));
+        final long remaining = hash << this.precision;
+        final int maxRank = 64 - this.precision + 1;
+        final int rank = Math.min(Long.numberOfLeadingZeros(remaining) + 1, maxRank);
+
+        if (rank > this.data[index]) {
+            this.data[index] = (byte) rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merge the other sketch into this one
+     *
+     * @return true if this sketch changed
+     */
+    public boolean merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException(
+                    "Cannot merge a HyperLogLog with precision "
+                            + other.precision
+                            + " into one with precision "
+                            + this.precision);
+        }
+
+        boolean changed = false;
+        for (int i = HEADER_SIZE; i < this.data.length; i++) {
+            if (other.data[i] > this.data[i]) {
+                this.data[i] = other.data[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** @return The estimated number of distinct strings added */
+    public long cardinality() {
+        final int m = this.data.length - HEADER_SIZE;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = HEADER_SIZE; i < this.data.length; i++) {
+            final byte register = this.data[i];
+            sum += 1d / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        final double alpha = 0.7213 / (1 + 1.079 / m);
+        final double estimate = alpha * m * m / sum;
+
+        //Use linear counting for small cardinalities where the raw estimate is biased
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + this.precision + ", cardinality=" + cardinality() + "]";
+    }
+}
@@ -36,6 +36,15 @@ public interface IPortalEventProcessingManager {
      */
     boolean aggregateRawEvents();
 
+    /**
+     * Requests that event data accumulated in memory be aggregated
+     *
+     * @return If the accumulated events were aggregated
+     * @see PortalEventAccumulator#removeAccumulatedEvents(boolean)
+     * @see PortalRawEventsAggregator#doAggregateAccumulatedEvents(java.util.Collection)
+     */
+    boolean aggregateAccumulatedEvents();
+
     /**
      * Requests that raw event data be purged
      *
@@ -0,0 +1,63 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import java.util.Collection;
+import java.util.List;
+import org.apereo.portal.events.PortalEvent;
+
+/**
+ * Accumulates portal events in memory on the node they were fired on so they can be aggregated
+ * without first being written to and read back from the raw events table. Only events whose
+ * interval aware aggregators are all {@link AccumulatingPortalEventAggregator}s are accumulated,
+ * all other events go through raw event aggregation.
+ *
+ * @see PortalRawEventsAggregator#doAggregateAccumulatedEvents(Collection)
+ */
+public interface PortalEventAccumulator {
+    /** @return true if events should be offered to {@link #accumulate(Iterable)} */
+    boolean isEnabled();
+
+    /**
+     * @return true if accumulated events should still be stored as raw events. They are stored
+     *     already marked as aggregated.
+     */
+    boolean isPersistAccumulatedEvents();
+
+    /**
+     * Accumulate the events. Runs in the aggregation transaction, the event session of each event
+     * is found before the event is accumulated and handed to the {@link
+     * SimplePortalEventAggregator}s that support it. Event sessions are never created here, events
+     * without one go through raw event aggregation, as do events for minutes raw event aggregation
+     * has already passed.
+     *
+     * @return The events that were not accumulated and must go through raw event aggregation
+     */
+    List<PortalEvent> accumulate(Iterable<PortalEvent> events);
+
+    /**
+     * Remove and return the accumulated events ready to be aggregated, ordered by time.
+     *
+     * @param includeIncomplete If false only events for minutes that ended before the accumulation
+     *     delay are returned, if true all accumulated events are returned
+     */
+    List<AccumulatedPortalEvents<PortalEvent>> removeAccumulatedEvents(boolean includeIncomplete);
+
+    /**
+     * Return events removed by {@link #removeAccumulatedEvents(boolean)} that could not be
+     * aggregated, they will be returned again by the next call.
+     */
+    void restoreAccumulatedEvents(Collection<AccumulatedPortalEvents<PortalEvent>> events);
+}
@@ -0,0 +1,421 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import com.google.common.base.Objects;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Resource;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.apereo.portal.events.aggr.session.EventSession;
+import org.apereo.portal.events.aggr.session.EventSessionDao;
+import org.apereo.portal.jpa.BaseAggrEventsJpaDao.AggrEventsTransactional;
+import org.apereo.portal.spring.context.ApplicationEventFilter;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.joda.time.ReadablePeriod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Accumulates events per aggregator, event session, minute and accumulation key. The number of
+ * buckets held is limited, once the limit is reached events go through raw event aggregation until
+ * accumulated events are removed. {@link SimplePortalEventAggregator}s are called as soon as an
+ * event is accumulated, with the same filtered event session raw event aggregation would give them.
+ *
+ * <p>Event sessions are only created by raw event aggregation, which holds the aggregation cluster
+ * lock and creates them with the groups from the login event. Until that has happened the events
+ * of the session go through raw event aggregation. So do events for minutes raw event aggregation
+ * has already passed, the intervals of those minutes may be closed.
+ */
+@Service("portalEventAccumulator")
+public class PortalEventAccumulatorImpl implements PortalEventAccumulator {
+    private static final Comparator<AccumulatedPortalEvents<PortalEvent>> MINUTE_COMPARATOR =
+            new Comparator<AccumulatedPortalEvents<PortalEvent>>() {
+                @Override
+                public int compare(
+                        AccumulatedPortalEvents<PortalEvent> o1,
+                        AccumulatedPortalEvents<PortalEvent> o2) {
+                    return o1.getMinute().compareTo(o2.getMinute());
+                }
+            };
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<AccumulationKey, AccumulatedPortalEvents<PortalEvent>> accumulatedEvents =
+            new HashMap<AccumulationKey, AccumulatedPortalEvents<PortalEvent>>();
+
+    private Set<IPortalEventAggregator<PortalEvent>> portalEventAggregators =
+            Collections.emptySet();
+    private List<ApplicationEventFilter<PortalEvent>> applicationEventFilters =
+            Collections.emptyList();
+    private EventSessionDao eventSessionDao;
+    private IEventAggregationManagementDao eventAggregationManagementDao;
+    private boolean enabled = false;
+    private boolean persistAccumulatedEvents = false;
+    private int maxAccumulatedEvents = 50000;
+    private ReadablePeriod accumulationDelay = Period.seconds(5);
+
+    @Autowired
+    public void setPortalEventAggregators(
+            Set<IPortalEventAggregator<PortalEvent>> portalEventAggregators) {
+        this.portalEventAggregators = portalEventAggregators;
+    }
+
+    @Resource(name = "aggregatorEventFilters")
+    public void setApplicationEventFilters(
+            List<ApplicationEventFilter<PortalEvent>> applicationEventFilters) {
+        this.applicationEventFilters = applicationEventFilters;
+    }
+
+    @Autowired
+    public void setEventSessionDao(EventSessionDao eventSessionDao) {
+        this.eventSessionDao = eventSessionDao;
+    }
+
+    @Autowired
+    public void setEventAggregationManagementDao(
+            IEventAggregationManagementDao eventAggregationManagementDao) {
+        this.eventAggregationManagementDao = eventAggregationManagementDao;
+    }
+
+    /** If events should be accumulated in memory, defaults to false */
+    @Value("${org.apereo.portal.events.aggr.PortalEventAccumulatorImpl.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** If accumulated events should also be stored as raw events, defaults to false */
+    @Value(
+            "${org.apereo.portal.events.aggr.PortalEventAccumulatorImpl.persistAccumulatedEvents:false}")
+    public void setPersistAccumulatedEvents(boolean persistAccumulatedEvents) {
+        this.persistAccumulatedEvents = persistAccumulatedEvents;
+    }
+
+    /** Maximum number of accumulation buckets held in memory, defaults to 50000 */
+    @Value("${org.apereo.portal.events.aggr.PortalEventAccumulatorImpl.maxAccumulatedEvents:50000}")
+    public void setMaxAccumulatedEvents(int maxAccumulatedEvents) {
+        this.maxAccumulatedEvents = maxAccumulatedEvents;
+    }
+
+    /**
+     * Time to wait after a minute ends before its events are aggregated, allows for events still
+     * queued for persistence. Defaults to 5 seconds.
+     */
+    @Value("${org.apereo.portal.events.aggr.PortalEventAccumulatorImpl.accumulationDelay:PT5S}")
+    public void setAccumulationDelay(ReadablePeriod accumulationDelay) {
+        this.accumulationDelay = accumulationDelay;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public boolean isPersistAccumulatedEvents() {
+        return this.persistAccumulatedEvents;
+    }
+
+    @AggrEventsTransactional
+    @Override
+    public List<PortalEvent> accumulate(Iterable<PortalEvent> events) {
+        final List<PortalEvent> rawEvents = new ArrayList<PortalEvent>();
+        if (!this.enabled) {
+            for (final PortalEvent event : events) {
+                rawEvents.add(event);
+            }
+            return rawEvents;
+        }
+
+        final DateTime rawAggregatedBefore = this.getRawAggregatedBefore();
+
+        //Find every event session first so nothing is accumulated if finding one fails
+        final List<PendingEvent> pendingEvents = new ArrayList<PendingEvent>();
+        for (final PortalEvent event : events) {
+            final PendingEvent pendingEvent = this.getPendingEvent(event, rawAggregatedBefore);
+            if (pendingEvent != null) {
+                pendingEvents.add(pendingEvent);
+            } else {
+                rawEvents.add(event);
+            }
+        }
+
+        final Map<Class<?>, AggregatedGroupConfig> groupConfigs =
+                new HashMap<Class<?>, AggregatedGroupConfig>();
+        for (final PendingEvent pendingEvent : pendingEvents) {
+            if (!this.accumulate(pendingEvent, groupConfigs)) {
+                rawEvents.add(pendingEvent.event);
+            }
+        }
+
+        return rawEvents;
+    }
+
+    /** @return The date raw event aggregation has aggregated events up to, null if not run yet */
+    private DateTime getRawAggregatedBefore() {
+        final IEventAggregatorStatus eventAggregatorStatus =
+                this.eventAggregationManagementDao.getEventAggregatorStatus(
+                        IEventAggregatorStatus.ProcessingType.AGGREGATION, false);
+        return eventAggregatorStatus != null ? eventAggregatorStatus.getLastEventDate() : null;
+    }
+
+    /**
+     * @return The aggregators and event session of the event, null if the event can not be
+     *     accumulated
+     */
+    @SuppressWarnings("unchecked")
+    private PendingEvent getPendingEvent(PortalEvent event, DateTime rawAggregatedBefore) {
+        for (final ApplicationEventFilter<PortalEvent> applicationEventFilter :
+                this.applicationEventFilters) {
+            if (!applicationEventFilter.supports(event)) {
+                return null;
+            }
+        }
+
+        //Every interval aware aggregator that handles the event must be able to accumulate it
+        final List<AccumulatingPortalEventAggregator<PortalEvent>> aggregators =
+                new ArrayList<AccumulatingPortalEventAggregator<PortalEvent>>(4);
+        final List<SimplePortalEventAggregator<PortalEvent>> simpleAggregators =
+                new ArrayList<SimplePortalEventAggregator<PortalEvent>>(2);
+        for (final IPortalEventAggregator<PortalEvent> portalEventAggregator :
+                this.portalEventAggregators) {
+            if (portalEventAggregator.supports(event)) {
+                if (portalEventAggregator instanceof AccumulatingPortalEventAggregator) {
+                    aggregators.add(
+                            (AccumulatingPortalEventAggregator<PortalEvent>)
+                                    portalEventAggregator);
+                } else if (portalEventAggregator instanceof SimplePortalEventAggregator) {
+                    simpleAggregators.add(
+                            (SimplePortalEventAggregator<PortalEvent>) portalEventAggregator);
+                } else {
+                    return null;
+                }
+            }
+        }
+        if (aggregators.isEmpty()) {
+            return null;
+        }
+
+        //Raw event aggregation has passed the minute, its intervals may already be closed
+        final DateTime minute = event.getTimestampAsDate().minuteOfHour().roundFloorCopy();
+        if (rawAggregatedBefore != null && !minute.plusMinutes(1).isAfter(rawAggregatedBefore)) {
+            return null;
+        }
+
+        //Raw event aggregation has not created the event session from the login event yet
+        final EventSession eventSession = this.eventSessionDao.findEventSession(event);
+        if (eventSession == null) {
+            return null;
+        }
+
+        return new PendingEvent(event, aggregators, simpleAggregators, eventSession);
+    }
+
+    /** @return true if the event was accumulated */
+    private boolean accumulate(
+            PendingEvent pendingEvent, Map<Class<?>, AggregatedGroupConfig> groupConfigs) {
+        final PortalEvent event = pendingEvent.event;
+        final List<AccumulatingPortalEventAggregator<PortalEvent>> aggregators =
+                pendingEvent.aggregators;
+
+        final DateTime minute = event.getTimestampAsDate().minuteOfHour().roundFloorCopy();
+        synchronized (this.accumulatedEvents) {
+            if (this.accumulatedEvents.size() + aggregators.size() > this.maxAccumulatedEvents) {
+                this.logger.debug(
+                        "{} accumulated events buckets exist, {} will go through raw event aggregation",
+                        this.accumulatedEvents.size(),
+                        event);
+                return false;
+            }
+
+            for (final AccumulatingPortalEventAggregator<PortalEvent> aggregator : aggregators) {
+                final AccumulationKey key =
+                        new AccumulationKey(
+                                aggregator,
+                                event.getEventSessionId(),
+                                minute,
+                                aggregator.getAccumulationKey(event));
+
+                AccumulatedPortalEvents<PortalEvent> events = this.accumulatedEvents.get(key);
+                if (events == null) {
+                    events = new AccumulatedPortalEvents<PortalEvent>(aggregator, event);
+                    this.accumulatedEvents.put(key, events);
+                }
+                events.add(event, aggregator.getAccumulatedValue(event));
+            }
+        }
+
+        //Simple aggregators don't keep state across events, give them the event now
+        for (final SimplePortalEventAggregator<PortalEvent> simpleAggregator :
+                pendingEvent.simpleAggregators) {
+            try {
+                simpleAggregator.aggregateEvent(
+                        event,
+                        this.getFilteredEventSession(
+                                pendingEvent.eventSession, simpleAggregator, groupConfigs));
+            } catch (RuntimeException e) {
+                this.logger.warn("Failed to aggregate {} with {}", event, simpleAggregator, e);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<AccumulatedPortalEvents<PortalEvent>> removeAccumulatedEvents(
+            boolean includeIncomplete) {
+        final DateTime completeBefore =
+                DateTime.now().minus(this.accumulationDelay).minuteOfHour().roundFloorCopy();
+
+        final List<AccumulatedPortalEvents<PortalEvent>> result =
+                new ArrayList<AccumulatedPortalEvents<PortalEvent>>();
+        synchronized (this.accumulatedEvents) {
+            for (final Iterator<Map.Entry<AccumulationKey, AccumulatedPortalEvents<PortalEvent>>>
+                            entryItr = this.accumulatedEvents.entrySet().iterator();
+                    entryItr.hasNext();
+                    ) {
+                final Map.Entry<AccumulationKey, AccumulatedPortalEvents<PortalEvent>> entry =
+                        entryItr.next();
+                if (includeIncomplete || entry.getKey().minute.isBefore(completeBefore)) {
+                    result.add(entry.getValue());
+                    entryItr.remove();
+                }
+            }
+        }
+
+        Collections.sort(result, MINUTE_COMPARATOR);
+        return result;
+    }
+
+    @Override
+    public void restoreAccumulatedEvents(Collection<AccumulatedPortalEvents<PortalEvent>> events) {
+        synchronized (this.accumulatedEvents) {
+            for (final AccumulatedPortalEvents<PortalEvent> restored : events) {
+                final AccumulatingPortalEventAggregator<PortalEvent> aggregator =
+                        restored.getAggregator();
+                final PortalEvent event = restored.getFirstEvent();
+                final AccumulationKey key =
+                        new AccumulationKey(
+                                aggregator,
+                                event.getEventSessionId(),
+                                restored.getMinute(),
+                                aggregator.getAccumulationKey(event));
+
+                final AccumulatedPortalEvents<PortalEvent> existing =
+                        this.accumulatedEvents.get(key);
+                if (existing == null) {
+                    this.accumulatedEvents.put(key, restored);
+                } else {
+                    existing.addAll(restored);
+                }
+            }
+        }
+    }
+
+    /** @return The view of the event session filtered by the group config of the aggregator */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private EventSession getFilteredEventSession(
+            EventSession eventSession,
+            IPortalEventAggregator<?> aggregator,
+            Map<Class<?>, AggregatedGroupConfig> groupConfigs) {
+        final Class aggregatorType = AopProxyUtils.ultimateTargetClass(aggregator);
+        AggregatedGroupConfig groupConfig = groupConfigs.get(aggregatorType);
+        if (groupConfig == null) {
+            groupConfig =
+                    this.eventAggregationManagementDao.getAggregatedGroupConfig(aggregatorType);
+            if (groupConfig == null) {
+                groupConfig = this.eventAggregationManagementDao.getDefaultAggregatedGroupConfig();
+            }
+            groupConfigs.put(aggregatorType, groupConfig);
+        }
+        return new FilteredEventSession(eventSession, groupConfig);
+    }
+
+    /** An event waiting to be accumulated along with its aggregators and event session */
+    private static final class PendingEvent {
+        private final PortalEvent event;
+        private final List<AccumulatingPortalEventAggregator<PortalEvent>> aggregators;
+        private final List<SimplePortalEventAggregator<PortalEvent>> simpleAggregators;
+        private final EventSession eventSession;
+
+        public PendingEvent(
+                PortalEvent event,
+                List<AccumulatingPortalEventAggregator<PortalEvent>> aggregators,
+                List<SimplePortalEventAggregator<PortalEvent>> simpleAggregators,
+                EventSession eventSession) {
+            this.event = event;
+            this.aggregators = aggregators;
+            this.simpleAggregators = simpleAggregators;
+            this.eventSession = eventSession;
+        }
+    }
+
+    /** Identifies the events that update the same set of aggregations */
+    private static final class AccumulationKey {
+        private final AccumulatingPortalEventAggregator<PortalEvent> aggregator;
+        private final String eventSessionId;
+        private final DateTime minute;
+        private final Serializable accumulationKey;
+        private final int hash;
+
+        public AccumulationKey(
+                AccumulatingPortalEventAggregator<PortalEvent> aggregator,
+                String eventSessionId,
+                DateTime minute,
+                Serializable accumulationKey) {
+            this.aggregator = aggregator;
+            this.eventSessionId = eventSessionId;
+            this.minute = minute;
+            this.accumulationKey = accumulationKey;
+            this.hash =
+                    Objects.hashCode(
+                            System.identityHashCode(aggregator),
+                            eventSessionId,
+                            minute,
+                            accumulationKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof AccumulationKey)) return false;
+            final AccumulationKey other = (AccumulationKey) obj;
+            return this.hash == other.hash
+                    && this.aggregator == other.aggregator
+                    && Objects.equal(this.eventSessionId, other.eventSessionId)
+                    && this.minute.equals(other.minute)
+                    && Objects.equal(this.accumulationKey, other.accumulationKey);
+        }
+    }
+}
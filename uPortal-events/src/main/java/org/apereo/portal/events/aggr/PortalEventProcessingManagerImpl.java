@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
@@ -30,6 +31,8 @@ import org.apereo.portal.concurrency.locking.IClusterLockService;
 import org.apereo.portal.concurrency.locking.IClusterLockService.LockStatus;
 import org.apereo.portal.concurrency.locking.IClusterLockService.TryLockFunctionResult;
 import org.apereo.portal.concurrency.locking.LockOptions;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.apereo.portal.jpa.BaseAggrEventsJpaDao;
 import org.apereo.portal.jpa.BaseRawEventsJpaDao;
 import org.apereo.portal.version.dao.VersionDao;
@@ -51,6 +54,8 @@ public class PortalEventProcessingManagerImpl
     private PortalRawEventsAggregator portalEventAggregator;
     private PortalEventPurger portalEventPurger;
     private PortalEventSessionPurger portalEventSessionPurger;
+    private PortalEventAccumulator portalEventAccumulator;
+    private IEventAggregationManagementDao eventAggregationManagementDao;
     private IClusterLockService clusterLockService;
     private Map<String, Version> requiredProductVersions = Collections.emptyMap();
     private VersionDao versionDao;
@@ -84,6 +89,17 @@ public class PortalEventProcessingManagerImpl
         this.portalEventAggregator = portalEventAggregator;
     }
 
+    @Autowired
+    public void setPortalEventAccumulator(PortalEventAccumulator portalEventAccumulator) {
+        this.portalEventAccumulator = portalEventAccumulator;
+    }
+
+    @Autowired
+    public void setEventAggregationManagementDao(
+            IEventAggregationManagementDao eventAggregationManagementDao) {
+        this.eventAggregationManagementDao = eventAggregationManagementDao;
+    }
+
     @Autowired
     public void setPortalEventPurger(PortalEventPurger portalEventPurger) {
         this.portalEventPurger = portalEventPurger;
@@ -123,6 +139,14 @@ public class PortalEventProcessingManagerImpl
 
     @Override
     public void destroy() throws Exception {
+        //Aggregate everything accumulated so far, it would otherwise be lost
+        if (!this.shutdown && this.portalEventAccumulator.isEnabled()) {
+            try {
+                this.doAggregateAccumulatedEvents(true);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to aggregate accumulated events during shutdown", e);
+            }
+        }
         this.shutdown = true;
     }
 
@@ -187,6 +211,17 @@ public class PortalEventProcessingManagerImpl
         }
 
         long aggregateLastRunDelay = (long) (this.aggregateRawEventsPeriod * .95);
+        if (this.portalEventAccumulator.isEnabled()) {
+            //Aggregation of accumulated events holds the same lock so the last run of the lock is
+            //not the last run of raw event aggregation, check the aggregation status instead
+            if (this.isRawEventAggregationRecent(aggregateLastRunDelay)) {
+                logger.trace(
+                        "Raw event aggregation last run less than {}ms ago",
+                        aggregateLastRunDelay);
+                return false;
+            }
+            aggregateLastRunDelay = 0;
+        }
         final long aggregateServerBiasDelay = this.aggregateRawEventsPeriod * 4;
         TryLockFunctionResult<EventProcessingResult> result = null;
         EventProcessingResult aggrResult = null;
@@ -293,6 +328,103 @@ public class PortalEventProcessingManagerImpl
                 && aggrResult.isComplete();
     }
 
+    /** @return true if raw event aggregation started or ended within the delay */
+    private boolean isRawEventAggregationRecent(long lastRunDelay) {
+        final IEventAggregatorStatus eventAggregatorStatus =
+                this.eventAggregationManagementDao.getEventAggregatorStatus(
+                        IEventAggregatorStatus.ProcessingType.AGGREGATION, false);
+        if (eventAggregatorStatus == null) {
+            return false;
+        }
+
+        final DateTime nextRunTime = DateTime.now().minus(lastRunDelay);
+        final DateTime lastStart = eventAggregatorStatus.getLastStart();
+        final DateTime lastEnd = eventAggregatorStatus.getLastEnd();
+        return (lastStart != null && lastStart.isAfter(nextRunTime))
+                || (lastEnd != null && lastEnd.isAfter(nextRunTime));
+    }
+
+    @Override
+    public boolean aggregateAccumulatedEvents() {
+        if (shutdown) {
+            logger.warn("aggregateAccumulatedEvents called after shutdown, ignoring call");
+            return false;
+        }
+
+        if (!this.portalEventAccumulator.isEnabled()) {
+            return true;
+        }
+
+        if (!this.checkDatabaseVersion(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME)) {
+            logger.info(
+                    "The database and software versions for "
+                            + BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME
+                            + " do not match. No event aggregation will be done");
+            return false;
+        }
+
+        return this.doAggregateAccumulatedEvents(false);
+    }
+
+    private boolean doAggregateAccumulatedEvents(boolean includeIncomplete) {
+        final List<AccumulatedPortalEvents<PortalEvent>> accumulatedEvents =
+                this.portalEventAccumulator.removeAccumulatedEvents(includeIncomplete);
+        if (accumulatedEvents.isEmpty()) {
+            return true;
+        }
+
+        boolean aggregated = false;
+        try {
+            final long start = System.nanoTime();
+
+            final TryLockFunctionResult<EventProcessingResult> result =
+                    clusterLockService.doInTryLock(
+                            PortalRawEventsAggregator.AGGREGATION_LOCK_NAME,
+                            new Function<ClusterMutex, EventProcessingResult>() {
+                                @Override
+                                public EventProcessingResult apply(final ClusterMutex input) {
+                                    return portalEventAggregator.doAggregateAccumulatedEvents(
+                                            accumulatedEvents);
+                                }
+                            });
+            final EventProcessingResult aggrResult = result.getResult();
+
+            if (result.getLockStatus() == LockStatus.EXECUTED && aggrResult == null) {
+                logger.warn("doAggregateAccumulatedEvents did not execute");
+            } else if (aggrResult != null) {
+                aggregated = true;
+                if (logger.isInfoEnabled()) {
+                    logResult(
+                            "Aggregated {} accumulated events created at {} events/second between {} and {} in {}ms - {} e/s a {}x speedup.",
+                            aggrResult,
+                            start);
+                }
+
+                final Map<Class<?>, Collection<Serializable>> evictedEntities =
+                        evictedEntitiesHolder.get();
+                if (evictedEntities.size() > 0) {
+                    portalEventAggregator.evictAggregates(evictedEntities);
+                }
+            }
+            return aggregated;
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while aggregating accumulated events", e);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (RuntimeException e) {
+            logger.error("aggregateAccumulatedEvents failed", e);
+            throw e;
+        } finally {
+            //Keep the events for the next attempt if they were not aggregated
+            if (!aggregated) {
+                this.portalEventAccumulator.restoreAccumulatedEvents(accumulatedEvents);
+            }
+
+            //Make sure we clean up the thread local
+            evictedEntitiesHolder.remove();
+        }
+    }
+
     @Override
     public boolean purgeRawEvents() {
         if (shutdown) {
@@ -40,6 +40,19 @@ public interface PortalRawEventsAggregator {
      */
     EventProcessingResult doAggregateRawEvents();
 
+    /**
+     * Aggregates events accumulated in memory by a {@link PortalEventAccumulator}. Aggregations are
+     * not closed, that is left to {@link #doCloseAggregations()}. <br>
+     * Note that this method MUST be called while the current thread & JVM owns the {@link
+     * #AGGREGATION_LOCK_NAME} cluster wide lock via the {@link IClusterLockService}
+     *
+     * @return null if aggregation is not attempted due to some dependency being missing
+     * @see AccumulatingPortalEventAggregator#aggregateAccumulatedEvents(AccumulatedPortalEvents,
+     *     org.apereo.portal.events.aggr.session.EventSession, EventAggregationContext, Map)
+     */
+    EventProcessingResult doAggregateAccumulatedEvents(
+            Collection<AccumulatedPortalEvents<PortalEvent>> accumulatedEvents);
+
     /**
      * Close aggregations that were missed when crossing an interval boundary. <br>
      * Note that this method MUST be called while the current thread & JVM owns the {@link
@@ -239,6 +239,52 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
                         });
     }
 
+    @AggrEventsTransactional
+    @Override
+    public EventProcessingResult doAggregateAccumulatedEvents(
+            Collection<AccumulatedPortalEvents<PortalEvent>> accumulatedEvents) {
+        if (!this.prepareAggregation()) {
+            return null;
+        }
+
+        //Only record the server name, the last event date is owned by raw event aggregation
+        final IEventAggregatorStatus eventAggregatorStatus =
+                eventAggregationManagementDao.getEventAggregatorStatus(
+                        IEventAggregatorStatus.ProcessingType.AGGREGATION, true);
+        this.updateServerName(eventAggregatorStatus);
+        eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
+
+        final MutableInt events = new MutableInt();
+        final AggregateEventsHandler aggregateEventsHandler =
+                new AggregateEventsHandler(events, new MutableObject(), eventAggregatorStatus);
+        final DateTime rawAggregatedBefore = eventAggregatorStatus.getLastEventDate();
+        DateTime start = null;
+        DateTime end = null;
+        for (final AccumulatedPortalEvents<PortalEvent> accumulated : accumulatedEvents) {
+            //Raw event aggregation passed the minute before it was flushed, it may be closed
+            if (rawAggregatedBefore != null
+                    && !accumulated.getMinute().plusMinutes(1).isAfter(rawAggregatedBefore)) {
+                logger.warn(
+                        "Raw event aggregation has passed {}, ignoring accumulated events {}",
+                        rawAggregatedBefore,
+                        accumulated);
+                continue;
+            }
+
+            aggregateEventsHandler.doAggregateAccumulatedEvents(accumulated);
+
+            final DateTime eventDate = accumulated.getLastEventDate();
+            if (start == null || eventDate.isBefore(start)) {
+                start = eventDate;
+            }
+            if (end == null || eventDate.isAfter(end)) {
+                end = eventDate;
+            }
+        }
+
+        return new EventProcessingResult(events.intValue(), start, end, true);
+    }
+
     @AggrEventsTransactional
     @Override
     public void evictAggregates(Map<Class<?>, Collection<Serializable>> entitiesToEvict) {
@@ -472,7 +518,13 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
         return collectionRoles;
     }
 
-    private EventProcessingResult doAggregateRawEventsInternal() {
+    /**
+     * Verify the aggregation lock is held and the dimensions exist, then flush any dimension
+     * creation and switch to {@link FlushModeType#COMMIT}
+     *
+     * @return false if aggregation should be aborted
+     */
+    private boolean prepareAggregation() {
         if (!this.clusterLockService.isLockOwner(AGGREGATION_LOCK_NAME)) {
             throw new IllegalStateException(
                     "The cluster lock "
@@ -486,8 +538,8 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
                     this.portalEventAggregationManager.populateDimensions();
             if (!populatedDimensions) {
                 this.logger.warn(
-                        "Aborting raw event aggregation, populateDimensions returned false so the state of date/time dimensions is unknown");
-                return null;
+                        "Aborting event aggregation, populateDimensions returned false so the state of date/time dimensions is unknown");
+                return false;
             }
         }
 
@@ -496,11 +548,14 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
         entityManager.flush();
         entityManager.setFlushMode(FlushModeType.COMMIT);
 
-        final IEventAggregatorStatus eventAggregatorStatus =
-                eventAggregationManagementDao.getEventAggregatorStatus(
-                        IEventAggregatorStatus.ProcessingType.AGGREGATION, true);
+        return true;
+    }
 
-        //Update status with current server name
+    /**
+     * Update the status with the current server name, clearing the aggregation caches if another
+     * server was the last to aggregate
+     */
+    private void updateServerName(IEventAggregatorStatus eventAggregatorStatus) {
         final String serverName = this.portalInfoProvider.getUniqueServerName();
         final String previousServerName = eventAggregatorStatus.getServerName();
         if (previousServerName != null && !serverName.equals(previousServerName)) {
@@ -513,6 +568,19 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
         }
 
         eventAggregatorStatus.setServerName(serverName);
+    }
+
+    private EventProcessingResult doAggregateRawEventsInternal() {
+        if (!this.prepareAggregation()) {
+            return null;
+        }
+
+        final IEventAggregatorStatus eventAggregatorStatus =
+                eventAggregationManagementDao.getEventAggregatorStatus(
+                        IEventAggregatorStatus.ProcessingType.AGGREGATION, true);
+
+        //Update status with current server name
+        this.updateServerName(eventAggregatorStatus);
 
         //Calculate date range for aggregation
         DateTime lastAggregated = eventAggregatorStatus.getLastEventDate();
@@ -686,6 +754,9 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
                                 Map<AggregationInterval, AggregationIntervalInfo>>();
         private final AggregatedGroupConfig defaultAggregatedGroupConfig;
 
+        //Minute of the last accumulated events aggregated, used to track the current intervals
+        private DateTime accumulatedMinute;
+
         private AggregateEventsHandler(
                 MutableInt eventCounter,
                 MutableObject lastEventDate,
@@ -766,6 +837,10 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
                 intervalDate = eventDate;
             }
 
+            setIntervalInfo(intervalDate);
+        }
+
+        private void setIntervalInfo(final DateTime intervalDate) {
             for (final AggregationInterval interval :
                     this.intervalsForAggregatorHelper.getHandledIntervals()) {
                 final AggregationIntervalInfo intervalInfo =
@@ -795,7 +870,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
             logger.trace("Aggregating event {} - {}", eventCounter, item);
 
             //Load or create the event session
-            EventSession eventSession = getEventSession(item);
+            EventSession eventSession = getEventSession(item, item.getTimestampAsDate());
 
             //Give each interval aware aggregator a chance at the event
             for (final IntervalAwarePortalEventAggregator<PortalEvent> portalEventAggregator :
@@ -810,22 +885,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
 
                     //If there is an event session get the aggregator specific version of it
                     if (eventSession != null) {
-                        final AggregatedGroupConfig aggregatorGroupConfig =
-                                getAggregatorGroupConfig(aggregatorType);
-
-                        final CacheKey key =
-                                CacheKey.build(
-                                        EVENT_SESSION_CACHE_KEY_SOURCE,
-                                        eventSession,
-                                        aggregatorGroupConfig);
-                        EventSession filteredEventSession =
-                                this.eventAggregationContext.getAttribute(key);
-                        if (filteredEventSession == null) {
-                            filteredEventSession =
-                                    new FilteredEventSession(eventSession, aggregatorGroupConfig);
-                            this.eventAggregationContext.setAttribute(key, filteredEventSession);
-                        }
-                        eventSession = filteredEventSession;
+                        eventSession = getFilteredEventSession(eventSession, aggregatorType);
                     }
 
                     //Aggregation magic happens here!
@@ -843,6 +903,62 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
             }
         }
 
+        private void doAggregateAccumulatedEvents(
+                AccumulatedPortalEvents<PortalEvent> accumulatedEvents) {
+            checkShutdown();
+
+            eventCounter.add(accumulatedEvents.getCount());
+
+            //Accumulated events are ordered by minute, look up the intervals when the minute changes
+            final DateTime minute = accumulatedEvents.getMinute();
+            if (!minute.equals(this.accumulatedMinute)) {
+                this.accumulatedMinute = minute;
+                setIntervalInfo(minute);
+                this.aggregatorReadOnlyIntervalInfo.clear();
+            }
+
+            final PortalEvent item = accumulatedEvents.getFirstEvent();
+            logger.trace("Aggregating {} accumulated events {}", eventCounter, accumulatedEvents);
+
+            final AccumulatingPortalEventAggregator<PortalEvent> portalEventAggregator =
+                    accumulatedEvents.getAggregator();
+            final Class<? extends IPortalEventAggregator<?>> aggregatorType =
+                    PortalRawEventsAggregatorImpl.this.getClass(portalEventAggregator);
+            final Map<AggregationInterval, AggregationIntervalInfo> aggregatorIntervalInfo =
+                    this.getAggregatorIntervalInfo(aggregatorType);
+
+            EventSession eventSession =
+                    getEventSession(item, accumulatedEvents.getLastEventDate());
+            if (eventSession != null) {
+                eventSession = getFilteredEventSession(eventSession, aggregatorType);
+            }
+
+            portalEventAggregator.aggregateAccumulatedEvents(
+                    accumulatedEvents,
+                    eventSession,
+                    eventAggregationContext,
+                    aggregatorIntervalInfo);
+        }
+
+        /** @return The aggregator specific view of the event session */
+        private EventSession getFilteredEventSession(
+                EventSession eventSession,
+                Class<? extends IPortalEventAggregator<?>> aggregatorType) {
+            final AggregatedGroupConfig aggregatorGroupConfig =
+                    getAggregatorGroupConfig(aggregatorType);
+
+            final CacheKey key =
+                    CacheKey.build(
+                            EVENT_SESSION_CACHE_KEY_SOURCE, eventSession, aggregatorGroupConfig);
+            EventSession filteredEventSession = this.eventAggregationContext.getAttribute(key);
+            if (filteredEventSession == null) {
+                filteredEventSession =
+                        new FilteredEventSession(eventSession, aggregatorGroupConfig);
+                this.eventAggregationContext.setAttribute(key, filteredEventSession);
+            }
+            return filteredEventSession;
+        }
+
         /**
          * @deprecated This method exists until uPortal 4.1 when
          *     IPortalEventAggregator#supports(Class) can be deleted
@@ -857,7 +973,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
             }
         }
 
-        protected EventSession getEventSession(PortalEvent item) {
+        protected EventSession getEventSession(PortalEvent item, DateTime accessDate) {
             final String eventSessionId = item.getEventSessionId();
 
             //First check the aggregation context for a cached session event, fall back
@@ -870,7 +986,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
             }
 
             //Record the session access
-            eventSession.recordAccess(item.getTimestampAsDate());
+            eventSession.recordAccess(accessDate);
             eventSessionDao.storeEventSession(eventSession);
 
             return eventSession;
@@ -27,6 +27,7 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.OneToMany;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
@@ -44,6 +45,12 @@ import org.slf4j.LoggerFactory;
  * that needs to maintain a set of unique strings over time can add a new {@link UniqueStrings} in
  * each jpa session. This will result in the set of UniqueStringsSegments being reloaded for the
  * parent entity but the contents of each UniqueStringsSegment will not need to be modified.
+ *
+ * <p>Strings are tracked exactly until more than {@link #EXACT_STRING_LIMIT} have been added, after
+ * that the segments are replaced by a fixed size {@link HyperLogLog} sketch and {@link #size()}
+ * becomes an estimate. This bounds the memory and database space used for large intervals no
+ * matter how many distinct strings are seen. The sketch is updated in place, Hibernate compares
+ * byte array columns by value against the state it loaded so a changed sketch is still written.
  */
 @Entity
 @Table(name = "UP_UNIQUE_STR")
@@ -67,6 +74,12 @@ public final class UniqueStrings {
 
     private static final int SMALL_SEGMENT_THRESHOLD = 10;
 
+    /** Number of distinct strings tracked exactly before switching to a sketch */
+    static final int EXACT_STRING_LIMIT = 1000;
+
+    /** 4096 registers, a 4KB sketch with a standard error of about 1.6% */
+    static final int SKETCH_PRECISION = 12;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(UniqueStrings.class);
 
     @Id
@@ -80,13 +93,64 @@ public final class UniqueStrings {
     @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<UniqueStringsSegment> uniqueStringSegments = new HashSet<UniqueStringsSegment>(0);
 
+    @Lob
+    @Column(name = "SKETCH")
+    private byte[] sketch;
+
     @Transient private UniqueStringsSegment currentUniqueUsernamesSegment;
 
+    @Transient private HyperLogLog hyperLogLog;
+
     public UniqueStrings() {
         this.id = -1;
     }
 
+    /** @return true if the strings are tracked exactly, false if {@link #size()} is an estimate */
+    public boolean isExact() {
+        return this.sketch == null;
+    }
+
+    /** @return The number of distinct strings added, estimated once the set is no longer exact */
+    public int size() {
+        if (this.sketch != null) {
+            return (int) this.getHyperLogLog().cardinality();
+        }
+
+        int size = 0;
+        for (final UniqueStringsSegment uniqueStringsSegment : this.uniqueStringSegments) {
+            size += uniqueStringsSegment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Add all of the strings from another set, used to combine sets from different intervals or
+     * nodes.
+     *
+     * @return true if this set changed
+     */
+    public boolean addAll(UniqueStrings other) {
+        if (other.sketch == null) {
+            boolean changed = false;
+            for (final UniqueStringsSegment uniqueStringsSegment : other.uniqueStringSegments) {
+                for (final String e : uniqueStringsSegment.getUniqueStrings()) {
+                    changed = this.add(e) || changed;
+                }
+            }
+            return changed;
+        }
+
+        if (this.sketch == null) {
+            this.convertToSketch();
+        }
+        return this.getHyperLogLog().merge(other.getHyperLogLog());
+    }
+
     public boolean add(String e) {
+        if (this.sketch != null) {
+            return this.getHyperLogLog().add(e);
+        }
+
         int stringCount = 0;
         int smallSegments = 0;
         //Check if the username exists in any segment
@@ -101,6 +165,12 @@ public final class UniqueStrings {
             }
         }
 
+        //Too many strings to track exactly, switch to the sketch
+        if (stringCount >= EXACT_STRING_LIMIT) {
+            this.convertToSketch();
+            return this.add(e);
+        }
+
         //Make sure a current segment exists
         if (this.currentUniqueUsernamesSegment == null) {
             final int segmentCount = this.uniqueStringSegments.size();
@@ -155,6 +225,33 @@ public final class UniqueStrings {
         return this.currentUniqueUsernamesSegment.add(e);
     }
 
+    private HyperLogLog getHyperLogLog() {
+        //Also covers the sketch being replaced when the entity is refreshed
+        if (this.hyperLogLog == null || !this.hyperLogLog.wraps(this.sketch)) {
+            this.hyperLogLog = HyperLogLog.wrap(this.sketch);
+        }
+        return this.hyperLogLog;
+    }
+
+    private void convertToSketch() {
+        this.sketch = new HyperLogLog(SKETCH_PRECISION).toBytes();
+        final HyperLogLog hyperLogLog = this.getHyperLogLog();
+        int stringCount = 0;
+        for (final UniqueStringsSegment uniqueStringsSegment : this.uniqueStringSegments) {
+            for (final String s : uniqueStringsSegment.getUniqueStrings()) {
+                hyperLogLog.add(s);
+            }
+            stringCount += uniqueStringsSegment.size();
+        }
+        LOGGER.debug(
+                "Converting {} segments with {} strings into a sketch",
+                this.uniqueStringSegments.size(),
+                stringCount);
+
+        this.uniqueStringSegments.clear();
+        this.currentUniqueUsernamesSegment = null;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -177,6 +274,12 @@ public final class UniqueStrings {
 
     @Override
     public String toString() {
-        return "UniqueStrings [id=" + id + ", size=" + uniqueStringSegments.size() + "]";
+        return "UniqueStrings [id="
+                + id
+                + ", size="
+                + uniqueStringSegments.size()
+                + ", exact="
+                + isExact()
+                + "]";
     }
 }
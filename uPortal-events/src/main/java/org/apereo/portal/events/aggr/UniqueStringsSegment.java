@@ -15,6 +15,7 @@
 package org.apereo.portal.events.aggr;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import javax.persistence.Cacheable;
@@ -109,6 +110,11 @@ public final class UniqueStringsSegment {
         return uniqueStrings.add(e);
     }
 
+    /** @return Read only view of the strings in the segment */
+    public Set<String> getUniqueStrings() {
+        return Collections.unmodifiableSet(uniqueStrings);
+    }
+
     public boolean addAll(UniqueStringsSegment s) {
         return uniqueStrings.addAll(s.uniqueStrings);
     }
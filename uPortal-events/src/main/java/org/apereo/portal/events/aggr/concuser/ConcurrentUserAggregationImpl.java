@@ -175,7 +175,8 @@ public final class ConcurrentUserAggregationImpl
         }
 
         if (this.uniqueStrings.add(eventSessionId)) {
-            this.concurrentUsers++;
+            //Size is an estimate once the set is large, never let the count go backwards
+            this.concurrentUsers = Math.max(this.concurrentUsers, this.uniqueStrings.size());
         }
     }
 
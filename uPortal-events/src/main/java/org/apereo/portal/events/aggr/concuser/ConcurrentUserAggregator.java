@@ -14,11 +14,13 @@
  */
 package org.apereo.portal.events.aggr.concuser;
 
+import java.io.Serializable;
 import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.aggr.AccumulatedPortalEvents;
 import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.AggregationIntervalInfo;
+import org.apereo.portal.events.aggr.BaseAccumulatingPortalEventAggregator;
 import org.apereo.portal.events.aggr.BaseAggregationPrivateDao;
-import org.apereo.portal.events.aggr.BaseIntervalAwarePortalEventAggregator;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
@@ -30,7 +32,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  * user data
  */
 public class ConcurrentUserAggregator
-        extends BaseIntervalAwarePortalEventAggregator<
+        extends BaseAccumulatingPortalEventAggregator<
                 PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
 
@@ -63,6 +65,27 @@ public class ConcurrentUserAggregator
         aggregation.countSession(eventSessionId);
     }
 
+    @Override
+    public Serializable getAccumulationKey(PortalEvent e) {
+        //Only the event session is counted, all of its events in a minute are equivalent
+        return null;
+    }
+
+    @Override
+    public double getAccumulatedValue(PortalEvent e) {
+        return 0;
+    }
+
+    @Override
+    protected void updateAccumulatedAggregation(
+            AccumulatedPortalEvents<PortalEvent> accumulatedEvents,
+            EventAggregationContext eventAggregationContext,
+            AggregationIntervalInfo intervalInfo,
+            ConcurrentUserAggregationImpl aggregation) {
+        this.updateDuration(accumulatedEvents, intervalInfo, aggregation);
+        aggregation.countSession(accumulatedEvents.getFirstEvent().getEventSessionId());
+    }
+
     @Override
     protected ConcurrentUserAggregationKey createAggregationKey(
             PortalEvent e,
@@ -178,7 +178,7 @@ public final class LoginAggregationImpl
         }
 
         if (this.uniqueStrings.add(userName)) {
-            this.uniqueLoginCount++;
+            this.uniqueLoginCount = Math.max(this.uniqueLoginCount, this.uniqueStrings.size());
         }
         this.loginCount++;
     }
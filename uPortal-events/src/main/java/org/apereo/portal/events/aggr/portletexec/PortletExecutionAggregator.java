@@ -14,14 +14,16 @@
  */
 package org.apereo.portal.events.aggr.portletexec;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import org.apereo.portal.events.PortalEvent;
 import org.apereo.portal.events.PortletExecutionEvent;
+import org.apereo.portal.events.aggr.AccumulatedPortalEvents;
 import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.AggregationIntervalInfo;
+import org.apereo.portal.events.aggr.BaseAccumulatingPortalEventAggregator;
 import org.apereo.portal.events.aggr.BaseAggregationPrivateDao;
-import org.apereo.portal.events.aggr.BaseIntervalAwarePortalEventAggregator;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
@@ -36,7 +38,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  * executions
  */
 public class PortletExecutionAggregator
-        extends BaseIntervalAwarePortalEventAggregator<
+        extends BaseAccumulatingPortalEventAggregator<
                 PortletExecutionEvent, PortletExecutionAggregationImpl,
                 PortletExecutionAggregationKey> {
     private static final String MAPPED_PORTLETS_CACHE_KEY =
@@ -92,6 +94,28 @@ public class PortletExecutionAggregator
         aggregation.addValue(executionTime);
     }
 
+    @Override
+    public Serializable getAccumulationKey(PortletExecutionEvent e) {
+        return e.getFname();
+    }
+
+    @Override
+    public double getAccumulatedValue(PortletExecutionEvent e) {
+        return e.getExecutionTimeNano();
+    }
+
+    @Override
+    protected void updateAccumulatedAggregation(
+            AccumulatedPortalEvents<PortletExecutionEvent> accumulatedEvents,
+            EventAggregationContext eventAggregationContext,
+            AggregationIntervalInfo intervalInfo,
+            PortletExecutionAggregationImpl aggregation) {
+        this.updateDuration(accumulatedEvents, intervalInfo, aggregation);
+        for (int i = 0; i < accumulatedEvents.getCount(); i++) {
+            aggregation.addValue(accumulatedEvents.getValue(i));
+        }
+    }
+
     @Override
     protected PortletExecutionAggregationKey createAggregationKey(
             PortletExecutionEvent e,
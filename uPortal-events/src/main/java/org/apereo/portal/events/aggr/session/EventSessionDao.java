@@ -31,6 +31,14 @@ public interface EventSessionDao {
      */
     EventSession getEventSession(PortalEvent event);
 
+    /**
+     * Find the {@link EventSession} for the event, does not create it.
+     *
+     * @param event The event to find the session for
+     * @return The event session, null if it has not been created yet
+     */
+    EventSession findEventSession(PortalEvent event);
+
     /**
      * @param eventSessionId The id of the session to delete, see {@link
      *     PortalEvent#getEventSessionId()}
@@ -142,21 +142,10 @@ public class JpaEventSessionDao extends BaseAggrEventsJpaDao implements EventSes
     @AggrEventsTransactional
     @Override
     public EventSession getEventSession(PortalEvent event) {
-        final String eventSessionId = event.getEventSessionId();
-
-        final CacheKey key = CacheKey.build(EVENT_SESSION_CACHE_SOURCE, eventSessionId);
-        EventSessionImpl eventSession =
-                this.entityManagerCache.get(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, key);
-        if (eventSession != null) {
-            return eventSession;
-        }
-
-        final NaturalIdQuery<EventSessionImpl> naturalIdQuery =
-                this.createNaturalIdQuery(EventSessionImpl.class);
-        naturalIdQuery.using(EventSessionImpl_.eventSessionId, eventSessionId);
-
-        eventSession = naturalIdQuery.load();
+        EventSession eventSession = this.findEventSession(event);
         if (eventSession == null) {
+            final String eventSessionId = event.getEventSessionId();
+
             //No event session, somehow we missed the login event. Look at the groups the user is currently a member of
             final Set<AggregatedGroupMapping> groupMappings = this.getGroupsForEvent(event);
 
@@ -165,12 +154,32 @@ public class JpaEventSessionDao extends BaseAggrEventsJpaDao implements EventSes
 
             this.getEntityManager().persist(eventSession);
             this.entityManagerCache.put(
-                    BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, key, eventSession);
+                    BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME,
+                    CacheKey.build(EVENT_SESSION_CACHE_SOURCE, eventSessionId),
+                    eventSession);
         }
 
         return eventSession;
     }
 
+    @AggrEventsTransactional
+    @Override
+    public EventSession findEventSession(PortalEvent event) {
+        final String eventSessionId = event.getEventSessionId();
+
+        final CacheKey key = CacheKey.build(EVENT_SESSION_CACHE_SOURCE, eventSessionId);
+        final EventSessionImpl eventSession =
+                this.entityManagerCache.get(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, key);
+        if (eventSession != null) {
+            return eventSession;
+        }
+
+        final NaturalIdQuery<EventSessionImpl> naturalIdQuery =
+                this.createNaturalIdQuery(EventSessionImpl.class);
+        naturalIdQuery.using(EventSessionImpl_.eventSessionId, eventSessionId);
+        return naturalIdQuery.load();
+    }
+
     @AggrEventsTransactional
     @Override
     public void deleteEventSession(String eventSessionId) {
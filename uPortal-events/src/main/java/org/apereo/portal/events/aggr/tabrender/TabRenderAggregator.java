@@ -14,14 +14,16 @@
  */
 package org.apereo.portal.events.aggr.tabrender;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import org.apereo.portal.events.PortalEvent;
 import org.apereo.portal.events.PortalRenderEvent;
+import org.apereo.portal.events.aggr.AccumulatedPortalEvents;
 import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.AggregationIntervalInfo;
+import org.apereo.portal.events.aggr.BaseAccumulatingPortalEventAggregator;
 import org.apereo.portal.events.aggr.BaseAggregationPrivateDao;
-import org.apereo.portal.events.aggr.BaseIntervalAwarePortalEventAggregator;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
@@ -32,7 +34,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 /** Event aggregator that uses {@link TabRenderAggregationPrivateDao} to aggregate tab renders */
 public class TabRenderAggregator
-        extends BaseIntervalAwarePortalEventAggregator<
+        extends BaseAccumulatingPortalEventAggregator<
                 PortalRenderEvent, TabRenderAggregationImpl, TabRenderAggregationKey> {
     private static final String MAPPED_TABS_CACHE_KEY =
             TabRenderAggregator.class.getName() + "_MAPPED_TABS";
@@ -73,6 +75,28 @@ public class TabRenderAggregator
         aggregation.addValue(executionTime);
     }
 
+    @Override
+    public Serializable getAccumulationKey(PortalRenderEvent e) {
+        return e.getTargetedLayoutNodeId();
+    }
+
+    @Override
+    public double getAccumulatedValue(PortalRenderEvent e) {
+        return e.getExecutionTimeNano();
+    }
+
+    @Override
+    protected void updateAccumulatedAggregation(
+            AccumulatedPortalEvents<PortalRenderEvent> accumulatedEvents,
+            EventAggregationContext eventAggregationContext,
+            AggregationIntervalInfo intervalInfo,
+            TabRenderAggregationImpl aggregation) {
+        this.updateDuration(accumulatedEvents, intervalInfo, aggregation);
+        for (int i = 0; i < accumulatedEvents.getCount(); i++) {
+            aggregation.addValue(accumulatedEvents.getValue(i));
+        }
+    }
+
     @Override
     protected TabRenderAggregationKey createAggregationKey(
             PortalRenderEvent e,
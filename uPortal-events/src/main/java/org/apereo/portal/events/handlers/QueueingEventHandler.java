@@ -14,43 +14,140 @@
  */
 package org.apereo.portal.events.handlers;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
 import org.apereo.portal.spring.context.FilteringApplicationListener;
+import org.apereo.portal.utils.ConcurrentMapUtils;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationEvent;
 
 /**
- * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the
- * configured {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used
- * with some external timer that will call {@link #flush()} at regular intervals
+ * Queues PortalEvents in bounded, per priority queues and flushes them in the order they arrived
+ * to the configured {@link BatchingEventHandler} when {@link #flush()} is called. This class must
+ * be used with some external timer that will call {@link #flush()} at regular intervals
+ *
+ * <p>If events arrive faster than they can be flushed, for example while the database is
+ * unavailable, the queue fills up and the configured {@link OverflowPolicy} decides what happens
+ * to the next event. The queue never grows past {@link #setMaxQueueSize(int)} events.
  */
 public abstract class QueueingEventHandler<E extends ApplicationEvent>
-        extends FilteringApplicationListener<E> implements DisposableBean {
+        extends FilteringApplicationListener<E>
+        implements DisposableBean, QueueingEventHandlerMXBean {
+
+    /** What to do with an event that arrives when the queue is full */
+    public enum OverflowPolicy {
+        /** Discard the oldest queued events to make room for the new event */
+        DROP_OLDEST,
+        /**
+         * Discard the oldest queued event of the lowest priority that is lower than the new
+         * event's priority, see {@link QueueingEventHandler#getEventPriority(ApplicationEvent)}. If
+         * no queued event has a lower priority the new event is discarded.
+         */
+        DROP_BY_PRIORITY,
+        /**
+         * Append the new event to the spill file, spilled events are replayed by {@link
+         * QueueingEventHandler#flush()} once queued events are flushed successfully. Falls back to
+         * {@link #DROP_OLDEST} if the event can't be written to the spill file.
+         */
+        SPILL_TO_FILE
+    }
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 100000;
 
-    private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
     private final Lock flushLock = new ReentrantLock();
+    private final Object overflowLock = new Object();
+    private final Object spillLock = new Object();
+    //Queued events keyed by priority, every event has priority 0 unless the overflow policy is
+    //DROP_BY_PRIORITY. Each queue is FIFO, the sequence number orders events across queues.
+    private final ConcurrentNavigableMap<Integer, Queue<QueuedEvent<E>>> eventQueues =
+            new ConcurrentSkipListMap<Integer, Queue<QueuedEvent<E>>>();
+    private final AtomicInteger queuedEventCount = new AtomicInteger();
+    private final AtomicLong queuedEventSequence = new AtomicLong();
+    private volatile int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
     private int batchSize = 25;
 
     //Used to hold events to flush, MUST only be read/written from within the flushLock
     private List<E> eventBuffer = new ArrayList<E>(this.batchSize);
 
+    private File spillFile;
+    //Open append writer for the spill file, MUST only be used from within the spillLock
+    private Writer spillWriter;
+    //Lines of the replay file already flushed, MUST only be used from within the flushLock
+    private long replayedLines = 0;
+
+    private final AtomicLong droppedEventCount = new AtomicLong();
+    private final AtomicLong spilledEventCount = new AtomicLong();
+    private final AtomicLong replayedEventCount = new AtomicLong();
+    //Flush stats, only written from within the flushLock
+    private volatile long flushedEventCount;
+    private volatile long flushedBatchCount;
+    private volatile long failedBatchCount;
+    private volatile long totalFlushNanos;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
     /** The maximum number of events to be flushed to the {@link BatchingEventHandler} per call. */
     public void setBatchSize(int batchSize) {
         this.batchSize = batchSize;
         eventBuffer = new ArrayList<E>(this.batchSize);
     }
 
+    /**
+     * The maximum number of events held in memory waiting to be flushed, defaults to {@value
+     * #DEFAULT_MAX_QUEUE_SIZE}.
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        Validate.isTrue(maxQueueSize > 0, "maxQueueSize must be greater than 0");
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /** What to do with new events when the queue is full, defaults to {@code DROP_OLDEST} */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Local file events are appended to when the queue is full and the overflow policy is {@code
+     * SPILL_TO_FILE}. A spill file left over from a previous run is replayed on the first
+     * successful flush.
+     */
+    public void setSpillFile(File spillFile) {
+        this.spillFile = spillFile;
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
     @Override
     public final void destroy() throws Exception {
-        this.flush();
+        try {
+            this.flush();
+        } finally {
+            synchronized (this.spillLock) {
+                this.closeSpillWriter();
+            }
+        }
     }
 
     /* (non-Javadoc)
@@ -58,7 +155,34 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
-        this.eventQueue.offer(event);
+        final int priority =
+                this.overflowPolicy == OverflowPolicy.DROP_BY_PRIORITY
+                        ? this.getEventPriority(event)
+                        : 0;
+        final QueuedEvent<E> queuedEvent =
+                new QueuedEvent<E>(this.queuedEventSequence.getAndIncrement(), event);
+        if (this.offer(priority, queuedEvent)) {
+            return;
+        }
+
+        switch (this.overflowPolicy) {
+            case SPILL_TO_FILE:
+                {
+                    if (this.spillEvent(event)) {
+                        return;
+                    }
+                    break;
+                }
+            case DROP_BY_PRIORITY:
+                {
+                    this.offerByPriority(priority, queuedEvent);
+                    return;
+                }
+            default:
+                break;
+        }
+
+        this.offerDroppingOldest(priority, queuedEvent);
     }
 
     /**
@@ -69,6 +193,23 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     protected abstract void onApplicationEvents(Iterable<E> events);
 
+    /**
+     * Priority of the event used by the {@code DROP_BY_PRIORITY} overflow policy, events with
+     * lower values are discarded first. Returns 0 by default.
+     */
+    protected int getEventPriority(E event) {
+        return 0;
+    }
+
+    /**
+     * Serialize the event to a single line of text for the {@code SPILL_TO_FILE} overflow policy,
+     * the line must not contain line breaks.
+     */
+    protected abstract String serializeEvent(E event);
+
+    /** Read an event written by {@link #serializeEvent(ApplicationEvent)} */
+    protected abstract E deserializeEvent(String data);
+
     /**
      * Flushes the queued PortalEvents to the configured {@link BatchingEventHandler}. If <code>
      * force</code> is false flushing only happens if there are enough events in the queue and a
@@ -80,7 +221,7 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      *     fewer than <code>flushCount</code> PortalEvents in the queue.
      */
     public final void flush() {
-        if (eventQueue.isEmpty()) {
+        if (this.queuedEventCount.get() == 0 && !this.hasSpilledEvents()) {
             //No events to flush
             logger.trace("No events to flush, returning.");
             return;
@@ -93,56 +234,398 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             return;
         }
         try {
-            while (!this.eventQueue.isEmpty()) {
+            boolean failed = false;
+            while (true) {
                 //Clear the buffer for re-use
                 eventBuffer.clear();
 
-                //Pop events off the queue into the buffer
-                while (!this.eventQueue.isEmpty() && eventBuffer.size() < this.batchSize) {
-                    final E event = eventQueue.poll();
-                    eventBuffer.add(event);
+                //Pop events off the queues into the buffer
+                this.drainTo(eventBuffer, this.batchSize);
+                if (eventBuffer.isEmpty()) {
+                    break;
                 }
 
-                if (this.logger.isDebugEnabled()) {
-                    this.logger.debug("Flushing " + eventBuffer.size() + " events");
+                if (!this.flushBuffer()) {
+                    failed = true;
                 }
+            }
+
+            //Only replay spilled events once events are being handled successfully again
+            if (!failed && this.hasSpilledEvents()) {
+                this.replaySpilledEvents();
+            }
+        } finally {
+            //Clear the buffer to avoid memory leaks
+            eventBuffer.clear();
+
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Hands the contents of the event buffer to {@link #onApplicationEvents(Iterable)}, MUST be
+     * called from within the flushLock
+     *
+     * @return false if handling the events failed
+     */
+    private boolean flushBuffer() {
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Flushing " + eventBuffer.size() + " events");
+        }
+
+        //Write events out to batching listener
+        final long start = System.nanoTime();
+        try {
+            this.onApplicationEvents(eventBuffer);
+            this.flushedEventCount += eventBuffer.size();
+            return true;
+        } catch (Throwable t) {
+            this.failedBatchCount++;
+            this.logger.error(
+                    "An exception was thrown while trying to flush "
+                            + eventBuffer.size()
+                            + " events",
+                    t);
+
+            final StringBuilder failedEvents = new StringBuilder();
+            failedEvents.append(
+                    "The following events that were being flushed, some may have been persisted correctly");
 
-                //Write events out to batching listener
+            for (final E portalEvent : eventBuffer) {
+                failedEvents.append("\n\t");
                 try {
-                    this.onApplicationEvents(eventBuffer);
-                } catch (Throwable t) {
-                    this.logger.error(
-                            "An exception was thrown while trying to flush "
-                                    + eventBuffer.size()
-                                    + " events",
-                            t);
-
-                    final StringBuilder failedEvents = new StringBuilder();
-                    failedEvents.append(
-                            "The following events that were being flushed, some may have been persisted correctly");
-
-                    for (final E portalEvent : eventBuffer) {
-                        failedEvents.append("\n\t");
-                        try {
-                            failedEvents.append(portalEvent.toString());
-                        } catch (Exception e) {
-                            failedEvents
-                                    .append("toString failed on a PortalEvent of type '")
-                                    .append(portalEvent.getClass())
-                                    .append("': ")
-                                    .append(e);
-                        }
+                    failedEvents.append(portalEvent.toString());
+                } catch (Exception e) {
+                    failedEvents
+                            .append("toString failed on a PortalEvent of type '")
+                            .append(portalEvent.getClass())
+                            .append("': ")
+                            .append(e);
+                }
+            }
+
+            this.logger.error(failedEvents.toString(), t);
+            return false;
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            this.flushedBatchCount++;
+            this.totalFlushNanos += nanos;
+            this.lastFlushNanos = nanos;
+            if (nanos > this.maxFlushNanos) {
+                this.maxFlushNanos = nanos;
+            }
+        }
+    }
+
+    /** @return true if the queue had room for the event */
+    private boolean offer(int priority, QueuedEvent<E> queuedEvent) {
+        //Reserve room for the event before queueing it so the queues never exceed the max size
+        if (this.queuedEventCount.incrementAndGet() > this.maxQueueSize) {
+            this.queuedEventCount.decrementAndGet();
+            return false;
+        }
+
+        Queue<QueuedEvent<E>> queue = this.eventQueues.get(priority);
+        if (queue == null) {
+            final Queue<QueuedEvent<E>> newQueue = new ConcurrentLinkedQueue<QueuedEvent<E>>();
+            queue = ConcurrentMapUtils.putIfAbsent(this.eventQueues, priority, newQueue);
+        }
+        queue.offer(queuedEvent);
+        return true;
+    }
+
+    /** @return The oldest event in the queue, null if the queue is empty */
+    private QueuedEvent<E> poll(Queue<QueuedEvent<E>> queue) {
+        final QueuedEvent<E> queuedEvent = queue.poll();
+        if (queuedEvent != null) {
+            this.queuedEventCount.decrementAndGet();
+        }
+        return queuedEvent;
+    }
+
+    /** @return The oldest event across all priorities, null if no events are queued */
+    private QueuedEvent<E> pollOldest() {
+        Queue<QueuedEvent<E>> oldestQueue = null;
+        long oldestSequence = Long.MAX_VALUE;
+        for (final Queue<QueuedEvent<E>> queue : this.eventQueues.values()) {
+            final QueuedEvent<E> head = queue.peek();
+            if (head != null && head.sequence < oldestSequence) {
+                oldestQueue = queue;
+                oldestSequence = head.sequence;
+            }
+        }
+
+        if (oldestQueue == null) {
+            return null;
+        }
+        return this.poll(oldestQueue);
+    }
+
+    /** Moves up to maxEvents queued events into the buffer, oldest first */
+    private void drainTo(List<E> buffer, int maxEvents) {
+        while (buffer.size() < maxEvents) {
+            final QueuedEvent<E> queuedEvent = this.pollOldest();
+            if (queuedEvent == null) {
+                return;
+            }
+            buffer.add(queuedEvent.event);
+        }
+    }
+
+    /**
+     * Remove the oldest queued events until the new event fits, the new event is dropped if there
+     * is nothing left to remove
+     */
+    private void offerDroppingOldest(int priority, QueuedEvent<E> queuedEvent) {
+        do {
+            //Other threads took the room that was made, drop the new event instead of spinning
+            if (this.pollOldest() == null) {
+                this.eventDropped();
+                return;
+            }
+            this.eventDropped();
+        } while (!this.offer(priority, queuedEvent));
+    }
+
+    /**
+     * Discards the oldest queued event with the lowest priority that is lower than the priority of
+     * the new event, otherwise discards the new event. Only the queues of lower priorities are
+     * looked at, the queued events themselves are never scanned.
+     */
+    private void offerByPriority(int priority, QueuedEvent<E> queuedEvent) {
+        synchronized (this.overflowLock) {
+            //Another thread may have made room already
+            while (!this.offer(priority, queuedEvent)) {
+                QueuedEvent<E> droppedEvent = null;
+                for (final Queue<QueuedEvent<E>> queue :
+                        this.eventQueues.headMap(priority, false).values()) {
+                    droppedEvent = this.poll(queue);
+                    if (droppedEvent != null) {
+                        break;
                     }
+                }
+
+                //Either a lower priority event or the new event is dropped
+                this.eventDropped();
+                if (droppedEvent == null) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void eventDropped() {
+        //Log the first drop and then every 1000th to avoid flooding the log while the queue is full
+        if (this.droppedEventCount.getAndIncrement() % 1000 == 0) {
+            this.logger.warn(
+                    "Event queue is full with {} events, {} events have been dropped so far. Events are not being flushed fast enough.",
+                    this.maxQueueSize,
+                    this.droppedEventCount.get());
+        }
+    }
+
+    /** @return true if the event was appended to the spill file */
+    private boolean spillEvent(E event) {
+        if (this.spillFile == null) {
+            return false;
+        }
+
+        final String data;
+        try {
+            data = this.serializeEvent(event);
+        } catch (RuntimeException e) {
+            this.logger.warn("Failed to serialize event for spill file, it will be dropped", e);
+            return false;
+        }
 
-                    this.logger.error(failedEvents.toString(), t);
+        synchronized (this.spillLock) {
+            try {
+                if (this.spillWriter == null) {
+                    this.spillWriter =
+                            new BufferedWriter(
+                                    new OutputStreamWriter(
+                                            new FileOutputStream(this.spillFile, true),
+                                            StandardCharsets.UTF_8));
+                    this.logger.warn(
+                            "Event queue is full with {} events, spilling events to {}",
+                            this.maxQueueSize,
+                            this.spillFile);
                 }
+                this.spillWriter.write(data);
+                this.spillWriter.write('\n');
+                this.spillWriter.flush();
+            } catch (IOException e) {
+                this.logger.warn("Failed to write event to spill file " + this.spillFile, e);
+                this.closeSpillWriter();
+                return false;
             }
+        }
+
+        this.spilledEventCount.incrementAndGet();
+        return true;
+    }
+
+    /** MUST be called from within the spillLock */
+    private void closeSpillWriter() {
+        IOUtils.closeQuietly(this.spillWriter);
+        this.spillWriter = null;
+    }
+
+    private File getReplayFile() {
+        return new File(this.spillFile.getPath() + ".replay");
+    }
 
+    private boolean hasSpilledEvents() {
+        return this.spillFile != null && (this.spillFile.exists() || this.getReplayFile().exists());
+    }
+
+    /**
+     * Moves the spill file aside and flushes the events in it. If flushing fails the replay file
+     * is kept, and the next replay resumes after the last successfully flushed batch. MUST be
+     * called from within the flushLock.
+     */
+    private void replaySpilledEvents() {
+        final File replayFile = this.getReplayFile();
+        if (!replayFile.exists()) {
+            synchronized (this.spillLock) {
+                this.closeSpillWriter();
+                if (!this.spillFile.renameTo(replayFile)) {
+                    this.logger.warn(
+                            "Failed to rename spill file {} to {}, spilled events will not be replayed",
+                            this.spillFile,
+                            replayFile);
+                    return;
+                }
+            }
+            this.replayedLines = 0;
+        }
+
+        eventBuffer.clear();
+        BufferedReader reader = null;
+        try {
+            reader =
+                    new BufferedReader(
+                            new InputStreamReader(
+                                    new FileInputStream(replayFile), StandardCharsets.UTF_8));
+            for (long skip = 0; skip < this.replayedLines; skip++) {
+                reader.readLine();
+            }
+
+            this.logger.info("Replaying spilled events from {}", replayFile);
+            long batchLines = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                batchLines++;
+                if (line.length() > 0) {
+                    try {
+                        eventBuffer.add(this.deserializeEvent(line));
+                    } catch (RuntimeException e) {
+                        this.logger.warn("Failed to read spilled event, it will be skipped", e);
+                    }
+                }
+
+                if (eventBuffer.size() >= this.batchSize) {
+                    if (!this.flushReplayBuffer(batchLines)) {
+                        return;
+                    }
+                    batchLines = 0;
+                }
+            }
+            if (!this.flushReplayBuffer(batchLines)) {
+                return;
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to read spill file " + replayFile, e);
+            return;
         } finally {
-            //Clear the buffer to avoid memory leaks
             eventBuffer.clear();
+            IOUtils.closeQuietly(reader);
+        }
 
-            this.flushLock.unlock();
+        if (!replayFile.delete()) {
+            this.logger.warn("Failed to delete replayed spill file {}", replayFile);
+        }
+        this.replayedLines = 0;
+    }
+
+    /** @return false if flushing the replayed events failed */
+    private boolean flushReplayBuffer(long batchLines) {
+        final int eventCount = eventBuffer.size();
+        if (eventCount > 0 && !this.flushBuffer()) {
+            return false;
+        }
+        eventBuffer.clear();
+        this.replayedLines += batchLines;
+        this.replayedEventCount.addAndGet(eventCount);
+        return true;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.queuedEventCount.get();
+    }
+
+    @Override
+    public int getMaxQueueSize() {
+        return this.maxQueueSize;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return this.overflowPolicy.name();
+    }
+
+    @Override
+    public long getDroppedEventCount() {
+        return this.droppedEventCount.get();
+    }
+
+    @Override
+    public long getSpilledEventCount() {
+        return this.spilledEventCount.get();
+    }
+
+    @Override
+    public long getReplayedEventCount() {
+        return this.replayedEventCount.get();
+    }
+
+    @Override
+    public long getFlushedEventCount() {
+        return this.flushedEventCount;
+    }
+
+    @Override
+    public long getFailedBatchCount() {
+        return this.failedBatchCount;
+    }
+
+    @Override
+    public double getLastFlushTime() {
+        return this.lastFlushNanos / 1000000d;
+    }
+
+    @Override
+    public double getAverageFlushTime() {
+        final long batches = this.flushedBatchCount;
+        if (batches == 0) {
+            return 0;
+        }
+        return this.totalFlushNanos / 1000000d / batches;
+    }
+
+    @Override
+    public double getMaxFlushTime() {
+        return this.maxFlushNanos / 1000000d;
+    }
+
+    private static final class QueuedEvent<E> {
+        private final long sequence;
+        private final E event;
+
+        QueuedEvent(long sequence, E event) {
+            this.sequence = sequence;
+            this.event = event;
         }
     }
 }
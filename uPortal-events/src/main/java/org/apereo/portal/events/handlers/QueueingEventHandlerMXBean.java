@@ -0,0 +1,52 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+/** JMX stats for the event queue of a {@link QueueingEventHandler} */
+public interface QueueingEventHandlerMXBean {
+
+    /** @return Number of events currently waiting to be flushed */
+    int getQueueDepth();
+
+    /** @return Maximum number of events held in memory before the overflow policy is applied */
+    int getMaxQueueSize();
+
+    /** @return Name of the policy applied when an event is queued and the queue is full */
+    String getOverflowPolicy();
+
+    /** @return Total number of events discarded because the queue was full */
+    long getDroppedEventCount();
+
+    /** @return Total number of events written to the spill file because the queue was full */
+    long getSpilledEventCount();
+
+    /** @return Total number of spilled events that have been read back and flushed */
+    long getReplayedEventCount();
+
+    /** @return Total number of events handed off by flush calls */
+    long getFlushedEventCount();
+
+    /** @return Total number of flushed batches that failed with an exception */
+    long getFailedBatchCount();
+
+    /** @return Duration in milliseconds of the most recently flushed batch */
+    double getLastFlushTime();
+
+    /** @return Average duration in milliseconds of a flushed batch */
+    double getAverageFlushTime();
+
+    /** @return Longest duration in milliseconds of a flushed batch */
+    double getMaxFlushTime();
+}
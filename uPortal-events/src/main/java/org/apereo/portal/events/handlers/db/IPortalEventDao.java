@@ -27,6 +27,12 @@ public interface IPortalEventDao {
 
     void storePortalEvents(Iterable<PortalEvent> portalEvents);
 
+    /**
+     * Store events that have already been aggregated, they are kept for reporting and purging but
+     * are skipped by {@link #aggregatePortalEvents(DateTime, DateTime, int, Function)}
+     */
+    void storeAggregatedPortalEvents(Iterable<PortalEvent> portalEvents);
+
     /**
      * Gets all persisted events in the time range. To deal with memory and data access issues the
      * results are not returned but passed in order to the provided {@link FunctionWithoutResult}
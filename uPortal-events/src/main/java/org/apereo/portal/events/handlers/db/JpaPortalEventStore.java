@@ -18,8 +18,26 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
 import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -33,30 +51,71 @@ import org.hibernate.FlushMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Repository;
 
 /**
  * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
  * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message
  * is logged at the WARN level and the event is ignored.
+ *
+ * <p>If bulk insert is enabled events are written with batched JDBC inserts on the connection of
+ * the current transaction instead of being persisted through the JPA persistence context. Hibernate
+ * is still used to generate the event ids, using the pooled id allocation of {@link
+ * PersistentPortalEvent}, and to bind column values.
+ *
+ * <p>Event data is written as JSON text unless an event format is configured, in which case the
+ * {@link PortalEventCodec} with that format version encodes the event. Rows are always decoded
+ * based on the format version stored with the row.
+ *
+ * <p>During aggregation raw events are read in partitions of consecutive events. The event data of
+ * upcoming partitions is decoded on the aggregation thread pool while the current partition is
+ * handed to the aggregators, which still see every event on a single thread in timestamp order.
+ * Partitions are not claimed by other nodes, aggregation still runs on the one node holding the
+ * aggregation cluster mutex.
  */
 @Repository
-public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
+@ManagedResource("uPortal:section=Events,name=PortalEventStore")
+public class JpaPortalEventStore extends BaseRawEventsJpaDao
+        implements IPortalEventDao, PortalEventStoreMXBean {
 
     private ObjectMapper mapper;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
+    private ExecutorService aggregationExecutor;
+    private int aggregationPartitionSize = 500;
+    private int aggregationDecodeAhead = 2;
+    private Map<Integer, PortalEventCodec> portalEventCodecs = Collections.emptyMap();
+    private int eventFormat = PortalEventCodec.JSON_FORMAT;
+    private PortalEventCodec eventCodec;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
     private ParameterExpression<DateTime> endTimeParameter;
 
+    private boolean bulkInsert = false;
+    private int bulkInsertBatchSize = 100;
+    private volatile String bulkInsertSql;
+
+    private final AtomicLong storedEventCount = new AtomicLong();
+    private final AtomicLong storeBatchCount = new AtomicLong();
+    private final AtomicLong totalStoreBatchNanos = new AtomicLong();
+    private final AtomicLong maxStoreBatchNanos = new AtomicLong();
+    private volatile int lastStoreBatchSize;
+    private volatile long lastStoreBatchNanos;
+
     @Autowired
     public void setMapper(ObjectMapper mapper) {
         this.mapper = mapper;
@@ -72,8 +131,136 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
 
+    /**
+     * Executor used to decode raw event data ahead of the aggregating thread, if not set events are
+     * decoded on the aggregating thread.
+     */
+    @Autowired(required = false)
+    @Qualifier("eventAggregationThreadPool")
+    public void setAggregationExecutor(ExecutorService aggregationExecutor) {
+        this.aggregationExecutor = aggregationExecutor;
+    }
+
+    /**
+     * Number of raw events read from the database and decoded together during a call to {@link
+     * #aggregatePortalEvents(DateTime, DateTime, int, Function)}, defaults to 500.
+     */
+    @Value(
+            "${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationPartitionSize:500}")
+    public void setAggregationPartitionSize(int aggregationPartitionSize) {
+        this.aggregationPartitionSize = Math.max(1, aggregationPartitionSize);
+    }
+
+    /**
+     * Number of partitions of raw events decoded in parallel ahead of the partition being
+     * aggregated, 0 decodes each partition on the aggregating thread. Defaults to 2.
+     */
+    @Value(
+            "${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationDecodeAhead:2}")
+    public void setAggregationDecodeAhead(int aggregationDecodeAhead) {
+        this.aggregationDecodeAhead = Math.max(0, aggregationDecodeAhead);
+    }
+
+    /** Codecs used to read and write binary event data, keyed by their format version */
+    @Autowired(required = false)
+    public void setPortalEventCodecs(Collection<PortalEventCodec> portalEventCodecs) {
+        final Map<Integer, PortalEventCodec> codecs = new HashMap<Integer, PortalEventCodec>();
+        for (final PortalEventCodec codec : portalEventCodecs) {
+            final PortalEventCodec existing = codecs.put(codec.getFormatVersion(), codec);
+            if (existing != null || codec.getFormatVersion() == PortalEventCodec.JSON_FORMAT) {
+                throw new IllegalArgumentException(
+                        "PortalEventCodec "
+                                + codec
+                                + " has a duplicate or reserved format version: "
+                                + codec.getFormatVersion());
+            }
+        }
+        this.portalEventCodecs = codecs;
+    }
+
+    /**
+     * Format version used to write new events, 0 writes JSON text. Rows are always read with the
+     * codec matching the format version stored with the row. Defaults to 0.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.eventFormat:0}")
+    public void setEventFormat(int eventFormat) {
+        this.eventFormat = eventFormat;
+    }
+
+    /**
+     * If true events are written with batched JDBC inserts, bypassing the JPA persistence context,
+     * defaults to false.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.bulkInsert:false}")
+    public void setBulkInsert(boolean bulkInsert) {
+        this.bulkInsert = bulkInsert;
+    }
+
+    /** Number of inserts sent to the database in a single JDBC batch, defaults to 100. */
+    @Value(
+            "${org.apereo.portal.events.handlers.db.JpaPortalEventStore.bulkInsertBatchSize:100}")
+    public void setBulkInsertBatchSize(int bulkInsertBatchSize) {
+        this.bulkInsertBatchSize = Math.max(1, bulkInsertBatchSize);
+    }
+
+    @Override
+    public boolean isBulkInsert() {
+        return this.bulkInsert;
+    }
+
+    @Override
+    public long getStoredEventCount() {
+        return this.storedEventCount.get();
+    }
+
+    @Override
+    public long getStoreBatchCount() {
+        return this.storeBatchCount.get();
+    }
+
+    @Override
+    public int getLastStoreBatchSize() {
+        return this.lastStoreBatchSize;
+    }
+
+    @Override
+    public double getLastStoreBatchTime() {
+        return this.lastStoreBatchNanos / 1000000d;
+    }
+
+    @Override
+    public double getAverageStoreBatchTime() {
+        final long batchCount = this.storeBatchCount.get();
+        if (batchCount == 0) {
+            return 0;
+        }
+        return this.totalStoreBatchNanos.get() / 1000000d / batchCount;
+    }
+
+    @Override
+    public double getMaxStoreBatchTime() {
+        return this.maxStoreBatchNanos.get() / 1000000d;
+    }
+
+    @Override
+    public double getStoredEventsPerSecond() {
+        final long totalNanos = this.totalStoreBatchNanos.get();
+        if (totalNanos == 0) {
+            return 0;
+        }
+        return this.storedEventCount.get() * 1000000000d / totalNanos;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
+        if (this.eventFormat != PortalEventCodec.JSON_FORMAT) {
+            this.eventCodec = this.portalEventCodecs.get(this.eventFormat);
+            if (this.eventCodec == null) {
+                throw new IllegalStateException(
+                        "No PortalEventCodec is registered for eventFormat " + this.eventFormat);
+            }
+        }
+
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
         this.endTimeParameter = this.createParameterExpression(DateTime.class, "endTime");
 
@@ -182,35 +369,168 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
-        for (final PortalEvent portalEvent : portalEvents) {
-            try {
-                storePortalEvent(portalEvent);
-            } catch (IllegalArgumentException iae) {
-                this.logger.warn(
-                        portalEvent.getClass().getName()
-                                + " is not mapped as a persistent entity and will not be stored. "
-                                + portalEvent
-                                + " Exception="
-                                + iae.getMessage());
-            }
-        }
+        this.storePortalEvents(Arrays.asList(portalEvents));
     }
 
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        this.storePortalEvents(portalEvents, false);
+    }
+
+    @Override
+    @RawEventsTransactional
+    public void storeAggregatedPortalEvents(Iterable<PortalEvent> portalEvents) {
+        this.storePortalEvents(portalEvents, true);
+    }
+
+    private void storePortalEvents(Iterable<PortalEvent> portalEvents, boolean aggregated) {
+        final long start = System.nanoTime();
+        final int storedCount;
+        if (this.bulkInsert) {
+            storedCount = this.bulkInsertPortalEvents(portalEvents, aggregated);
+        } else {
+            int count = 0;
+            for (final PortalEvent portalEvent : portalEvents) {
+                try {
+                    final PersistentPortalEvent persistentPortalEvent =
+                            this.wrapPortalEvent(portalEvent);
+                    persistentPortalEvent.setAggregated(aggregated);
+                    this.getEntityManager().persist(persistentPortalEvent);
+                    count++;
+                } catch (IllegalArgumentException iae) {
+                    this.logger.warn(
+                            portalEvent.getClass().getName()
+                                    + " is not mapped as a persistent entity and will not be stored. "
+                                    + portalEvent
+                                    + " Exception="
+                                    + iae.getMessage());
+                }
+            }
+
+            //Flush so the recorded time includes writing the events to the database
+            this.getEntityManager().flush();
+            storedCount = count;
+        }
+        this.recordStoreBatch(storedCount, System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the events using batched JDBC inserts on the connection of the current session.
+     *
+     * @param aggregated If the events are written already marked as aggregated
+     * @return The number of events written
+     */
+    protected int bulkInsertPortalEvents(Iterable<PortalEvent> portalEvents, boolean aggregated) {
+        final List<PersistentPortalEvent> persistentPortalEvents =
+                new ArrayList<PersistentPortalEvent>();
         for (final PortalEvent portalEvent : portalEvents) {
-            try {
-                storePortalEvent(portalEvent);
-            } catch (IllegalArgumentException iae) {
-                this.logger.warn(
-                        portalEvent.getClass().getName()
-                                + " is not mapped as a persistent entity and will not be stored. "
-                                + portalEvent
-                                + " Exception="
-                                + iae.getMessage());
+            final PersistentPortalEvent persistentPortalEvent = this.wrapPortalEvent(portalEvent);
+            persistentPortalEvent.setAggregated(aggregated);
+            persistentPortalEvents.add(persistentPortalEvent);
+        }
+        if (persistentPortalEvents.isEmpty()) {
+            return 0;
+        }
+
+        final Session session = this.getEntityManager().unwrap(Session.class);
+        final SessionImplementor sessionImplementor = (SessionImplementor) session;
+        final SessionFactoryImplementor sessionFactory = sessionImplementor.getFactory();
+        final AbstractEntityPersister persister =
+                (AbstractEntityPersister)
+                        sessionFactory.getEntityPersister(PersistentPortalEvent.class.getName());
+        final String insertSql = this.getBulkInsertSql(persister);
+
+        session.doWork(
+                new Work() {
+                    @Override
+                    public void execute(Connection connection) throws SQLException {
+                        final Type idType = persister.getIdentifierType();
+                        final Type[] propertyTypes = persister.getPropertyTypes();
+                        final boolean[] insertable = persister.getPropertyInsertability();
+
+                        final PreparedStatement ps = connection.prepareStatement(insertSql);
+                        try {
+                            int batched = 0;
+                            for (final PersistentPortalEvent event : persistentPortalEvents) {
+                                final Serializable id =
+                                        persister
+                                                .getIdentifierGenerator()
+                                                .generate(sessionImplementor, event);
+                                idType.nullSafeSet(ps, id, 1, sessionImplementor);
+
+                                final Object[] state = persister.getPropertyValues(event);
+                                int index = 1 + idType.getColumnSpan(sessionFactory);
+                                for (int i = 0; i < state.length; i++) {
+                                    if (insertable[i]) {
+                                        propertyTypes[i].nullSafeSet(
+                                                ps, state[i], index, sessionImplementor);
+                                        index += propertyTypes[i].getColumnSpan(sessionFactory);
+                                    }
+                                }
+
+                                ps.addBatch();
+                                if (++batched % bulkInsertBatchSize == 0) {
+                                    ps.executeBatch();
+                                }
+                            }
+                            if (batched % bulkInsertBatchSize != 0) {
+                                ps.executeBatch();
+                            }
+                        } finally {
+                            ps.close();
+                        }
+                    }
+                });
+
+        return persistentPortalEvents.size();
+    }
+
+    /** Build the INSERT statement from the Hibernate mapping of {@link PersistentPortalEvent} */
+    private String getBulkInsertSql(AbstractEntityPersister persister) {
+        String sql = this.bulkInsertSql;
+        if (sql != null) {
+            return sql;
+        }
+
+        final List<String> columns = new ArrayList<String>();
+        columns.addAll(Arrays.asList(persister.getIdentifierColumnNames()));
+        final boolean[] insertable = persister.getPropertyInsertability();
+        for (int i = 0; i < insertable.length; i++) {
+            if (insertable[i]) {
+                columns.addAll(Arrays.asList(persister.getPropertyColumnNames(i)));
             }
         }
+
+        final StringBuilder insert = new StringBuilder("INSERT INTO ");
+        final StringBuilder values = new StringBuilder(") VALUES (");
+        insert.append(persister.getTableName()).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                insert.append(", ");
+                values.append(", ");
+            }
+            insert.append(columns.get(i));
+            values.append("?");
+        }
+        sql = insert.append(values).append(")").toString();
+
+        this.logger.debug("Built bulk insert SQL: {}", sql);
+        this.bulkInsertSql = sql;
+        return sql;
+    }
+
+    private void recordStoreBatch(int eventCount, long nanos) {
+        this.storedEventCount.addAndGet(eventCount);
+        this.storeBatchCount.incrementAndGet();
+        this.totalStoreBatchNanos.addAndGet(nanos);
+        this.lastStoreBatchSize = eventCount;
+        this.lastStoreBatchNanos = nanos;
+
+        long max;
+        do {
+            max = this.maxStoreBatchNanos.get();
+        } while (nanos > max && !this.maxStoreBatchNanos.compareAndSet(max, nanos));
     }
 
     @Override
@@ -245,63 +565,202 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             query.setMaxResults(maxEvents);
         }
 
-        int resultCount = 0;
-        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
-                results.next();
-                ) {
-            final PersistentPortalEvent persistentPortalEvent =
-                    (PersistentPortalEvent) results.get(0);
-            final PortalEvent portalEvent;
-            try {
-                portalEvent =
-                        this.toPortalEvent(
-                                persistentPortalEvent.getEventData(),
-                                persistentPortalEvent.getEventType());
-            } catch (RuntimeException e) {
-                this.logger.warn(
-                        "Failed to convert PersistentPortalEvent to PortalEvent: "
-                                + persistentPortalEvent,
-                        e);
-
-                //Mark the event as error and store the mark to prevent trying to reprocess the broken event data
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
-
-                continue;
-            }
+        return this.aggregatePortalEvents(session, query.scroll(ScrollMode.FORWARD_ONLY), handler);
+    }
 
-            try {
+    /**
+     * Hands the raw events in the results to the handler in order, marking each event as aggregated
+     * or as failed. Closes the results before returning.
+     *
+     * @return false if the handler requested aggregation to stop
+     */
+    boolean aggregatePortalEvents(
+            Session session, ScrollableResults results, Function<PortalEvent, Boolean> handler) {
+        //Partitions read from the scroll and decoding, in event order
+        final Deque<Future<AggregationPartition>> partitions =
+                new ArrayDeque<Future<AggregationPartition>>();
+        //Events handled since the last flush, evicted from the session after each flush
+        final List<PersistentPortalEvent> handledEvents = new ArrayList<PersistentPortalEvent>();
 
-                final Boolean eventHandled = handler.apply(portalEvent);
-                if (!eventHandled) {
-                    this.logger.debug(
-                            "Aggregation stop requested before processing event {}", portalEvent);
-                    return false;
+        int resultCount = 0;
+        try {
+            boolean moreResults = true;
+            while (true) {
+                //Keep up to aggregationDecodeAhead partitions decoding ahead of the partition
+                //being handled
+                while (moreResults && partitions.size() <= this.aggregationDecodeAhead) {
+                    final AggregationPartition partition =
+                            new AggregationPartition(this.aggregationPartitionSize);
+                    while (partition.size() < this.aggregationPartitionSize
+                            && (moreResults = results.next())) {
+                        partition.add((PersistentPortalEvent) results.get(0));
+                    }
+                    if (partition.size() > 0) {
+                        partitions.add(this.decodePartition(partition));
+                    }
                 }
 
-                //Mark the event as aggregated and store the mark
-                persistentPortalEvent.setAggregated(true);
-                session.persist(persistentPortalEvent);
-
-                //periodic flush and clear of session to manage memory demands
-                if (++resultCount % this.flushPeriod == 0) {
-                    this.logger.debug(
-                            "Aggregated {} events, flush and clear {} EntityManager.",
-                            resultCount,
-                            BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME);
-                    session.flush();
-                    session.clear();
+                final Future<AggregationPartition> nextPartition = partitions.poll();
+                if (nextPartition == null) {
+                    return true;
                 }
 
-            } catch (Exception e) {
-                this.logger.warn("Failed to aggregate portal event: " + persistentPortalEvent, e);
-                //mark the event as erred and move on. This will not be picked up by processing again
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+                final AggregationPartition partition = this.getDecodedPartition(nextPartition);
+                for (int i = 0; i < partition.size(); i++) {
+                    final PersistentPortalEvent persistentPortalEvent =
+                            partition.getPersistentPortalEvent(i);
+                    final PortalEvent portalEvent = partition.getPortalEvent(i);
+                    handledEvents.add(persistentPortalEvent);
+
+                    if (portalEvent == null) {
+                        this.logger.warn(
+                                "Failed to convert PersistentPortalEvent to PortalEvent: "
+                                        + persistentPortalEvent,
+                                partition.getFailure(i));
+
+                        //Mark the event as error and store the mark to prevent trying to reprocess the broken event data
+                        persistentPortalEvent.setErrorAggregating(true);
+                        session.persist(persistentPortalEvent);
+
+                        continue;
+                    }
+
+                    try {
+
+                        final Boolean eventHandled = handler.apply(portalEvent);
+                        if (!eventHandled) {
+                            this.logger.debug(
+                                    "Aggregation stop requested before processing event {}",
+                                    portalEvent);
+                            return false;
+                        }
+
+                        //Mark the event as aggregated and store the mark
+                        persistentPortalEvent.setAggregated(true);
+                        session.persist(persistentPortalEvent);
+
+                        //periodic flush of the session and eviction of handled events to manage
+                        //memory demands, events in partitions that are still to be handled must
+                        //stay attached
+                        if (++resultCount % this.flushPeriod == 0) {
+                            this.logger.debug(
+                                    "Aggregated {} events, flush and evict {} EntityManager.",
+                                    resultCount,
+                                    BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME);
+                            session.flush();
+                            for (final PersistentPortalEvent handledEvent : handledEvents) {
+                                session.evict(handledEvent);
+                            }
+                            handledEvents.clear();
+                        }
+
+                    } catch (Exception e) {
+                        this.logger.warn(
+                                "Failed to aggregate portal event: " + persistentPortalEvent, e);
+                        //mark the event as erred and move on. This will not be picked up by processing again
+                        persistentPortalEvent.setErrorAggregating(true);
+                        session.persist(persistentPortalEvent);
+                    }
+                }
+            }
+        } finally {
+            for (final Future<AggregationPartition> partition : partitions) {
+                partition.cancel(false);
             }
+            results.close();
+        }
+    }
+
+    /**
+     * Decode the event data of the partition on the aggregation executor, the partition is decoded
+     * on the calling thread if there is no executor or decoding ahead is disabled. The
+     * eventAggregationThreadPool runs rejected partitions on the calling thread as well.
+     */
+    private Future<AggregationPartition> decodePartition(final AggregationPartition partition) {
+        if (this.aggregationExecutor != null && this.aggregationDecodeAhead > 0) {
+            return this.aggregationExecutor.submit(partition);
+        }
+        return Futures.immediateFuture(partition.call());
+    }
+
+    private AggregationPartition getDecodedPartition(Future<AggregationPartition> partition) {
+        try {
+            return partition.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while decoding PortalEvent data", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to decode PortalEvent data", e.getCause());
+        }
+    }
+
+    /**
+     * A contiguous run of raw events read by {@link #aggregatePortalEvents(DateTime, DateTime,
+     * int, Function)}. Only the copied event data is read while decoding so partitions can be
+     * decoded on other threads, the entities are only ever touched by the thread that owns the
+     * session.
+     */
+    private final class AggregationPartition implements Callable<AggregationPartition> {
+        private final List<PersistentPortalEvent> persistentPortalEvents;
+        private final List<Integer> eventFormats;
+        private final List<String> eventData;
+        private final List<byte[]> eventDataBinary;
+        private final List<Class<PortalEvent>> eventTypes;
+        private PortalEvent[] portalEvents;
+        private RuntimeException[] failures;
+
+        public AggregationPartition(int size) {
+            this.persistentPortalEvents = new ArrayList<PersistentPortalEvent>(size);
+            this.eventFormats = new ArrayList<Integer>(size);
+            this.eventData = new ArrayList<String>(size);
+            this.eventDataBinary = new ArrayList<byte[]>(size);
+            this.eventTypes = new ArrayList<Class<PortalEvent>>(size);
+        }
+
+        public void add(PersistentPortalEvent persistentPortalEvent) {
+            this.persistentPortalEvents.add(persistentPortalEvent);
+            this.eventFormats.add(persistentPortalEvent.getEventFormat());
+            this.eventData.add(persistentPortalEvent.getEventData());
+            this.eventDataBinary.add(persistentPortalEvent.getEventDataBinary());
+            this.eventTypes.add(persistentPortalEvent.getEventType());
         }
 
-        return true;
+        public int size() {
+            return this.persistentPortalEvents.size();
+        }
+
+        public PersistentPortalEvent getPersistentPortalEvent(int index) {
+            return this.persistentPortalEvents.get(index);
+        }
+
+        /** @return The decoded event, null if decoding failed */
+        public PortalEvent getPortalEvent(int index) {
+            return this.portalEvents[index];
+        }
+
+        public RuntimeException getFailure(int index) {
+            return this.failures[index];
+        }
+
+        @Override
+        public AggregationPartition call() {
+            final int size = this.size();
+            this.portalEvents = new PortalEvent[size];
+            this.failures = new RuntimeException[size];
+            for (int i = 0; i < size; i++) {
+                try {
+                    this.portalEvents[i] =
+                            toPortalEvent(
+                                    this.eventFormats.get(i),
+                                    this.eventData.get(i),
+                                    this.eventDataBinary.get(i),
+                                    this.eventTypes.get(i));
+                } catch (RuntimeException e) {
+                    this.failures[i] = e;
+                }
+            }
+            return this;
+        }
     }
 
     @Override
@@ -331,7 +790,9 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                     (PersistentPortalEvent) results.get(0);
             final PortalEvent portalEvent =
                     this.toPortalEvent(
+                            persistentPortalEvent.getEventFormat(),
                             persistentPortalEvent.getEventData(),
+                            persistentPortalEvent.getEventDataBinary(),
                             persistentPortalEvent.getEventType());
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
@@ -348,10 +809,30 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     }
 
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
+        final PortalEventCodec codec = this.eventCodec;
+        if (codec != null) {
+            return new PersistentPortalEvent(event, codec.getFormatVersion(), codec.encode(event));
+        }
+
         final String portalEventData = this.toString(event);
         return new PersistentPortalEvent(event, portalEventData);
     }
 
+    /** Decode event data using the JSON mapper or the codec for the event format */
+    protected <E extends PortalEvent> E toPortalEvent(
+            int eventFormat, String eventData, byte[] eventDataBinary, Class<E> eventType) {
+        if (eventFormat == PortalEventCodec.JSON_FORMAT) {
+            return this.toPortalEvent(eventData, eventType);
+        }
+
+        final PortalEventCodec codec = this.portalEventCodecs.get(eventFormat);
+        if (codec == null) {
+            throw new RuntimeException(
+                    "No PortalEventCodec is registered for event format " + eventFormat);
+        }
+        return codec.decode(eventDataBinary, eventType);
+    }
+
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
         try {
             return mapper.readValue(eventData, eventType);
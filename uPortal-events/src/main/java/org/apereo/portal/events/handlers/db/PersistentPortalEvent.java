@@ -78,10 +78,18 @@ public class PersistentPortalEvent implements Serializable {
     @Type(type = "class")
     private final Class<PortalEvent> eventType;
 
-    @Column(name = "EVENT_DATA", nullable = false, updatable = false, length = 10000)
+    /** Null for rows written before the format column existed, these are always JSON */
+    @Column(name = "EVENT_FORMAT", updatable = false)
+    private final Integer eventFormat;
+
+    @Column(name = "EVENT_DATA", updatable = false, length = 10000)
     @Lob
     private final String eventData;
 
+    @Column(name = "EVENT_DATA_BIN", updatable = false, length = 10000)
+    @Lob
+    private final byte[] eventDataBinary;
+
     @Index(name = "IDX_UP_RAW_EVENTS_AGGREGATED")
     @Column(name = "AGGREGATED")
     private Boolean aggregated = false;
@@ -94,7 +102,9 @@ public class PersistentPortalEvent implements Serializable {
     @SuppressWarnings("unused")
     private PersistentPortalEvent() {
         this.id = -1;
+        this.eventFormat = null;
         this.eventData = null;
+        this.eventDataBinary = null;
         this.timestamp = null;
         this.serverId = null;
         this.eventSessionId = null;
@@ -102,10 +112,23 @@ public class PersistentPortalEvent implements Serializable {
         this.eventType = null;
     }
 
-    @SuppressWarnings("unchecked")
+    /** Wrap an event with JSON event data */
     PersistentPortalEvent(PortalEvent portalEvent, String eventData) {
+        this(portalEvent, PortalEventCodec.JSON_FORMAT, eventData, null);
+    }
+
+    /** Wrap an event with binary event data written by the {@link PortalEventCodec} */
+    PersistentPortalEvent(PortalEvent portalEvent, int eventFormat, byte[] eventDataBinary) {
+        this(portalEvent, eventFormat, null, eventDataBinary);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentPortalEvent(
+            PortalEvent portalEvent, int eventFormat, String eventData, byte[] eventDataBinary) {
         this.id = -1;
+        this.eventFormat = eventFormat;
         this.eventData = eventData;
+        this.eventDataBinary = eventDataBinary;
         this.timestamp = new DateTime(portalEvent.getTimestamp());
         this.serverId = portalEvent.getServerId();
         this.eventSessionId = portalEvent.getEventSessionId();
@@ -117,11 +140,25 @@ public class PersistentPortalEvent implements Serializable {
         return this.eventType;
     }
 
-    /** @return the eventData */
+    /** @return The {@link PortalEventCodec} format version of the event data */
+    public int getEventFormat() {
+        final Integer f = this.eventFormat;
+        if (f == null) {
+            return PortalEventCodec.JSON_FORMAT;
+        }
+        return f;
+    }
+
+    /** @return the eventData, null if the event data is binary */
     public String getEventData() {
         return this.eventData;
     }
 
+    /** @return the binary eventData, null if the event data is JSON */
+    public byte[] getEventDataBinary() {
+        return this.eventDataBinary;
+    }
+
     public boolean isAggregated() {
         Boolean a = this.aggregated;
         if (a == null) {
@@ -153,6 +190,15 @@ public class PersistentPortalEvent implements Serializable {
      */
     @Override
     public String toString() {
-        return this.eventData;
+        if (this.eventData != null) {
+            return this.eventData;
+        }
+        return "PersistentPortalEvent [eventType="
+                + this.eventType
+                + ", eventFormat="
+                + this.eventFormat
+                + ", eventDataBinary="
+                + (this.eventDataBinary != null ? this.eventDataBinary.length : 0)
+                + " bytes]";
     }
 }
@@ -0,0 +1,36 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import org.apereo.portal.events.PortalEvent;
+
+/**
+ * Binary encoding of {@link PortalEvent} data stored by {@link JpaPortalEventStore}. Each codec is
+ * identified by the format version recorded with every row it writes, so rows written with any
+ * registered codec remain readable after the configured format changes.
+ */
+public interface PortalEventCodec {
+    /** Format version of rows with JSON text event data, used before binary codecs existed */
+    int JSON_FORMAT = 0;
+
+    /** @return The format version stored with rows written by this codec, must not be 0 */
+    int getFormatVersion();
+
+    /** Encode the event to bytes */
+    byte[] encode(PortalEvent event);
+
+    /** Decode event bytes written by {@link #encode(PortalEvent)} */
+    <E extends PortalEvent> E decode(byte[] data, Class<E> eventType);
+}
@@ -14,13 +14,28 @@
  */
 package org.apereo.portal.events.handlers.db;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.aggr.PortalEventAccumulator;
 import org.apereo.portal.events.handlers.QueueingEventHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /** Hands off queued portal events for storage by the IPortalEventDao */
+@ManagedResource("uPortal:section=Events,name=PortalEventDaoQueuingEventHandler")
 public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent> {
     private IPortalEventDao portalEventDao;
+    private ObjectMapper mapper;
+    private PortalEventAccumulator portalEventAccumulator;
+    private Map<Class<? extends PortalEvent>, Integer> eventTypePriorities =
+            new LinkedHashMap<Class<? extends PortalEvent>, Integer>();
 
     /** @param portalEventDao the portalEventDao to set */
     @Autowired
@@ -28,8 +43,84 @@ public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<Port
         this.portalEventDao = portalEventDao;
     }
 
+    @Autowired
+    public void setMapper(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /** Accumulator that events are offered to before being stored, optional */
+    @Autowired(required = false)
+    public void setPortalEventAccumulator(PortalEventAccumulator portalEventAccumulator) {
+        this.portalEventAccumulator = portalEventAccumulator;
+    }
+
+    /**
+     * Priorities used by the {@code DROP_BY_PRIORITY} overflow policy, an event gets the priority
+     * of the first entry whose type it is an instance of. Events that match no entry have priority
+     * 0.
+     */
+    public void setEventTypePriorities(
+            Map<Class<? extends PortalEvent>, Integer> eventTypePriorities) {
+        this.eventTypePriorities =
+                new LinkedHashMap<Class<? extends PortalEvent>, Integer>(eventTypePriorities);
+    }
+
     @Override
     protected void onApplicationEvents(Iterable<PortalEvent> events) {
-        this.portalEventDao.storePortalEvents(events);
+        final PortalEventAccumulator accumulator = this.portalEventAccumulator;
+        if (accumulator == null || !accumulator.isEnabled()) {
+            this.portalEventDao.storePortalEvents(events);
+            return;
+        }
+
+        //Events the accumulator takes are aggregated from memory and never need raw aggregation
+        final List<PortalEvent> rawEvents = accumulator.accumulate(events);
+        if (!rawEvents.isEmpty()) {
+            this.portalEventDao.storePortalEvents(rawEvents);
+        }
+
+        if (accumulator.isPersistAccumulatedEvents()) {
+            final Set<PortalEvent> rawEventSet = Sets.newIdentityHashSet();
+            rawEventSet.addAll(rawEvents);
+
+            final List<PortalEvent> accumulatedEvents = new ArrayList<PortalEvent>();
+            for (final PortalEvent event : events) {
+                if (!rawEventSet.contains(event)) {
+                    accumulatedEvents.add(event);
+                }
+            }
+            if (!accumulatedEvents.isEmpty()) {
+                this.portalEventDao.storeAggregatedPortalEvents(accumulatedEvents);
+            }
+        }
+    }
+
+    @Override
+    protected int getEventPriority(PortalEvent event) {
+        for (final Map.Entry<Class<? extends PortalEvent>, Integer> priorityEntry :
+                this.eventTypePriorities.entrySet()) {
+            if (priorityEntry.getKey().isInstance(event)) {
+                return priorityEntry.getValue();
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    protected String serializeEvent(PortalEvent event) {
+        try {
+            return this.mapper.writeValueAsString(event);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+    }
+
+    @Override
+    protected PortalEvent deserializeEvent(String data) {
+        try {
+            return this.mapper.readValue(data, PortalEvent.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        }
     }
 }
@@ -0,0 +1,43 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+/** JMX stats for writes of raw portal events */
+public interface PortalEventStoreMXBean {
+
+    /** @return true if events are written with batched JDBC inserts instead of JPA persist */
+    boolean isBulkInsert();
+
+    /** @return Total number of events written */
+    long getStoredEventCount();
+
+    /** @return Total number of store calls, each call writes one batch of events */
+    long getStoreBatchCount();
+
+    /** @return Number of events written by the most recent store call */
+    int getLastStoreBatchSize();
+
+    /** @return Duration in milliseconds of the most recent store call */
+    double getLastStoreBatchTime();
+
+    /** @return Average duration in milliseconds of a store call */
+    double getAverageStoreBatchTime();
+
+    /** @return Longest duration in milliseconds of a store call */
+    double getMaxStoreBatchTime();
+
+    /** @return Events written per second of time spent writing events */
+    double getStoredEventsPerSecond();
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apereo.portal.EntityIdentifier;
+
+/**
+ * The complete set of groups a member belongs to, directly or through other groups. Groups are
+ * numbered the first time they are seen and each member keeps a sorted array of those numbers, so
+ * checking if a group is an ancestor is a binary search instead of a walk of the group graph.
+ */
+/* package-private */ final class AncestorGroups {
+    private static final ConcurrentMap<EntityIdentifier, Integer> GROUP_IDS =
+            new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_GROUP_ID = new AtomicInteger();
+
+    private final Object generation;
+    private final Set<IEntityGroup> groups;
+    private final int[] groupIds;
+
+    public AncestorGroups(Object generation, Set<IEntityGroup> groups) {
+        this.generation = generation;
+        this.groups = Collections.unmodifiableSet(groups);
+        this.groupIds = new int[groups.size()];
+        int i = 0;
+        for (final IEntityGroup group : groups) {
+            this.groupIds[i++] = getGroupId(group);
+        }
+        Arrays.sort(this.groupIds);
+    }
+
+    private static int getGroupId(IEntityGroup group) {
+        final EntityIdentifier groupIdentifier = group.getUnderlyingEntityIdentifier();
+        Integer groupId = GROUP_IDS.get(groupIdentifier);
+        if (groupId == null) {
+            final Integer newGroupId = NEXT_GROUP_ID.getAndIncrement();
+            groupId = GROUP_IDS.putIfAbsent(groupIdentifier, newGroupId);
+            if (groupId == null) {
+                groupId = newGroupId;
+            }
+        }
+        return groupId;
+    }
+
+    /** @return The generation of closures this one was built in */
+    public Object getGeneration() {
+        return this.generation;
+    }
+
+    /** @return Read only set of all the ancestor groups */
+    public Set<IEntityGroup> getGroups() {
+        return this.groups;
+    }
+
+    public boolean contains(IEntityGroup group) {
+        final Integer groupId = GROUP_IDS.get(group.getUnderlyingEntityIdentifier());
+        return groupId != null && Arrays.binarySearch(this.groupIds, groupId) >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "AncestorGroups [groups=" + this.groups + "]";
+    }
+}
@@ -514,8 +514,17 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
     /** Delegate to the factory. */
     @Override
     public void update() throws GroupsException {
+
+        // Track objects to invalidate
+        Set<IGroupMember> invalidate = new HashSet<>();
+        invalidate.addAll(getAddedMembers().values());
+        invalidate.addAll(getRemovedMembers().values());
+
         getLocalGroupService().updateGroup(this);
         clearPendingUpdates();
+
+        // Invalidate objects that changed their relationship with us
+        this.invalidateInParentGroupsCache(invalidate);
     }
     /** Delegate to the factory. */
     @Override
@@ -36,6 +36,12 @@ import org.springframework.context.ApplicationContext;
  */
 public abstract class GroupMemberImpl implements IGroupMember {
 
+    /*
+     * Key of the ancestorGroups entry holding the current generation of ancestor closures, removing
+     * it makes every closure built before stale.
+     */
+    private static final String GENERATION_KEY = GroupMemberImpl.class.getName() + ".generation";
+
     /*
      * The <code>EntityIdentifier</code> that uniquely identifies the entity,
      * e.g., the <code>IPerson</code>, <code>ChannelDefinition</code>, etc.,
@@ -44,6 +50,7 @@ public abstract class GroupMemberImpl implements IGroupMember {
     private EntityIdentifier underlyingEntityIdentifier;
 
     private final Cache parentGroupsCache;
+    private final Cache ancestorGroupsCache;
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     /** GroupMemberImpl constructor */
@@ -58,6 +65,8 @@ public abstract class GroupMemberImpl implements IGroupMember {
         CacheManager cacheManager = context.getBean("cacheManager", CacheManager.class);
         this.parentGroupsCache =
                 cacheManager.getCache("org.apereo.portal.groups.GroupMemberImpl.parentGroups");
+        this.ancestorGroupsCache =
+                cacheManager.getCache("org.apereo.portal.groups.GroupMemberImpl.ancestorGroups");
     }
 
     /**
@@ -68,7 +77,36 @@ public abstract class GroupMemberImpl implements IGroupMember {
      */
     @Override
     public Set<IEntityGroup> getAncestorGroups() throws GroupsException {
-        return primGetAncestorGroups(this, new HashSet<IEntityGroup>());
+        return getAncestors().getGroups();
+    }
+
+    private AncestorGroups getAncestors() throws GroupsException {
+
+        final Object generation = getGeneration();
+        final EntityIdentifier cacheKey = getUnderlyingEntityIdentifier();
+        Element element = ancestorGroupsCache.get(cacheKey);
+
+        if (element == null
+                || ((AncestorGroups) element.getObjectValue()).getGeneration() != generation) {
+            final Set<IEntityGroup> groups =
+                    primGetAncestorGroups(this, new HashSet<IEntityGroup>());
+            element = new Element(cacheKey, new AncestorGroups(generation, groups));
+            ancestorGroupsCache.put(element);
+        }
+
+        return (AncestorGroups) element.getObjectValue();
+    }
+
+    private Object getGeneration() {
+        Element element = ancestorGroupsCache.get(GENERATION_KEY);
+        if (element == null) {
+            element = new Element(GENERATION_KEY, new Object());
+            final Element existing = ancestorGroupsCache.putIfAbsent(element);
+            if (existing != null) {
+                element = existing;
+            }
+        }
+        return element.getObjectValue();
     }
 
     /**
@@ -136,7 +174,7 @@ public abstract class GroupMemberImpl implements IGroupMember {
      */
     @Override
     public boolean isDeepMemberOf(IEntityGroup group) throws GroupsException {
-        return isMemberOf(group) ? true : group.deepContains(this);
+        return getAncestors().contains(group);
     }
 
     /** @return boolean */
@@ -212,9 +250,34 @@ public abstract class GroupMemberImpl implements IGroupMember {
         return true;
     }
 
+    /**
+     * Removes the cached parent and ancestor groups of members whose parent groups have changed.
+     * When one of them is a group the closures of every member below it are stale too, rather than
+     * searching the cache for them a new generation of closures is started.
+     */
     protected void invalidateInParentGroupsCache(Set<IGroupMember> members) {
+        boolean groupMoved = false;
         for (IGroupMember member : members) {
-            parentGroupsCache.remove(member.getEntityIdentifier());
+            invalidateParentGroups(member);
+            groupMoved |= member.isGroup();
+        }
+
+        if (groupMoved) {
+            ancestorGroupsCache.remove(GENERATION_KEY);
         }
     }
+
+    /**
+     * Removes the cached parent and ancestor groups of this member only, for when this member may
+     * have been changed elsewhere but the members below it are unaffected.
+     */
+    protected void invalidateParentGroups() {
+        invalidateParentGroups(this);
+    }
+
+    private void invalidateParentGroups(IGroupMember member) {
+        parentGroupsCache.remove(member.getEntityIdentifier());
+        parentGroupsCache.remove(member.getUnderlyingEntityIdentifier());
+        ancestorGroupsCache.remove(member.getUnderlyingEntityIdentifier());
+    }
 }
@@ -39,6 +39,8 @@ public class LocalGroupsCacheAuthenticationListener implements IAuthenticationLi
 
     private Cache parentGroupsCache;
 
+    private Cache ancestorGroupsCache;
+
     private Cache childrenCache;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -49,6 +51,12 @@ public class LocalGroupsCacheAuthenticationListener implements IAuthenticationLi
         this.parentGroupsCache = parentGroupsCache;
     }
 
+    @Autowired
+    @Qualifier(value = "org.apereo.portal.groups.GroupMemberImpl.ancestorGroups")
+    public void setAncestorGroupsCache(Cache ancestorGroupsCache) {
+        this.ancestorGroupsCache = ancestorGroupsCache;
+    }
+
     @Autowired
     @Qualifier(value = "org.apereo.portal.groups.EntityGroupImpl.children")
     public void setChildrenCache(Cache childrenCache) {
@@ -70,6 +78,7 @@ public class LocalGroupsCacheAuthenticationListener implements IAuthenticationLi
          * parent-to-children.  We need to flush both.
          */
         final EntityIdentifier ei = user.getEntityIdentifier();
+        ancestorGroupsCache.remove(ei);
         final Element parentGroupsElement = parentGroupsCache.get(ei);
         if (parentGroupsElement != null) {
             // We have some flushing work to do...
@@ -14,7 +14,8 @@
  */
 package org.apereo.portal.groups;
 
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import org.apereo.portal.concurrency.IEntityLock;
 
 /**
@@ -58,9 +59,15 @@ public class LockableEntityGroupImpl extends EntityGroupImpl implements ILockabl
      * have changed during the time the group has been locked.
      */
     private void primUpdate(boolean renewLock) throws GroupsException {
+        // Track objects to invalidate
+        Set<IGroupMember> invalidate = new HashSet<>();
+        invalidate.addAll(getAddedMembers().values());
+        invalidate.addAll(getRemovedMembers().values());
+
         getLockableGroupService().updateGroup(this, renewLock);
         clearPendingUpdates();
-        this.invalidateInParentGroupsCache(Collections.singleton((IGroupMember) this));
+        this.invalidateParentGroups();
+        this.invalidateInParentGroupsCache(invalidate);
     }
 
     /**
@@ -69,9 +76,15 @@ public class LockableEntityGroupImpl extends EntityGroupImpl implements ILockabl
      * have changed during the time the group has been locked.
      */
     private void primUpdateMembers(boolean renewLock) throws GroupsException {
+        // Track objects to invalidate
+        Set<IGroupMember> invalidate = new HashSet<>();
+        invalidate.addAll(getAddedMembers().values());
+        invalidate.addAll(getRemovedMembers().values());
+
         getLockableGroupService().updateGroupMembers(this, renewLock);
         clearPendingUpdates();
-        this.invalidateInParentGroupsCache(Collections.singleton((IGroupMember) this));
+        this.invalidateParentGroups();
+        this.invalidateInParentGroupsCache(invalidate);
     }
 
     /** @param newLock org.apereo.portal.concurrency.IEntityLock */
@@ -0,0 +1,247 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.groups.pags.testers.BaseAttributeTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.security.IPerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates a person's membership in a list of {@link PagsGroup}s in a single pass. Testers with
+ * the same class, attribute and test value are evaluated once per person no matter how many groups
+ * use them, and {@link StringEqualsTester}s are looked up by attribute value instead of being run
+ * one at a time. Membership follows {@link PagsGroup#contains(IPerson)}.
+ *
+ * @since 5.0
+ */
+public final class PagsGroupIndex {
+    private static final int[][] NO_TEST_GROUPS = new int[0][];
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final List<PagsGroup> groups;
+
+    /** Tester ids each test group requires, per group */
+    private final int[][][] groupTests;
+
+    /** Testers by id, null for testers evaluated through {@link #equalsIndex} */
+    private final IPersonTester[] testers;
+
+    /** Ids of {@link StringEqualsTester}s by attribute name and test value */
+    private final Map<String, Map<String, int[]>> equalsIndex;
+
+    private final BitSet indexedTesters = new BitSet();
+
+    /** @param groups The groups to index, null entries are groups that can never match */
+    public PagsGroupIndex(List<PagsGroup> groups) {
+        this.groups = new ArrayList<PagsGroup>(groups);
+        this.groupTests = new int[groups.size()][][];
+
+        final Map<Object, Integer> testerIds = new HashMap<Object, Integer>();
+        final List<IPersonTester> testerList = new ArrayList<IPersonTester>();
+        final Map<String, Map<String, List<Integer>>> equalsTesters =
+                new LinkedHashMap<String, Map<String, List<Integer>>>();
+
+        for (int i = 0; i < this.groups.size(); i++) {
+            final PagsGroup group = this.groups.get(i);
+            if (group == null) {
+                this.groupTests[i] = NO_TEST_GROUPS;
+                continue;
+            }
+
+            final List<int[]> testGroupIds = new ArrayList<int[]>();
+            testGroups:
+            for (final TestGroup testGroup : group.getTestGroups()) {
+                final List<IPersonTester> tests = testGroup.getTests();
+                final int[] ids = new int[tests.size()];
+                for (int t = 0; t < ids.length; t++) {
+                    final IPersonTester tester = tests.get(t);
+                    if (tester == null) {
+                        //TestGroup.test fails for a missing tester
+                        continue testGroups;
+                    }
+
+                    final Object testerKey = getTesterKey(tester);
+                    Integer id = testerIds.get(testerKey);
+                    if (id == null) {
+                        id = testerList.size();
+                        testerIds.put(testerKey, id);
+
+                        if (tester.getClass() == StringEqualsTester.class) {
+                            final StringEqualsTester equalsTester = (StringEqualsTester) tester;
+                            addEqualsTester(equalsTesters, equalsTester, id);
+                            this.indexedTesters.set(id);
+                            testerList.add(null);
+                        } else {
+                            testerList.add(tester);
+                        }
+                    }
+                    ids[t] = id;
+                }
+                testGroupIds.add(ids);
+            }
+            this.groupTests[i] = testGroupIds.toArray(new int[testGroupIds.size()][]);
+        }
+
+        this.testers = testerList.toArray(new IPersonTester[testerList.size()]);
+
+        this.equalsIndex = new LinkedHashMap<String, Map<String, int[]>>();
+        for (final Map.Entry<String, Map<String, List<Integer>>> attributeEntry :
+                equalsTesters.entrySet()) {
+            final Map<String, int[]> valueIds = new HashMap<String, int[]>();
+            for (final Map.Entry<String, List<Integer>> valueEntry :
+                    attributeEntry.getValue().entrySet()) {
+                final List<Integer> ids = valueEntry.getValue();
+                final int[] idArray = new int[ids.size()];
+                for (int i = 0; i < idArray.length; i++) {
+                    idArray[i] = ids.get(i);
+                }
+                valueIds.put(valueEntry.getKey(), idArray);
+            }
+            this.equalsIndex.put(attributeEntry.getKey(), valueIds);
+        }
+    }
+
+    private static void addEqualsTester(
+            Map<String, Map<String, List<Integer>>> equalsTesters,
+            StringEqualsTester tester,
+            int id) {
+        Map<String, List<Integer>> valueIds = equalsTesters.get(tester.getAttributeName());
+        if (valueIds == null) {
+            valueIds = new HashMap<String, List<Integer>>();
+            equalsTesters.put(tester.getAttributeName(), valueIds);
+        }
+        List<Integer> ids = valueIds.get(tester.getTestValue());
+        if (ids == null) {
+            ids = new ArrayList<Integer>(1);
+            valueIds.put(tester.getTestValue(), ids);
+        }
+        ids.add(id);
+    }
+
+    /**
+     * Attribute testers are configured entirely by their attribute name and test value, so testers
+     * of the same class with the same configuration give the same answer and can be shared. Other
+     * testers are never shared.
+     */
+    private static Object getTesterKey(IPersonTester tester) {
+        if (tester instanceof BaseAttributeTester) {
+            final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+            return Arrays.<Object>asList(
+                    tester.getClass(),
+                    attributeTester.getAttributeName(),
+                    attributeTester.getTestValue());
+        }
+        return tester;
+    }
+
+    /** @return The indexed groups, in bit order */
+    public List<PagsGroup> getGroups() {
+        return this.groups;
+    }
+
+    /** @return true if this index was built from exactly the same group instances, in order */
+    public boolean isIndexOf(List<PagsGroup> groups) {
+        if (groups.size() != this.groups.size()) {
+            return false;
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            if (groups.get(i) != this.groups.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return The positions in {@link #getGroups()} of the groups that contain the person */
+    public BitSet evaluate(IPerson person) {
+        final BitSet evaluated = (BitSet) this.indexedTesters.clone();
+        final BitSet passed = new BitSet(this.testers.length);
+
+        for (final Map.Entry<String, Map<String, int[]>> attributeEntry :
+                this.equalsIndex.entrySet()) {
+            final Object[] values = person.getAttributeValues(attributeEntry.getKey());
+            if (values == null) {
+                continue;
+            }
+            final Map<String, int[]> valueIds = attributeEntry.getValue();
+            for (final Object value : values) {
+                if (value instanceof String) {
+                    final int[] ids = valueIds.get(value);
+                    if (ids != null) {
+                        for (final int id : ids) {
+                            passed.set(id);
+                        }
+                    }
+                }
+            }
+        }
+
+        final BitSet members = new BitSet(this.groups.size());
+        for (int i = 0; i < this.groupTests.length; i++) {
+            for (final int[] testGroup : this.groupTests[i]) {
+                if (this.passesAll(testGroup, person, evaluated, passed)) {
+                    members.set(i);
+                    break;
+                }
+            }
+        }
+        return members;
+    }
+
+    private boolean passesAll(int[] testGroup, IPerson person, BitSet evaluated, BitSet passed) {
+        for (final int id : testGroup) {
+            if (!evaluated.get(id)) {
+                evaluated.set(id);
+                if (this.test(this.testers[id], person)) {
+                    passed.set(id);
+                }
+            }
+            if (!passed.get(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean test(IPersonTester tester, IPerson person) {
+        try {
+            return tester.test(person);
+        } catch (RuntimeException e) {
+            logger.warn("Tester {} failed for person {}", tester, person.getUserName(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PagsGroupIndex [groups="
+                + this.groups.size()
+                + ", testers="
+                + this.testers.length
+                + ", indexedAttributes="
+                + this.equalsIndex.keySet()
+                + "]";
+    }
+}
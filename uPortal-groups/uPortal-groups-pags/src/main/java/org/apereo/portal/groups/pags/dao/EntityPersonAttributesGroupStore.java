@@ -16,7 +16,9 @@ package org.apereo.portal.groups.pags.dao;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -37,6 +39,7 @@ import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.groups.ILockableEntityGroup;
 import org.apereo.portal.groups.pags.IPersonTester;
 import org.apereo.portal.groups.pags.PagsGroup;
+import org.apereo.portal.groups.pags.PagsGroupIndex;
 import org.apereo.portal.groups.pags.TestGroup;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.PersonFactory;
@@ -61,6 +64,16 @@ public class EntityPersonAttributesGroupStore
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private static final Class<IPerson> IPERSON_CLASS = IPerson.class;
     private static final EntityIdentifier[] EMPTY_SEARCH_RESULTS = new EntityIdentifier[0];
+    private static final Comparator<IPersonAttributesGroupDefinition>
+            GROUP_DEFINITION_NAME_COMPARATOR =
+                    new Comparator<IPersonAttributesGroupDefinition>() {
+                        @Override
+                        public int compare(
+                                IPersonAttributesGroupDefinition o1,
+                                IPersonAttributesGroupDefinition o2) {
+                            return o1.getName().compareTo(o2.getName());
+                        }
+                    };
     private IPersonAttributesGroupDefinitionDao personAttributesGroupDefinitionDao;
 
     /** Caches IEntityGroup (EntityGroupImpl) instances */
@@ -74,6 +87,9 @@ public class EntityPersonAttributesGroupStore
      */
     private final Cache membershipCache;
 
+    /** Compiled form of all PAGS groups used to evaluate a person's memberships at once */
+    private volatile PagsGroupIndex groupIndex;
+
     public EntityPersonAttributesGroupStore() {
         super();
         ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
@@ -249,18 +265,98 @@ public class EntityPersonAttributesGroupStore
     private Iterator<IEntityGroup> findParentGroupsForEntity(IEntity member)
             throws GroupsException {
 
-        Set<IPersonAttributesGroupDefinition> pagsGroups =
-                personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
-        List<IEntityGroup> results = new ArrayList<IEntityGroup>();
-        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-            IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
-            if (contains(group, member)) {
-                results.add(group);
+        final List<IPersonAttributesGroupDefinition> pagsGroups =
+                new ArrayList<IPersonAttributesGroupDefinition>(
+                        personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions());
+        //Sorted so the same definitions always produce the same index
+        Collections.sort(pagsGroups, GROUP_DEFINITION_NAME_COMPARATOR);
+
+        final List<IEntityGroup> groups = new ArrayList<IEntityGroup>(pagsGroups.size());
+        final List<PagsGroup> groupDefs = new ArrayList<PagsGroup>(pagsGroups.size());
+        final Boolean[] answers = new Boolean[pagsGroups.size()];
+        boolean allCached = true;
+        for (int i = 0; i < pagsGroups.size(); i++) {
+            final IPersonAttributesGroupDefinition pagsGroup = pagsGroups.get(i);
+            final IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
+            groups.add(group);
+            groupDefs.add(initGroupDef(pagsGroup));
+
+            final Element element =
+                    membershipCache.get(
+                            new MembershipCacheKey(
+                                    group.getEntityIdentifier(),
+                                    member.getUnderlyingEntityIdentifier()));
+            if (element != null) {
+                answers[i] = (Boolean) element.getObjectValue();
+            } else {
+                allCached = false;
+            }
+        }
+
+        if (!allCached) {
+            //Evaluate every group for the person in one pass and remember the new answers
+            final BitSet memberships;
+            try {
+                memberships = evaluateMemberships(member, groupDefs);
+            } catch (Exception ex) {
+                logger.error(
+                        "Exception acquiring attributes for member "
+                                + member
+                                + " while finding the groups that contain this member.",
+                        ex);
+                return getContainingGroups(groups, answers);
+            }
+
+            for (int i = 0; i < answers.length; i++) {
+                if (answers[i] == null) {
+                    answers[i] = memberships.get(i);
+                    membershipCache.put(
+                            new Element(
+                                    new MembershipCacheKey(
+                                            groups.get(i).getEntityIdentifier(),
+                                            member.getUnderlyingEntityIdentifier()),
+                                    answers[i]));
+                }
+            }
+        }
+
+        return getContainingGroups(groups, answers);
+    }
+
+    private Iterator<IEntityGroup> getContainingGroups(
+            List<IEntityGroup> groups, Boolean[] answers) {
+        final List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+        for (int i = 0; i < answers.length; i++) {
+            if (Boolean.TRUE.equals(answers[i])) {
+                results.add(groups.get(i));
             }
         }
         return results.iterator();
     }
 
+    private BitSet evaluateMemberships(IEntity member, List<PagsGroup> groupDefs) {
+        final IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+        final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+        if (personAttributes == null) {
+            return new BitSet();
+        }
+
+        final RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+        rp.setAttributes(personAttributes.getAttributes());
+        return getGroupIndex(groupDefs).evaluate(rp);
+    }
+
+    /** Index built from the current group definitions, rebuilt when any of them is reloaded */
+    private PagsGroupIndex getGroupIndex(List<PagsGroup> groupDefs) {
+        PagsGroupIndex index = this.groupIndex;
+        if (index == null || !index.isIndexOf(groupDefs)) {
+            index = new PagsGroupIndex(groupDefs);
+            logger.debug("Built {}", index);
+            this.groupIndex = index;
+        }
+        return index;
+    }
+
     @Override
     public Iterator<IEntityGroup> findEntitiesForGroup(IEntityGroup group) throws GroupsException {
         // PAGS groups are synthetic;  we don't support this behavior.
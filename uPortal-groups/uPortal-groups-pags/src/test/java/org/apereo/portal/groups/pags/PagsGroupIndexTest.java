@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.groups.pags.testers.ValueExistsTester;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PagsGroupIndexTest {
+
+    @Test
+    public void testEvaluate() {
+        final PagsGroup students =
+                createGroup(new StringEqualsTester(def("affiliation", "student")));
+        final PagsGroup staff =
+                createGroup(
+                        new StringEqualsTester(def("affiliation", "staff")),
+                        new RegexTester(def("department", "IT.*")));
+        final PagsGroup studentsOrIt =
+                createGroup(new StringEqualsTester(def("affiliation", "student")));
+        studentsOrIt.addTestGroup(createTestGroup(new RegexTester(def("department", "IT.*"))));
+        final PagsGroup noTests = new PagsGroup();
+        final PagsGroup everyone = new PagsGroup();
+        everyone.addTestGroup(new TestGroup());
+
+        final PagsGroupIndex index =
+                new PagsGroupIndex(
+                        Arrays.asList(students, staff, studentsOrIt, noTests, null, everyone));
+
+        final IPerson person = new PersonImpl();
+        person.setAttribute("affiliation", Arrays.<Object>asList("staff", "alum"));
+        person.setAttribute("department", "ITS");
+
+        final BitSet members = index.evaluate(person);
+        Assert.assertEquals(bits(1, 2, 5), members);
+    }
+
+    @Test
+    public void testSharedTesters() {
+        final CountingTester counting = new CountingTester();
+        final PagsGroup first = createGroup(new StringEqualsTester(def("a", "1")), counting);
+        final PagsGroup second = createGroup(counting);
+        final PagsGroup third = createGroup(new ValueExistsTester(def("b", null)), counting);
+
+        final IPerson person = new PersonImpl();
+        person.setAttribute("a", "1");
+
+        final BitSet members =
+                new PagsGroupIndex(Arrays.asList(first, second, third)).evaluate(person);
+        Assert.assertEquals(bits(0, 1), members);
+        Assert.assertEquals(1, counting.count);
+    }
+
+    @Test
+    public void testMatchesPagsGroupContains() {
+        final Random random = new Random(42);
+        final String[] values = {"a", "b", "c", "d"};
+        final List<PagsGroup> groups = new ArrayList<PagsGroup>();
+        for (int g = 0; g < 50; g++) {
+            final PagsGroup group = new PagsGroup();
+            for (int t = random.nextInt(3); t > 0; t--) {
+                final TestGroup testGroup = new TestGroup();
+                for (int i = random.nextInt(3); i > 0; i--) {
+                    final String attribute = "attr" + random.nextInt(3);
+                    final String value = values[random.nextInt(values.length)];
+                    testGroup.addTest(
+                            random.nextBoolean()
+                                    ? new StringEqualsTester(def(attribute, value))
+                                    : new RegexTester(def(attribute, "[" + value + "b]")));
+                }
+                group.addTestGroup(testGroup);
+            }
+            groups.add(group);
+        }
+
+        final PagsGroupIndex index = new PagsGroupIndex(groups);
+        Assert.assertTrue(index.isIndexOf(new ArrayList<PagsGroup>(groups)));
+
+        for (int p = 0; p < 20; p++) {
+            final IPerson person = new PersonImpl();
+            for (int a = 0; a < 3; a++) {
+                if (random.nextBoolean()) {
+                    person.setAttribute(
+                            "attr" + a,
+                            Arrays.<Object>asList(
+                                    values[random.nextInt(values.length)],
+                                    values[random.nextInt(values.length)]));
+                }
+            }
+
+            final BitSet members = index.evaluate(person);
+            for (int g = 0; g < groups.size(); g++) {
+                Assert.assertEquals(groups.get(g).contains(person), members.get(g));
+            }
+        }
+    }
+
+    private static TestPersonAttributesGroupTestDefinition def(String attribute, String value) {
+        return new TestPersonAttributesGroupTestDefinition(attribute, value);
+    }
+
+    private static PagsGroup createGroup(IPersonTester... testers) {
+        final PagsGroup group = new PagsGroup();
+        group.addTestGroup(createTestGroup(testers));
+        return group;
+    }
+
+    private static TestGroup createTestGroup(IPersonTester... testers) {
+        final TestGroup testGroup = new TestGroup();
+        for (final IPersonTester tester : testers) {
+            testGroup.addTest(tester);
+        }
+        return testGroup;
+    }
+
+    private static BitSet bits(int... indexes) {
+        final BitSet bits = new BitSet();
+        for (final int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    private static final class CountingTester implements IPersonTester {
+        private int count;
+
+        @Override
+        public boolean test(IPerson person) {
+            count++;
+            return true;
+        }
+    }
+}
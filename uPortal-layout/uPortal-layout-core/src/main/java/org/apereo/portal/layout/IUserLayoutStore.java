@@ -197,6 +197,16 @@ public interface IUserLayoutStore {
 
     Document getFragmentLayout(IPerson person, IUserProfile profile);
 
+    /**
+     * Returns a value that increases every time a save changes the user's layout, two changes
+     * within the same second get different values.
+     *
+     * @param username
+     * @return The revision of the user's layout, 0 if it has not been saved and -1 if the user does
+     *     not exist
+     */
+    long getLayoutRevision(String username);
+
     /**
      * Generates a new struct id for directive elements that dlm places in the PLF version of the
      * layout tree. These elements are atifacts of the dlm storage model and used during merge but
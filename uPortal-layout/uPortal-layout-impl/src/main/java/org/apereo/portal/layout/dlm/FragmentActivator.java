@@ -25,6 +25,7 @@ import java.util.regex.Pattern;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
 import net.sf.ehcache.constructs.blocking.SelfPopulatingCache;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apereo.portal.AuthorizationException;
@@ -50,12 +51,13 @@ public class FragmentActivator {
     private static final String NEWLY_CREATED_ATTR = "newlyCreated";
     private static final Log LOG = LogFactory.getLog(FragmentActivator.class);
 
-    private final LoadingCache<String, List<Locale>> fragmentOwnerLocales =
+    private final LoadingCache<String, CopyOnWriteArrayList<Locale>> fragmentOwnerLocales =
             CacheBuilder.newBuilder()
-                    .<String, List<Locale>>build(
-                            new CacheLoader<String, List<Locale>>() {
+                    .<String, CopyOnWriteArrayList<Locale>>build(
+                            new CacheLoader<String, CopyOnWriteArrayList<Locale>>() {
                                 @Override
-                                public List<Locale> load(String key) throws Exception {
+                                public CopyOnWriteArrayList<Locale> load(String key)
+                                        throws Exception {
                                     return new CopyOnWriteArrayList<Locale>();
                                 }
                             });
@@ -65,6 +67,7 @@ public class FragmentActivator {
     private IUserIdentityStore identityStore;
     private IUserLayoutStore userLayoutStore;
     private ConfigurationLoader configurationLoader;
+    private UserViewSnapshotStore userViewSnapshotStore;
 
     private static final String PROPERTY_ALLOW_EXPANDED_CONTENT =
             "org.apereo.portal.layout.dlm.allowExpandedContent";
@@ -106,6 +109,28 @@ public class FragmentActivator {
                                 }
                             }
                         });
+
+        //A removal, local or replicated, means the owner's layout changed so drop its snapshots
+        userViews
+                .getCacheEventNotificationService()
+                .registerListener(
+                        new CacheEventListenerAdapter() {
+                            @Override
+                            public void notifyElementRemoved(
+                                    Ehcache cache, net.sf.ehcache.Element element) {
+                                final UserViewSnapshotStore snapshotStore = userViewSnapshotStore;
+                                if (snapshotStore != null && element != null) {
+                                    final UserViewKey userViewKey =
+                                            (UserViewKey) element.getObjectKey();
+                                    snapshotStore.removeUserViews(userViewKey.getOwnerId());
+                                }
+                            }
+                        });
+    }
+
+    @Autowired
+    public void setUserViewSnapshotStore(UserViewSnapshotStore userViewSnapshotStore) {
+        this.userViewSnapshotStore = userViewSnapshotStore;
     }
 
     @Autowired
@@ -183,7 +208,8 @@ public class FragmentActivator {
 
         final Locale locale = userViewKey.getLocale();
 
-        fragmentOwnerLocales.getUnchecked(ownerId).add(locale);
+        final boolean firstActivation =
+                fragmentOwnerLocales.getUnchecked(ownerId).addIfAbsent(locale);
 
         if (fd.isNoAudienceIncluded()) {
             if (LOG.isDebugEnabled()) {
@@ -197,6 +223,32 @@ public class FragmentActivator {
             return null;
         }
 
+        //Read before the layout is loaded so a save made while loading makes the snapshot stale
+        final long layoutRevision =
+                this.userViewSnapshotStore.isEnabled()
+                        ? this.userLayoutStore.getLayoutRevision(ownerId)
+                        : -1;
+
+        //Warm start from the snapshot written before this node was restarted
+        if (firstActivation) {
+            final UserView snapshotView =
+                    this.userViewSnapshotStore.loadUserView(fd, locale, layoutRevision);
+            if (snapshotView != null) {
+                final Element layout = snapshotView.getLayout().getDocumentElement();
+                setIdAttributes(layout);
+
+                if (LOG.isInfoEnabled()) {
+                    LOG.info(
+                            "Activated FragmentDefinition "
+                                    + fd.getName()
+                                    + " with locale "
+                                    + locale
+                                    + " from snapshot");
+                }
+                return snapshotView;
+            }
+        }
+
         if (LOG.isDebugEnabled()) {
             LOG.debug("Activating FragmentDefinition " + fd.getName() + " with locale " + locale);
         }
@@ -223,6 +275,7 @@ public class FragmentActivator {
 
         loadPreferences(view, fd);
         fragmentizeLayout(view, fd);
+        this.userViewSnapshotStore.storeUserView(fd, locale, layoutRevision, view);
 
         if (LOG.isInfoEnabled()) {
             LOG.info("Activated FragmentDefinition " + fd.getName() + " with locale " + locale);
@@ -479,7 +532,27 @@ public class FragmentActivator {
         }
     }
 
+    /**
+     * Parsed snapshots have no DTD so mark the ID attributes set by {@link #setIdsAndAttribs} again
+     * for {@link Document#getElementById(String)} to work.
+     */
+    private void setIdAttributes(Element parent) {
+        NodeList children = parent.getChildNodes();
+
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                Element child = (Element) children.item(i);
+                if (!child.getAttribute(Constants.ATT_ID).equals("")) {
+                    child.setIdAttribute(Constants.ATT_ID, true);
+                    setIdAttributes(child);
+                }
+            }
+        }
+    }
+
     public void clearChacheForOwner(final String ownerId) {
+        this.userViewSnapshotStore.removeUserViews(ownerId);
+
         final List<Locale> locales = fragmentOwnerLocales.getIfPresent(ownerId);
         if (locales == null) {
             //Nothing to purge
@@ -0,0 +1,256 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import javax.xml.parsers.DocumentBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apereo.portal.properties.PropertiesManager;
+import org.apereo.portal.utils.DocumentFactory;
+import org.apereo.portal.xml.XmlUtilitiesImpl;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Stores activated fragment {@link UserView}s as files so a restarted node can activate fragments
+ * without reading every fragment owner's layout from the database. Each snapshot records the
+ * revision of the owner's layout and the fragment definition settings it was built with and is
+ * ignored if either no longer matches or if it is older than the configured maximum age. Snapshots
+ * for an owner are also deleted whenever the owner's cached views are cleared.
+ *
+ * <p>The default directory is under {@code java.io.tmpdir} and is local to each node, which is safe
+ * as layout changes made on other nodes are detected by the revision check. Configure a directory
+ * outside of the temporary directory if snapshots should survive the operating system cleaning it.
+ */
+@Service
+public class UserViewSnapshotStore {
+    private static final int FORMAT_VERSION = 2;
+    private static final String SNAPSHOT_SUFFIX = ".view";
+    private static final String PROPERTY_ALLOW_EXPANDED_CONTENT =
+            "org.apereo.portal.layout.dlm.allowExpandedContent";
+    private static final Log LOG = LogFactory.getLog(UserViewSnapshotStore.class);
+
+    private boolean enabled = false;
+    private File directory = new File(System.getProperty("java.io.tmpdir"), "uPortal-user-views");
+    private long maxAge = 24 * 60 * 60 * 1000;
+
+    /** If activated fragment views should be written to and read from snapshots */
+    @Value("${org.apereo.portal.layout.dlm.UserViewSnapshotStore.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Directory snapshots are written to, defaults to a node local temporary directory */
+    @Value(
+            "${org.apereo.portal.layout.dlm.UserViewSnapshotStore.directory:${java.io.tmpdir}/uPortal-user-views}")
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /** Maximum age in milliseconds of a snapshot that will be used, defaults to one day */
+    @Value("${org.apereo.portal.layout.dlm.UserViewSnapshotStore.maxAge:86400000}")
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @param layoutRevision The current layout revision of the fragment owner, see {@link
+     *     org.apereo.portal.layout.IUserLayoutStore#getLayoutRevision(String)}
+     * @return The snapshot of the activated view of the fragment for the locale, null if there is
+     *     no usable snapshot
+     */
+    public UserView loadUserView(FragmentDefinition fragment, Locale locale, long layoutRevision) {
+        if (!this.enabled || layoutRevision < 0) {
+            return null;
+        }
+
+        final File snapshotFile = this.getSnapshotFile(fragment.getOwnerId(), locale);
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+
+        try {
+            final DataInputStream in =
+                    new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(snapshotFile)));
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    LOG.debug("Ignoring snapshot with a different format: " + snapshotFile);
+                    return null;
+                }
+
+                final long written = in.readLong();
+                if (System.currentTimeMillis() - written > this.maxAge) {
+                    LOG.debug("Ignoring expired snapshot: " + snapshotFile);
+                    return null;
+                }
+
+                if (in.readLong() != layoutRevision) {
+                    LOG.debug("Ignoring snapshot of a changed layout: " + snapshotFile);
+                    return null;
+                }
+
+                if (!fragment.getOwnerId().equals(in.readUTF())
+                        || !toString(locale).equals(in.readUTF())
+                        || !getFragmentSettings(fragment).equals(in.readUTF())) {
+                    LOG.debug("Ignoring snapshot of a changed fragment: " + snapshotFile);
+                    return null;
+                }
+
+                final UserView view = new UserView(in.readInt());
+                view.setLayoutId(in.readInt());
+                view.setProfileId(in.readInt());
+
+                final byte[] layoutBytes = new byte[in.readInt()];
+                in.readFully(layoutBytes);
+                view.setLayout(parseLayout(new String(layoutBytes, Charsets.UTF_8)));
+                return view;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read fragment view snapshot, ignoring it: " + snapshotFile, e);
+        } catch (SAXException e) {
+            LOG.warn("Failed to parse fragment view snapshot, ignoring it: " + snapshotFile, e);
+        }
+        return null;
+    }
+
+    /**
+     * Write a snapshot of the activated view of the fragment for the locale
+     *
+     * @param layoutRevision The revision of the fragment owner's layout read before the view was
+     *     loaded
+     */
+    public void storeUserView(
+            FragmentDefinition fragment, Locale locale, long layoutRevision, UserView view) {
+        if (!this.enabled || layoutRevision < 0 || view.getLayout() == null) {
+            return;
+        }
+
+        final File snapshotFile = this.getSnapshotFile(fragment.getOwnerId(), locale);
+        final File ownerDirectory = snapshotFile.getParentFile();
+        if (!ownerDirectory.isDirectory() && !ownerDirectory.mkdirs()) {
+            LOG.warn("Failed to create fragment view snapshot directory: " + ownerDirectory);
+            return;
+        }
+
+        final byte[] layoutBytes =
+                XmlUtilitiesImpl.toString(view.getLayout()).getBytes(Charsets.UTF_8);
+
+        //Write to a temporary file and rename so a partially written snapshot is never read
+        final File tempFile = new File(ownerDirectory, snapshotFile.getName() + ".tmp");
+        try {
+            final DataOutputStream out =
+                    new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeLong(layoutRevision);
+                out.writeUTF(fragment.getOwnerId());
+                out.writeUTF(toString(locale));
+                out.writeUTF(getFragmentSettings(fragment));
+                out.writeInt(view.getUserId());
+                out.writeInt(view.getLayoutId());
+                out.writeInt(view.getProfileId());
+                out.writeInt(layoutBytes.length);
+                out.write(layoutBytes);
+            } finally {
+                out.close();
+            }
+
+            if (!tempFile.renameTo(snapshotFile)) {
+                //Some platforms will not rename over an existing file
+                snapshotFile.delete();
+                if (!tempFile.renameTo(snapshotFile)) {
+                    throw new IOException("Failed to rename " + tempFile + " to " + snapshotFile);
+                }
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            LOG.warn("Failed to write fragment view snapshot: " + snapshotFile, e);
+        }
+    }
+
+    /** Delete all snapshots for the fragment owner */
+    public void removeUserViews(String ownerId) {
+        if (!this.enabled) {
+            return;
+        }
+
+        final File ownerDirectory = this.getOwnerDirectory(ownerId);
+        final File[] snapshotFiles = ownerDirectory.listFiles();
+        if (snapshotFiles == null) {
+            return;
+        }
+
+        for (final File snapshotFile : snapshotFiles) {
+            if (!snapshotFile.delete() && snapshotFile.exists()) {
+                LOG.warn("Failed to delete fragment view snapshot: " + snapshotFile);
+            }
+        }
+        ownerDirectory.delete();
+    }
+
+    private File getOwnerDirectory(String ownerId) {
+        return new File(
+                this.directory, Hashing.sha1().hashString(ownerId, Charsets.UTF_8).toString());
+    }
+
+    private File getSnapshotFile(String ownerId, Locale locale) {
+        final String localeName = locale == null ? "default" : locale.toString();
+        return new File(this.getOwnerDirectory(ownerId), localeName + SNAPSHOT_SUFFIX);
+    }
+
+    private static String toString(Locale locale) {
+        return locale == null ? "" : locale.toString();
+    }
+
+    /** Settings used by {@link FragmentActivator} when fragmentizing the owner's layout */
+    private static String getFragmentSettings(FragmentDefinition fragment) {
+        return fragment.getName()
+                + "|"
+                + fragment.getIndex()
+                + "|"
+                + fragment.getPrecedence()
+                + "|"
+                + PropertiesManager.getProperty(PROPERTY_ALLOW_EXPANDED_CONTENT, "false");
+    }
+
+    private static Document parseLayout(String layout) throws IOException, SAXException {
+        final DocumentBuilder documentBuilder = DocumentFactory.getThreadDocumentBuilder();
+        return documentBuilder.parse(new InputSource(new StringReader(layout)));
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In memory form of the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a single user layout. Used by
+ * {@link RDBMUserLayoutStore} to compare the rows for a layout being saved with the rows already
+ * in the database so that only the differences are written.
+ */
+public final class LayoutRows {
+    private final Map<Integer, StructRow> structs = new LinkedHashMap<Integer, StructRow>();
+    private final Map<Integer, Map<String, String>> parameters =
+            new LinkedHashMap<Integer, Map<String, String>>();
+
+    public void addStruct(StructRow struct) {
+        this.structs.put(struct.getStructId(), struct);
+    }
+
+    public void addParameter(int structId, String name, String value) {
+        Map<String, String> structParameters = this.parameters.get(structId);
+        if (structParameters == null) {
+            structParameters = new LinkedHashMap<String, String>();
+            this.parameters.put(structId, structParameters);
+        }
+        structParameters.put(name, value);
+    }
+
+    /** @return UP_LAYOUT_STRUCT rows keyed by STRUCT_ID */
+    public Map<Integer, StructRow> getStructs() {
+        return Collections.unmodifiableMap(this.structs);
+    }
+
+    /** @return UP_LAYOUT_PARAM name/value pairs keyed by STRUCT_ID */
+    public Map<Integer, Map<String, String>> getParameters() {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+
+    /** @return Parameters for the struct, empty if there are none */
+    public Map<String, String> getParameters(int structId) {
+        final Map<String, String> structParameters = this.parameters.get(structId);
+        if (structParameters == null) {
+            return Collections.emptyMap();
+        }
+        return structParameters;
+    }
+
+    /**
+     * Compares two column values, empty strings are treated as equal to null as some databases
+     * store empty strings as NULL.
+     */
+    static boolean sameValue(String a, String b) {
+        if (a == null || a.length() == 0) {
+            return b == null || b.length() == 0;
+        }
+        return a.equals(b);
+    }
+
+    /** A single UP_LAYOUT_STRUCT row */
+    public static final class StructRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final String externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+
+        public StructRow(
+                int structId,
+                int nextStructId,
+                int childStructId,
+                String externalId,
+                Integer chanId,
+                String name,
+                String type,
+                String hidden,
+                String immutable,
+                String unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = externalId;
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+
+        public int getNextStructId() {
+            return this.nextStructId;
+        }
+
+        public int getChildStructId() {
+            return this.childStructId;
+        }
+
+        public String getExternalId() {
+            return this.externalId;
+        }
+
+        public Integer getChanId() {
+            return this.chanId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getHidden() {
+            return this.hidden;
+        }
+
+        public String getImmutable() {
+            return this.immutable;
+        }
+
+        public String getUnremovable() {
+            return this.unremovable;
+        }
+
+        /** @return true if all persisted columns of the two rows have the same value */
+        public boolean isSameRow(StructRow other) {
+            return this.structId == other.structId
+                    && this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && sameValue(this.externalId, other.externalId)
+                    && (this.chanId == null
+                            ? other.chanId == null
+                            : this.chanId.equals(other.chanId))
+                    && sameValue(this.name, other.name)
+                    && sameValue(this.type, other.type)
+                    && sameValue(this.hidden, other.hidden)
+                    && sameValue(this.immutable, other.immutable)
+                    && sameValue(this.unremovable, other.unremovable);
+        }
+
+        @Override
+        public String toString() {
+            return "StructRow [structId="
+                    + this.structId
+                    + ", nextStructId="
+                    + this.nextStructId
+                    + ", childStructId="
+                    + this.childStructId
+                    + ", chanId="
+                    + this.chanId
+                    + ", name="
+                    + this.name
+                    + ", type="
+                    + this.type
+                    + "]";
+        }
+    }
+}
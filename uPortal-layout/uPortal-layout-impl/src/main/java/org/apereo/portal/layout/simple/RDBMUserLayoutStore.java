@@ -20,6 +20,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -1101,9 +1103,442 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-    protected abstract int saveStructure(
-            Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException;
+    /**
+     * Add the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for the node, its children and its
+     * following siblings to the layout rows.
+     *
+     * @return The struct id of the node, 0 if the node is not persisted
+     */
+    protected abstract int saveStructure(Node node, LayoutRows layoutRows);
+
+    /**
+     * Lock the UP_USER_LAYOUT row of the layout until the transaction ends, concurrent saves of the
+     * same layout then compare against each other's committed rows instead of inserting the same
+     * rows. A layout without a row yet is saved for the first time and is not locked.
+     */
+    protected void lockUserLayout(Connection con, int userId, int layoutId) throws SQLException {
+        final String sql =
+                "UPDATE UP_USER_LAYOUT SET INIT_STRUCT_ID=INIT_STRUCT_ID WHERE USER_ID=? AND LAYOUT_ID=?";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    /** Load the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows currently stored for the layout */
+    protected LayoutRows loadLayoutRows(Connection con, int userId, int layoutId)
+            throws SQLException {
+        final LayoutRows layoutRows = new LayoutRows();
+
+        String sql =
+                "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+                        + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+        PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    Integer chanId = rs.getInt(5);
+                    if (rs.wasNull()) {
+                        chanId = null;
+                    }
+                    layoutRows.addStruct(
+                            new LayoutRows.StructRow(
+                                    rs.getInt(1),
+                                    rs.getInt(2),
+                                    rs.getInt(3),
+                                    rs.getString(4),
+                                    chanId,
+                                    rs.getString(6),
+                                    rs.getString(7),
+                                    rs.getString(8),
+                                    rs.getString(9),
+                                    rs.getString(10)));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        sql =
+                "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+        pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    layoutRows.addParameter(rs.getInt(1), rs.getString(2), rs.getString(3));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        return layoutRows;
+    }
+
+    /**
+     * Write the differences between the currently stored rows and the new rows for the layout. All
+     * statements of a type are sent as a single JDBC batch, parameters are deleted before structs
+     * and structs are written before parameters. A row that no longer exists when it is updated is
+     * inserted instead.
+     *
+     * @return true if any row was written
+     */
+    protected boolean storeLayoutRowChanges(
+            Connection con, int userId, int layoutId, LayoutRows storedRows, LayoutRows newRows)
+            throws SQLException {
+        final Map<Integer, LayoutRows.StructRow> storedStructs = storedRows.getStructs();
+        final Map<Integer, LayoutRows.StructRow> newStructs = newRows.getStructs();
+
+        //Parameter deletes, includes all parameters of deleted structs
+        PreparedStatement pstmt =
+                con.prepareStatement(
+                        "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?");
+        int paramDeletes = 0;
+        try {
+            for (final Map.Entry<Integer, Map<String, String>> storedParamsEntry :
+                    storedRows.getParameters().entrySet()) {
+                final int structId = storedParamsEntry.getKey();
+                final Map<String, String> newParams = newRows.getParameters(structId);
+                for (final String name : storedParamsEntry.getValue().keySet()) {
+                    if (!newParams.containsKey(name)) {
+                        pstmt.setInt(1, userId);
+                        pstmt.setInt(2, layoutId);
+                        pstmt.setInt(3, structId);
+                        pstmt.setString(4, name);
+                        pstmt.addBatch();
+                        paramDeletes++;
+                    }
+                }
+            }
+            if (paramDeletes > 0) {
+                pstmt.executeBatch();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        //Struct deletes
+        pstmt =
+                con.prepareStatement(
+                        "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?");
+        int structDeletes = 0;
+        try {
+            for (final Integer structId : storedStructs.keySet()) {
+                if (!newStructs.containsKey(structId)) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, structId);
+                    pstmt.addBatch();
+                    structDeletes++;
+                }
+            }
+            if (structDeletes > 0) {
+                pstmt.executeBatch();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        //Struct inserts and updates
+        final PreparedStatement insertStmt =
+                con.prepareStatement(
+                        "INSERT INTO UP_LAYOUT_STRUCT "
+                                + "(NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE, USER_ID, LAYOUT_ID, STRUCT_ID) "
+                                + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)");
+        final PreparedStatement updateStmt =
+                con.prepareStatement(
+                        "UPDATE UP_LAYOUT_STRUCT "
+                                + "SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? "
+                                + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?");
+        int structInserts = 0;
+        final List<LayoutRows.StructRow> structUpdates = new ArrayList<LayoutRows.StructRow>();
+        try {
+            for (final LayoutRows.StructRow newStruct : newStructs.values()) {
+                final LayoutRows.StructRow storedStruct =
+                        storedStructs.get(newStruct.getStructId());
+                if (storedStruct == null) {
+                    this.setStructRowParameters(insertStmt, userId, layoutId, newStruct);
+                    insertStmt.addBatch();
+                    structInserts++;
+                } else if (!storedStruct.isSameRow(newStruct)) {
+                    this.setStructRowParameters(updateStmt, userId, layoutId, newStruct);
+                    updateStmt.addBatch();
+                    structUpdates.add(newStruct);
+                }
+            }
+            if (!structUpdates.isEmpty()) {
+                //Rows deleted since they were loaded are inserted instead
+                for (final int missing : executeBatchForMissingRows(updateStmt)) {
+                    final LayoutRows.StructRow newStruct = structUpdates.get(missing);
+                    logger.debug(
+                            "Inserting {}, it was removed before it could be updated", newStruct);
+                    this.setStructRowParameters(insertStmt, userId, layoutId, newStruct);
+                    insertStmt.addBatch();
+                    structInserts++;
+                }
+            }
+            if (structInserts > 0) {
+                insertStmt.executeBatch();
+            }
+        } finally {
+            insertStmt.close();
+            updateStmt.close();
+        }
+
+        //Parameter inserts and updates
+        final PreparedStatement paramInsertStmt =
+                con.prepareStatement(
+                        "INSERT INTO UP_LAYOUT_PARAM "
+                                + "(STRUCT_PARM_VAL, USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM) "
+                                + "VALUES (?,?,?,?,?)");
+        final PreparedStatement paramUpdateStmt =
+                con.prepareStatement(
+                        "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? "
+                                + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?");
+        int paramInserts = 0;
+        final List<ParamRow> paramUpdates = new ArrayList<ParamRow>();
+        try {
+            for (final Map.Entry<Integer, Map<String, String>> newParamsEntry :
+                    newRows.getParameters().entrySet()) {
+                final int structId = newParamsEntry.getKey();
+                final Map<String, String> storedParams = storedRows.getParameters(structId);
+                for (final Map.Entry<String, String> newParam :
+                        newParamsEntry.getValue().entrySet()) {
+                    if (!storedParams.containsKey(newParam.getKey())) {
+                        setParamRowParameters(
+                                paramInsertStmt,
+                                userId,
+                                layoutId,
+                                structId,
+                                newParam.getKey(),
+                                newParam.getValue());
+                        paramInsertStmt.addBatch();
+                        paramInserts++;
+                    } else if (!LayoutRows.sameValue(
+                            storedParams.get(newParam.getKey()), newParam.getValue())) {
+                        setParamRowParameters(
+                                paramUpdateStmt,
+                                userId,
+                                layoutId,
+                                structId,
+                                newParam.getKey(),
+                                newParam.getValue());
+                        paramUpdateStmt.addBatch();
+                        paramUpdates.add(
+                                new ParamRow(structId, newParam.getKey(), newParam.getValue()));
+                    }
+                }
+            }
+            if (!paramUpdates.isEmpty()) {
+                //Rows deleted since they were loaded are inserted instead
+                for (final int missing : executeBatchForMissingRows(paramUpdateStmt)) {
+                    final ParamRow paramUpdate = paramUpdates.get(missing);
+                    setParamRowParameters(
+                            paramInsertStmt,
+                            userId,
+                            layoutId,
+                            paramUpdate.structId,
+                            paramUpdate.name,
+                            paramUpdate.value);
+                    paramInsertStmt.addBatch();
+                    paramInserts++;
+                }
+            }
+            if (paramInserts > 0) {
+                paramInsertStmt.executeBatch();
+            }
+        } finally {
+            paramInsertStmt.close();
+            paramUpdateStmt.close();
+        }
+
+        logger.debug(
+                "Layout {} for user {}: {} struct inserts, {} struct updates, {} struct deletes, {} param inserts, {} param updates, {} param deletes",
+                layoutId,
+                userId,
+                structInserts,
+                structUpdates.size(),
+                structDeletes,
+                paramInserts,
+                paramUpdates.size(),
+                paramDeletes);
+
+        return structInserts + structUpdates.size() + structDeletes > 0
+                || paramInserts + paramUpdates.size() + paramDeletes > 0;
+    }
+
+    /**
+     * Execute the batch and find the statements that did not change a row. Drivers that do not
+     * report update counts are trusted to have changed the row.
+     *
+     * @return Indexes of the statements in the batch that changed no rows
+     */
+    private static List<Integer> executeBatchForMissingRows(PreparedStatement pstmt)
+            throws SQLException {
+        final int[] updateCounts = pstmt.executeBatch();
+        final List<Integer> missing = new ArrayList<Integer>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    /** A UP_LAYOUT_PARAM row waiting on the result of its UPDATE */
+    private static final class ParamRow {
+        private final int structId;
+        private final String name;
+        private final String value;
+
+        ParamRow(int structId, String name, String value) {
+            this.structId = structId;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Sets the parameters shared by the parameter INSERT and UPDATE statements, STRUCT_PARM_VAL
+     * comes first followed by USER_ID, LAYOUT_ID, STRUCT_ID and STRUCT_PARM_NM.
+     */
+    private static void setParamRowParameters(
+            PreparedStatement pstmt,
+            int userId,
+            int layoutId,
+            int structId,
+            String name,
+            String value)
+            throws SQLException {
+        pstmt.setString(1, value);
+        pstmt.setInt(2, userId);
+        pstmt.setInt(3, layoutId);
+        pstmt.setInt(4, structId);
+        pstmt.setString(5, name);
+    }
+
+    /**
+     * Sets the parameters shared by the struct INSERT and UPDATE statements, the struct columns
+     * come first followed by USER_ID, LAYOUT_ID and STRUCT_ID.
+     */
+    private void setStructRowParameters(
+            PreparedStatement pstmt, int userId, int layoutId, LayoutRows.StructRow struct)
+            throws SQLException {
+        pstmt.setInt(1, struct.getNextStructId());
+        pstmt.setInt(2, struct.getChildStructId());
+        if (struct.getExternalId() != null) {
+            pstmt.setString(3, struct.getExternalId());
+        } else {
+            pstmt.setNull(3, java.sql.Types.VARCHAR);
+        }
+        if (struct.getChanId() != null) {
+            pstmt.setInt(4, struct.getChanId());
+        } else {
+            pstmt.setNull(4, java.sql.Types.NUMERIC);
+        }
+        if (struct.getName() != null) {
+            pstmt.setString(5, struct.getName());
+        } else {
+            pstmt.setNull(5, java.sql.Types.VARCHAR);
+        }
+        pstmt.setString(6, struct.getType());
+        pstmt.setString(7, struct.getHidden());
+        pstmt.setString(8, struct.getImmutable());
+        pstmt.setString(9, struct.getUnremovable());
+        pstmt.setInt(10, userId);
+        pstmt.setInt(11, layoutId);
+        pstmt.setInt(12, struct.getStructId());
+    }
+
+    @Override
+    public long getLayoutRevision(String username) {
+        final List<Timestamp> updated =
+                this.jdbcOperations.queryForList(
+                        "SELECT LST_CHAN_UPDT_DT FROM UP_USER WHERE USER_NAME=?",
+                        Timestamp.class,
+                        username);
+        if (updated.isEmpty()) {
+            return -1;
+        }
+        //Users are created without a time, it is set the first time their layout is saved
+        final Timestamp revision = updated.get(0);
+        return revision == null ? 0 : revision.getTime();
+    }
+
+    /**
+     * Move the layout revision of the user forward, see {@link #getLayoutRevision(String)}. Some
+     * databases only store LST_CHAN_UPDT_DT to the second so the new value is at least one second
+     * after the stored value, two saves within the same second still get different revisions. The
+     * value is only written if no other save changed it since it was read.
+     */
+    protected void updateLayoutRevision(Connection con, int userId) throws SQLException {
+        while (true) {
+            Timestamp storedRevision = null;
+            String sql = "SELECT LST_CHAN_UPDT_DT FROM UP_USER WHERE USER_ID=?";
+            PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                pstmt.setInt(1, userId);
+                logger.debug(sql);
+                final ResultSet rs = pstmt.executeQuery();
+                try {
+                    if (!rs.next()) {
+                        return;
+                    }
+                    storedRevision = rs.getTimestamp(1);
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                pstmt.close();
+            }
+
+            long revision = System.currentTimeMillis();
+            if (storedRevision != null) {
+                revision = Math.max(revision, storedRevision.getTime() + 1000);
+            }
+
+            if (storedRevision == null) {
+                sql =
+                        "UPDATE UP_USER SET LST_CHAN_UPDT_DT=? WHERE USER_ID=? AND LST_CHAN_UPDT_DT IS NULL";
+            } else {
+                sql =
+                        "UPDATE UP_USER SET LST_CHAN_UPDT_DT=? WHERE USER_ID=? AND LST_CHAN_UPDT_DT=?";
+            }
+            pstmt = con.prepareStatement(sql);
+            try {
+                pstmt.setTimestamp(1, new Timestamp(revision));
+                pstmt.setInt(2, userId);
+                if (storedRevision != null) {
+                    pstmt.setTimestamp(3, storedRevision);
+                }
+                logger.debug(sql);
+                if (pstmt.executeUpdate() > 0) {
+                    return;
+                }
+            } finally {
+                pstmt.close();
+            }
+
+            //Another save of the user's layout changed the revision first, try again
+        }
+    }
 
     /**
      * Save the user layout.
@@ -1155,70 +1590,27 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                             firstLayout = true;
                                         }
 
-                                        String sql =
-                                                "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        PreparedStatement pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        sql =
-                                                "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        PreparedStatement structStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_STRUCT "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?,?,?,?,?,?,?,?)");
-
-                                        PreparedStatement parmStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_PARAM "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?)");
-
-                                        int firstStructId;
-                                        try {
-                                            firstStructId =
-                                                    saveStructure(
-                                                            layoutXML
-                                                                    .getFirstChild()
-                                                                    .getFirstChild(),
-                                                            structStmt,
-                                                            parmStmt);
-                                        } finally {
-                                            structStmt.close();
-                                            parmStmt.close();
-                                        }
+                                        //Only write the rows that differ from what is already stored
+                                        final LayoutRows newRows = new LayoutRows();
+                                        final int firstStructId =
+                                                saveStructure(
+                                                        layoutXML.getFirstChild().getFirstChild(),
+                                                        newRows);
+                                        lockUserLayout(con, userId, layoutId);
+                                        final LayoutRows storedRows =
+                                                loadLayoutRows(con, userId, layoutId);
+                                        boolean layoutChanged =
+                                                storeLayoutRowChanges(
+                                                        con,
+                                                        userId,
+                                                        layoutId,
+                                                        storedRows,
+                                                        newRows);
 
                                         //Check to see if the user has a matching layout
-                                        sql =
+                                        String sql =
                                                 "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
+                                        PreparedStatement pstmt = con.prepareStatement(sql);
                                         try {
                                             pstmt.clearParameters();
                                             pstmt.setInt(1, userId);
@@ -1228,6 +1620,8 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
                                             try {
                                                 if (!rs.next()) {
+                                                    layoutChanged = true;
+
                                                     // If not, the default user is found and the layout rows from the default user are copied for the current user.
                                                     int defaultUserId;
 
@@ -1337,23 +1731,8 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                             pstmt.close();
                                         }
 
-                                        // Update the last time the user saw the list of available channels
-                                        if (channelsAdded) {
-                                            sql =
-                                                    "UPDATE UP_USER SET LST_CHAN_UPDT_DT=? WHERE USER_ID=?";
-                                            pstmt = con.prepareStatement(sql);
-                                            try {
-                                                pstmt.clearParameters();
-                                                pstmt.setDate(
-                                                        1,
-                                                        new java.sql.Date(
-                                                                System.currentTimeMillis()));
-                                                pstmt.setInt(2, userId);
-                                                logger.debug(sql);
-                                                pstmt.executeUpdate();
-                                            } finally {
-                                                pstmt.close();
-                                            }
+                                        if (layoutChanged) {
+                                            updateLayoutRevision(con, userId);
                                         }
 
                                         if (firstLayout) {
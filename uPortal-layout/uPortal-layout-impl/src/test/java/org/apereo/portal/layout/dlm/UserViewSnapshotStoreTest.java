@@ -0,0 +1,140 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Locale;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class UserViewSnapshotStoreTest {
+    private static final long REVISION = 1500000000000L;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private UserViewSnapshotStore snapshotStore;
+    private FragmentDefinition fragment;
+
+    @Before
+    public void setup() throws Exception {
+        this.snapshotStore = new UserViewSnapshotStore();
+        this.snapshotStore.setEnabled(true);
+        this.snapshotStore.setDirectory(this.temporaryFolder.newFolder("views"));
+
+        this.fragment = mock(FragmentDefinition.class);
+        when(this.fragment.getOwnerId()).thenReturn("welcome-lo");
+        when(this.fragment.getName()).thenReturn("Welcome");
+        when(this.fragment.getIndex()).thenReturn(2);
+        when(this.fragment.getPrecedence()).thenReturn(80d);
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+        this.snapshotStore.storeUserView(this.fragment, Locale.US, REVISION, createUserView());
+
+        final UserView view = this.snapshotStore.loadUserView(this.fragment, Locale.US, REVISION);
+        assertNotNull(view);
+        assertEquals(42, view.getUserId());
+        assertEquals(3, view.getLayoutId());
+        assertEquals(1, view.getProfileId());
+
+        final Element folder = (Element) view.getLayout().getDocumentElement().getFirstChild();
+        assertEquals("u42l1s2", folder.getAttribute(Constants.ATT_ID));
+
+        assertNull(this.snapshotStore.loadUserView(this.fragment, Locale.FRANCE, REVISION));
+    }
+
+    @Test
+    public void testRemoveUserViews() {
+        this.snapshotStore.storeUserView(this.fragment, Locale.US, REVISION, createUserView());
+        this.snapshotStore.storeUserView(this.fragment, Locale.FRANCE, REVISION, createUserView());
+
+        this.snapshotStore.removeUserViews("welcome-lo");
+
+        assertNull(this.snapshotStore.loadUserView(this.fragment, Locale.US, REVISION));
+        assertNull(this.snapshotStore.loadUserView(this.fragment, Locale.FRANCE, REVISION));
+    }
+
+    @Test
+    public void testChangedFragmentIgnored() {
+        this.snapshotStore.storeUserView(this.fragment, Locale.US, REVISION, createUserView());
+
+        when(this.fragment.getIndex()).thenReturn(3);
+        assertNull(this.snapshotStore.loadUserView(this.fragment, Locale.US, REVISION));
+    }
+
+    @Test
+    public void testChangedLayoutIgnored() {
+        this.snapshotStore.storeUserView(this.fragment, Locale.US, REVISION, createUserView());
+
+        assertNull(this.snapshotStore.loadUserView(this.fragment, Locale.US, REVISION + 1));
+        assertNotNull(this.snapshotStore.loadUserView(this.fragment, Locale.US, REVISION));
+    }
+
+    @Test
+    public void testUnknownOwnerNotStored() throws Exception {
+        final File directory = this.temporaryFolder.newFolder("unknown");
+        this.snapshotStore.setDirectory(directory);
+        this.snapshotStore.storeUserView(this.fragment, Locale.US, -1, createUserView());
+
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testExpiredSnapshotIgnored() throws Exception {
+        this.snapshotStore.setMaxAge(-1);
+        this.snapshotStore.storeUserView(this.fragment, Locale.US, REVISION, createUserView());
+
+        assertNull(this.snapshotStore.loadUserView(this.fragment, Locale.US, REVISION));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final File directory = this.temporaryFolder.newFolder("disabled");
+        this.snapshotStore.setDirectory(directory);
+        this.snapshotStore.setEnabled(false);
+        this.snapshotStore.storeUserView(this.fragment, Locale.US, REVISION, createUserView());
+
+        assertEquals(0, directory.list().length);
+        assertNull(this.snapshotStore.loadUserView(this.fragment, Locale.US, REVISION));
+    }
+
+    private UserView createUserView() {
+        final Document layout = DocumentFactory.getThreadDocument();
+        final Element root = layout.createElement("layout");
+        root.setAttribute(Constants.ATT_ID, "u42l1");
+        layout.appendChild(root);
+
+        final Element folder = layout.createElement("folder");
+        folder.setAttribute(Constants.ATT_ID, "u42l1s2");
+        root.appendChild(folder);
+
+        final UserView view = new UserView(42);
+        view.setLayoutId(3);
+        view.setLayout(layout);
+        return view;
+    }
+}
@@ -17,12 +17,17 @@ package org.apereo.portal.portlets.search;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -30,8 +35,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 import javax.portlet.ActionRequest;
@@ -74,15 +85,20 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.expression.spel.SpelEvaluationException;
 import org.springframework.expression.spel.SpelParseException;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.ClassUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.portlet.ModelAndView;
 import org.springframework.web.portlet.bind.annotation.ActionMapping;
 import org.springframework.web.portlet.bind.annotation.EventMapping;
 import org.springframework.web.portlet.bind.annotation.ResourceMapping;
+import org.springframework.web.portlet.context.PortletRequestAttributes;
 
 /**
  * SearchPortletController produces both a search form and results for configured search services.
@@ -112,6 +128,9 @@ public class SearchPortletController {
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortalRequestUtils portalRequestUtils;
     private List<IPortalSearchService> searchServices;
+    private ExecutorService searchServiceExecutor;
+    private long searchServiceTimeout = 5000;
+    private SearchServiceMonitor searchServiceMonitor = new SearchServiceMonitor();
 
     // Map from result-type -> Set<tab-key>
     private Map<String, Set<String>> resultTypeMappings = Collections.emptyMap();
@@ -137,6 +156,31 @@ public class SearchPortletController {
         this.searchServices = searchServices;
     }
 
+    /**
+     * Executor used to run the configured search services concurrently. If not set the services
+     * are searched one after another on the event thread.
+     */
+    @Autowired(required = false)
+    @Qualifier("searchServiceExecutor")
+    public void setSearchServiceExecutor(ExecutorService searchServiceExecutor) {
+        this.searchServiceExecutor = searchServiceExecutor;
+    }
+
+    /**
+     * Maximum time in milliseconds to wait for the search services to respond, results from
+     * services that have not responded by then are dropped.
+     */
+    @Value("${org.apereo.portal.portlets.searchSearchPortletController.searchServiceTimeout:5000}")
+    public void setSearchServiceTimeout(long searchServiceTimeout) {
+        this.searchServiceTimeout = searchServiceTimeout;
+    }
+
+    /** Records the latency, failure and timeout counts of each search service */
+    @Autowired(required = false)
+    public void setSearchServiceMonitor(SearchServiceMonitor searchServiceMonitor) {
+        this.searchServiceMonitor = searchServiceMonitor;
+    }
+
     /** The messages property key to use for the default results tab */
     @Value(
             "${org.apereo.portal.portlets.searchSearchPortletController.defaultTabKey:portal.results}")
@@ -399,35 +443,223 @@ public class SearchPortletController {
         results.setQueryId(queryId);
         results.setWindowId(request.getWindowID());
         final List<SearchResult> searchResultList = results.getSearchResult();
+        searchResultList.addAll(this.getSearchServiceResults(request, searchQuery));
 
-        //Run the search for each service appending the results
-        for (IPortalSearchService searchService : searchServices) {
-            try {
-                logger.debug(
-                        "For queryId {}, query '{}', searching search service {}",
-                        queryId,
-                        searchQuery.getSearchTerms(),
-                        searchService.getClass().toString());
+        //Respond with a results event if results were found
+        if (!searchResultList.isEmpty()) {
+            response.setEvent(SearchConstants.SEARCH_RESULTS_QNAME, results);
+        }
+    }
+
+    /**
+     * Run the search against each configured {@link IPortalSearchService}, results are returned in
+     * the order the services are configured. When an executor is configured the services are
+     * searched concurrently, services that do not respond within the search service timeout or
+     * that the executor rejects are skipped. Each concurrent search gets its own copy of the query
+     * and a view of the request that stops working once the search returns or is abandoned, the
+     * view and the locale of the calling thread are bound to the executor thread for the duration
+     * of the search. Services rely on them to find the portal request and for request scoped
+     * caching.
+     */
+    protected List<SearchResult> getSearchServiceResults(
+            final PortletRequest request, final SearchRequest searchQuery) {
+        final List<SearchResult> searchResultList = new ArrayList<>();
+
+        if (this.searchServiceExecutor == null) {
+            for (final IPortalSearchService searchService : this.searchServices) {
                 final SearchResults serviceResults =
-                        searchService.getSearchResults(request, searchQuery);
-                logger.debug(
-                        "For queryId {}, obtained {} results from search service {}",
-                        queryId,
-                        serviceResults.getSearchResult().size(),
-                        searchService.getClass().toString());
-                searchResultList.addAll(serviceResults.getSearchResult());
-            } catch (Exception e) {
+                        this.searchService(searchService, request, searchQuery);
+                if (serviceResults != null) {
+                    searchResultList.addAll(serviceResults.getSearchResult());
+                }
+            }
+            return searchResultList;
+        }
+
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+        final ExecutorCompletionService<SearchResults> completionService =
+                new ExecutorCompletionService<>(this.searchServiceExecutor);
+        final Map<Future<SearchResults>, IPortalSearchService> pending = new LinkedHashMap<>();
+        final Map<IPortalSearchService, SearchResults> resultsByService = new IdentityHashMap<>();
+        final List<DetachableRequest> detachableRequests = new ArrayList<>();
+        try {
+            for (final IPortalSearchService searchService : this.searchServices) {
+                final DetachableRequest detachableRequest = new DetachableRequest(request);
+                final SearchRequest serviceQuery = copySearchRequest(searchQuery);
+                try {
+                    final Future<SearchResults> future =
+                            completionService.submit(
+                                    new Callable<SearchResults>() {
+                                        @Override
+                                        public SearchResults call() {
+                                            final PortletRequest serviceRequest =
+                                                    detachableRequest.getRequest();
+                                            RequestContextHolder.setRequestAttributes(
+                                                    new PortletRequestAttributes(serviceRequest));
+                                            LocaleContextHolder.setLocaleContext(localeContext);
+                                            try {
+                                                return searchService(
+                                                        searchService,
+                                                        serviceRequest,
+                                                        serviceQuery);
+                                            } finally {
+                                                LocaleContextHolder.resetLocaleContext();
+                                                RequestContextHolder.resetRequestAttributes();
+                                            }
+                                        }
+                                    });
+                    detachableRequests.add(detachableRequest);
+                    pending.put(future, searchService);
+                } catch (RejectedExecutionException e) {
+                    //Executor is saturated, searching on this thread could run past the deadline
+                    this.searchServiceMonitor.getStatistics(searchService).recordRejection();
+                    logger.warn(
+                            "Search executor rejected {} for queryId {}, its results will be ignored",
+                            searchService.getClass().getName(),
+                            searchQuery.getQueryId());
+                }
+            }
+
+            final long deadline = System.currentTimeMillis() + this.searchServiceTimeout;
+            try {
+                while (!pending.isEmpty()) {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    final Future<SearchResults> future =
+                            remaining > 0
+                                    ? completionService.poll(remaining, TimeUnit.MILLISECONDS)
+                                    : completionService.poll();
+                    if (future == null) {
+                        break;
+                    }
+                    final IPortalSearchService searchService = pending.remove(future);
+
+                    try {
+                        final SearchResults serviceResults = future.get();
+                        if (serviceResults != null) {
+                            resultsByService.put(searchService, serviceResults);
+                        }
+                    } catch (ExecutionException e) {
+                        //searchService(...) handles provider exceptions, this should not happen
+                        logger.warn("Search service task failed for " + searchQuery, e.getCause());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            //Anything left did not respond in time
+            for (final Map.Entry<Future<SearchResults>, IPortalSearchService> entry :
+                    pending.entrySet()) {
+                entry.getKey().cancel(true);
+                final IPortalSearchService searchService = entry.getValue();
+                this.searchServiceMonitor.getStatistics(searchService).recordTimeout();
                 logger.warn(
-                        searchService.getClass()
-                                + " threw an exception when searching, it will be ignored. "
-                                + searchQuery,
-                        e);
+                        "{} did not respond within {}ms for queryId {}, its results will be ignored",
+                        searchService.getClass().getName(),
+                        this.searchServiceTimeout,
+                        searchQuery.getQueryId());
+            }
+        } finally {
+            //Abandoned searches must not touch the request after this thread is done with it
+            for (final DetachableRequest detachableRequest : detachableRequests) {
+                detachableRequest.detach();
             }
         }
 
-        //Respond with a results event if results were found
-        if (!searchResultList.isEmpty()) {
-            response.setEvent(SearchConstants.SEARCH_RESULTS_QNAME, results);
+        for (final IPortalSearchService searchService : this.searchServices) {
+            final SearchResults serviceResults = resultsByService.get(searchService);
+            if (serviceResults != null) {
+                searchResultList.addAll(serviceResults.getSearchResult());
+            }
+        }
+        return searchResultList;
+    }
+
+    private static SearchRequest copySearchRequest(SearchRequest searchQuery) {
+        final SearchRequest copy = new SearchRequest();
+        copy.setQueryId(searchQuery.getQueryId());
+        copy.setSearchTerms(searchQuery.getSearchTerms());
+        copy.setCount(searchQuery.getCount());
+        copy.setStartIndex(searchQuery.getStartIndex());
+        copy.getType().addAll(searchQuery.getType());
+        return copy;
+    }
+
+    /**
+     * Hands a search service a view of the portlet request that throws {@link
+     * IllegalStateException} once detached, so a search that outlives its deadline cannot use the
+     * request after the portal is done with it.
+     */
+    private static final class DetachableRequest implements InvocationHandler {
+        private final PortletRequest request;
+        private volatile boolean detached = false;
+
+        DetachableRequest(PortletRequest request) {
+            this.request = request;
+        }
+
+        PortletRequest getRequest() {
+            final ClassLoader classLoader = PortletRequest.class.getClassLoader();
+            return (PortletRequest)
+                    Proxy.newProxyInstance(
+                            classLoader,
+                            ClassUtils.getAllInterfacesForClass(
+                                    this.request.getClass(), classLoader),
+                            this);
+        }
+
+        void detach() {
+            this.detached = true;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (this.detached) {
+                throw new IllegalStateException(
+                        "The search was abandoned, the portlet request is no longer available");
+            }
+            try {
+                return method.invoke(this.request, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Search a single service, recording its latency. Returns null if the service threw an
+     * exception.
+     */
+    private SearchResults searchService(
+            IPortalSearchService searchService, PortletRequest request, SearchRequest searchQuery) {
+        final SearchServiceStatistics statistics =
+                this.searchServiceMonitor.getStatistics(searchService);
+        final long start = System.currentTimeMillis();
+        try {
+            logger.debug(
+                    "For queryId {}, query '{}', searching search service {}",
+                    searchQuery.getQueryId(),
+                    searchQuery.getSearchTerms(),
+                    searchService.getClass().toString());
+            final SearchResults serviceResults =
+                    searchService.getSearchResults(request, searchQuery);
+            final long duration = System.currentTimeMillis() - start;
+            statistics.recordSearch(duration);
+            logger.debug(
+                    "For queryId {}, obtained {} results from search service {} in {}ms",
+                    searchQuery.getQueryId(),
+                    serviceResults.getSearchResult().size(),
+                    searchService.getClass().toString(),
+                    duration);
+            return serviceResults;
+        } catch (Exception e) {
+            statistics.recordFailure(System.currentTimeMillis() - start);
+            logger.warn(
+                    searchService.getClass()
+                            + " threw an exception when searching, it will be ignored. "
+                            + searchQuery,
+                    e);
+            return null;
         }
     }
 
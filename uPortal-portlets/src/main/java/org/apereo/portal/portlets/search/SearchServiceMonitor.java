@@ -0,0 +1,90 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Keeps the {@link SearchServiceStatistics} of each {@link IPortalSearchService} instance searched
+ * by {@link SearchPortletController} and exports them over JMX. Statistics are tracked per
+ * instance, two services of the same class with different configurations are reported apart.
+ */
+@ManagedResource("uPortal:section=Framework,name=SearchServices")
+public class SearchServiceMonitor implements SearchServiceMonitorMXBean {
+
+    private final Map<IPortalSearchService, SearchServiceStatistics> statistics =
+            new IdentityHashMap<>();
+    private final SortedMap<String, SearchServiceStatistics> statisticsByName = new TreeMap<>();
+
+    /**
+     * Names the statistics of the configured search services up front so the names follow the
+     * order of the searchServices list rather than the order services are first searched.
+     */
+    public synchronized void setSearchServices(List<IPortalSearchService> searchServices) {
+        final Map<String, Integer> classCounts = new HashMap<>();
+        for (final IPortalSearchService searchService : searchServices) {
+            final String className = searchService.getClass().getName();
+            final Integer count = classCounts.get(className);
+            classCounts.put(className, count == null ? 1 : count + 1);
+        }
+
+        for (int i = 0; i < searchServices.size(); i++) {
+            final IPortalSearchService searchService = searchServices.get(i);
+            final String className = searchService.getClass().getName();
+            if (classCounts.get(className) > 1) {
+                this.register(searchService, className + "[" + i + "]");
+            } else {
+                this.register(searchService, className);
+            }
+        }
+    }
+
+    /** @return The statistics of the search service, created on first use */
+    public synchronized SearchServiceStatistics getStatistics(IPortalSearchService searchService) {
+        final SearchServiceStatistics existing = this.statistics.get(searchService);
+        if (existing != null) {
+            return existing;
+        }
+
+        final String className = searchService.getClass().getName();
+        String name = className;
+        for (int i = 1; this.statisticsByName.containsKey(name); i++) {
+            name = className + "[" + i + "]";
+        }
+        return this.register(searchService, name);
+    }
+
+    @Override
+    public synchronized Map<String, SearchServiceStatistics> getSearchServiceStatistics() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.statisticsByName));
+    }
+
+    private SearchServiceStatistics register(IPortalSearchService searchService, String name) {
+        SearchServiceStatistics rslt = this.statistics.get(searchService);
+        if (rslt == null) {
+            rslt = new SearchServiceStatistics();
+            this.statistics.put(searchService, rslt);
+            this.statisticsByName.put(name, rslt);
+        }
+        return rslt;
+    }
+}
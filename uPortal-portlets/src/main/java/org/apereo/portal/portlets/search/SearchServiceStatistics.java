@@ -0,0 +1,104 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running latency, failure, timeout and rejection counts for a single {@link
+ * IPortalSearchService}, tracked by {@link SearchServiceMonitor} for each search {@link
+ * SearchPortletController} fans out.
+ */
+public final class SearchServiceStatistics {
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    void recordSearch(long duration) {
+        this.searches.incrementAndGet();
+        this.totalTime.addAndGet(duration);
+        long max = this.maxTime.get();
+        while (duration > max && !this.maxTime.compareAndSet(max, duration)) {
+            max = this.maxTime.get();
+        }
+    }
+
+    void recordFailure(long duration) {
+        this.failures.incrementAndGet();
+        this.recordSearch(duration);
+    }
+
+    void recordTimeout() {
+        this.timeouts.incrementAndGet();
+    }
+
+    void recordRejection() {
+        this.rejections.incrementAndGet();
+    }
+
+    /**
+     * @return Number of searches that returned, successfully or not, including searches that
+     *     returned after they were abandoned
+     */
+    public long getSearches() {
+        return this.searches.get();
+    }
+
+    /** @return Number of searches that threw an exception */
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    /** @return Number of searches abandoned because they had not returned by the deadline */
+    public long getTimeouts() {
+        return this.timeouts.get();
+    }
+
+    /** @return Number of searches skipped because the search executor was saturated */
+    public long getRejections() {
+        return this.rejections.get();
+    }
+
+    /** @return Mean time in milliseconds of returned searches, 0 if there have been none */
+    public long getMeanTime() {
+        final long count = this.searches.get();
+        return count == 0 ? 0 : this.totalTime.get() / count;
+    }
+
+    /** @return Longest time in milliseconds taken by a returned search */
+    public long getMaxTime() {
+        return this.maxTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SearchServiceStatistics [searches="
+                + this.getSearches()
+                + ", failures="
+                + this.getFailures()
+                + ", timeouts="
+                + this.getTimeouts()
+                + ", rejections="
+                + this.getRejections()
+                + ", meanTime="
+                + this.getMeanTime()
+                + ", maxTime="
+                + this.getMaxTime()
+                + "]";
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search.portletregistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+
+/**
+ * In memory trigram index over the title, name, description and fname of portlet definitions. A
+ * query of three or more characters only considers definitions containing every trigram of the
+ * query, shorter queries scan the pre-lowercased text. Matches are returned ranked, title matches
+ * first.
+ *
+ * <p>{@link #update(List)} diffs against the indexed definitions so only new, changed and removed
+ * definitions are re-indexed.
+ */
+class PortletDefinitionIndex {
+    static final int GRAM_LENGTH = 3;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //Keyed by portlet definition id
+    private final Map<String, IndexEntry> entries = new HashMap<String, IndexEntry>();
+    private final Map<String, Set<String>> postings = new HashMap<String, Set<String>>();
+    private long nextOrder = 0;
+
+    /** Bring the index in line with the current portlet definitions */
+    public void update(List<IPortletDefinition> portlets) {
+        this.lock.writeLock().lock();
+        try {
+            final Set<String> removed = new HashSet<String>(this.entries.keySet());
+            for (final IPortletDefinition portlet : portlets) {
+                final String id = portlet.getPortletDefinitionId().getStringId();
+                removed.remove(id);
+
+                final IndexEntry existing = this.entries.get(id);
+                final IndexEntry entry =
+                        new IndexEntry(
+                                portlet, existing != null ? existing.order : this.nextOrder++);
+                if (existing != null && existing.hasSameText(entry)) {
+                    //Text unchanged, just pick up the current definition object
+                    existing.portlet = portlet;
+                    continue;
+                }
+
+                if (existing != null) {
+                    this.removePostings(id, existing);
+                }
+                this.entries.put(id, entry);
+                for (final String gram : entry.grams) {
+                    Set<String> ids = this.postings.get(gram);
+                    if (ids == null) {
+                        ids = new HashSet<String>();
+                        this.postings.put(gram, ids);
+                    }
+                    ids.add(id);
+                }
+            }
+
+            for (final String id : removed) {
+                this.removePostings(id, this.entries.remove(id));
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param query Search terms, matched case-insensitively as a substring of any indexed field
+     * @return Matching portlet definitions, best match first
+     */
+    public List<IPortletDefinition> search(String query) {
+        final String lcQuery = query.toLowerCase();
+
+        final List<Match> matches = new ArrayList<Match>();
+        this.lock.readLock().lock();
+        try {
+            for (final IndexEntry entry : this.getCandidates(lcQuery)) {
+                final int rank = entry.rank(lcQuery);
+                if (rank >= 0) {
+                    matches.add(new Match(entry, rank));
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        Collections.sort(matches);
+
+        final List<IPortletDefinition> portlets = new ArrayList<IPortletDefinition>(matches.size());
+        for (final Match match : matches) {
+            portlets.add(match.entry.portlet);
+        }
+        return portlets;
+    }
+
+    /** @return Number of indexed portlet definitions */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** Must be called with the read lock held */
+    private Iterable<IndexEntry> getCandidates(String lcQuery) {
+        if (lcQuery.length() < GRAM_LENGTH) {
+            return this.entries.values();
+        }
+
+        //Intersect the posting lists of every trigram in the query, smallest first
+        final List<Set<String>> gramPostings = new ArrayList<Set<String>>();
+        for (final String gram : getGrams(lcQuery)) {
+            final Set<String> ids = this.postings.get(gram);
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            gramPostings.add(ids);
+        }
+        Collections.sort(
+                gramPostings,
+                new Comparator<Set<String>>() {
+                    @Override
+                    public int compare(Set<String> s1, Set<String> s2) {
+                        return s1.size() - s2.size();
+                    }
+                });
+
+        final List<IndexEntry> candidates = new ArrayList<IndexEntry>();
+        candidateLoop:
+        for (final String id : gramPostings.get(0)) {
+            for (int i = 1; i < gramPostings.size(); i++) {
+                if (!gramPostings.get(i).contains(id)) {
+                    continue candidateLoop;
+                }
+            }
+            candidates.add(this.entries.get(id));
+        }
+        return candidates;
+    }
+
+    private void removePostings(String id, IndexEntry entry) {
+        for (final String gram : entry.grams) {
+            final Set<String> ids = this.postings.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    this.postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    static Set<String> getGrams(String text) {
+        final Set<String> grams = new HashSet<String>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    private static String lowerCase(String text) {
+        return text != null ? text.toLowerCase() : "";
+    }
+
+    private static final class Match implements Comparable<Match> {
+        private final IndexEntry entry;
+        private final int rank;
+
+        Match(IndexEntry entry, int rank) {
+            this.entry = entry;
+            this.rank = rank;
+        }
+
+        /** Best rank first, equally ranked definitions in registry order */
+        @Override
+        public int compareTo(Match other) {
+            if (this.rank != other.rank) {
+                return this.rank < other.rank ? -1 : 1;
+            }
+            return this.entry.order < other.entry.order
+                    ? -1
+                    : (this.entry.order == other.entry.order ? 0 : 1);
+        }
+    }
+
+    private static final class IndexEntry {
+        private final long order;
+        private final String title;
+        private final String name;
+        private final String description;
+        private final String fname;
+        private final Set<String> grams;
+        private volatile IPortletDefinition portlet;
+
+        IndexEntry(IPortletDefinition portlet, long order) {
+            this.order = order;
+            this.portlet = portlet;
+            this.title = lowerCase(portlet.getTitle());
+            this.name = lowerCase(portlet.getName());
+            this.description = lowerCase(portlet.getDescription());
+            this.fname = lowerCase(portlet.getFName());
+
+            this.grams = getGrams(this.title);
+            this.grams.addAll(getGrams(this.name));
+            this.grams.addAll(getGrams(this.description));
+            this.grams.addAll(getGrams(this.fname));
+        }
+
+        boolean hasSameText(IndexEntry other) {
+            return this.title.equals(other.title)
+                    && this.name.equals(other.name)
+                    && this.description.equals(other.description)
+                    && this.fname.equals(other.fname);
+        }
+
+        /** @return 0 for a title prefix, 1 title, 2 name or fname, 3 description, -1 no match */
+        int rank(String lcQuery) {
+            if (this.title.startsWith(lcQuery)) {
+                return 0;
+            }
+            if (this.title.contains(lcQuery)) {
+                return 1;
+            }
+            if (this.name.contains(lcQuery) || this.fname.contains(lcQuery)) {
+                return 2;
+            }
+            if (this.description.contains(lcQuery)) {
+                return 3;
+            }
+            return -1;
+        }
+    }
+}
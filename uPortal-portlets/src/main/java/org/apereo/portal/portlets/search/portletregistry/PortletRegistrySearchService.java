@@ -15,6 +15,8 @@
 package org.apereo.portal.portlets.search.portletregistry;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.portlet.PortletRequest;
 import javax.servlet.http.HttpServletRequest;
 import org.apereo.portal.portlet.PortletUtils;
@@ -48,6 +50,13 @@ public class PortletRegistrySearchService implements IPortalSearchService {
     @Value("${org.apereo.portal.portlets.portletRegistry.search.result.type:Portlet List}")
     private String searchResultType = "Portlet List";
 
+    /** Seconds between refreshes of the search index from the portlet registry */
+    @Value("${org.apereo.portal.portlets.portletRegistry.search.indexRefreshSeconds:60}")
+    private long indexRefreshSeconds = 60;
+
+    private final PortletDefinitionIndex portletDefinitionIndex = new PortletDefinitionIndex();
+    private final AtomicLong indexUpdated = new AtomicLong();
+
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -77,8 +86,7 @@ public class PortletRegistrySearchService implements IPortalSearchService {
     public SearchResults getSearchResults(PortletRequest request, SearchRequest query) {
 
         final String queryString = query.getSearchTerms().toLowerCase();
-        final List<IPortletDefinition> portlets =
-                portletDefinitionRegistry.getAllPortletDefinitions();
+        final List<IPortletDefinition> portlets = this.getCandidatePortlets(queryString);
 
         final HttpServletRequest httpServletRequest =
                 this.portalRequestUtils.getPortletHttpRequest(request);
@@ -117,6 +125,29 @@ public class PortletRegistrySearchService implements IPortalSearchService {
         return results;
     }
 
+    /**
+     * @return Portlet definitions that may match the query, best match first, from the index which
+     *     is refreshed from the registry at most every indexRefreshSeconds. Only the request that
+     *     claims an expired index refreshes it, concurrent requests search the current index.
+     */
+    protected List<IPortletDefinition> getCandidatePortlets(String query) {
+        final long now = System.currentTimeMillis();
+        final long updated = this.indexUpdated.get();
+        if (now - updated >= TimeUnit.SECONDS.toMillis(this.indexRefreshSeconds)
+                && this.indexUpdated.compareAndSet(updated, now)) {
+            try {
+                this.portletDefinitionIndex.update(
+                        this.portletDefinitionRegistry.getAllPortletDefinitions());
+            } catch (RuntimeException e) {
+                //Let the next request retry the refresh
+                this.indexUpdated.compareAndSet(now, updated);
+                throw e;
+            }
+        }
+
+        return this.portletDefinitionIndex.search(query);
+    }
+
     /**
      * Performs a case-insensitive comparison of the user's query against several important fields
      * from the {@link IPortletDefinition}.
@@ -25,12 +25,12 @@ import org.apereo.portal.portlet.rendering.PortletOutputHandler;
 /** Java bean to represent the data cached for a portlet request via {@link CacheControl}s. */
 public class CachedPortletData<T extends Serializable>
         implements CachedPortletResultHolder<T>, Serializable {
-    private static final long serialVersionUID = 5509299103587289000L;
+    private static final long serialVersionUID = 5509299103587289001L;
 
     private final T portletResult;
 
-    private final String cachedWriterOutput;
-    private final byte[] cachedStreamOutput;
+    //Shared with other entries that cached identical output
+    private final CachedPortletOutput cachedOutput;
 
     private final String contentType;
 
@@ -55,8 +55,11 @@ public class CachedPortletData<T extends Serializable>
         }
 
         this.portletResult = portletResult;
-        this.cachedWriterOutput = cachedWriterOutput;
-        this.cachedStreamOutput = cachedStreamOutput;
+        if (cachedWriterOutput != null) {
+            this.cachedOutput = CachedPortletOutput.create(cachedWriterOutput);
+        } else {
+            this.cachedOutput = CachedPortletOutput.create(cachedStreamOutput);
+        }
 
         this.contentType = contentType;
 
@@ -71,12 +74,17 @@ public class CachedPortletData<T extends Serializable>
             portletOutputHandler.setContentType(contentType);
         }
 
-        if (this.cachedWriterOutput != null) {
+        if (this.cachedOutput == null) {
+            return;
+        }
+
+        final String cachedWriterOutput = this.cachedOutput.getCharacterData();
+        if (cachedWriterOutput != null) {
             final PrintWriter printWriter = portletOutputHandler.getPrintWriter();
-            printWriter.write(this.cachedWriterOutput);
-        } else if (this.cachedStreamOutput != null) {
+            printWriter.write(cachedWriterOutput);
+        } else {
             final OutputStream outputStream = portletOutputHandler.getOutputStream();
-            outputStream.write(cachedStreamOutput);
+            outputStream.write(this.cachedOutput.getByteData());
         }
     }
 
@@ -104,11 +112,11 @@ public class CachedPortletData<T extends Serializable>
     }
 
     public String getCachedWriterOutput() {
-        return cachedWriterOutput;
+        return cachedOutput != null ? cachedOutput.getCharacterData() : null;
     }
 
     public byte[] getCachedStreamOutput() {
-        return cachedStreamOutput;
+        return cachedOutput != null ? cachedOutput.getByteData() : null;
     }
 
     public String getContentType() {
@@ -0,0 +1,195 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable portlet output, either character or byte data, shared between cache entries with the
+ * same content. Output of at least {@link #MIN_OFF_HEAP_SIZE} bytes is kept UTF-8 encoded in the
+ * shared {@link OffHeapOutputStore} so identical output cached under many keys, such as the same
+ * private output for thousands of sessions, is stored once outside of the heap. Smaller output, and
+ * output that does not fit in the store, stays on the heap where instances are interned by content
+ * through a weak interner. Either way the content is released when the last cache entry referring
+ * to it has been evicted and collected.
+ */
+public final class CachedPortletOutput implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Smaller output is not worth a direct buffer and a reference, it is kept on the heap */
+    static final int MIN_OFF_HEAP_SIZE = 1024;
+
+    private static final OffHeapOutputStore STORE = new OffHeapOutputStore(0);
+
+    //Weak references, the cache entries holding an instance are what keep it alive
+    private static final Interner<CachedPortletOutput> INTERNER = Interners.newWeakInterner();
+
+    /** @param maxSize Maximum number of bytes of output to store off heap, 0 to keep all on heap */
+    static void setMaxOffHeapSize(long maxSize) {
+        STORE.setMaxSize(maxSize);
+    }
+
+    /** @return Shared instance for the character data, null if characterData is null */
+    public static CachedPortletOutput create(String characterData) {
+        return create(characterData, STORE);
+    }
+
+    /** @return Shared instance for the byte data, null if byteData is null */
+    public static CachedPortletOutput create(byte[] byteData) {
+        return create(byteData, STORE);
+    }
+
+    static CachedPortletOutput create(String characterData, OffHeapOutputStore store) {
+        if (characterData == null) {
+            return null;
+        }
+        return share(new CachedPortletOutput(characterData, null, store));
+    }
+
+    static CachedPortletOutput create(byte[] byteData, OffHeapOutputStore store) {
+        if (byteData == null) {
+            return null;
+        }
+        return share(new CachedPortletOutput(null, byteData, store));
+    }
+
+    private static CachedPortletOutput share(CachedPortletOutput output) {
+        //Off heap output is already shared by the store and holds its own reference
+        if (output.buffer != null) {
+            return output;
+        }
+        return INTERNER.intern(output);
+    }
+
+    private final boolean character;
+    private final int length;
+    private final String characterData;
+    private final byte[] byteData;
+    private final transient ByteBuffer buffer;
+    private final int hash;
+
+    private CachedPortletOutput(String characterData, byte[] byteData, OffHeapOutputStore store) {
+        this.character = characterData != null;
+        this.length = this.character ? characterData.length() : byteData.length;
+
+        ByteBuffer buffer = null;
+        if (store != null && this.length >= MIN_OFF_HEAP_SIZE) {
+            final byte[] data =
+                    this.character ? characterData.getBytes(StandardCharsets.UTF_8) : byteData;
+            buffer = store.store(this, data);
+        }
+        this.buffer = buffer;
+
+        if (buffer != null) {
+            this.characterData = null;
+            this.byteData = null;
+            this.hash = buffer.hashCode();
+        } else {
+            this.characterData = characterData;
+            this.byteData = byteData;
+            this.hash = this.character ? characterData.hashCode() : 31 * Arrays.hashCode(byteData);
+        }
+    }
+
+    /** @return The character output, null if this is byte output */
+    public String getCharacterData() {
+        if (!this.character) {
+            return null;
+        }
+        if (this.buffer != null) {
+            return StandardCharsets.UTF_8.decode(this.buffer.duplicate()).toString();
+        }
+        return this.characterData;
+    }
+
+    /**
+     * @return The byte output, null if this is character output. Must not be modified, it may be
+     *     shared with other entries.
+     */
+    public byte[] getByteData() {
+        if (this.character) {
+            return null;
+        }
+        if (this.buffer != null) {
+            final byte[] byteData = new byte[this.length];
+            this.buffer.duplicate().get(byteData);
+            return byteData;
+        }
+        return this.byteData;
+    }
+
+    /** @return Size of the output in chars or bytes */
+    public int getLength() {
+        return this.length;
+    }
+
+    /** @return true if the output is held in the off heap store */
+    boolean isOffHeap() {
+        return this.buffer != null;
+    }
+
+    /** Off heap output is written with its content, the buffer cannot be serialized */
+    private Object writeReplace() {
+        if (this.buffer == null) {
+            return this;
+        }
+        return new CachedPortletOutput(this.getCharacterData(), this.getByteData(), null);
+    }
+
+    /** Share the instance again after a cache deserializes it */
+    private Object readResolve() {
+        return this.character ? create(this.characterData) : create(this.byteData);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final CachedPortletOutput other = (CachedPortletOutput) obj;
+        if (this.hash != other.hash || this.character != other.character) {
+            return false;
+        }
+        if (this.buffer != null || other.buffer != null) {
+            return this.buffer != null && this.buffer.equals(other.buffer);
+        }
+        if (this.character) {
+            return this.characterData.equals(other.characterData);
+        }
+        return Arrays.equals(this.byteData, other.byteData);
+    }
+
+    @Override
+    public String toString() {
+        return "CachedPortletOutput ["
+                + (this.character ? "chars=" : "bytes=")
+                + this.length
+                + (this.buffer != null ? ", offHeap" : "")
+                + "]";
+    }
+}
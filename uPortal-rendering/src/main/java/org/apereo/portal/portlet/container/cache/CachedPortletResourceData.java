@@ -31,7 +31,9 @@ import org.apereo.portal.portlet.rendering.PortletResourceOutputHandler;
  */
 public class CachedPortletResourceData<T extends Serializable>
         implements CachedPortletResultHolder<T>, Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    private static final String CONTENT_LENGTH = "Content-Length";
 
     private final CachedPortletData<T> cachedPortletData;
 
@@ -40,6 +42,7 @@ public class CachedPortletResourceData<T extends Serializable>
     private final String characterEncoding;
     private final Integer contentLength;
     private final Locale locale;
+    private final CachedPortletOutput gzipOutput;
 
     public CachedPortletResourceData(
             CachedPortletData<T> cachedPortletData,
@@ -48,6 +51,18 @@ public class CachedPortletResourceData<T extends Serializable>
             String characterEncoding,
             Integer contentLength,
             Locale locale) {
+        this(cachedPortletData, headers, status, characterEncoding, contentLength, locale, null);
+    }
+
+    /** @param gzipOutput Gzip compressed copy of the output, null if there is none */
+    public CachedPortletResourceData(
+            CachedPortletData<T> cachedPortletData,
+            Map<String, List<Serializable>> headers,
+            Integer status,
+            String characterEncoding,
+            Integer contentLength,
+            Locale locale,
+            CachedPortletOutput gzipOutput) {
 
         this.cachedPortletData = cachedPortletData;
 
@@ -63,9 +78,22 @@ public class CachedPortletResourceData<T extends Serializable>
         this.characterEncoding = characterEncoding;
         this.contentLength = contentLength;
         this.locale = locale;
+        this.gzipOutput = gzipOutput;
     }
 
     public final void replay(PortletResourceOutputHandler portletOutputHandler) throws IOException {
+        this.replay(portletOutputHandler, false);
+    }
+
+    /**
+     * @param gzipAccepted If the client accepts gzip content encoding, the compressed copy of the
+     *     output is written if there is one
+     */
+    public final void replay(
+            PortletResourceOutputHandler portletOutputHandler, boolean gzipAccepted)
+            throws IOException {
+        final boolean writeGzip = gzipAccepted && this.gzipOutput != null;
+
         //Write status
         if (status != null) {
             portletOutputHandler.setStatus(status);
@@ -74,6 +102,9 @@ public class CachedPortletResourceData<T extends Serializable>
         //Write out headers
         for (final Entry<String, List<Serializable>> headerEntry : headers.entrySet()) {
             final String name = headerEntry.getKey();
+            if (writeGzip && CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                continue;
+            }
             for (final Serializable value : headerEntry.getValue()) {
                 if (value instanceof Long) {
                     portletOutputHandler.addDateHeader(name, (Long) value);
@@ -89,7 +120,9 @@ public class CachedPortletResourceData<T extends Serializable>
         if (characterEncoding != null) {
             portletOutputHandler.setCharacterEncoding(characterEncoding);
         }
-        if (contentLength != null) {
+        if (writeGzip) {
+            portletOutputHandler.setContentLength(this.gzipOutput.getLength());
+        } else if (contentLength != null) {
             portletOutputHandler.setContentLength(contentLength);
         }
         if (locale != null) {
@@ -97,9 +130,36 @@ public class CachedPortletResourceData<T extends Serializable>
         }
 
         //Set the caching related headers
-        PortletCachingHeaderUtils.setCachingHeaders(cachedPortletData, portletOutputHandler);
+        this.setCachingHeaders(portletOutputHandler, writeGzip);
+
+        if (writeGzip) {
+            portletOutputHandler.setHeader("Content-Encoding", "gzip");
+            final String contentType = this.cachedPortletData.getContentType();
+            if (contentType != null) {
+                portletOutputHandler.setContentType(contentType);
+            }
+            portletOutputHandler.getOutputStream().write(this.gzipOutput.getByteData());
+        } else {
+            this.cachedPortletData.replay(portletOutputHandler);
+        }
+    }
+
+    /**
+     * Set the caching related headers for a replay of the output or a 304 response to it.
+     *
+     * @param gzipAccepted If the client accepts gzip content encoding, the ETag of the compressed
+     *     copy of the output is used if there is one
+     */
+    public final void setCachingHeaders(
+            PortletResourceOutputHandler portletOutputHandler, boolean gzipAccepted) {
+        //The same URL can be answered with either encoding, shared caches must key on it
+        if (this.gzipOutput != null) {
+            portletOutputHandler.addHeader("Vary", "Accept-Encoding");
+        }
 
-        this.cachedPortletData.replay(portletOutputHandler);
+        //The encodings are different representations, each needs its own strong ETag
+        PortletCachingHeaderUtils.setCachingHeaders(
+                cachedPortletData, gzipAccepted && this.gzipOutput != null, portletOutputHandler);
     }
 
     @Override
@@ -145,4 +205,9 @@ public class CachedPortletResourceData<T extends Serializable>
     public Locale getLocale() {
         return locale;
     }
+
+    /** @return Gzip compressed copy of the output, null if there is none */
+    public CachedPortletOutput getGzipOutput() {
+        return gzipOutput;
+    }
 }
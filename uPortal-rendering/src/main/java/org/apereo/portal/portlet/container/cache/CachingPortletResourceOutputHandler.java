@@ -14,12 +14,16 @@
  */
 package org.apereo.portal.portlet.container.cache;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 import javax.portlet.CacheControl;
 import javax.servlet.http.HttpServletResponse;
 import org.apereo.portal.portlet.rendering.PortletResourceOutputHandler;
@@ -29,6 +33,7 @@ public class CachingPortletResourceOutputHandler extends CachingPortletOutputHan
         implements PortletResourceOutputHandler {
 
     private final PortletResourceOutputHandler portletResourceOutputHandler;
+    private final int compressionThreshold;
 
     private final Map<String, List<Serializable>> headers =
             new LinkedHashMap<String, List<Serializable>>();
@@ -36,11 +41,24 @@ public class CachingPortletResourceOutputHandler extends CachingPortletOutputHan
     private String characterEncoding;
     private Integer contentLength;
     private Locale locale;
+    private boolean varySent = false;
 
     public CachingPortletResourceOutputHandler(
             PortletResourceOutputHandler portletResourceOutputHandler, int maximumSize) {
+        this(portletResourceOutputHandler, maximumSize, -1);
+    }
+
+    /**
+     * @param compressionThreshold Minimum size in bytes of publicly scoped output to also cache a
+     *     gzip compressed copy of, -1 to never compress
+     */
+    public CachingPortletResourceOutputHandler(
+            PortletResourceOutputHandler portletResourceOutputHandler,
+            int maximumSize,
+            int compressionThreshold) {
         super(portletResourceOutputHandler, maximumSize);
         this.portletResourceOutputHandler = portletResourceOutputHandler;
+        this.compressionThreshold = compressionThreshold;
     }
 
     public <T extends Serializable> CachedPortletResourceData<T> getCachedPortletResourceData(
@@ -58,7 +76,81 @@ public class CachingPortletResourceOutputHandler extends CachingPortletOutputHan
         }
 
         return new CachedPortletResourceData<T>(
-                cachedPortletData, headers, status, characterEncoding, contentLength, locale);
+                cachedPortletData,
+                headers,
+                status,
+                characterEncoding,
+                contentLength,
+                locale,
+                this.compressOutput(cachedPortletData));
+    }
+
+    /**
+     * Gzip the output once so cache hits from clients that accept it are sent compressed without
+     * re-encoding.
+     *
+     * @return The compressed output, null if it should not be or is not worth compressing
+     */
+    protected CachedPortletOutput compressOutput(CachedPortletData<?> cachedPortletData) {
+        if (this.compressionThreshold < 0
+                || !cachedPortletData.isPublicScope()
+                || !isCompressible(cachedPortletData.getContentType())) {
+            return null;
+        }
+        for (final String name : this.headers.keySet()) {
+            if ("Content-Encoding".equalsIgnoreCase(name)) {
+                //Portlet already encoded its output
+                return null;
+            }
+        }
+
+        byte[] output = cachedPortletData.getCachedStreamOutput();
+        final String writerOutput = cachedPortletData.getCachedWriterOutput();
+        if (writerOutput != null) {
+            if (this.characterEncoding == null || !Charset.isSupported(this.characterEncoding)) {
+                return null;
+            }
+            output = writerOutput.getBytes(Charset.forName(this.characterEncoding));
+        }
+        if (output == null || output.length < this.compressionThreshold) {
+            return null;
+        }
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(output.length / 4);
+        try {
+            final GZIPOutputStream gzipStream = new GZIPOutputStream(compressed);
+            gzipStream.write(output);
+            gzipStream.close();
+        } catch (IOException e) {
+            //Can't happen writing to memory
+            throw new IllegalStateException("Failed to gzip portlet resource output", e);
+        }
+
+        if (compressed.size() >= output.length) {
+            return null;
+        }
+        return CachedPortletOutput.create(compressed.toByteArray());
+    }
+
+    /** @return true if the content type is text based and generally shrinks when compressed */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        String mimeType = contentType;
+        final int paramsIndex = mimeType.indexOf(';');
+        if (paramsIndex >= 0) {
+            mimeType = mimeType.substring(0, paramsIndex);
+        }
+        mimeType = mimeType.trim().toLowerCase(Locale.ROOT);
+
+        return mimeType.startsWith("text/")
+                || mimeType.endsWith("/json")
+                || mimeType.endsWith("+json")
+                || mimeType.endsWith("/xml")
+                || mimeType.endsWith("+xml")
+                || mimeType.endsWith("/javascript");
     }
 
     public Map<String, List<Serializable>> getHeaders() {
@@ -88,6 +180,20 @@ public class CachingPortletResourceOutputHandler extends CachingPortletOutputHan
         return locale;
     }
 
+    /**
+     * Output that may be cached with a gzip copy can later be sent with either encoding from the
+     * same URL, so this response also needs the Vary header. It is not recorded with the cached
+     * headers, replays add it themselves.
+     */
+    @Override
+    public void setContentType(String contentType) {
+        super.setContentType(contentType);
+        if (!this.varySent && this.compressionThreshold >= 0 && isCompressible(contentType)) {
+            this.portletResourceOutputHandler.addHeader("Vary", "Accept-Encoding");
+            this.varySent = true;
+        }
+    }
+
     @Override
     public void setCharacterEncoding(String charset) {
         this.portletResourceOutputHandler.setCharacterEncoding(charset);
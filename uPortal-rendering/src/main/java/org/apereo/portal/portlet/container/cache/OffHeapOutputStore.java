@@ -0,0 +1,141 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content addressed store of cached portlet output in direct, off heap, buffers. Output is keyed by
+ * a hash of its bytes and the buffer is shared by every {@link CachedPortletOutput} with the same
+ * content. Each of those holds one reference which is released once it has been garbage collected,
+ * so references stay correct however the cache drops an entry. A buffer is removed from the store
+ * when its last reference is released, the JVM frees the memory when the buffer is collected.
+ *
+ * <p>The total size of the stored buffers is limited, output that does not fit is left on the heap
+ * by the caller.
+ */
+final class OffHeapOutputStore {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Map<HashCode, StoredBuffer> buffers = new HashMap<HashCode, StoredBuffer>();
+    private final ReferenceQueue<Object> releasedReferences = new ReferenceQueue<Object>();
+    //The references must stay reachable until they are enqueued
+    private final Set<Reference<?>> references = new HashSet<Reference<?>>();
+    private long maxSize;
+    private long size;
+
+    OffHeapOutputStore(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** @param maxSize Maximum number of bytes to store, 0 to store nothing */
+    synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** @return Number of bytes stored */
+    synchronized long getSize() {
+        this.expungeReleased();
+        return this.size;
+    }
+
+    /** @return Number of distinct buffers stored */
+    synchronized int getBufferCount() {
+        this.expungeReleased();
+        return this.buffers.size();
+    }
+
+    /**
+     * Store the data, or add a reference to an existing buffer with the same content, on behalf of
+     * the owner. The reference is released when the owner is garbage collected.
+     *
+     * @return A read-only buffer with the data, null if the data does not fit in the store
+     */
+    ByteBuffer store(Object owner, byte[] data) {
+        final HashCode key = HASH_FUNCTION.hashBytes(data);
+        final ByteBuffer wrapped = ByteBuffer.wrap(data);
+
+        synchronized (this) {
+            this.expungeReleased();
+
+            StoredBuffer storedBuffer = this.buffers.get(key);
+            if (storedBuffer == null) {
+                if (this.size + data.length > this.maxSize) {
+                    return null;
+                }
+
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+                buffer.put(wrapped);
+                buffer.flip();
+                storedBuffer = new StoredBuffer(key, buffer.asReadOnlyBuffer());
+                this.buffers.put(key, storedBuffer);
+                this.size += data.length;
+            } else if (!storedBuffer.buffer.equals(wrapped)) {
+                //Hash collision, leave the data on the heap
+                return null;
+            }
+
+            storedBuffer.references++;
+            this.references.add(new OwnerReference(owner, storedBuffer, this.releasedReferences));
+            return storedBuffer.buffer.duplicate();
+        }
+    }
+
+    /** Release the references of owners that have been garbage collected, must hold the lock */
+    private void expungeReleased() {
+        Reference<?> reference;
+        while ((reference = this.releasedReferences.poll()) != null) {
+            this.references.remove(reference);
+
+            final StoredBuffer storedBuffer = ((OwnerReference) reference).storedBuffer;
+            storedBuffer.references--;
+            if (storedBuffer.references == 0) {
+                this.buffers.remove(storedBuffer.key);
+                this.size -= storedBuffer.buffer.capacity();
+            }
+        }
+    }
+
+    private static final class StoredBuffer {
+        private final HashCode key;
+        private final ByteBuffer buffer;
+        private int references;
+
+        private StoredBuffer(HashCode key, ByteBuffer buffer) {
+            this.key = key;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class OwnerReference extends PhantomReference<Object> {
+        private final StoredBuffer storedBuffer;
+
+        private OwnerReference(
+                Object owner, StoredBuffer storedBuffer, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.storedBuffer = storedBuffer;
+        }
+    }
+}
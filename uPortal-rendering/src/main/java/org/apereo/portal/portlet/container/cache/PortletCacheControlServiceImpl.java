@@ -134,6 +134,17 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         this.cacheSizeThreshold = cacheSizeThreshold;
     }
 
+    /**
+     * @param offHeapOutputSize Maximum bytes of cached portlet output to keep in direct buffers
+     *     outside of the heap, 0 keeps all cached output on the heap. The store is shared by all
+     *     cached portlet output.
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.offHeapOutputSize:67108864}")
+    public void setOffHeapOutputSize(long offHeapOutputSize) {
+        CachedPortletOutput.setMaxOffHeapSize(offHeapOutputSize);
+    }
+
     @Override
     public int getCacheSizeThreshold() {
         return cacheSizeThreshold;
@@ -270,7 +281,14 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 //Browser headers being used, check ETag and Last Modified
 
                 etagHeader = request.getHeader(IF_NONE_MATCH);
-                if (etagHeader != null && etagHeader.equals(cachedPortletData.getEtag())) {
+                final String etag = cachedPortletData.getEtag();
+                if (etagHeader != null
+                        && etag != null
+                        && etagHeader.equals(PortletCachingHeaderUtils.getGzipETag(etag))) {
+                    //Browser has the gzip copy, the portlet only knows the uncompressed ETag
+                    etagHeader = etag;
+                }
+                if (etagHeader != null && etagHeader.equals(etag)) {
                     //ETag is valid, mark the browser data as matching
                     cacheState.setBrowserDataMatches(true);
                 } else {
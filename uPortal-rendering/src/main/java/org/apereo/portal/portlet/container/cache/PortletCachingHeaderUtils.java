@@ -20,6 +20,7 @@ import org.apereo.portal.portlet.rendering.PortletResourceOutputHandler;
 /** Utility for writing out portlet response caching related headers */
 public final class PortletCachingHeaderUtils {
     private static final int YEAR_OF_SECONDS = (int) TimeUnit.DAYS.toSeconds(365);
+    private static final String GZIP_ETAG_SUFFIX = "-gzip";
 
     private PortletCachingHeaderUtils() {}
 
@@ -32,6 +33,19 @@ public final class PortletCachingHeaderUtils {
     public static void setCachingHeaders(
             CachedPortletData<?> cachedPortletData,
             PortletResourceOutputHandler portletResourceOutputHandler) {
+        setCachingHeaders(cachedPortletData, false, portletResourceOutputHandler);
+    }
+
+    /**
+     * @param cachedPortletData The {@link CachedPortletData} to base the headers on
+     * @param gzip If the response carries the gzip compressed copy of the content, see {@link
+     *     #getGzipETag(String)}
+     * @param portletResourceOutputHandler The handler to write the headers to
+     */
+    public static void setCachingHeaders(
+            CachedPortletData<?> cachedPortletData,
+            boolean gzip,
+            PortletResourceOutputHandler portletResourceOutputHandler) {
         final long expirationTime = cachedPortletData.getExpirationTime();
         final int maxAge =
                 (int) TimeUnit.MILLISECONDS.toSeconds(expirationTime - System.currentTimeMillis());
@@ -41,7 +55,7 @@ public final class PortletCachingHeaderUtils {
         setCachingHeaders(maxAge, publicScope, timeStored, portletResourceOutputHandler);
         final String etag = cachedPortletData.getEtag();
         if (etag != null) {
-            setETag(etag, portletResourceOutputHandler);
+            setETag(gzip ? getGzipETag(etag) : etag, portletResourceOutputHandler);
         }
     }
 
@@ -80,6 +94,57 @@ public final class PortletCachingHeaderUtils {
         }
     }
 
+    /**
+     * @param acceptEncoding Value of the request's Accept-Encoding header, may be null
+     * @return true if the client accepts a gzip content encoding
+     */
+    public static boolean isGzipAccepted(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        Boolean wildcardAccepted = null;
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.split(";");
+            final String name = parts[0].trim();
+            final boolean gzip = "gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name);
+            if (!gzip && !"*".equals(name)) {
+                continue;
+            }
+
+            //q=0 explicitly refuses the coding
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+
+            if (gzip) {
+                return accepted;
+            }
+            wildcardAccepted = accepted;
+        }
+
+        return wildcardAccepted != null && wildcardAccepted;
+    }
+
+    /**
+     * @param etag ETag of the uncompressed content
+     * @return ETag of the gzip compressed copy of the content, a quoted ETag keeps its quotes
+     */
+    public static String getGzipETag(String etag) {
+        if (etag.length() > 1 && etag.endsWith("\"")) {
+            return etag.substring(0, etag.length() - 1) + GZIP_ETAG_SUFFIX + "\"";
+        }
+        return etag + GZIP_ETAG_SUFFIX;
+    }
+
     /**
      * Set the ETag header based on the specified token
      *
@@ -94,6 +94,16 @@ public interface IPortletExecutionManager {
             HttpServletRequest request,
             HttpServletResponse response);
 
+    /**
+     * @return true if the BODY render for the specified portlet has completed during this request,
+     *     {@link #getPortletOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)}
+     *     will then return without waiting.
+     */
+    boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
     /**
      * @param portletWindowId
      * @param request
@@ -51,6 +51,48 @@ public interface PortletExecutionManagerMXBean {
     /** @return Multiplier to use for extended timeouts */
     long getExtendedTimeoutMultiplier();
 
+    /**
+     * @param adaptiveTimeouts If true timeouts are derived from each portlet's recent execution
+     *     times, bounded by the configured timeout
+     */
+    void setAdaptiveTimeouts(boolean adaptiveTimeouts);
+
+    /** @return If true timeouts are derived from each portlet's recent execution times */
+    boolean isAdaptiveTimeouts();
+
+    /** @param adaptiveTimeoutPercentile Percentile of recent execution times to base timeouts on */
+    void setAdaptiveTimeoutPercentile(double adaptiveTimeoutPercentile);
+
+    /** @return Percentile of recent execution times to base timeouts on */
+    double getAdaptiveTimeoutPercentile();
+
+    /** @param adaptiveTimeoutMultiplier Headroom multiplier applied to the percentile */
+    void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier);
+
+    /** @return Headroom multiplier applied to the percentile */
+    double getAdaptiveTimeoutMultiplier();
+
+    /** @param adaptiveTimeoutMinimum Smallest adaptive timeout in milliseconds */
+    void setAdaptiveTimeoutMinimum(long adaptiveTimeoutMinimum);
+
+    /** @return Smallest adaptive timeout in milliseconds */
+    long getAdaptiveTimeoutMinimum();
+
+    /**
+     * @param adaptiveTimeoutSamples Number of recent executions needed before a portlet's timeout
+     *     is adapted
+     */
+    void setAdaptiveTimeoutSamples(int adaptiveTimeoutSamples);
+
+    /** @return Number of recent executions needed before a portlet's timeout is adapted */
+    int getAdaptiveTimeoutSamples();
+
     /** @return Number of times each portlet has been executed */
     Map<String, Integer> getPortletExecutionCounts();
+
+    /**
+     * @return Recent execution time count, percentiles and maximum in milliseconds by portlet
+     *     fname and execution type
+     */
+    Map<String, Map<String, Long>> getPortletExecutionTimes();
 }
@@ -0,0 +1,57 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.Map;
+
+/** JMX stats for PortletWorkerScheduler */
+public interface PortletWorkerSchedulerMXBean {
+
+    /** @return true if workers execute on virtual threads */
+    boolean isVirtualThreads();
+
+    /** @return Maximum number of workers that may execute at once */
+    int getMaxThreads();
+
+    /** @return Number of workers waiting for a thread */
+    int getQueuedCount();
+
+    /** @return Number of workers currently executing */
+    int getActiveCount();
+
+    /** @return Number of workers rejected because their portlet was over the latency threshold */
+    long getFastFailCount();
+
+    /** @return Executing worker counts by portlet fname */
+    Map<String, Integer> getActiveCounts();
+
+    /** @return Recent execution time in milliseconds by portlet fname */
+    Map<String, Long> getRecentExecutionTimes();
+
+    /** @param maxThreadsPerPortlet Maximum number of workers one portlet may execute at once */
+    void setMaxThreadsPerPortlet(int maxThreadsPerPortlet);
+
+    /** @return Maximum number of workers a single portlet may execute at once */
+    int getMaxThreadsPerPortlet();
+
+    /**
+     * @param latencyThreshold Recent execution time in milliseconds over which new workers for a
+     *     portlet are rejected, 0 or less disables the check
+     */
+    void setLatencyThreshold(long latencyThreshold);
+
+    /** @return Recent execution time in milliseconds over which new workers are rejected */
+    long getLatencyThreshold();
+}
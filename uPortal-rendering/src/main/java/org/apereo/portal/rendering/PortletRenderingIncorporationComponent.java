@@ -14,13 +14,22 @@
  */
 package org.apereo.portal.rendering;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.CharacterEventReaderDelegate;
 import org.apereo.portal.character.stream.FilteringCharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
 import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
 import org.apereo.portal.character.stream.events.PortletContentPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletHeaderPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletLinkPlaceholderEvent;
@@ -31,9 +40,66 @@ import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
 
-/** Inserts the results of portlet's rendering into the character stream */
+/**
+ * Inserts the results of portlet's rendering into the character stream
+ *
+ * <p>With progressive rendering enabled a portlet that has not finished rendering when its content
+ * is reached does not hold up the rest of the page. An empty placeholder is written in its place
+ * and the page continues, the portlet's content follows just before {@code </body>} in the same
+ * response along with a small script that moves it into the placeholder.
+ */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    static final String DEFERRED_ID_PREFIX = "up-deferred-portlet-";
+
+    private static final String BODY_END = "</body>";
+
+    /** Time in ms to sleep between checks for a completed deferred portlet */
+    private static final long DEFERRED_POLL_INTERVAL = 10;
+
+    /** Written once, before the first deferred portlet, defines the function that places them */
+    private static final String DEFERRED_SCRIPT =
+            "<script type=\"text/javascript\">"
+                    + "window.up = window.up || {};"
+                    + "up.showDeferredPortlet = function(index) {"
+                    + "var placeholder = document.getElementById('"
+                    + DEFERRED_ID_PREFIX
+                    + "' + index);"
+                    + "var template = document.getElementById('"
+                    + DEFERRED_ID_PREFIX
+                    + "' + index + '-content');"
+                    + "if (!placeholder || !template) { return; }"
+                    + "var parent = placeholder.parentNode;"
+                    + "if (template.content) {"
+                    + "parent.replaceChild(document.importNode(template.content, true), placeholder);"
+                    + "} else {"
+                    + "while (template.firstChild) { parent.insertBefore(template.firstChild, placeholder); }"
+                    + "parent.removeChild(placeholder);"
+                    + "}"
+                    + "template.parentNode.removeChild(template);"
+                    + "};"
+                    + "</script>";
+
     private IPortletExecutionManager portletExecutionManager;
+    private boolean progressiveRendering = false;
+    private long deferredWaitTime = 5000;
+
+    /**
+     * @param progressiveRendering If true portlets that are still rendering when their content is
+     *     reached are written at the end of the page instead of blocking the page, defaults to
+     *     false
+     */
+    public void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
+    }
+
+    /**
+     * @param deferredWaitTime Maximum time in ms per request to wait for whichever deferred portlet
+     *     finishes first. Once exceeded the remaining deferred portlets are written in page order,
+     *     each waiting up to its own render timeout. Defaults to 5000.
+     */
+    public void setDeferredWaitTime(long deferredWaitTime) {
+        this.deferredWaitTime = deferredWaitTime;
+    }
 
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
@@ -62,8 +128,20 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                 this.wrappedComponent.getEventReader(request, response);
 
         final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
-        final PortletIncorporatingEventReader portletIncorporatingEventReader =
-                new PortletIncorporatingEventReader(eventReader, request, response);
+        final List<IPortletWindowId> deferredPortlets =
+                this.progressiveRendering ? new ArrayList<IPortletWindowId>() : null;
+
+        CharacterEventReader portletIncorporatingEventReader =
+                new PortletIncorporatingEventReader(
+                        eventReader, request, response, deferredPortlets);
+        if (deferredPortlets != null) {
+            portletIncorporatingEventReader =
+                    new DeferredPortletEventReader(
+                            portletIncorporatingEventReader,
+                            request,
+                            response,
+                            deferredPortlets);
+        }
 
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
         return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
@@ -73,14 +151,18 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
     private class PortletIncorporatingEventReader extends FilteringCharacterEventReader {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
+        private final List<IPortletWindowId> deferredPortlets;
 
+        /** @param deferredPortlets Portlets whose content is written later, null to never defer */
         public PortletIncorporatingEventReader(
                 CharacterEventReader delegate,
                 HttpServletRequest request,
-                HttpServletResponse response) {
+                HttpServletResponse response,
+                List<IPortletWindowId> deferredPortlets) {
             super(delegate);
             this.request = request;
             this.response = response;
+            this.deferredPortlets = deferredPortlets;
         }
 
         @Override
@@ -106,6 +188,18 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                         final IPortletWindowId portletWindowId =
                                 contentPlaceholderEvent.getPortletWindowId();
 
+                        if (this.deferredPortlets != null
+                                && !portletExecutionManager.isPortletRenderComplete(
+                                        portletWindowId, this.request, this.response)) {
+                            final int index = this.deferredPortlets.size();
+                            this.deferredPortlets.add(portletWindowId);
+                            return CharacterDataEventImpl.create(
+                                    "<div id=\""
+                                            + DEFERRED_ID_PREFIX
+                                            + index
+                                            + "\" class=\"up-portlet-deferred\"></div>");
+                        }
+
                         final String output =
                                 portletExecutionManager.getPortletOutput(
                                         portletWindowId, this.request, this.response);
@@ -163,4 +257,159 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
             }
         }
     }
+
+    /**
+     * Writes the content of deferred portlets just before {@code </body>}, or at the end of the
+     * stream if there is no closing body tag. Each portlet is a separate event written in the order
+     * the portlets finish, so a fast portlet placed after a slow one is flushed to the client
+     * without waiting for it.
+     */
+    private class DeferredPortletEventReader extends CharacterEventReaderDelegate {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final List<IPortletWindowId> deferredPortlets;
+        private final Deque<CharacterEvent> pending = new ArrayDeque<CharacterEvent>();
+        private final BitSet written = new BitSet();
+
+        //Remainder of the event containing </body>, written after all deferred portlets
+        private CharacterEvent bodyEnd = null;
+        private int writtenCount = 0;
+        private long waitDeadline = -1;
+
+        public DeferredPortletEventReader(
+                CharacterEventReader delegate,
+                HttpServletRequest request,
+                HttpServletResponse response,
+                List<IPortletWindowId> deferredPortlets) {
+            super(delegate);
+            this.request = request;
+            this.response = response;
+            this.deferredPortlets = deferredPortlets;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.fill() != null;
+        }
+
+        @Override
+        public CharacterEvent next() {
+            if (this.fill() == null) {
+                throw new NoSuchElementException();
+            }
+            return this.pending.poll();
+        }
+
+        @Override
+        public CharacterEvent peek() {
+            return this.fill();
+        }
+
+        /** @return The next event to return, null if there are no more events */
+        private CharacterEvent fill() {
+            if (!this.pending.isEmpty()) {
+                return this.pending.peek();
+            }
+
+            if (this.bodyEnd != null) {
+                if (this.writtenCount < this.deferredPortlets.size()) {
+                    this.pending.add(this.renderDeferred());
+                } else {
+                    this.pending.add(this.bodyEnd);
+                    this.bodyEnd = null;
+                }
+                return this.pending.peek();
+            }
+
+            if (super.hasNext()) {
+                final CharacterEvent event = super.next();
+                if (this.writtenCount < this.deferredPortlets.size()
+                        && event.getEventType() == CharacterEventTypes.CHARACTER) {
+                    final String data = ((CharacterDataEvent) event).getData();
+                    final int bodyEndIndex = data.lastIndexOf(BODY_END);
+                    if (bodyEndIndex >= 0) {
+                        this.bodyEnd = CharacterDataEventImpl.create(data.substring(bodyEndIndex));
+                        if (bodyEndIndex == 0) {
+                            return this.fill();
+                        }
+                        this.pending.add(
+                                CharacterDataEventImpl.create(data.substring(0, bodyEndIndex)));
+                        return this.pending.peek();
+                    }
+                }
+                this.pending.add(event);
+                return this.pending.peek();
+            }
+
+            if (this.writtenCount < this.deferredPortlets.size()) {
+                this.pending.add(this.renderDeferred());
+                return this.pending.peek();
+            }
+
+            return null;
+        }
+
+        /** Waits for the next deferred portlet and creates the event that places its content */
+        private CharacterEvent renderDeferred() {
+            final int index = this.selectDeferred();
+            final IPortletWindowId portletWindowId = this.deferredPortlets.get(index);
+
+            final String output =
+                    portletExecutionManager.getPortletOutput(
+                            portletWindowId, this.request, this.response);
+
+            final StringBuilder data = new StringBuilder(output.length() + 160);
+            if (this.writtenCount == 0) {
+                data.append(DEFERRED_SCRIPT);
+            }
+            this.written.set(index);
+            this.writtenCount++;
+            data.append("<template id=\"")
+                    .append(DEFERRED_ID_PREFIX)
+                    .append(index)
+                    .append("-content\">")
+                    .append(output)
+                    .append("</template><script type=\"text/javascript\">up.showDeferredPortlet(")
+                    .append(index)
+                    .append(");</script>");
+            return CharacterDataEventImpl.create(data.toString());
+        }
+
+        /**
+         * @return Index of the first unwritten deferred portlet that has finished rendering. If
+         *     none finish before the wait time for the request is used up the first unwritten
+         *     portlet in page order is returned.
+         */
+        private int selectDeferred() {
+            if (this.waitDeadline < 0) {
+                this.waitDeadline = System.currentTimeMillis() + deferredWaitTime;
+            }
+
+            while (true) {
+                int first = -1;
+                for (int index = this.written.nextClearBit(0);
+                        index < this.deferredPortlets.size();
+                        index = this.written.nextClearBit(index + 1)) {
+                    if (first < 0) {
+                        first = index;
+                    }
+                    if (portletExecutionManager.isPortletRenderComplete(
+                            this.deferredPortlets.get(index), this.request, this.response)) {
+                        return index;
+                    }
+                }
+
+                if (System.currentTimeMillis() >= this.waitDeadline) {
+                    return first;
+                }
+
+                try {
+                    Thread.sleep(DEFERRED_POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return first;
+                }
+            }
+        }
+    }
 }
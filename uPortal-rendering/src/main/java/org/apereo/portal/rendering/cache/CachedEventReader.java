@@ -15,27 +15,44 @@
 package org.apereo.portal.rendering.cache;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-/** Holder class for an event cache and output properties */
+/**
+ * Holder class for an event cache and output properties. Events are stored in a compact array
+ * along with an estimate of the heap used by the entry.
+ */
 class CachedEventReader<E> implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private final List<E> eventCache;
+    private final Object[] eventCache;
     private final Map<String, String> outputProperties;
+    private final long estimatedSize;
 
-    public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
-        this.eventCache = Collections.unmodifiableList(eventCache);
+    public CachedEventReader(
+            Object[] eventCache, Map<String, String> outputProperties, long estimatedSize) {
+        this.eventCache = eventCache;
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
+        this.estimatedSize = estimatedSize;
     }
 
+    @SuppressWarnings("unchecked")
     public List<E> getEventCache() {
-        return this.eventCache;
+        return Collections.unmodifiableList(Arrays.asList((E[]) this.eventCache));
+    }
+
+    public int getEventCount() {
+        return this.eventCache.length;
     }
 
     public Map<String, String> getOutputProperties() {
         return this.outputProperties;
     }
+
+    /** @return Estimated number of bytes of heap used by the cached events */
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
 }
@@ -17,6 +17,7 @@ package org.apereo.portal.rendering.cache;
 import java.util.ListIterator;
 import org.apereo.portal.character.stream.CharacterEventBufferReader;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
 import org.apereo.portal.character.stream.events.CharacterEvent;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
 
@@ -29,4 +30,18 @@ public class CachingCharacterPipelineComponent
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
     }
+
+    @Override
+    protected Object getDeduplicationKey(CharacterEvent event) {
+        //Character events are immutable value objects and can be used as their own key
+        return event;
+    }
+
+    @Override
+    protected long estimateEventSize(CharacterEvent event) {
+        if (event instanceof CharacterDataEvent) {
+            return 56 + 2 * ((CharacterDataEvent) event).getData().length();
+        }
+        return 64;
+    }
 }
@@ -14,11 +14,16 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import net.sf.ehcache.Ehcache;
@@ -42,6 +47,10 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
     private ResourcesElementsProvider resourcesElementsProvider;
     private Ehcache cache;
     private String beanName;
+    private long maxEntrySize = -1;
+
+    //Weak values mean the pool only holds events still referenced by a cache entry or reader, no max-size is needed
+    private final Cache<Object, E> eventPool = CacheBuilder.newBuilder().weakValues().build();
 
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -57,6 +66,14 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         this.beanName = name;
     }
 
+    /**
+     * Maximum estimated size in bytes of the events for a single cache entry. Larger event streams
+     * are returned to the caller without being cached. Defaults to -1 (no limit).
+     */
+    public void setMaxEntrySize(long maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
     @Override
     public final CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
         return this.wrappedComponent.getCacheKey(request, response);
@@ -94,23 +111,48 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
             final PipelineEventReader<R, E> pipelineEventReader =
                     this.wrappedComponent.getEventReader(request, response);
 
-            //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
+            //Copy the events from the reader into a buffer to be cached, sharing a single
+            //instance between all equivalent events
+            final List<E> eventCache = new ArrayList<E>();
+            final Set<E> distinctEvents =
+                    Collections.newSetFromMap(new IdentityHashMap<E, Boolean>());
+            long estimatedSize = 16 + 4 * 4; //holder and array overhead
             for (final E event : pipelineEventReader) {
-                //TODO add de-duplication logic here
-                eventCache.add(event);
+                final E pooledEvent = this.deduplicate(event);
+                eventCache.add(pooledEvent);
+                estimatedSize += 4;
+                if (distinctEvents.add(pooledEvent)) {
+                    estimatedSize += this.estimateEventSize(pooledEvent);
+                }
             }
 
             final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
             cachedEventReader =
                     new CachedEventReader<E>(
-                            eventCache, new LinkedHashMap<String, String>(outputProperties));
-
-            //Cache the buffer
-            element = new Element(cacheKey, cachedEventReader);
-            this.cache.put(element);
-            logger.debug(
-                    "{} - Cached {} events for key {}", this.beanName, eventCache.size(), cacheKey);
+                            eventCache.toArray(),
+                            new LinkedHashMap<String, String>(outputProperties),
+                            estimatedSize);
+
+            if (this.maxEntrySize >= 0 && estimatedSize > this.maxEntrySize) {
+                logger.debug(
+                        "{} - Not caching {} events for key {}, estimated size {} exceeds maxEntrySize {}",
+                        this.beanName,
+                        eventCache.size(),
+                        cacheKey,
+                        estimatedSize,
+                        this.maxEntrySize);
+            } else {
+                //Cache the buffer
+                element = new Element(cacheKey, cachedEventReader);
+                this.cache.put(element);
+                logger.debug(
+                        "{} - Cached {} events ({} distinct, ~{} bytes) for key {}",
+                        this.beanName,
+                        eventCache.size(),
+                        distinctEvents.size(),
+                        estimatedSize,
+                        cacheKey);
+            }
         } else {
             logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
         }
@@ -122,6 +164,29 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
 
+    /**
+     * @return A previously cached event equivalent to the specified event if one is still in use,
+     *     otherwise the specified event
+     */
+    protected final E deduplicate(E event) {
+        final Object key = this.getDeduplicationKey(event);
+        if (key == null) {
+            return event;
+        }
+
+        final E pooledEvent = this.eventPool.asMap().putIfAbsent(key, event);
+        return pooledEvent != null ? pooledEvent : event;
+    }
+
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
+
+    /**
+     * @return A key with equals/hashCode semantics that identifies all events interchangeable with
+     *     the specified event, null if the event must not be shared
+     */
+    protected abstract Object getDeduplicationKey(E event);
+
+    /** @return Estimated number of bytes of heap used by the event */
+    protected abstract long estimateEventSize(E event);
 }
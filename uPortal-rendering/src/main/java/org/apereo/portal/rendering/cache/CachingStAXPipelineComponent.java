@@ -14,8 +14,17 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 import org.apereo.portal.rendering.StAXPipelineComponent;
 import org.apereo.portal.xml.stream.XMLEventBufferReader;
@@ -28,4 +37,110 @@ public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEv
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
         return new XMLEventBufferReader(eventCache);
     }
+
+    @Override
+    protected Object getDeduplicationKey(XMLEvent event) {
+        switch (event.getEventType()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                {
+                    final Characters characters = event.asCharacters();
+                    final List<Object> key = new ArrayList<Object>(3);
+                    key.add(event.getEventType());
+                    key.add(characters.isCData());
+                    key.add(characters.getData());
+                    return key;
+                }
+            case XMLStreamConstants.END_ELEMENT:
+                {
+                    final List<Object> key = new ArrayList<Object>(3);
+                    key.add(event.getEventType());
+                    addName(key, event.asEndElement().getName());
+                    return key;
+                }
+            case XMLStreamConstants.START_ELEMENT:
+                {
+                    final StartElement startElement = event.asStartElement();
+                    final List<Object> key = new ArrayList<Object>();
+                    key.add(event.getEventType());
+                    addName(key, startElement.getName());
+                    for (final Iterator<?> itr = startElement.getAttributes(); itr.hasNext(); ) {
+                        final Attribute attribute = (Attribute) itr.next();
+                        addName(key, attribute.getName());
+                        key.add(attribute.getValue());
+                    }
+                    //Separates the attributes from the namespaces
+                    key.add(null);
+                    for (final Iterator<?> itr = startElement.getNamespaces(); itr.hasNext(); ) {
+                        final Namespace namespace = (Namespace) itr.next();
+                        key.add(namespace.getPrefix());
+                        key.add(namespace.getNamespaceURI());
+                    }
+                    return key;
+                }
+            default:
+                {
+                    return null;
+                }
+        }
+    }
+
+    /** QName.equals ignores the prefix, it is added to the key so prefixed output is preserved */
+    private static void addName(List<Object> key, QName name) {
+        key.add(name);
+        key.add(name.getPrefix());
+    }
+
+    @Override
+    protected long estimateEventSize(XMLEvent event) {
+        switch (event.getEventType()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                {
+                    return 32 + estimateStringSize(event.asCharacters().getData());
+                }
+            case XMLStreamConstants.END_ELEMENT:
+                {
+                    return 32 + estimateQNameSize(event.asEndElement().getName());
+                }
+            case XMLStreamConstants.START_ELEMENT:
+                {
+                    final StartElement startElement = event.asStartElement();
+                    long size = 64 + estimateQNameSize(startElement.getName());
+                    for (final Iterator<?> itr = startElement.getAttributes(); itr.hasNext(); ) {
+                        final Attribute attribute = (Attribute) itr.next();
+                        size +=
+                                48
+                                        + estimateQNameSize(attribute.getName())
+                                        + estimateStringSize(attribute.getValue());
+                    }
+                    for (final Iterator<?> itr = startElement.getNamespaces(); itr.hasNext(); ) {
+                        final Namespace namespace = (Namespace) itr.next();
+                        size +=
+                                48
+                                        + estimateStringSize(namespace.getPrefix())
+                                        + estimateStringSize(namespace.getNamespaceURI());
+                    }
+                    return size;
+                }
+            default:
+                {
+                    return 64;
+                }
+        }
+    }
+
+    private static long estimateQNameSize(QName name) {
+        //Namespace URIs and prefixes are generally interned, only count the local name
+        return 32 + estimateStringSize(name.getLocalPart());
+    }
+
+    private static long estimateStringSize(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return 40 + 2 * value.length();
+    }
 }
@@ -159,9 +159,11 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
 
         final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
 
+        //The output is read once by the next component, consume the buffer as it is read so
+        //events already handled downstream can be collected while the rest is read
         final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
         final XMLEventReader outputEventReader =
-                new XMLEventBufferReader(eventBuffer.listIterator());
+                new XMLEventBufferReader(eventBuffer.listIterator(), true);
 
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
         final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl =
@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.security;
 
+import java.util.Set;
 import org.apereo.portal.AuthorizationException;
 import org.apereo.portal.groups.GroupsException;
 import org.apereo.portal.groups.IGroupMember;
@@ -172,6 +173,18 @@ public interface IAuthorizationService {
     IPermission[] getPermissionsForPrincipal(
             IAuthorizationPrincipal principal, String owner, String activity, String target)
             throws AuthorizationException;
+
+    /**
+     * Returns the keys of the groups containing the <code>target</code>. A permission whose target
+     * is one of these groups applies to the <code>target</code> as well, see {@link
+     * #getPermissionsForPrincipal(IAuthorizationPrincipal, String, String, String)}.
+     *
+     * @return java.util.Set of group keys, empty if the target is not a group member
+     * @param owner java.lang.String
+     * @param activity java.lang.String
+     * @param target java.lang.String
+     */
+    Set<String> getTargetContainingGroups(String owner, String activity, String target);
     /**
      * Creates a new <code>IPermission</code> for the <code>principal</code> on behalf of the <code>
      * owner</code>.
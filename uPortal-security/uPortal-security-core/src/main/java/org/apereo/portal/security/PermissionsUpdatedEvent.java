@@ -0,0 +1,50 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Event : the indicated permissions were added to, removed from or updated in the permission store
+ * by the {@link IAuthorizationService}. Published after the authorization service has dropped its
+ * own cached state for the permissions so listeners see the change when they re-evaluate.
+ */
+public class PermissionsUpdatedEvent extends ApplicationEvent {
+
+    private final List<IPermission> permissions;
+
+    /**
+     * Create a new PermissionsUpdatedEvent.
+     *
+     * @param source the component that published the event (never <code>null</code>)
+     * @param permissions non-null permissions that were changed
+     */
+    public PermissionsUpdatedEvent(final Object source, final IPermission[] permissions) {
+        super(source);
+
+        Validate.notNull(permissions, "Permissions cannot be null.");
+
+        this.permissions = Collections.unmodifiableList(Arrays.asList(permissions.clone()));
+    }
+
+    /** @return The permissions that were changed */
+    public List<IPermission> getPermissions() {
+        return this.permissions;
+    }
+}
@@ -14,11 +14,15 @@
  */
 package org.apereo.portal.security.provider;
 
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
 import net.sf.ehcache.Cache;
+import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 import org.apereo.portal.AuthorizationException;
 import org.apereo.portal.groups.GroupsException;
 import org.apereo.portal.groups.IEntityGroup;
@@ -74,12 +78,66 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
 
     @Autowired private IPermissionTargetProviderRegistry targetProviderRegistry;
 
+    private static final int REMOVAL_STRIPES = 64;
+
+    private Cache permissionMatrixCache;
+
+    /**
+     * Counts the removals from the permission matrix cache, local or replicated, striped by key. A
+     * matrix compiled while the entry of its own principal was removed may be built from
+     * permissions read before the change and is not cached. Removals of ancestors are noticed
+     * through {@link PrincipalPermissionMatrix#invalidate()}.
+     */
+    private final AtomicLongArray permissionMatrixRemovals = new AtomicLongArray(REMOVAL_STRIPES);
+
     @Autowired
-    @Qualifier(
-        value =
-                "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_GRANT"
-    )
-    private Cache hasUnblockedGrantCache;
+    public void setPermissionMatrixCache(
+            @Qualifier(
+                            "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.PERMISSION_MATRIX")
+                    Cache permissionMatrixCache) {
+        this.permissionMatrixCache = permissionMatrixCache;
+        this.permissionMatrixCache
+                .getCacheEventNotificationService()
+                .registerListener(
+                        new CacheEventListenerAdapter() {
+                            @Override
+                            public void notifyElementRemoved(Ehcache cache, Element element) {
+                                permissionMatrixRemovals.incrementAndGet(
+                                        getRemovalStripe(element.getObjectKey()));
+                                invalidate(element);
+                            }
+
+                            @Override
+                            public void notifyElementExpired(Ehcache cache, Element element) {
+                                invalidate(element);
+                            }
+
+                            @Override
+                            public void notifyElementEvicted(Ehcache cache, Element element) {
+                                invalidate(element);
+                            }
+
+                            @Override
+                            public void notifyRemoveAll(Ehcache cache) {
+                                for (int i = 0; i < REMOVAL_STRIPES; i++) {
+                                    permissionMatrixRemovals.incrementAndGet(i);
+                                }
+                            }
+                        });
+    }
+
+    private static int getRemovalStripe(Object cacheKey) {
+        return (cacheKey.hashCode() & Integer.MAX_VALUE) % REMOVAL_STRIPES;
+    }
+
+    /** The matrices linking to a matrix that left the cache are recompiled on their next use */
+    private static void invalidate(Element element) {
+        //Removals of keys that are not cached notify with an empty element
+        final Object value = element.getObjectValue();
+        if (value instanceof PrincipalPermissionMatrix) {
+            ((PrincipalPermissionMatrix) value).invalidate();
+        }
+    }
 
     @Override
     public boolean doesPrincipalHavePermission(
@@ -185,11 +243,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         // Search ourselves and all ancestors for an unblocked GRANT.
         boolean rslt;
         try {
-            // Track groups we've already explored to avoid infinite loop
-            final Set<IGroupMember> seenGroups = new HashSet<>();
-            rslt =
-                    hasUnblockedPathToGrantWithCache(
-                            service, principal, owner, activity, target, seenGroups);
+            rslt = hasUnblockedPathToGrant(service, principal, owner, activity, target, false);
         } catch (Exception e) {
             log.error(
                     "Error searching for unblocked path to grant for principal [" + principal + "]",
@@ -226,8 +280,8 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
     /**
      * Allows an outside actor to force this policy to evaluate and cache an authorization decision.
      * Permissions checking can be expensive; a well-primed cache can make the task perform better.
-     * This method will create the cache entry whether it exists already or not, forcibly resetting
-     * the TTL.
+     * This method compiles the permissions of the principal if they are not cached yet and
+     * re-evaluates the decision whether it was cached already or not.
      *
      * @since 4.3
      */
@@ -238,50 +292,73 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
             IPermissionActivity activity,
             IPermissionTarget target) {
 
-        final Set<IGroupMember> seenGroups = new HashSet<>();
-        final CacheKey cacheKey = getCacheKey(principal, owner, activity, target);
-        final boolean answer =
-                hasUnblockedPathToGrant(service, principal, owner, activity, target, seenGroups);
-        final Element element = new Element(cacheKey, answer);
-        hasUnblockedGrantCache.put(element);
+        hasUnblockedPathToGrant(service, principal, owner, activity, target, true);
     }
 
-    private boolean hasUnblockedPathToGrantWithCache(
+    /**
+     * Restarts the time to live of the compiled permissions of the principal, keeping the decisions
+     * already made from them. Compiled permissions that are not cached or are stale are left
+     * alone, they are compiled again by the next check.
+     *
+     * @return true if the compiled permissions were cached and are still current
+     * @since 5.0
+     */
+    public boolean refreshInCache(
+            IAuthorizationService service, IAuthorizationPrincipal principal) {
+
+        final CacheKey cacheKey = getCacheKey(principal);
+        final Element element = permissionMatrixCache.get(cacheKey);
+        if (element == null) {
+            return false;
+        }
+        final PrincipalPermissionMatrix matrix =
+                (PrincipalPermissionMatrix) element.getObjectValue();
+        final Set<IEntityGroup> ancestorGroups =
+                service.getGroupMember(principal).getAncestorGroups();
+        if (matrix.isStale(System.currentTimeMillis(), ancestorGroups)) {
+            return false;
+        }
+
+        // Only if no one replaced or removed the entry in the meantime
+        return permissionMatrixCache.replace(element, new Element(cacheKey, matrix));
+    }
+
+    /**
+     * Same as {@link #loadInCache(IAuthorizationService, IAuthorizationPrincipal,
+     * IPermissionOwner, IPermissionActivity, IPermissionTarget)} except that a decision which is
+     * still cached is left alone. Decisions are dropped from the cache when the permissions or
+     * groups they depend on change, so for principals kept cached with {@link
+     * #refreshInCache(IAuthorizationService, IAuthorizationPrincipal)} this evaluates just what
+     * changed since the last call.
+     *
+     * @return true if the decision had to be evaluated, false if it was still cached
+     * @since 5.0
+     */
+    public boolean loadInCacheIfAbsent(
             IAuthorizationService service,
             IAuthorizationPrincipal principal,
             IPermissionOwner owner,
             IPermissionActivity activity,
-            IPermissionTarget target,
-            Set<IGroupMember> seenGroups)
-            throws GroupsException {
+            IPermissionTarget target) {
 
-        final CacheKey cacheKey = getCacheKey(principal, owner, activity, target);
-        Element element = hasUnblockedGrantCache.get(cacheKey);
-        if (element == null) {
-            final boolean answer =
-                    hasUnblockedPathToGrant(
-                            service, principal, owner, activity, target, seenGroups);
-            element = new Element(cacheKey, answer);
-            hasUnblockedGrantCache.put(element);
+        final PrincipalPermissionMatrix matrix =
+                getPermissionMatrix(service, principal, new HashSet<IGroupMember>());
+        final String activityKey =
+                PrincipalPermissionMatrix.getActivityKey(owner.getFname(), activity.getFname());
+        if (matrix.getDecision(activityKey, target.getKey()) != null) {
+            return false;
         }
-        return (Boolean) element.getObjectValue();
+
+        hasUnblockedPathToGrant(service, principal, owner, activity, target, false);
+        return true;
     }
 
     /**
-     * This method performs the actual, low-level checking of a single activity and target. Is IS
-     * responsible for performing the same check for affiliated groups in the Groups hierarchy, but
-     * it is NOT responsible for understanding the nuances of relationships some activities and/or
-     * targets have with one another (e.g. MANAGE_APPROVED, ALL_PORTLETS, etc.). It performs the
-     * following steps, in order:
-     *
-     * <ol>
-     *   <li>Find out if the specified principal is <em>specifically</em> granted or denied; if an
-     *       answer is found in this step, return it
-     *   <li>Find out what groups this principal belongs to; convert each one to a principal and
-     *       seek an answer by invoking ourselves recursively; if an answer is found in this step,
-     *       return it
-     *   <li>Return false (no explicit GRANT means no permission)
-     * </ol>
+     * Answers if the principal, or one of the groups containing it, has a GRANT for the activity
+     * and target that is not blocked by a DENY closer to the principal. It is NOT responsible for
+     * understanding the nuances of relationships some activities and/or targets have with one
+     * another (e.g. MANAGE_APPROVED, ALL_PORTLETS, etc.). The decision is made against the compiled
+     * permissions of the principal, see {@link PrincipalPermissionMatrix}.
      */
     private boolean hasUnblockedPathToGrant(
             IAuthorizationService service,
@@ -289,148 +366,128 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
             IPermissionOwner owner,
             IPermissionActivity activity,
             IPermissionTarget target,
-            Set<IGroupMember> seenGroups)
+            boolean reevaluate)
             throws GroupsException {
 
+        final PrincipalPermissionMatrix matrix =
+                getPermissionMatrix(service, principal, new HashSet<IGroupMember>());
+        final String activityKey =
+                PrincipalPermissionMatrix.getActivityKey(owner.getFname(), activity.getFname());
+        if (matrix.isActivityAbsent(activityKey)) {
+            // Nobody on the path to the principal has a permission for this activity
+            return false;
+        }
+
+        final String targetKey = target.getKey();
+        if (!reevaluate) {
+            final Boolean decision = matrix.getDecision(activityKey, targetKey);
+            if (decision != null) {
+                return decision;
+            }
+        }
+
         if (log.isTraceEnabled()) {
             log.trace(
-                    "Searching for unblocked path to GRANT for principal '{}' to "
-                            + "'{}' on target '{}' having already checked:  {}",
+                    "Evaluating compiled permissions {} of principal '{}' for '{}' on target '{}'",
+                    matrix,
                     principal.getKey(),
                     activity.getFname(),
-                    target.getKey(),
-                    seenGroups);
+                    target.getKey());
         }
 
-        /*
-         * Step #1:  Specific GRANT/DENY attached to this principal
-         */
-        final IPermission[] permissions =
-                service.getPermissionsForPrincipal(
-                        principal, owner.getFname(), activity.getFname(), target.getKey());
-
-        final Set<IPermission> activePermissions = removeInactivePermissions(permissions);
-        final boolean denyExists =
-                containsType(activePermissions, IPermission.PERMISSION_TYPE_DENY);
-        if (denyExists) {
-            // We need go no further;  DENY trumps both GRANT & inherited permissions
-            return false;
-        }
-        final boolean grantExists =
-                containsType(activePermissions, IPermission.PERMISSION_TYPE_GRANT);
-        if (grantExists) {
-            // We need go no further;  explicit GRANT at this level of the hierarchy
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "Found unblocked path to this permission set including a GRANT:  {}",
-                        activePermissions);
+        final Set<String> containingGroups =
+                service.getTargetContainingGroups(
+                        owner.getFname(), activity.getFname(), target.getKey());
+        return reevaluate
+                ? matrix.reevaluate(activityKey, targetKey, containingGroups)
+                : matrix.hasUnblockedPathToGrant(activityKey, targetKey, containingGroups);
+    }
+
+    /**
+     * Returns the compiled permissions of the principal, compiling them and those of any parent
+     * group that is not cached or is stale. A matrix is only cached when every parent group was
+     * compiled, none of its ancestors was invalidated and the entry of the principal was not
+     * removed while compiling, so a matrix missing a parent or built from permissions that changed
+     * in the meantime is never handed out again.
+     *
+     * @param compiling Group members being compiled by the callers, avoids following a cycle in
+     *     the groups tree forever
+     */
+    private PrincipalPermissionMatrix getPermissionMatrix(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            Set<IGroupMember> compiling)
+            throws GroupsException {
+
+        final IGroupMember principalAsGroupMember = service.getGroupMember(principal);
+        final Set<IEntityGroup> ancestorGroups = principalAsGroupMember.getAncestorGroups();
+
+        final CacheKey cacheKey = getCacheKey(principal);
+        final Element element = permissionMatrixCache.get(cacheKey);
+        if (element != null) {
+            final PrincipalPermissionMatrix matrix =
+                    (PrincipalPermissionMatrix) element.getObjectValue();
+            if (!matrix.isStale(System.currentTimeMillis(), ancestorGroups)) {
+                return matrix;
             }
-            return true;
+            // The members linking to it are recompiled as well
+            matrix.invalidate();
         }
 
-        /*
-         * Step #2:  Seek an answer from affiliated groups
-         */
-        IGroupMember principalAsGroupMember = service.getGroupMember(principal);
-        if (seenGroups.contains(principalAsGroupMember)) {
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "Declining to re-examine principal '{}' for permission to '{}' "
-                                + "on '{}' because this group is among already checked groups:  {}",
-                        principal.getKey(),
-                        activity.getFname(),
-                        target.getKey(),
-                        seenGroups);
+        final int removalStripe = getRemovalStripe(cacheKey);
+        final long removals = permissionMatrixRemovals.get(removalStripe);
+        boolean complete = true;
+
+        compiling.add(principalAsGroupMember);
+        final List<PrincipalPermissionMatrix> parents = new ArrayList<>();
+        for (IEntityGroup parentGroup : principalAsGroupMember.getParentGroups()) {
+            if (parentGroup == null) {
+                continue;
+            }
+            if (compiling.contains(parentGroup)) {
+                // cycle in the groups tree, the caller compiling the group has the rest of it
+                complete = false;
+                continue;
             }
-            return false;
-        }
-        seenGroups.add(principalAsGroupMember);
-        Set<IEntityGroup> immediatelyContainingGroups = principalAsGroupMember.getParentGroups();
-        for (IGroupMember parentGroup : immediatelyContainingGroups) {
             try {
-                if (parentGroup != null) {
-                    IAuthorizationPrincipal parentPrincipal = service.newPrincipal(parentGroup);
-                    boolean parentHasUnblockedPathToGrant =
-                            hasUnblockedPathToGrantWithCache(
-                                    service, parentPrincipal, owner, activity, target, seenGroups);
-                    if (parentHasUnblockedPathToGrant) {
-                        return true;
-                    }
-                    // Parent didn't have a path to grant, fall through and try another parent (if any)
-                }
+                final IAuthorizationPrincipal parentPrincipal = service.newPrincipal(parentGroup);
+                parents.add(getPermissionMatrix(service, parentPrincipal, compiling));
             } catch (Exception e) {
                 // problem evaluating this path, but let's not let it stop
                 // us from exploring other paths.  Though a portion of the
                 // group structure is broken, permission may be granted by
                 // an unbroken portion
                 log.error("Error evaluating permissions of parent group [" + parentGroup + "]", e);
+                complete = false;
             }
         }
+        compiling.remove(principalAsGroupMember);
 
-        /*
-         * Step #3:  No explicit GRANT means no permission
-         */
-        return false;
-    }
-
-    /**
-     * Returns a Set containing those IPermission instances where the present date is neither after
-     * the permission expiration if present nor before the permission start date if present. Only
-     * permissions objects that have been filtered by this method should be checked.
-     *
-     * @return Potentially empty non-null Set of active permissions.
-     */
-    private Set<IPermission> removeInactivePermissions(final IPermission[] perms) {
-        Date now = new Date();
-
-        Set<IPermission> rslt = new HashSet<>(1);
-
-        for (int i = 0; i < perms.length; i++) {
-            IPermission p = perms[i];
-
-            if ((p.getEffective() == null || !p.getEffective().after(now))
-                    && (p.getExpires() == null || p.getExpires().after(now))) {
-                rslt.add(p);
-            }
-        }
-
-        return rslt;
-    }
-
-    /**
-     * Returns true if a set of IPermission instances contains a permission of the specified type,
-     * otherwise false. Permissions passed to this method <em>must</em> already be filtered of
-     * inactive (expired) instances.
-     *
-     * @return True if the set contains a permission of the sought type, false otherwise
-     * @throws IllegalArgumentException if input set or type is null.
-     */
-    private boolean containsType(final Set<IPermission> permissions, final String soughtType) {
-
-        // Assertions
-        if (permissions == null) {
-            throw new IllegalArgumentException("Cannot check null set for contents.");
-        }
-        if (soughtType == null) {
-            throw new IllegalArgumentException("Cannot search for type null.");
+        final IPermission[] permissions =
+                service.getPermissionsForPrincipal(principal, null, null, null);
+        final PrincipalPermissionMatrix matrix =
+                new PrincipalPermissionMatrix(
+                        cacheKey, permissions, parents, ancestorGroups, System.currentTimeMillis());
+
+        if (complete
+                && removals == permissionMatrixRemovals.get(removalStripe)
+                && !matrix.isStale(System.currentTimeMillis())) {
+            permissionMatrixCache.put(new Element(cacheKey, matrix));
+        } else if (log.isDebugEnabled()) {
+            log.debug(
+                    "Not caching the compiled permissions of principal '{}', a parent group is "
+                            + "missing or permissions changed while compiling:  {}",
+                    principal.getKey(),
+                    matrix);
         }
 
-        boolean rslt = false; // default
-
-        for (IPermission p : permissions) {
-            if (soughtType.equals(p.getType())) {
-                rslt = true;
-            }
+        if (log.isTraceEnabled()) {
+            log.trace("Compiled permissions of principal '{}':  {}", principal.getKey(), matrix);
         }
-
-        return rslt;
+        return matrix;
     }
 
-    protected CacheKey getCacheKey(
-            IAuthorizationPrincipal principal,
-            IPermissionOwner owner,
-            IPermissionActivity activity,
-            IPermissionTarget target) {
+    protected CacheKey getCacheKey(IAuthorizationPrincipal principal) {
 
         CacheKey rslt;
         if (principal.isGroup()) {
@@ -440,10 +497,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
             rslt =
                     CacheKey.build(
                             AnyUnblockedGrantPermissionPolicy.class.getName(),
-                            principal.getPrincipalString(),
-                            owner.getFname(),
-                            activity.getFname(),
-                            target.getKey());
+                            principal.getPrincipalString());
         } else {
             /*
              * Keys tagged with the username for users;  this practice
@@ -453,10 +507,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
                     CacheKey.buildTagged(
                             AnyUnblockedGrantPermissionPolicy.class.getName(),
                             UsernameTaggedCacheEntryPurger.createCacheEntryTag(principal.getKey()),
-                            principal.getPrincipalString(),
-                            owner.getFname(),
-                            activity.getFname(),
-                            target.getKey());
+                            principal.getPrincipalString());
         }
 
         return rslt;
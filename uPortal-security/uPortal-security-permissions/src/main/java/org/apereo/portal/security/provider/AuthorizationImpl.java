@@ -17,6 +17,7 @@ package org.apereo.portal.security.provider;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -53,6 +54,7 @@ import org.apereo.portal.security.IPermissionStore;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.IUpdatingPermissionManager;
 import org.apereo.portal.security.PermissionHelper;
+import org.apereo.portal.security.PermissionsUpdatedEvent;
 import org.apereo.portal.services.EntityCachingService;
 import org.apereo.portal.services.GroupService;
 import org.apereo.portal.spring.locator.EntityTypesLocator;
@@ -67,11 +69,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.stereotype.Service;
 
 /** */
 @Service("authorizationService")
-public class AuthorizationImpl implements IAuthorizationService {
+public class AuthorizationImpl implements IAuthorizationService, ApplicationEventPublisherAware {
 
     /** Instance of log in order to log events. */
     protected final Logger log = LoggerFactory.getLogger(getClass());
@@ -100,9 +104,15 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /** The cache to hold the compiled permissions of each principal. */
+    private Ehcache permissionMatrixCache;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
+    /** Notified of permission changes so that derived state elsewhere can be updated. */
+    private ApplicationEventPublisher applicationEventPublisher;
+
     /** variable to determine if we should cache permissions or not. */
     private boolean cachePermissions = true;
 
@@ -122,6 +132,11 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.permissionStore = permissionStore;
     }
 
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
     @Value("${org.apereo.portal.security.IAuthorizationService.cachePermissions}")
     public void setCachePermissions(boolean cachePermissions) {
         this.cachePermissions = cachePermissions;
@@ -156,6 +171,14 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
 
+    @Autowired
+    public void setPermissionMatrixCache(
+            @Qualifier(
+                            "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.PERMISSION_MATRIX")
+                    Ehcache permissionMatrixCache) {
+        this.permissionMatrixCache = permissionMatrixCache;
+    }
+
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -184,6 +207,8 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            removeFromDecisionCache(permissions);
+            publishPermissionsUpdated(permissions);
         }
     }
 
@@ -930,6 +955,81 @@ public class AuthorizationImpl implements IAuthorizationService {
         return ps.getPermissions();
     }
 
+    /**
+     * Returns the keys of the groups that contain the target entity, permissions granted or denied
+     * on any of these groups also apply to the target. The synthetic ALL targets and targets of
+     * non-entity target providers have no containing groups.
+     *
+     * @param owner java.lang.String, may be null
+     * @param activity java.lang.String, may be null
+     * @param target java.lang.String
+     * @return Set of group keys, never null
+     */
+    @Override
+    public Set<String> getTargetContainingGroups(String owner, String activity, String target) {
+        if (target == null) {
+            return Collections.emptySet();
+        }
+
+        Set<String> containingGroups;
+        final Element element = this.entityParentsCache.get(target);
+        if (element != null) {
+            containingGroups = (Set<String>) element.getObjectValue();
+        } else {
+            containingGroups = new HashSet<String>();
+
+            //Ignore target entity lookups for the various synthetic ALL targets
+            if (!IPermission.ALL_CATEGORIES_TARGET.equals(target)
+                    && !IPermission.ALL_GROUPS_TARGET.equals(target)
+                    && !IPermission.ALL_PORTLETS_TARGET.equals(target)
+                    && !IPermission.ALL_TARGET.equals(target)) {
+
+                // UP-4410; It would be ideal if the target string indicated it was a group or entity that might be
+                // a member of a group so we could determine whether to check what groups the target entity might be
+                // contained within to see if the principal has permission to the containing group, but it does not
+                // (too significant to refactor database values at this point).  If the owner and activity strings map to
+                // a type of target that might be a group name or entity name, create a set of the groups the target
+                // entity is contained in.
+                boolean checkTargetForContainingGroups = true;
+                if (owner != null && activity != null) {
+                    IPermissionActivity permissionActivity =
+                            permissionOwner.getPermissionActivity(owner, activity);
+                    if (nonEntityPermissionTargetProviders.contains(
+                            permissionActivity.getTargetProviderKey())) {
+                        checkTargetForContainingGroups = false;
+                    }
+                }
+                if (checkTargetForContainingGroups) {
+                    log.debug(
+                            "Target '{}' is an entity. Checking for group or groups containing entity",
+                            target);
+
+                    IGroupMember targetEntity = GroupService.findGroup(target);
+                    if (targetEntity == null) {
+                        if (target.startsWith(IPermission.PORTLET_PREFIX)) {
+                            targetEntity =
+                                    GroupService.getGroupMember(
+                                            target.replace(IPermission.PORTLET_PREFIX, ""),
+                                            IPortletDefinition.class);
+                        } else {
+                            targetEntity = GroupService.getGroupMember(target, IPerson.class);
+                        }
+                    }
+
+                    if (targetEntity != null) {
+                        for (IEntityGroup ancestor : targetEntity.getAncestorGroups()) {
+                            containingGroups.add(ancestor.getKey());
+                        }
+                    }
+                }
+            }
+
+            this.entityParentsCache.put(new Element(target, containingGroups));
+        }
+
+        return containingGroups;
+    }
+
     /**
      * @return IPermission[]
      * @param principal org.apereo.portal.security.IAuthorizationPrincipal
@@ -956,68 +1056,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             return perms;
         }
 
-        Set<String> containingGroups;
-
-        if (target != null) {
-
-            final Element element = this.entityParentsCache.get(target);
-            if (element != null) {
-                containingGroups = (Set<String>) element.getObjectValue();
-            } else {
-                containingGroups = new HashSet<String>();
-
-                //Ignore target entity lookups for the various synthetic ALL targets
-                if (!IPermission.ALL_CATEGORIES_TARGET.equals(target)
-                        && !IPermission.ALL_GROUPS_TARGET.equals(target)
-                        && !IPermission.ALL_PORTLETS_TARGET.equals(target)
-                        && !IPermission.ALL_TARGET.equals(target)) {
-
-                    // UP-4410; It would be ideal if the target string indicated it was a group or entity that might be
-                    // a member of a group so we could determine whether to check what groups the target entity might be
-                    // contained within to see if the principal has permission to the containing group, but it does not
-                    // (too significant to refactor database values at this point).  If the owner and activity strings map to
-                    // a type of target that might be a group name or entity name, create a set of the groups the target
-                    // entity is contained in.
-                    boolean checkTargetForContainingGroups = true;
-                    if (owner != null && activity != null) {
-                        IPermissionActivity permissionActivity =
-                                permissionOwner.getPermissionActivity(owner, activity);
-                        if (nonEntityPermissionTargetProviders.contains(
-                                permissionActivity.getTargetProviderKey())) {
-                            checkTargetForContainingGroups = false;
-                        }
-                    }
-                    if (checkTargetForContainingGroups) {
-                        log.debug(
-                                "Target '{}' is an entity. Checking for group or groups containing entity",
-                                target);
-
-                        IGroupMember targetEntity = GroupService.findGroup(target);
-                        if (targetEntity == null) {
-                            if (target.startsWith(IPermission.PORTLET_PREFIX)) {
-                                targetEntity =
-                                        GroupService.getGroupMember(
-                                                target.replace(IPermission.PORTLET_PREFIX, ""),
-                                                IPortletDefinition.class);
-                            } else {
-                                targetEntity = GroupService.getGroupMember(target, IPerson.class);
-                            }
-                        }
-
-                        if (targetEntity != null) {
-                            for (IEntityGroup ancestor : targetEntity.getAncestorGroups()) {
-                                containingGroups.add(ancestor.getKey());
-                            }
-                        }
-                    }
-                }
-
-                this.entityParentsCache.put(new Element(target, containingGroups));
-            }
-
-        } else {
-            containingGroups = new HashSet<String>();
-        }
+        final Set<String> containingGroups = getTargetContainingGroups(owner, activity, target);
 
         List<IPermission> al = new ArrayList<IPermission>(perms.length);
 
@@ -1106,6 +1145,97 @@ public class AuthorizationImpl implements IAuthorizationService {
             throws AuthorizationException {
         IAuthorizationPrincipal[] principals = getPrincipalsFromPermissions(permissions);
         removeFromPermissionsCache(principals);
+
+        // Compiled permissions of the members of a group link to those of the group and are
+        // recompiled once it is no longer cached.  Tags are not part of CacheKey equality so the
+        // untagged key also matches the entries of users.
+        for (IAuthorizationPrincipal principal : principals) {
+            this.permissionMatrixCache.remove(
+                    CacheKey.build(
+                            AnyUnblockedGrantPermissionPolicy.class.getName(),
+                            principal.getPrincipalString()));
+        }
+    }
+
+    /**
+     * Removes the cached decisions the permissions may have changed: those for the same owner and
+     * activity of the principals of the permissions and of all of their members. A change to the
+     * ALL_PERMISSIONS activity of the portal system affects every activity.
+     *
+     * @param permissions IPermission[]
+     */
+    private void removeFromDecisionCache(IPermission[] permissions)
+            throws AuthorizationException {
+        final Set<String> activities = new HashSet<>();
+        boolean allActivities = false;
+        for (IPermission permission : permissions) {
+            activities.add(permission.getOwner() + "|" + permission.getActivity());
+            allActivities |=
+                    IPermission.PORTAL_SYSTEM.equals(permission.getOwner())
+                            && IPermission.ALL_PERMISSIONS_ACTIVITY.equals(
+                                    permission.getActivity());
+        }
+
+        final Set<String> principalStrings = new HashSet<>();
+        final List<IEntityGroup> groups = new ArrayList<>();
+        try {
+            for (IAuthorizationPrincipal principal : getPrincipalsFromPermissions(permissions)) {
+                principalStrings.add(getPrincipalString(principal));
+                if (principal.isGroup()) {
+                    groups.add((IEntityGroup) getGroupMemberForPrincipal(principal));
+                }
+            }
+        } catch (GroupsException ge) {
+            log.warn("Failed to find the changed groups, removing all cached decisions", ge);
+            this.doesPrincipalHavePermissionCache.removeAll();
+            return;
+        }
+
+        int removed = 0;
+        for (Object key : this.doesPrincipalHavePermissionCache.getKeys()) {
+            // policy, principal key, principal type, owner, activity, target
+            final Serializable[] keyData = (Serializable[]) ((CacheKey) key).getKey();
+            if (!allActivities && !activities.contains(keyData[3] + "|" + keyData[4])) {
+                continue;
+            }
+            if (isAffectedPrincipal(
+                    (String) keyData[1], (Class) keyData[2], principalStrings, groups)) {
+                this.doesPrincipalHavePermissionCache.remove(key);
+                removed++;
+            }
+        }
+        log.debug("Removed {} cached decisions after a change to {}", removed, activities);
+    }
+
+    /** @return true if the principal is one of the principals or a member of one of the groups */
+    private boolean isAffectedPrincipal(
+            String key, Class type, Set<String> principalStrings, List<IEntityGroup> groups) {
+        if (principalStrings.contains(getPrincipalString(type, key))) {
+            return true;
+        }
+        if (groups.isEmpty()) {
+            return false;
+        }
+        try {
+            final IGroupMember member = GroupService.getGroupMember(key, type);
+            for (IEntityGroup group : groups) {
+                if (member.isDeepMemberOf(group)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (GroupsException ge) {
+            // Can't tell, drop the decision to be safe
+            log.warn("Failed to find the groups of principal {}", key, ge);
+            return true;
+        }
+    }
+
+    private void publishPermissionsUpdated(IPermission[] permissions) {
+        if (this.applicationEventPublisher != null) {
+            this.applicationEventPublisher.publishEvent(
+                    new PermissionsUpdatedEvent(this, permissions));
+        }
     }
 
     /**
@@ -1121,6 +1251,8 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            removeFromDecisionCache(permissions);
+            publishPermissionsUpdated(permissions);
         }
     }
 
@@ -1137,6 +1269,8 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            removeFromDecisionCache(permissions);
+            publishPermissionsUpdated(permissions);
         }
     }
 }
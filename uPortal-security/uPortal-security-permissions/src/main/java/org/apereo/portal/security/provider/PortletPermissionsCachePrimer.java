@@ -14,16 +14,17 @@
  */
 package org.apereo.portal.security.provider;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.groups.IEntityGroup;
 import org.apereo.portal.groups.IGroupMember;
@@ -44,6 +45,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
  * Responsible for pre-loading the permissions cache maintained by the
@@ -51,9 +53,19 @@ import org.springframework.beans.factory.annotation.Required;
  * computationally expensive work, especially for operations that need a decision for every portlet
  * in the registry; it's better to do it outside of a request thread.
  *
+ * <p>Each run first restarts the time to live of the compiled permissions of every group it primes,
+ * so the decisions made by earlier runs stay cached. It then only evaluates the decisions that are
+ * no longer cached, the policy drops them when the permissions or groups they depend on change.
+ * The work is split into one partition per owner/activity and spread over a work-stealing pool so
+ * a large partition doesn't keep the others waiting.
+ *
  * @since 4.3
  */
-public class PortletPermissionsCachePrimer {
+@ManagedResource("uPortal:section=Framework,name=PortletPermissionsCachePrimer")
+public class PortletPermissionsCachePrimer implements PortletPermissionsCachePrimerMXBean {
+
+    /** Partitions are split until a task primes no more than this many groups */
+    private static final int GROUPS_PER_TASK = 4;
 
     @Autowired private IPortletDefinitionRegistry portletDefinitionRegistry;
 
@@ -67,12 +79,20 @@ public class PortletPermissionsCachePrimer {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private ThreadPoolExecutor executor;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong combinationCount = new AtomicLong();
+    private final AtomicLong evaluatedCount = new AtomicLong();
+    private volatile long totalCombinations;
+    private volatile long runStart;
+    private volatile long runEnd;
+
+    private ForkJoinPool forkJoinPool;
     private Map<String, Set<String>> permissionsMap;
 
     @Required
-    public void setExecutor(ThreadPoolExecutor executor) {
-        this.executor = executor;
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
     }
 
     @Required
@@ -80,25 +100,91 @@ public class PortletPermissionsCachePrimer {
         this.permissionsMap = Collections.unmodifiableMap(permissionsMap);
     }
 
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Override
+    public long getRunCount() {
+        return runCount.get();
+    }
+
+    @Override
+    public long getCombinationCount() {
+        return combinationCount.get();
+    }
+
+    @Override
+    public long getEvaluatedCount() {
+        return evaluatedCount.get();
+    }
+
+    @Override
+    public long getRemainingCount() {
+        if (!running.get()) {
+            return 0;
+        }
+        return Math.max(0, totalCombinations - combinationCount.get());
+    }
+
+    @Override
+    public long getRunDuration() {
+        final long start = runStart;
+        if (start == 0) {
+            return 0;
+        }
+        final long end = runEnd;
+        return (end != 0 ? end : System.currentTimeMillis()) - start;
+    }
+
+    @Override
+    public double getCombinationsPerSecond() {
+        final long duration = getRunDuration();
+        if (duration == 0) {
+            return 0;
+        }
+        return combinationCount.get() * 1000d / duration;
+    }
+
     public void primeCache() {
+        primeCache(GroupService.getRootGroup(IPerson.class));
+    }
 
-        if (executor.getActiveCount() != 0) {
+    /** Primes the decisions of the group and every group below it */
+    void primeCache(IEntityGroup rootGroup) {
+
+        if (!running.compareAndSet(false, true)) {
             log.warn(
-                    "Skipping this run becasue there are active threads in the executor, signifying the previous run is not complete");
+                    "Skipping this run becasue the previous run is not complete, {} combinations remaining",
+                    getRemainingCount());
             return;
         }
 
-        log.info("STARTING PortletPermissionsCachePrimer.primeCache()...");
-        final long timestamp = System.currentTimeMillis();
+        try {
+            prime(rootGroup);
+        } finally {
+            running.set(false);
+        }
+    }
 
-        /*
-         * This task is pretty effort-intensive and may take in excess of a
-         * minute to run in a single thread.  Going to use a divide-and-conquer
-         * approach.
-         */
-        final Map<NodeWalker, Future<NodeWalkerReport>> futures = new HashMap<>();
+    private void prime(IEntityGroup rootGroup) {
 
-        final IEntityGroup rootGroup = GroupService.getRootGroup(IPerson.class);
+        log.info("STARTING PortletPermissionsCachePrimer.primeCache()...");
+        combinationCount.set(0);
+        evaluatedCount.set(0);
+        totalCombinations = 0;
+        runEnd = 0;
+        runStart = System.currentTimeMillis();
+
+        // Every partition works from the same groups and portlets
+        final List<IAuthorizationPrincipal> principals = new ArrayList<>();
+        collectPrincipals(rootGroup, new HashSet<EntityIdentifier>(), principals);
+        refreshPrincipals(principals);
+        final List<IPortletDefinition> portletDefinitions =
+                portletDefinitionRegistry.getAllPortletDefinitions();
+
+        final List<PrimingTask> partitions = new ArrayList<>();
         for (Map.Entry<String, Set<String>> y : permissionsMap.entrySet()) {
             final IPermissionOwner owner = permissionOwnerDao.getPermissionOwner(y.getKey());
             for (String s : y.getValue()) {
@@ -106,138 +192,166 @@ public class PortletPermissionsCachePrimer {
                         permissionOwnerDao.getPermissionActivity(y.getKey(), s);
                 final IPermissionTargetProvider targetProvider =
                         targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey());
-                final NodeWalker walker =
-                        new NodeWalker(rootGroup, owner, activity, targetProvider);
-                final Future<NodeWalkerReport> future = this.executor.submit(walker);
-                futures.put(walker, future);
+                final List<IPermissionTarget> targets = new ArrayList<>(portletDefinitions.size());
+                for (IPortletDefinition pdef : portletDefinitions) {
+                    final String targetString =
+                            PermissionHelper.permissionTargetIdForPortletDefinition(pdef);
+                    targets.add(targetProvider.getTarget(targetString));
+                }
+                partitions.add(
+                        new PrimingTask(
+                                owner, activity, principals, targets, 0, principals.size()));
             }
         }
+        totalCombinations =
+                (long) principals.size() * portletDefinitions.size() * partitions.size();
 
-        int totalCombinations = 0;
-        for (Map.Entry<NodeWalker, Future<NodeWalkerReport>> y : futures.entrySet()) {
+        for (PrimingTask partition : partitions) {
+            forkJoinPool.execute(partition);
+        }
+        for (PrimingTask partition : partitions) {
             try {
-                final NodeWalkerReport report = y.getValue().get();
-                totalCombinations += report.getCombinationCount();
-                log.debug(
-                        "NodeWalker '{}' processed {} combinations in {}ms",
-                        y.getKey(),
-                        report.getCombinationCount(),
-                        report.getDuration());
-            } catch (InterruptedException | ExecutionException e) {
-                log.error("NodeWalker '{}' failed", y.getKey());
+                partition.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for partition '{}'", partition);
+                break;
+            } catch (ExecutionException e) {
+                log.error("Partition '{}' failed", partition, e.getCause());
             }
         }
 
+        runEnd = System.currentTimeMillis();
+        runCount.incrementAndGet();
         log.info(
-                "COMPLETED PortletPermissionsCachePrimer.primeCache();  processed {} total combinations in {}ms",
-                totalCombinations,
-                Long.toString(System.currentTimeMillis() - timestamp));
+                "COMPLETED PortletPermissionsCachePrimer.primeCache();  examined {} total combinations and evaluated {} in {}ms",
+                combinationCount.get(),
+                evaluatedCount.get(),
+                Long.toString(runEnd - runStart));
+    }
+
+    /** Keeps the compiled permissions of the principals cached for another run */
+    private void refreshPrincipals(List<IAuthorizationPrincipal> principals) {
+        int refreshed = 0;
+        for (IAuthorizationPrincipal principal : principals) {
+            try {
+                if (policy.refreshInCache(authorizationService, principal)) {
+                    refreshed++;
+                }
+            } catch (Exception e) {
+                log.error(
+                        "Failed to refresh the cached permissions of principal '{}'",
+                        principal.getKey(),
+                        e);
+            }
+        }
+        log.debug(
+                "Refreshed the cached permissions of {} of {} principals",
+                refreshed,
+                principals.size());
+    }
+
+    /** Adds a principal for the group and every group below it */
+    private void collectPrincipals(
+            final IEntityGroup group,
+            final Set<EntityIdentifier> visitedNodes,
+            final List<IAuthorizationPrincipal> principals) {
+
+        /*
+         * Recursive groups structures are a bad idea, but
+         * we will attempt to prevent issues with them.
+         */
+        if (!visitedNodes.add(group.getUnderlyingEntityIdentifier())) {
+            return;
+        }
+
+        principals.add(authorizationService.newPrincipal(group));
+
+        if (group.hasMembers()) {
+            final Set<IGroupMember> members = group.getChildren();
+            for (IGroupMember member : members) {
+                if (member.isGroup()) {
+                    collectPrincipals((IEntityGroup) member, visitedNodes, principals);
+                }
+            }
+        }
     }
 
     /*
      * Nested Types
      */
 
-    private /* non-static */ final class NodeWalker implements Callable<NodeWalkerReport> {
+    /**
+     * Primes the decisions for one owner/activity for a range of the groups, splitting the range in
+     * two until it is small enough for idle workers to steal the other halves.
+     */
+    private /* non-static */ final class PrimingTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
 
-        final IEntityGroup rootGroup;
         final IPermissionOwner owner;
         final IPermissionActivity activity;
-        final IPermissionTargetProvider targetProvider;
+        final List<IAuthorizationPrincipal> principals;
+        final List<IPermissionTarget> targets;
+        final int from;
+        final int to;
 
-        public NodeWalker(
-                IEntityGroup rootGroup,
+        public PrimingTask(
                 IPermissionOwner owner,
                 IPermissionActivity activity,
-                IPermissionTargetProvider targetProvider) {
-            this.rootGroup = rootGroup;
+                List<IAuthorizationPrincipal> principals,
+                List<IPermissionTarget> targets,
+                int from,
+                int to) {
             this.owner = owner;
             this.activity = activity;
-            this.targetProvider = targetProvider;
+            this.principals = principals;
+            this.targets = targets;
+            this.from = from;
+            this.to = to;
         }
 
         @Override
-        public NodeWalkerReport call() throws Exception {
-            final NodeWalkerReport rslt = new NodeWalkerReport();
-            final long timestamp = System.currentTimeMillis();
-            walk(rootGroup, new HashSet<EntityIdentifier>(), rslt);
-            rslt.setDuration(System.currentTimeMillis() - timestamp);
-            return rslt;
-        }
-
-        private void walk(
-                final IEntityGroup group,
-                final Set<EntityIdentifier> visitedNodes,
-                final NodeWalkerReport report) {
-
-            /*
-             * Recursive groups structures are a bad idea, but
-             * we will attempt to prevent issues with them.
-             */
-            if (visitedNodes.contains(group.getUnderlyingEntityIdentifier())) {
+        protected void compute() {
+            if (to - from > GROUPS_PER_TASK) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(
+                        new PrimingTask(owner, activity, principals, targets, from, middle),
+                        new PrimingTask(owner, activity, principals, targets, middle, to));
                 return;
             }
-            visitedNodes.add(group.getUnderlyingEntityIdentifier());
-
-            /*
-             * First we load ourselves.
-             */
-            final IAuthorizationPrincipal principal = authorizationService.newPrincipal(group);
-            final List<IPortletDefinition> portletDefinitions =
-                    portletDefinitionRegistry.getAllPortletDefinitions();
-            for (IPortletDefinition pdef : portletDefinitions) {
-                final String targetString =
-                        PermissionHelper.permissionTargetIdForPortletDefinition(pdef);
-                final IPermissionTarget target = targetProvider.getTarget(targetString);
-                policy.loadInCache(authorizationService, principal, owner, activity, target);
-                report.incrementCombinationCount();
-            }
 
-            /*
-             * Then we load our children.
-             */
-            if (group.hasMembers()) {
-                final Set<IGroupMember> members = group.getChildren();
-                for (IGroupMember member : members) {
-                    if (member.isGroup()) {
-                        IEntityGroup child = (IEntityGroup) member;
-                        walk(child, visitedNodes, report);
+            for (int i = from; i < to; i++) {
+                final IAuthorizationPrincipal principal = principals.get(i);
+                try {
+                    for (IPermissionTarget target : targets) {
+                        if (policy.loadInCacheIfAbsent(
+                                authorizationService, principal, owner, activity, target)) {
+                            evaluatedCount.incrementAndGet();
+                        }
+                        combinationCount.incrementAndGet();
                     }
+                } catch (Exception e) {
+                    log.error(
+                            "Failed to prime '{}' permissions of principal '{}'",
+                            activity.getFname(),
+                            principal.getKey(),
+                            e);
                 }
             }
         }
 
         @Override
         public String toString() {
-            return "NodeWalker [rootGroup="
-                    + rootGroup
-                    + ", owner="
+            return "PrimingTask [owner="
                     + owner
                     + ", activity="
                     + activity
+                    + ", from="
+                    + from
+                    + ", to="
+                    + to
                     + "]";
         }
     }
-
-    private static final class NodeWalkerReport {
-
-        private int combinationCount;
-        private long duration;
-
-        public int getCombinationCount() {
-            return combinationCount;
-        }
-
-        public void incrementCombinationCount() {
-            combinationCount += 1;
-        }
-
-        public long getDuration() {
-            return duration;
-        }
-
-        public void setDuration(long duration) {
-            this.duration = duration;
-        }
-    }
 }
@@ -0,0 +1,40 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+/** JMX progress and throughput of {@link PortletPermissionsCachePrimer} runs */
+public interface PortletPermissionsCachePrimerMXBean {
+
+    /** @return true while a run is in progress */
+    boolean isRunning();
+
+    /** @return Number of completed runs */
+    long getRunCount();
+
+    /** @return Principal/activity/portlet combinations examined by the current or last run */
+    long getCombinationCount();
+
+    /** @return Combinations the current or last run had to evaluate, the rest were still cached */
+    long getEvaluatedCount();
+
+    /** @return Combinations the current run has not examined yet, 0 when no run is in progress */
+    long getRemainingCount();
+
+    /** @return Duration in milliseconds of the current or last run */
+    long getRunDuration();
+
+    /** @return Combinations examined per second by the current or last run */
+    double getCombinationsPerSecond();
+}
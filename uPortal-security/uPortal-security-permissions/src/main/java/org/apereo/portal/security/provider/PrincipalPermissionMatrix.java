@@ -0,0 +1,302 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.security.IPermission;
+
+/**
+ * Compiled form of the permissions that apply to one principal, as evaluated by {@link
+ * AnyUnblockedGrantPermissionPolicy}. Holds the active GRANTs and DENYs attached directly to the
+ * principal, keyed by owner/activity and target, and the compiled permissions of each parent
+ * group. Parent groups are shared by every principal below them so a decision is resolved with
+ * hash lookups instead of a walk of the groups tree, and is remembered for the next check.
+ *
+ * <p>Instances are immutable apart from the remembered decisions. They become stale when one of
+ * the permissions reaches its effective or expiration date, when the ancestor groups of the
+ * principal change or when the matrix or any ancestor matrix it links to is invalidated, see
+ * {@link #invalidate()}. The ancestor matrices are collected once when the matrix is compiled so
+ * checking them does not walk the groups tree.
+ */
+/* package-private */ final class PrincipalPermissionMatrix {
+
+    /** Key of the matrix in the cache */
+    private final Serializable cacheKey;
+
+    /**
+     * Permissions attached to the principal by activity and target, true for GRANT and false if
+     * there is a DENY
+     */
+    private final Map<String, Map<String, Boolean>> permissions;
+
+    /** Activities with a permission on the principal or any of its ancestors */
+    private final Set<String> activities;
+
+    private final List<PrincipalPermissionMatrix> parents;
+
+    /** Every matrix reachable through the parents, without duplicates */
+    private final PrincipalPermissionMatrix[] ancestors;
+
+    private final long validUntil;
+    private volatile Set<IEntityGroup> ancestorGroups;
+    private volatile boolean invalidated = false;
+    private final ConcurrentMap<String, ConcurrentMap<String, Boolean>> decisions =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param cacheKey Key of the matrix in the cache
+     * @param permissions All permissions attached directly to the principal
+     * @param parents Compiled permissions of the parent groups of the principal
+     * @param ancestorGroups All groups containing the principal when it was compiled
+     * @param now Time used to decide if a permission is active
+     */
+    public PrincipalPermissionMatrix(
+            Serializable cacheKey,
+            IPermission[] permissions,
+            List<PrincipalPermissionMatrix> parents,
+            Set<IEntityGroup> ancestorGroups,
+            long now) {
+
+        final Map<String, Map<String, Boolean>> compiled = new HashMap<>();
+        final Set<String> activities = new HashSet<>();
+        long validUntil = Long.MAX_VALUE;
+
+        for (IPermission permission : permissions) {
+            final Date effective = permission.getEffective();
+            final Date expires = permission.getExpires();
+            if (effective != null && effective.getTime() > now) {
+                //Not active yet, recompile once it is
+                validUntil = Math.min(validUntil, effective.getTime());
+                continue;
+            }
+            if (expires != null) {
+                if (expires.getTime() <= now) {
+                    continue;
+                }
+                validUntil = Math.min(validUntil, expires.getTime());
+            }
+
+            final boolean grant = IPermission.PERMISSION_TYPE_GRANT.equals(permission.getType());
+            if (grant || IPermission.PERMISSION_TYPE_DENY.equals(permission.getType())) {
+                final String activity =
+                        getActivityKey(permission.getOwner(), permission.getActivity());
+                Map<String, Boolean> targets = compiled.get(activity);
+                if (targets == null) {
+                    targets = new HashMap<>();
+                    compiled.put(activity, targets);
+                }
+                //DENY trumps GRANT
+                final Boolean existing = targets.get(permission.getTarget());
+                targets.put(permission.getTarget(), grant && (existing == null || existing));
+                activities.add(activity);
+            }
+        }
+
+        final Set<PrincipalPermissionMatrix> ancestors =
+                Collections.newSetFromMap(
+                        new IdentityHashMap<PrincipalPermissionMatrix, Boolean>());
+        for (PrincipalPermissionMatrix parent : parents) {
+            activities.addAll(parent.activities);
+            validUntil = Math.min(validUntil, parent.validUntil);
+            ancestors.add(parent);
+            Collections.addAll(ancestors, parent.ancestors);
+        }
+
+        this.cacheKey = cacheKey;
+        this.permissions = compiled;
+        this.activities = activities;
+        this.parents = parents;
+        this.ancestors = ancestors.toArray(new PrincipalPermissionMatrix[ancestors.size()]);
+        this.ancestorGroups = ancestorGroups;
+        this.validUntil = validUntil;
+    }
+
+    /** @return The key used for an owner/activity pair by the compiled permissions */
+    public static String getActivityKey(String owner, String activity) {
+        return owner + "|" + activity;
+    }
+
+    public Serializable getCacheKey() {
+        return this.cacheKey;
+    }
+
+    /**
+     * Marks the matrix as no longer usable, along with every matrix that links to it. Called when
+     * the matrix is removed from the cache.
+     */
+    public void invalidate() {
+        this.invalidated = true;
+    }
+
+    /**
+     * @return true if the matrix or any of its ancestors was invalidated or if a permission reached
+     *     its effective or expiration date
+     */
+    public boolean isStale(long now) {
+        if (this.invalidated || now >= this.validUntil) {
+            return true;
+        }
+        for (PrincipalPermissionMatrix ancestor : this.ancestors) {
+            if (ancestor.invalidated) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the matrix is stale, see {@link #isStale(long)}, or if the principal is no
+     *     longer in the same groups
+     */
+    public boolean isStale(long now, Set<IEntityGroup> currentAncestorGroups) {
+        if (isStale(now)) {
+            return true;
+        }
+        if (currentAncestorGroups != this.ancestorGroups) {
+            if (!currentAncestorGroups.equals(this.ancestorGroups)) {
+                return true;
+            }
+            //Same groups in a rebuilt set, compare by identity from now on
+            this.ancestorGroups = currentAncestorGroups;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if no permission for the activity is attached to the principal or any of its
+     *     ancestors, the principal can't have an unblocked path to a GRANT for it
+     */
+    public boolean isActivityAbsent(String activity) {
+        return !this.activities.contains(activity);
+    }
+
+    /** @return The remembered decision, null if it has not been evaluated yet */
+    public Boolean getDecision(String activity, String target) {
+        if (isActivityAbsent(activity)) {
+            return Boolean.FALSE;
+        }
+        final Map<String, Boolean> targets = this.decisions.get(activity);
+        return targets != null ? targets.get(target) : null;
+    }
+
+    /**
+     * Answers if there is a path from the principal to a GRANT for the activity on the target that
+     * is not blocked by a DENY, remembering the answer for this principal and every ancestor
+     * consulted along the way.
+     *
+     * @param containingGroups Keys of the groups containing the target, permissions on these
+     *     groups apply to the target as well
+     */
+    public boolean hasUnblockedPathToGrant(
+            String activity, String target, Collection<String> containingGroups) {
+        if (isActivityAbsent(activity)) {
+            return false;
+        }
+
+        Boolean rslt = getDecision(activity, target);
+        if (rslt == null) {
+            rslt = evaluate(activity, target, containingGroups);
+            remember(activity, target, rslt);
+        }
+        return rslt;
+    }
+
+    /** Evaluates the decision ignoring, and replacing, any remembered answer */
+    public boolean reevaluate(String activity, String target, Collection<String> containingGroups) {
+        if (isActivityAbsent(activity)) {
+            return false;
+        }
+
+        final boolean rslt = evaluate(activity, target, containingGroups);
+        remember(activity, target, rslt);
+        return rslt;
+    }
+
+    private void remember(String activity, String target, boolean decision) {
+        ConcurrentMap<String, Boolean> targets = this.decisions.get(activity);
+        if (targets == null) {
+            final ConcurrentMap<String, Boolean> created = new ConcurrentHashMap<>();
+            targets = this.decisions.putIfAbsent(activity, created);
+            if (targets == null) {
+                targets = created;
+            }
+        }
+        targets.put(target, decision);
+    }
+
+    private boolean evaluate(String activity, String target, Collection<String> containingGroups) {
+        /*
+         * Step #1:  Specific GRANT/DENY attached to this principal, either on
+         * the target itself or on a group containing the target
+         */
+        Map<String, Boolean> targets = this.permissions.get(activity);
+        if (targets == null) {
+            targets = Collections.emptyMap();
+        }
+        Boolean own = targets.get(target);
+        for (String containingGroup : containingGroups) {
+            if (Boolean.FALSE.equals(own)) {
+                break;
+            }
+            final Boolean inherited = targets.get(containingGroup);
+            if (inherited != null) {
+                own = inherited && (own == null || own);
+            }
+        }
+        if (own != null) {
+            // DENY trumps both GRANT & inherited permissions
+            return own;
+        }
+
+        /*
+         * Step #2:  Seek an answer from the parent groups
+         */
+        for (PrincipalPermissionMatrix parent : this.parents) {
+            if (parent.hasUnblockedPathToGrant(activity, target, containingGroups)) {
+                return true;
+            }
+        }
+
+        /*
+         * Step #3:  No explicit GRANT means no permission
+         */
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "PrincipalPermissionMatrix [cacheKey="
+                + this.cacheKey
+                + ", permissions="
+                + this.permissions.size()
+                + ", parents="
+                + this.parents.size()
+                + ", decisions="
+                + this.decisions.size()
+                + "]";
+    }
+}
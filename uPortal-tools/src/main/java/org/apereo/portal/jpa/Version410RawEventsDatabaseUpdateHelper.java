@@ -0,0 +1,143 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.jpa;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.apereo.portal.jpa.BaseRawEventsJpaDao.RawEventsTransactional;
+import org.apereo.portal.utils.JdbcUtils;
+import org.apereo.portal.version.VersionUtils;
+import org.apereo.portal.version.om.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Update the raw events db from 4.1.0. Rows stored with a binary event format leave EVENT_DATA
+ * null, the schema update adds the new columns but does not change existing ones.
+ */
+@Component
+public class Version410RawEventsDatabaseUpdateHelper implements IVersionedDatabaseUpdateHelper {
+    private static final String TABLE = "UP_RAW_EVENTS";
+    private static final String COLUMN = "EVENT_DATA";
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Version version = VersionUtils.parseVersion("4.1.0");
+    private JdbcOperations jdbcOperations;
+
+    @Autowired
+    @Qualifier(BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME)
+    public void setJdbcOperations(JdbcOperations jdbcOperations) {
+        this.jdbcOperations = jdbcOperations;
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME;
+    }
+
+    @Override
+    public Version getVersion() {
+        return version;
+    }
+
+    @RawEventsTransactional
+    @Override
+    public void preUpdate() {
+        if (!JdbcUtils.doesTableExist(this.jdbcOperations, TABLE)) {
+            return;
+        }
+
+        final String alterSql =
+                this.jdbcOperations.execute(
+                        new ConnectionCallback<String>() {
+                            @Override
+                            public String doInConnection(Connection con)
+                                    throws SQLException, DataAccessException {
+                                return getAlterSql(con.getMetaData());
+                            }
+                        });
+        if (alterSql == null) {
+            logger.info("{}.{} already allows NULL values", TABLE, COLUMN);
+            return;
+        }
+
+        logger.info("Allowing NULL values in {}.{}: {}", TABLE, COLUMN, alterSql);
+        this.jdbcOperations.execute(alterSql);
+    }
+
+    @Override
+    public void postUpdate() {}
+
+    /** @return The statement that drops the NOT NULL constraint, null if there is none */
+    private String getAlterSql(DatabaseMetaData metaData) throws SQLException {
+        String typeName = null;
+        int columnSize = 0;
+        boolean nullable = true;
+        for (final String table : new String[] {TABLE, TABLE.toLowerCase()}) {
+            final ResultSet columns = metaData.getColumns(null, null, table, null);
+            try {
+                while (columns.next()) {
+                    if (COLUMN.equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+                        typeName = columns.getString("TYPE_NAME");
+                        columnSize = columns.getInt("COLUMN_SIZE");
+                        nullable = columns.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls;
+                    }
+                }
+            } finally {
+                columns.close();
+            }
+            if (typeName != null) {
+                break;
+            }
+        }
+        if (nullable) {
+            return null;
+        }
+
+        //Each database has its own syntax for changing the nullability of a column
+        final String product = metaData.getDatabaseProductName().toLowerCase();
+        if (product.contains("mysql") || product.contains("mariadb")) {
+            return "ALTER TABLE " + TABLE + " MODIFY " + COLUMN + " " + typeName + " NULL";
+        }
+        if (product.contains("oracle")) {
+            return "ALTER TABLE " + TABLE + " MODIFY (" + COLUMN + " NULL)";
+        }
+        if (product.contains("microsoft")) {
+            final String sqlServerType =
+                    columnSize > 8000 ? typeName + "(max)" : typeName + "(" + columnSize + ")";
+            return "ALTER TABLE "
+                    + TABLE
+                    + " ALTER COLUMN "
+                    + COLUMN
+                    + " "
+                    + sqlServerType
+                    + " NULL";
+        }
+        if (product.contains("hsql")) {
+            return "ALTER TABLE " + TABLE + " ALTER COLUMN " + COLUMN + " SET NULL";
+        }
+        //PostgreSQL, DB2, H2 and Derby
+        return "ALTER TABLE " + TABLE + " ALTER COLUMN " + COLUMN + " DROP NOT NULL";
+    }
+}
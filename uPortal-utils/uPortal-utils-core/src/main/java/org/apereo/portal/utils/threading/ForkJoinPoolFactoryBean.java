@@ -0,0 +1,86 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.threading;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.config.AbstractFactoryBean;
+
+/**
+ * Creates a {@link ForkJoinPool} whose worker threads are named and prioritized like the threads of
+ * the portal's other executors. The pool is shut down when the bean is destroyed.
+ */
+public class ForkJoinPoolFactoryBean extends AbstractFactoryBean<ForkJoinPool> {
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private String threadNamePrefix = "ForkJoinPool-";
+    private int threadPriority = Thread.NORM_PRIORITY;
+
+    /** Number of worker threads the pool keeps active, defaults to the number of processors */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /** Prefix of the worker thread names, the worker number is appended */
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    /** Priority of the worker threads */
+    public void setThreadPriority(int threadPriority) {
+        this.threadPriority = threadPriority;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return ForkJoinPool.class;
+    }
+
+    @Override
+    protected ForkJoinPool createInstance() throws Exception {
+        return new ForkJoinPool(
+                parallelism,
+                new NamingForkJoinWorkerThreadFactory(threadNamePrefix, threadPriority),
+                null,
+                false);
+    }
+
+    @Override
+    protected void destroyInstance(ForkJoinPool instance) throws Exception {
+        instance.shutdownNow();
+    }
+
+    /** Names and prioritizes the daemon worker threads created by the default factory */
+    static final class NamingForkJoinWorkerThreadFactory
+            implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+        private final String threadNamePrefix;
+        private final int threadPriority;
+
+        NamingForkJoinWorkerThreadFactory(String threadNamePrefix, int threadPriority) {
+            this.threadNamePrefix = threadNamePrefix;
+            this.threadPriority = threadPriority;
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            final ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(threadNamePrefix + threadCount.incrementAndGet());
+            thread.setPriority(threadPriority);
+            return thread;
+        }
+    }
+}
@@ -26,10 +26,21 @@ import javax.xml.stream.events.XMLEvent;
 /** Wraps a {@link ListIterator} of {@link XMLEvent}s with an {@link XMLEventReader} */
 public class XMLEventBufferReader implements XMLEventReader {
     private final ListIterator<XMLEvent> eventBuffer;
+    private final boolean consume;
     private XMLEvent previousEvent;
 
     public XMLEventBufferReader(ListIterator<XMLEvent> eventBuffer) {
+        this(eventBuffer, false);
+    }
+
+    /**
+     * @param consume If true each event is removed from the underlying list as it is read, the
+     *     list must support {@link ListIterator#remove()}. Use for buffers that are read once so
+     *     the events that have been read can be collected before the rest of the buffer is read.
+     */
+    public XMLEventBufferReader(ListIterator<XMLEvent> eventBuffer, boolean consume) {
         this.eventBuffer = eventBuffer;
+        this.consume = consume;
     }
 
     @Override
@@ -54,12 +65,18 @@ public class XMLEventBufferReader implements XMLEventReader {
     @Override
     public XMLEvent next() {
         this.previousEvent = this.eventBuffer.next();
+        if (this.consume) {
+            this.eventBuffer.remove();
+        }
         return this.previousEvent;
     }
 
     @Override
     public void remove() {
-        this.eventBuffer.remove();
+        //Consumed events have already been removed
+        if (!this.consume) {
+            this.eventBuffer.remove();
+        }
     }
 
     @Override
@@ -0,0 +1,81 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.events.XMLEvent;
+import org.junit.Test;
+
+/** */
+public class XMLEventBufferReaderTest {
+
+    @Test
+    public void testReadBuffer() throws Exception {
+        final List<XMLEvent> eventBuffer = this.readDocument();
+        final int size = eventBuffer.size();
+
+        final XMLEventReader reader = new XMLEventBufferReader(eventBuffer.listIterator());
+
+        int eventCount = 0;
+        while (reader.hasNext()) {
+            reader.nextEvent();
+            eventCount++;
+        }
+        assertEquals(size, eventCount);
+        assertEquals(size, eventBuffer.size());
+    }
+
+    @Test
+    public void testConsumeBuffer() throws Exception {
+        final List<XMLEvent> eventBuffer = this.readDocument();
+        final int size = eventBuffer.size();
+
+        final XMLEventReader reader = new XMLEventBufferReader(eventBuffer.listIterator(), true);
+
+        final XMLEvent firstEvent = reader.peek();
+        assertEquals(size, eventBuffer.size());
+        assertSame(firstEvent, reader.nextEvent());
+        assertEquals(size - 1, eventBuffer.size());
+
+        int eventCount = 1;
+        while (reader.hasNext()) {
+            reader.peek();
+            reader.nextEvent();
+            eventCount++;
+            assertEquals(size - eventCount, eventBuffer.size());
+        }
+        assertEquals(size, eventCount);
+    }
+
+    private List<XMLEvent> readDocument() throws Exception {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+
+        final InputStream xmlStream = this.getClass().getResourceAsStream("document.xml");
+        final XMLEventReader xmlEventReader = xmlInputFactory.createXMLEventReader(xmlStream);
+
+        final List<XMLEvent> eventBuffer = new LinkedList<XMLEvent>();
+        while (xmlEventReader.hasNext()) {
+            eventBuffer.add(xmlEventReader.nextEvent());
+        }
+        return eventBuffer;
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.marketplace;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.PortletLifecycleState;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.PermissionHelper;
+import org.apereo.portal.security.PermissionsUpdatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks which portlets may be browsed and added from the Marketplace. Users whose BROWSE and
+ * SUBSCRIBE permissions can only come from the same set of ancestor groups get the same answers,
+ * so the answers are kept once per distinct group set (the group fingerprint) instead of once per
+ * user.
+ *
+ * <p>Each portlet is evaluated the first time it is seen for a fingerprint and again if its
+ * lifecycle state changes. When permissions change on this node only the affected portlets of the
+ * affected fingerprints are dropped, they are re-evaluated the next time the fingerprint is used.
+ * An answer evaluated while a change to its fingerprint was being applied is used but not kept.
+ * The cache is not replicated; changes made on other nodes are picked up when its entries expire.
+ *
+ * @since 5.0
+ */
+@Service
+public class MarketplaceEntitlementService implements ApplicationListener<PermissionsUpdatedEvent> {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private IAuthorizationService authorizationService;
+
+    /** Cache of group fingerprint -> GroupEntitlements */
+    private Cache groupEntitlementsCache;
+
+    @Autowired
+    public void setAuthorizationService(IAuthorizationService authorizationService) {
+        this.authorizationService = authorizationService;
+    }
+
+    @Autowired
+    public void setGroupEntitlementsCache(
+            @Qualifier(
+                            "org.apereo.portal.portlet.marketplace.MarketplaceEntitlementService.groupEntitlementsCache")
+                    Cache groupEntitlementsCache) {
+        this.groupEntitlementsCache = groupEntitlementsCache;
+    }
+
+    /**
+     * Determine which of the portlet definitions the user may browse and, of those, which the user
+     * may add to their layout.
+     *
+     * @param user The non-null user
+     * @param portletDefinitions The portlet definitions to consider
+     * @return Map of the browseable portlet definitions, in the order given, to whether the user
+     *     may add the portlet
+     */
+    public Map<IPortletDefinition, Boolean> getBrowseablePortlets(
+            final IPerson user, final List<IPortletDefinition> portletDefinitions) {
+        Validate.notNull(user, "Cannot determine browseable portlets for a null user.");
+
+        final EntityIdentifier entityIdentifier = user.getEntityIdentifier();
+        final IAuthorizationPrincipal principal =
+                this.authorizationService.newPrincipal(
+                        entityIdentifier.getKey(), entityIdentifier.getType());
+        final GroupEntitlements groupEntitlements = this.getGroupEntitlements(user, principal);
+
+        final Map<IPortletDefinition, Boolean> browseablePortlets = new LinkedHashMap<>();
+        for (final IPortletDefinition portletDefinition : portletDefinitions) {
+            final String portletDefinitionId =
+                    portletDefinition.getPortletDefinitionId().getStringId();
+            final PortletLifecycleState lifecycleState = portletDefinition.getLifecycleState();
+
+            Entitlement entitlement = groupEntitlements.entitlements.get(portletDefinitionId);
+            if (entitlement == null || entitlement.lifecycleState != lifecycleState) {
+                final long generation = groupEntitlements.generation.get();
+                entitlement = this.evaluate(user, principal, portletDefinition);
+                groupEntitlements.entitlements.put(portletDefinitionId, entitlement);
+                if (groupEntitlements.generation.get() != generation) {
+                    //Permissions changed while evaluating, the answer may predate the change
+                    groupEntitlements.entitlements.remove(portletDefinitionId, entitlement);
+                }
+            }
+
+            if (entitlement.browse) {
+                browseablePortlets.put(portletDefinition, entitlement.add);
+            }
+        }
+
+        return browseablePortlets;
+    }
+
+    @Override
+    public void onApplicationEvent(PermissionsUpdatedEvent event) {
+        for (final IPermission permission : event.getPermissions()) {
+            if (!IPermission.PORTAL_SUBSCRIBE.equals(permission.getOwner())) {
+                continue;
+            }
+
+            final String principalKey;
+            try {
+                principalKey = this.authorizationService.getPrincipal(permission).getKey();
+            } catch (RuntimeException e) {
+                logger.warn(
+                        "Failed to resolve the principal of {}, dropping all marketplace entitlements",
+                        permission,
+                        e);
+                this.groupEntitlementsCache.removeAll();
+                return;
+            }
+
+            final String target = permission.getTarget();
+            for (final Object fingerprint : this.groupEntitlementsCache.getKeys()) {
+                final Element element = this.groupEntitlementsCache.getQuiet(fingerprint);
+                if (element == null) {
+                    continue;
+                }
+
+                final GroupEntitlements groupEntitlements =
+                        (GroupEntitlements) element.getObjectValue();
+                if (!groupEntitlements.principalKeys.contains(principalKey)) {
+                    continue;
+                }
+
+                groupEntitlements.generation.incrementAndGet();
+                if (target != null && target.startsWith(IPermission.PORTLET_PREFIX)) {
+                    groupEntitlements.entitlements.remove(
+                            target.substring(IPermission.PORTLET_PREFIX.length()));
+                } else {
+                    //Category and other targets can apply to any portlet
+                    groupEntitlements.entitlements.clear();
+                }
+                logger.debug(
+                        "Updated marketplace entitlements for {} after permission change {}",
+                        fingerprint,
+                        permission);
+            }
+        }
+    }
+
+    /**
+     * Get the shared entitlements for the group fingerprint of the user. Permissions granted
+     * directly to the user give them a fingerprint of their own.
+     */
+    private GroupEntitlements getGroupEntitlements(
+            final IPerson user, final IAuthorizationPrincipal principal) {
+        final SortedSet<String> groupKeys = new TreeSet<>();
+        for (final IEntityGroup group :
+                this.authorizationService.getGroupMember(principal).getAncestorGroups()) {
+            groupKeys.add(group.getKey());
+        }
+
+        final IPermission[] userPermissions =
+                this.authorizationService.getPermissionsForPrincipal(
+                        principal, IPermission.PORTAL_SUBSCRIBE, null, null);
+        final boolean personal = userPermissions != null && userPermissions.length > 0;
+
+        final StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(user.isGuest() ? "guest:" : "user:");
+        fingerprint.append(StringUtils.join(groupKeys, ','));
+        if (personal) {
+            fingerprint.append('|').append(principal.getKey());
+        }
+        final String fingerprintKey = fingerprint.toString();
+
+        final Element element = this.groupEntitlementsCache.get(fingerprintKey);
+        if (element != null) {
+            return (GroupEntitlements) element.getObjectValue();
+        }
+
+        final Set<String> principalKeys = new TreeSet<>(groupKeys);
+        if (personal) {
+            principalKeys.add(principal.getKey());
+        }
+        final GroupEntitlements groupEntitlements = new GroupEntitlements(principalKeys);
+        final Element existing =
+                this.groupEntitlementsCache.putIfAbsent(
+                        new Element(fingerprintKey, groupEntitlements));
+        if (existing != null) {
+            return (GroupEntitlements) existing.getObjectValue();
+        }
+        return groupEntitlements;
+    }
+
+    private Entitlement evaluate(
+            final IPerson user,
+            final IAuthorizationPrincipal principal,
+            final IPortletDefinition portletDefinition) {
+        final String target =
+                PermissionHelper.permissionTargetIdForPortletDefinition(portletDefinition);
+        final boolean browse =
+                principal.hasPermission(
+                        IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_BROWSE_ACTIVITY, target);
+
+        //Guests are never offered the option to add portlets
+        final boolean add =
+                browse
+                        && !user.isGuest()
+                        && this.authorizationService.canPrincipalSubscribe(
+                                principal,
+                                portletDefinition.getPortletDefinitionId().getStringId());
+
+        return new Entitlement(portletDefinition.getLifecycleState(), browse, add);
+    }
+
+    /** Entitlements shared by all users with the same group fingerprint */
+    private static final class GroupEntitlements {
+        /** Keys of the principals whose permissions were used to compute the entitlements */
+        private final Set<String> principalKeys;
+        /** Portlet definition id -> Entitlement */
+        private final ConcurrentMap<String, Entitlement> entitlements = new ConcurrentHashMap<>();
+        /** Incremented before entitlements are dropped for a permission change */
+        private final AtomicLong generation = new AtomicLong();
+
+        GroupEntitlements(Set<String> principalKeys) {
+            this.principalKeys = Collections.unmodifiableSet(principalKeys);
+        }
+    }
+
+    private static final class Entitlement {
+        private final PortletLifecycleState lifecycleState;
+        private final boolean browse;
+        private final boolean add;
+
+        Entitlement(PortletLifecycleState lifecycleState, boolean browse, boolean add) {
+            this.lifecycleState = lifecycleState;
+            this.browse = browse;
+            this.add = add;
+        }
+    }
+}
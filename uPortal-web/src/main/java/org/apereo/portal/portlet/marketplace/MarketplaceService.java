@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -64,6 +65,7 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
     private IPortletCategoryRegistry portletCategoryRegistry;
 
     private IAuthorizationService authorizationService;
+    private MarketplaceEntitlementService marketplaceEntitlementService;
     private boolean enableMarketplacePreloading = false;
 
     @Autowired
@@ -71,6 +73,12 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
         this.authorizationService = service;
     }
 
+    @Autowired
+    public void setMarketplaceEntitlementService(
+            MarketplaceEntitlementService marketplaceEntitlementService) {
+        this.marketplaceEntitlementService = marketplaceEntitlementService;
+    }
+
     /** Used to store individual MarketplacePortletDefinition instances. */
     @Autowired
     @Qualifier(
@@ -144,9 +152,6 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
     public Future<ImmutableSet<MarketplaceEntry>> loadMarketplaceEntriesFor(
             final IPerson user, final Set<PortletCategory> categories) {
 
-        final IAuthorizationPrincipal principal =
-                AuthorizationPrincipalHelper.principalFromUser(user);
-
         List<IPortletDefinition> allDisplayablePortletDefinitions =
                 this.portletDefinitionRegistry.getAllPortletDefinitions();
 
@@ -190,20 +195,20 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
 
         final Set<MarketplaceEntry> visiblePortletDefinitions = new HashSet<>();
 
-        for (final IPortletDefinition portletDefinition : allDisplayablePortletDefinitions) {
+        // Browse and add permissions are shared by all users with the same groups
+        final Map<IPortletDefinition, Boolean> browseablePortlets =
+                marketplaceEntitlementService.getBrowseablePortlets(
+                        user, allDisplayablePortletDefinitions);
+        for (final Map.Entry<IPortletDefinition, Boolean> browseablePortlet :
+                browseablePortlets.entrySet()) {
+            final MarketplacePortletDefinition marketplacePortletDefinition =
+                    getOrCreateMarketplacePortletDefinition(browseablePortlet.getKey());
+            final MarketplaceEntry entry = new MarketplaceEntry(marketplacePortletDefinition, user);
 
-            if (mayBrowsePortlet(principal, portletDefinition)) {
-                final MarketplacePortletDefinition marketplacePortletDefinition =
-                        getOrCreateMarketplacePortletDefinition(portletDefinition);
-                final MarketplaceEntry entry =
-                        new MarketplaceEntry(marketplacePortletDefinition, user);
+            // flag whether this use can add the portlet...
+            entry.setCanAdd(browseablePortlet.getValue());
 
-                // flag whether this use can add the portlet...
-                boolean canAdd = mayAddPortlet(user, portletDefinition);
-                entry.setCanAdd(canAdd);
-
-                visiblePortletDefinitions.add(entry);
-            }
+            visiblePortletDefinitions.add(entry);
         }
 
         logger.trace(
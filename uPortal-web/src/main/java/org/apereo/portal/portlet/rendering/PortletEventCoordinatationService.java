@@ -19,7 +19,7 @@ import com.google.common.collect.Lists;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -29,6 +29,7 @@ import java.util.Set;
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -95,6 +96,9 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
     private static final String PORTLET_EVENT_QUEUE =
             PortletEventCoordinatationService.class.getName() + ".PORTLET_EVENT_QUEUE";
 
+    private static final String EVENT_SUBSCRIPTIONS =
+            PortletEventCoordinatationService.class.getName() + ".EVENT_SUBSCRIPTIONS";
+
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private IPortletWindowRegistry portletWindowRegistry;
@@ -213,13 +217,13 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
 
-        //Make a local copy so we can remove data from it
-        final Set<String> allLayoutNodeIds =
-                new LinkedHashSet<String>(userLayoutManager.getAllSubscribedChannels());
-
         final Map<String, IPortletEntity> portletEntityCache =
                 new LinkedHashMap<String, IPortletEntity>();
 
+        final PortletEventSubscriptions subscriptions =
+                this.getEventSubscriptions(
+                        request, userInstance, userLayoutManager, portletEntityCache);
+
         while (!events.isEmpty()) {
             final QueuedEvent queuedEvent = events.poll();
             if (queuedEvent == null) {
@@ -239,41 +243,16 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                         this.portletDefinitionRegistry.getAllPortletDefinitions());
             }
 
-            //Check each subscription to see what events it is registered to see
-            for (final Iterator<String> layoutNodeIdItr = allLayoutNodeIds.iterator();
-                    layoutNodeIdItr.hasNext();
-                    ) {
-                final String layoutNodeId = layoutNodeIdItr.next();
-
+            //Check each subscription registered to see this event
+            for (final String layoutNodeId : subscriptions.getSubscribers(event.getQName())) {
                 IPortletEntity portletEntity = portletEntityCache.get(layoutNodeId);
                 if (portletEntity == null) {
                     portletEntity =
                             this.portletEntityRegistry.getOrCreatePortletEntity(
                                     request, userInstance, layoutNodeId);
 
-                    // if portlet entity registry returned null, then portlet has been deleted - remove it (see UP-3378)
+                    // if portlet entity registry returned null, then portlet has been deleted (see UP-3378)
                     if (portletEntity == null) {
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
-
-                    final IPortletDefinitionId portletDefinitionId =
-                            portletEntity.getPortletDefinitionId();
-                    final PortletDefinition portletDescriptor =
-                            this.portletDefinitionRegistry.getParentPortletDescriptor(
-                                    portletDefinitionId);
-                    if (portletDescriptor == null) {
-                        //Missconfigured portlet, remove it from the list so we don't check again and ignore it
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
-
-                    final List<? extends EventDefinitionReference> supportedProcessingEvents =
-                            portletDescriptor.getSupportedProcessingEvents();
-                    //Skip portlets that don't handle any events and remove them from the set so they are not checked again
-                    if (supportedProcessingEvents == null
-                            || supportedProcessingEvents.size() == 0) {
-                        layoutNodeIdItr.remove();
                         continue;
                     }
 
@@ -319,8 +298,6 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                                 portletWindowId,
                                 new QueuedEvent(sourceWindowId, unmarshalledEvent));
                     }
-                } else {
-                    portletDefinitions.remove(portletDefinition);
                 }
             }
 
@@ -379,6 +356,119 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         }
     }
 
+    /**
+     * Returns the index of the event subscriptions in the user's layout. The index is kept in the
+     * session and only rebuilt when the layout changes, portlet entities resolved while building
+     * it are added to the portletEntityCache.
+     */
+    protected PortletEventSubscriptions getEventSubscriptions(
+            HttpServletRequest request,
+            IUserInstance userInstance,
+            IUserLayoutManager userLayoutManager,
+            Map<String, IPortletEntity> portletEntityCache) {
+
+        final Set<String> allLayoutNodeIds = userLayoutManager.getAllSubscribedChannels();
+        final String layoutCacheKey = userLayoutManager.getCacheKey();
+
+        final HttpSession session = request.getSession(false);
+        if (session != null) {
+            final PortletEventSubscriptions subscriptions =
+                    (PortletEventSubscriptions) session.getAttribute(EVENT_SUBSCRIPTIONS);
+            if (subscriptions != null
+                    && subscriptions.isIndexOf(layoutCacheKey, allLayoutNodeIds)) {
+                return subscriptions;
+            }
+        }
+
+        final PortletEventSubscriptions subscriptions =
+                new PortletEventSubscriptions(layoutCacheKey, allLayoutNodeIds);
+        for (final String layoutNodeId : allLayoutNodeIds) {
+            final IPortletEntity portletEntity =
+                    this.portletEntityRegistry.getOrCreatePortletEntity(
+                            request, userInstance, layoutNodeId);
+
+            // if portlet entity registry returned null, then portlet has been deleted - skip it (see UP-3378)
+            if (portletEntity == null) {
+                continue;
+            }
+            portletEntityCache.put(layoutNodeId, portletEntity);
+
+            //Portlets that don't handle any events are left out of the index
+            final Set<QName> eventNames =
+                    this.getSupportedEvents(portletEntity.getPortletDefinitionId());
+            if (!eventNames.isEmpty()) {
+                subscriptions.addSubscriber(layoutNodeId, eventNames);
+            }
+        }
+
+        this.logger.debug("Indexed event subscriptions {}", subscriptions);
+        if (session != null) {
+            session.setAttribute(EVENT_SUBSCRIPTIONS, subscriptions);
+        }
+        return subscriptions;
+    }
+
+    /**
+     * Returns the names of every event the portlet processes, the inverse of {@link
+     * #supportsEvent(Event, IPortletDefinitionId)}: the qualified names of its supported processing
+     * events, those names in the default namespace of the portlet application, and the events of
+     * the portlet application that have one of those names as an alias.
+     */
+    protected Set<QName> getSupportedEvents(IPortletDefinitionId portletDefinitionId) {
+        final PortletApplicationDefinition portletApplicationDescriptor =
+                this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(
+                        portletDefinitionId);
+        final PortletDefinition portletDescriptor =
+                this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
+        if (portletApplicationDescriptor == null || portletDescriptor == null) {
+            //Missconfigured portlet, it can't process events
+            return Collections.emptySet();
+        }
+
+        final List<? extends EventDefinitionReference> supportedProcessingEvents =
+                portletDescriptor.getSupportedProcessingEvents();
+        if (supportedProcessingEvents == null || supportedProcessingEvents.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
+
+        final Set<QName> qualifiedNames = new LinkedHashSet<QName>();
+        final Set<QName> eventNames = new LinkedHashSet<QName>();
+        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
+            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
+            if (qualifiedName == null) {
+                continue;
+            }
+
+            qualifiedNames.add(qualifiedName);
+            eventNames.add(qualifiedName);
+            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
+                eventNames.add(new QName(defaultNamespace, qualifiedName.getLocalPart()));
+            }
+        }
+
+        final List<? extends EventDefinition> eventDefinitions =
+                portletApplicationDescriptor.getEventDefinitions();
+        if (eventDefinitions != null) {
+            //Only the first definition of a name is consulted for aliases, see getAllAliases
+            final Set<QName> definedNames = new HashSet<QName>();
+            for (final EventDefinition eventDefinition : eventDefinitions) {
+                final QName defQName = eventDefinition.getQualifiedName(defaultNamespace);
+                if (defQName == null || !definedNames.add(defQName)) {
+                    continue;
+                }
+
+                final List<QName> aliases = eventDefinition.getAliases();
+                if (aliases != null && !Collections.disjoint(aliases, qualifiedNames)) {
+                    eventNames.add(defQName);
+                }
+            }
+        }
+
+        return eventNames;
+    }
+
     protected boolean isGlobalEvent(
             HttpServletRequest request, IPortletWindowId sourceWindowId, Event event) {
         final IPortletWindow portletWindow =
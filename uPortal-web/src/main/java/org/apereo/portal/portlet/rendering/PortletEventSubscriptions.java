@@ -0,0 +1,85 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+
+/**
+ * Inverted index of the portlet event subscriptions in a user's layout, maps each event name a
+ * portlet can process, including the event names it accepts through aliases, to the layout nodes
+ * of those portlets. Built by {@link PortletEventCoordinatationService} when the layout changes so
+ * routing an event only visits the portlets subscribed to it.
+ */
+class PortletEventSubscriptions implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String layoutCacheKey;
+    private final Set<String> layoutNodeIds;
+    private final Map<QName, List<String>> subscribers = new LinkedHashMap<QName, List<String>>();
+
+    /**
+     * @param layoutCacheKey Cache key of the layout the index is built from
+     * @param layoutNodeIds All portlet layout node ids in the layout
+     */
+    public PortletEventSubscriptions(String layoutCacheKey, Set<String> layoutNodeIds) {
+        this.layoutCacheKey = layoutCacheKey;
+        this.layoutNodeIds = new LinkedHashSet<String>(layoutNodeIds);
+    }
+
+    /** Record that the portlet in the layout node processes the events */
+    public void addSubscriber(String layoutNodeId, Set<QName> eventNames) {
+        for (final QName eventName : eventNames) {
+            List<String> layoutNodeIds = this.subscribers.get(eventName);
+            if (layoutNodeIds == null) {
+                layoutNodeIds = new ArrayList<String>(2);
+                this.subscribers.put(eventName, layoutNodeIds);
+            }
+            layoutNodeIds.add(layoutNodeId);
+        }
+    }
+
+    /** @return true if the index was built from the same layout */
+    public boolean isIndexOf(String layoutCacheKey, Set<String> layoutNodeIds) {
+        return this.layoutCacheKey != null
+                && this.layoutCacheKey.equals(layoutCacheKey)
+                && this.layoutNodeIds.equals(layoutNodeIds);
+    }
+
+    /** @return Layout node ids of the portlets that process the event, in layout order */
+    public List<String> getSubscribers(QName eventName) {
+        final List<String> layoutNodeIds = this.subscribers.get(eventName);
+        if (layoutNodeIds == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(layoutNodeIds);
+    }
+
+    @Override
+    public String toString() {
+        return "PortletEventSubscriptions [layoutCacheKey="
+                + this.layoutCacheKey
+                + ", subscribers="
+                + this.subscribers
+                + "]";
+    }
+}
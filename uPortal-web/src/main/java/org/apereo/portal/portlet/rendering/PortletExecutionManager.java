@@ -45,6 +45,7 @@ import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.om.PortletLifecycleState;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionInterceptor;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionWorker;
 import org.apereo.portal.portlet.rendering.worker.IPortletFailureExecutionWorker;
@@ -81,6 +82,9 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     public static final String DISABLE_PORTLET_EVENTS_PARAMETER = "disablePortletEvents";
 
     private static final long DEBUG_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+
+    /** Number of samples in each window of the execution time histograms */
+    private static final int EXECUTION_TIME_WINDOW = 1000;
     private static final String PORTLET_HEADER_RENDERING_MAP =
             PortletExecutionManager.class.getName() + ".PORTLET_HEADER_RENDERING_MAP";
     private static final String PORTLET_RENDERING_MAP =
@@ -109,7 +113,16 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                         }
                     });
 
+    //Recent execution times keyed by fname and execution type, see getExecutionTimesKey
+    private final ConcurrentMap<String, PortletLatencyHistogram> executionTimes =
+            new ConcurrentHashMap<String, PortletLatencyHistogram>();
+
     private boolean ignoreTimeouts = false;
+    private boolean adaptiveTimeouts = false;
+    private double adaptiveTimeoutPercentile = 99;
+    private double adaptiveTimeoutMultiplier = 2;
+    private long adaptiveTimeoutMinimum = 1000;
+    private int adaptiveTimeoutSamples = 100;
     private int extendedTimeoutExecutions = 5;
     private long extendedTimeoutMultiplier = 20;
     private int maxEventIterations = 100;
@@ -166,6 +179,81 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return this.extendedTimeoutMultiplier;
     }
 
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeouts:false}")
+    public void setAdaptiveTimeouts(boolean adaptiveTimeouts) {
+        this.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
+    @Override
+    public boolean isAdaptiveTimeouts() {
+        return this.adaptiveTimeouts;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutPercentile:99}")
+    public void setAdaptiveTimeoutPercentile(double adaptiveTimeoutPercentile) {
+        this.adaptiveTimeoutPercentile = adaptiveTimeoutPercentile;
+    }
+
+    @Override
+    public double getAdaptiveTimeoutPercentile() {
+        return this.adaptiveTimeoutPercentile;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutMultiplier:2}")
+    public void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    @Override
+    public double getAdaptiveTimeoutMultiplier() {
+        return this.adaptiveTimeoutMultiplier;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutMinimum:1000}")
+    public void setAdaptiveTimeoutMinimum(long adaptiveTimeoutMinimum) {
+        this.adaptiveTimeoutMinimum = adaptiveTimeoutMinimum;
+    }
+
+    @Override
+    public long getAdaptiveTimeoutMinimum() {
+        return this.adaptiveTimeoutMinimum;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutSamples:100}")
+    public void setAdaptiveTimeoutSamples(int adaptiveTimeoutSamples) {
+        this.adaptiveTimeoutSamples = adaptiveTimeoutSamples;
+    }
+
+    @Override
+    public int getAdaptiveTimeoutSamples() {
+        return this.adaptiveTimeoutSamples;
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getPortletExecutionTimes() {
+        final Map<String, Map<String, Long>> times = new TreeMap<String, Map<String, Long>>();
+
+        for (final Map.Entry<String, PortletLatencyHistogram> entry :
+                this.executionTimes.entrySet()) {
+            final PortletLatencyHistogram histogram = entry.getValue();
+
+            final Map<String, Long> stats = new LinkedHashMap<String, Long>();
+            stats.put("count", histogram.getTotalCount());
+            stats.put("p50", histogram.getValueAtPercentile(50));
+            stats.put("p90", histogram.getValueAtPercentile(90));
+            stats.put("p99", histogram.getValueAtPercentile(99));
+            stats.put("max", histogram.getMaxValue());
+            times.put(entry.getKey(), stats);
+        }
+
+        return times;
+    }
+
     @Override
     public Map<String, Integer> getPortletExecutionCounts() {
         final Map<String, Integer> counts = new TreeMap<String, Integer>();
@@ -341,6 +429,24 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
         final AtomicInteger counter = this.executionCount.get(portletDescriptorKey);
         counter.incrementAndGet();
+
+        //The worker sets its complete time after the post-execution interceptors run
+        final long executionTime = System.currentTimeMillis() - context.getStartedTime();
+        final String key =
+                getExecutionTimesKey(portletDefinition.getFName(), context.getExecutionType());
+        PortletLatencyHistogram histogram = this.executionTimes.get(key);
+        if (histogram == null) {
+            histogram =
+                    ConcurrentMapUtils.putIfAbsent(
+                            this.executionTimes,
+                            key,
+                            new PortletLatencyHistogram(EXECUTION_TIME_WINDOW));
+        }
+        histogram.recordValue(executionTime);
+    }
+
+    private static String getExecutionTimesKey(String fname, ExecutionType executionType) {
+        return fname + "/" + executionType;
     }
 
     /* (non-Javadoc)
@@ -634,6 +740,19 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
 
+    @Override
+    public boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+
+        //isComplete() is also true for a worker that is still queued, check it actually finished
+        return tracker != null && tracker.getCompleteTime() > 0;
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -775,20 +894,28 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      * descriptor so even if you have the same portlet (web proxy for example) published 20 times
      * only the first 5 renders of ANY WPP will get the extra time.
      *
+     * <p>Once warmed up the timeout is adapted to the portlet's recent execution times if adaptive
+     * timeouts are enabled, see {@link #getAdaptiveTimeout(IPortletDefinition, ExecutionType,
+     * long)}.
+     *
      * @param portletDefinition
      * @param request
+     * @param executionType
      * @param timeout
      * @return
      */
     protected final long getModifiedTimeout(
-            IPortletDefinition portletDefinition, HttpServletRequest request, long timeout) {
+            IPortletDefinition portletDefinition,
+            HttpServletRequest request,
+            ExecutionType executionType,
+            long timeout) {
         final IPortletDescriptorKey portletDescriptorKey =
                 portletDefinition.getPortletDescriptorKey();
         final AtomicInteger counter = this.executionCount.get(portletDescriptorKey);
         final int executionCount = counter.get();
 
         if (executionCount > extendedTimeoutExecutions) {
-            return timeout;
+            return getAdaptiveTimeout(portletDefinition, executionType, timeout);
         }
 
         if (logger.isDebugEnabled()) {
@@ -803,6 +930,37 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return timeout * extendedTimeoutMultiplier;
     }
 
+    /**
+     * Derives the timeout from the configured percentile of the portlet's recent execution times
+     * multiplied by the headroom multiplier. The result is never less than the adaptive timeout
+     * minimum or more than the configured timeout, so a portlet that starts hanging fails after a
+     * small multiple of its usual execution time instead of holding the page for the full
+     * configured timeout.
+     *
+     * @param timeout The configured timeout, also the upper bound of the adaptive timeout
+     */
+    protected final long getAdaptiveTimeout(
+            IPortletDefinition portletDefinition, ExecutionType executionType, long timeout) {
+        if (!this.adaptiveTimeouts) {
+            return timeout;
+        }
+
+        final PortletLatencyHistogram histogram =
+                this.executionTimes.get(
+                        getExecutionTimesKey(portletDefinition.getFName(), executionType));
+        if (histogram == null || histogram.getTotalCount() < this.adaptiveTimeoutSamples) {
+            return timeout;
+        }
+
+        final long percentileTime =
+                histogram.getValueAtPercentile(this.adaptiveTimeoutPercentile);
+        final long adaptiveTimeout =
+                Math.max(
+                        this.adaptiveTimeoutMinimum,
+                        (long) Math.ceil(percentileTime * this.adaptiveTimeoutMultiplier));
+        return Math.min(timeout, adaptiveTimeout);
+    }
+
     protected long getPortletActionTimeout(
             IPortletWindowId portletWindowId, HttpServletRequest request) {
         if (this.ignoreTimeouts) {
@@ -812,10 +970,12 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer actionTimeout = portletDefinition.getActionTimeout();
         if (actionTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, actionTimeout);
+            return getModifiedTimeout(
+                    portletDefinition, request, ExecutionType.ACTION, actionTimeout);
         }
 
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(
+                portletDefinition, request, ExecutionType.ACTION, portletDefinition.getTimeout());
     }
 
     protected long getPortletEventTimeout(
@@ -827,10 +987,12 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer eventTimeout = portletDefinition.getEventTimeout();
         if (eventTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, eventTimeout);
+            return getModifiedTimeout(
+                    portletDefinition, request, ExecutionType.EVENT, eventTimeout);
         }
 
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(
+                portletDefinition, request, ExecutionType.EVENT, portletDefinition.getTimeout());
     }
 
     protected long getPortletRenderTimeout(
@@ -842,10 +1004,12 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer renderTimeout = portletDefinition.getRenderTimeout();
         if (renderTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, renderTimeout);
+            return getModifiedTimeout(
+                    portletDefinition, request, ExecutionType.RENDER, renderTimeout);
         }
 
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(
+                portletDefinition, request, ExecutionType.RENDER, portletDefinition.getTimeout());
     }
 
     protected long getPortletResourceTimeout(
@@ -857,10 +1021,12 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer resourceTimeout = portletDefinition.getResourceTimeout();
         if (resourceTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, resourceTimeout);
+            return getModifiedTimeout(
+                    portletDefinition, request, ExecutionType.RESOURCE, resourceTimeout);
         }
 
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(
+                portletDefinition, request, ExecutionType.RESOURCE, portletDefinition.getTimeout());
     }
 
     protected IPortletDefinition getPortletDefinition(
@@ -0,0 +1,142 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free histogram of portlet execution times in milliseconds. Values are bucketed the way
+ * HdrHistogram does it, each power of two is split into 16 linear sub-buckets so a reported
+ * percentile is never more than about 6% above the true value.
+ *
+ * <p>Samples go into a window that is replaced once it holds the configured number of samples.
+ * Percentiles cover the current and previous windows so they follow how the portlet has behaved
+ * recently rather than since the portal started.
+ */
+final class PortletLatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Largest value that can be recorded, a little over 4.6 hours */
+    static final long MAX_VALUE = (1L << 24) - 1;
+
+    private static final int BUCKETS = getIndex(MAX_VALUE) + 1;
+
+    private final int windowSize;
+    private final AtomicReference<Window> current = new AtomicReference<Window>(new Window());
+    private volatile Window previous = null;
+
+    /** @param windowSize Number of samples recorded before the oldest samples are discarded */
+    PortletLatencyHistogram(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /** @param value Execution time in milliseconds, clamped to 0 - {@link #MAX_VALUE} */
+    void recordValue(long value) {
+        final long clamped = Math.max(0, Math.min(MAX_VALUE, value));
+
+        final Window window = this.current.get();
+        window.counts.incrementAndGet(getIndex(clamped));
+
+        long max = window.max.get();
+        while (clamped > max && !window.max.compareAndSet(max, clamped)) {
+            max = window.max.get();
+        }
+
+        //Exactly one thread sees the count hit the window size, it rotates the windows
+        if (window.count.incrementAndGet() == this.windowSize) {
+            this.previous = window;
+            this.current.compareAndSet(window, new Window());
+        }
+    }
+
+    /** @return Number of samples the percentiles are computed from */
+    long getTotalCount() {
+        final Window previous = this.previous;
+        final long count = this.current.get().count.get();
+        return previous == null ? count : count + previous.count.get();
+    }
+
+    /** @return Largest recorded sample */
+    long getMaxValue() {
+        final Window previous = this.previous;
+        final long max = this.current.get().max.get();
+        return previous == null ? max : Math.max(max, previous.max.get());
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Value that the requested percentage of samples are at or below, 0 if there are no
+     *     samples
+     */
+    long getValueAtPercentile(double percentile) {
+        final Window current = this.current.get();
+        final Window previous = this.previous;
+
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = current.counts.get(i);
+            if (previous != null && previous != current) {
+                counts[i] += previous.counts.get(i);
+            }
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final double fraction = Math.min(100, Math.max(0, percentile)) / 100;
+        final long target = Math.max(1, (long) Math.ceil(fraction * total));
+        final long max = this.getMaxValue();
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(getUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (int) (SUB_BUCKETS + shift * SUB_BUCKETS + ((value >>> shift) - SUB_BUCKETS));
+    }
+
+    /** @return Largest value that is counted in the bucket */
+    static long getUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1L) << shift) - 1;
+    }
+
+    private static final class Window {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+    }
+}
@@ -61,6 +61,7 @@ import org.apereo.portal.utils.web.PortletMimeHttpServletResponseWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /** Executes methods on portlets using Pluto */
@@ -75,6 +76,17 @@ public class PortletRendererImpl implements IPortletRenderer {
     private IPortletCacheControlService portletCacheControlService;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private int resourceCompressionThreshold = 1024;
+
+    /**
+     * @param resourceCompressionThreshold Minimum size in bytes of publicly cached resource output
+     *     to also store gzip compressed, -1 to disable
+     */
+    @Value(
+            "${org.apereo.portal.portlet.rendering.PortletRendererImpl.resourceCompressionThreshold:1024}")
+    public void setResourceCompressionThreshold(int resourceCompressionThreshold) {
+        this.resourceCompressionThreshold = resourceCompressionThreshold;
+    }
 
     @Autowired
     public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
@@ -655,12 +667,15 @@ public class PortletRendererImpl implements IPortletRenderer {
         if (cacheState.isUseCachedData()) {
             logger.trace("doServeResource-Reusing cached data");
             return doResourceReplayCachedContent(
-                    portletWindow, httpServletRequest, cacheState, portletOutputHandler, 0);
+                    portletWindow, httpServletRequest, cacheState, portletOutputHandler, 0, true);
         }
 
         final int cacheSizeThreshold = this.portletCacheControlService.getCacheSizeThreshold();
         final CachingPortletResourceOutputHandler cachingPortletOutputHandler =
-                new CachingPortletResourceOutputHandler(portletOutputHandler, cacheSizeThreshold);
+                new CachingPortletResourceOutputHandler(
+                        portletOutputHandler,
+                        cacheSizeThreshold,
+                        this.resourceCompressionThreshold);
 
         CacheControl cacheControl = cacheState.getCacheControl();
         //Wrap the cache control so it immediately sets the caching related response headers
@@ -784,10 +799,11 @@ public class PortletRendererImpl implements IPortletRenderer {
         final CachedPortletResourceData<Long> cachedPortletResourceData =
                 cacheState.getCachedPortletData();
         if (cachedPortletResourceData != null) {
-            //Freshen up the various caching related headers
-            final CachedPortletData<Long> cachedPortletData =
-                    cachedPortletResourceData.getCachedPortletData();
-            PortletCachingHeaderUtils.setCachingHeaders(cachedPortletData, portletOutputHandler);
+            //Freshen up the various caching related headers, matching the encoding the browser has
+            final boolean gzipAccepted =
+                    PortletCachingHeaderUtils.isGzipAccepted(
+                            httpServletRequest.getHeader("Accept-Encoding"));
+            cachedPortletResourceData.setCachingHeaders(portletOutputHandler, gzipAccepted);
         }
 
         final long executionTime = System.nanoTime() - start;
@@ -808,6 +824,30 @@ public class PortletRendererImpl implements IPortletRenderer {
             PortletResourceOutputHandler portletOutputHandler,
             long baseExecutionTime)
             throws IOException {
+        return doResourceReplayCachedContent(
+                portletWindow,
+                httpServletRequest,
+                cacheState,
+                portletOutputHandler,
+                baseExecutionTime,
+                false);
+    }
+
+    /**
+     * Replay the cached content inside the {@link CachedPortletData} as the response to a
+     * doResource.
+     *
+     * @param gzipAllowed If nothing has been written to the portletOutputHandler yet, so a gzip
+     *     compressed copy of the content can be sent to a client that accepts it
+     */
+    protected Long doResourceReplayCachedContent(
+            IPortletWindow portletWindow,
+            HttpServletRequest httpServletRequest,
+            CacheState<CachedPortletResourceData<Long>, Long> cacheState,
+            PortletResourceOutputHandler portletOutputHandler,
+            long baseExecutionTime,
+            boolean gzipAllowed)
+            throws IOException {
 
         enforceConfigPermission(httpServletRequest, portletWindow);
 
@@ -827,7 +867,11 @@ public class PortletRendererImpl implements IPortletRenderer {
                     portletWindow);
         }
 
-        cachedPortletResourceData.replay(portletOutputHandler);
+        final boolean gzipAccepted =
+                gzipAllowed
+                        && PortletCachingHeaderUtils.isGzipAccepted(
+                                httpServletRequest.getHeader("Accept-Encoding"));
+        cachedPortletResourceData.replay(portletOutputHandler, gzipAccepted);
 
         final long executionTime = baseExecutionTime + (System.nanoTime() - renderStartTime);
 
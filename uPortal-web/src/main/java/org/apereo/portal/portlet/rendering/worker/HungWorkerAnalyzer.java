@@ -19,8 +19,6 @@ import com.google.common.collect.Maps;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -69,7 +67,7 @@ public class HungWorkerAnalyzer
 
     @Deprecated private Integer numberPermittedErrantByFname;
 
-    private ThreadPoolExecutor portletThreadPool;
+    private PortletWorkerSchedulerMXBean portletWorkerScheduler;
 
     private double percentPermittedErrantByFname = .1;
 
@@ -91,11 +89,15 @@ public class HungWorkerAnalyzer
         return this.percentPermittedErrantByFname;
     }
 
+    /**
+     * The scheduler rather than portletThreadPool is asked for the thread counts, workers may be
+     * executing on virtual threads instead of the pool.
+     */
     @Autowired
-    public void setPortletThreadPool(
-            @Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
-        //Note this is injected as a ExecutorService then cast due to the original object being created by a FactoryBean that declares itself as an ExecutorService
-        this.portletThreadPool = (ThreadPoolExecutor) portletThreadPool;
+    public void setPortletWorkerScheduler(
+            @Qualifier("portletWorkerScheduler")
+                    PortletWorkerSchedulerMXBean portletWorkerScheduler) {
+        this.portletWorkerScheduler = portletWorkerScheduler;
     }
 
     @Override
@@ -116,7 +118,7 @@ public class HungWorkerAnalyzer
             } else if (numberPermittedErrantByFname > 0) {
                 this.percentPermittedErrantByFname =
                         ((double) numberPermittedErrantByFname)
-                                / this.portletThreadPool.getMaximumPoolSize();
+                                / this.portletWorkerScheduler.getMaxThreads();
             }
         }
     }
@@ -159,8 +161,8 @@ public class HungWorkerAnalyzer
     }
 
     private void logState(final String portletFname, final int hungWorkerCount) {
-        final int maximumPoolSize = this.portletThreadPool.getMaximumPoolSize();
-        final int availableWorkers = maximumPoolSize - this.portletThreadPool.getActiveCount();
+        final int maximumPoolSize = this.portletWorkerScheduler.getMaxThreads();
+        final int availableWorkers = maximumPoolSize - this.portletWorkerScheduler.getActiveCount();
         final double hungWorkerLimit = this.percentPermittedErrantByFname * availableWorkers;
 
         final String msg =
@@ -205,8 +207,8 @@ public class HungWorkerAnalyzer
             return;
         }
 
-        final int maximumPoolSize = this.portletThreadPool.getMaximumPoolSize();
-        final int availableWorkers = maximumPoolSize - this.portletThreadPool.getActiveCount();
+        final int maximumPoolSize = this.portletWorkerScheduler.getMaxThreads();
+        final int availableWorkers = maximumPoolSize - this.portletWorkerScheduler.getActiveCount();
         final double hungWorkerLimit = this.percentPermittedErrantByFname * availableWorkers;
         if (hungWorkers < Math.ceil(hungWorkerLimit)) {
             //Number of hung workers is less than the calculated hung worker limit
@@ -69,7 +69,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
 
     @Autowired
     public void setPortletThreadPool(
-            @Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
+            @Qualifier("portletWorkerScheduler") ExecutorService portletThreadPool) {
         this.portletThreadPool = portletThreadPool;
     }
 
@@ -0,0 +1,635 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.utils.threading.QualityOfServiceBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Schedules portlet workers onto the portlet thread pool fairly. Workers wait in a queue keyed by
+ * portlet fname and are dispatched round-robin across portlets, no single portlet may occupy more
+ * than {@link #setMaxThreadsPerPortlet(int)} threads. A portlet whose recent execution time is over
+ * {@link #setLatencyThreshold(long)} is only allowed one worker at a time, additional workers are
+ * rejected immediately so the caller renders the failure portlet instead of waiting on a timeout.
+ *
+ * <p>Threads taken from the delegate pool keep executing queued workers until none are
+ * dispatchable, the delegate never sees more than {@link #setMaxThreads(int)} concurrent tasks. A
+ * thread that found nothing left to execute gives up its slot before it is back in the pool, so
+ * the pool must be able to queue up to maxThreads tasks for its returning threads instead of
+ * rejecting them; a warning is logged at startup if it cannot.
+ *
+ * <p>When {@link #setVirtualThreads(boolean)} is enabled and the JVM supports virtual threads each
+ * dispatched worker gets a new virtual thread instead of a pool thread. Portlets are mostly blocked
+ * on remote I/O so the thread limit can then be much higher, see {@link
+ * #setVirtualThreadMaxThreads(int)}. Execution interceptors are unaffected as a worker still runs
+ * start to finish on a single thread.
+ */
+@ManagedResource("uPortal:section=Framework,name=PortletWorkerScheduler")
+public class PortletWorkerScheduler extends AbstractExecutorService
+        implements PortletWorkerSchedulerMXBean, InitializingBean, DisposableBean {
+    /** Key used for tasks that are not portlet workers */
+    private static final String UNKNOWN_FNAME = "";
+
+    private static final String VIRTUAL_THREAD_NAME_PREFIX = "uP-PortletExecV-";
+
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Object lock = new Object();
+
+    //All fields below MUST be accessed while holding lock
+    private final Map<String, PortletState> portletStates = new HashMap<String, PortletState>();
+    private PortletTaskQueue queue = new PortletTaskQueue(Integer.MAX_VALUE);
+    private int activeCount = 0;
+    private long fastFailCount = 0;
+    private boolean shutdown = false;
+
+    private ExecutorService executorService;
+    private ExecutorService virtualThreadExecutor;
+    private boolean virtualThreads = false;
+    private int virtualThreadMaxThreads = 1000;
+    private int maxThreads = 150;
+    private volatile int maxThreadsPerPortlet = 50;
+    private volatile long latencyThreshold = 0;
+
+    /** @param executorService The pool that executes the workers */
+    @Required
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /** @param maxThreads Maximum number of threads to use from the pool, should match its size */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * @param virtualThreads Execute workers on virtual threads if the JVM supports them, falls back
+     *     to the executor service if it does not
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /** @param virtualThreadMaxThreads Replaces maxThreads when virtual threads are in use */
+    public void setVirtualThreadMaxThreads(int virtualThreadMaxThreads) {
+        this.virtualThreadMaxThreads = virtualThreadMaxThreads;
+    }
+
+    /** @param queueCapacity Maximum number of workers that can wait for a thread */
+    public void setQueueCapacity(int queueCapacity) {
+        synchronized (this.lock) {
+            if (!this.queue.isEmpty()) {
+                throw new IllegalStateException("Queue capacity cannot be changed once in use");
+            }
+            this.queue = new PortletTaskQueue(queueCapacity);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (this.executorService instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor threadPool = (ThreadPoolExecutor) this.executorService;
+            if (canRejectHandoff(threadPool, this.maxThreads)) {
+                logger.warn(
+                        "Workers may be rejected while a pool thread returns from its last "
+                                + "worker, the pool should have a corePoolSize and queueCapacity "
+                                + "of at least maxThreads ({}). It has a corePoolSize of {}, a "
+                                + "maxPoolSize of {} and a queueCapacity of {}",
+                        this.maxThreads,
+                        threadPool.getCorePoolSize(),
+                        threadPool.getMaximumPoolSize(),
+                        threadPool.getQueue().remainingCapacity());
+            }
+        }
+
+        if (!this.virtualThreads) {
+            return;
+        }
+
+        this.virtualThreadExecutor = this.newVirtualThreadExecutor();
+        if (this.virtualThreadExecutor == null) {
+            logger.warn(
+                    "Virtual threads are not supported by this JVM, portlet workers will execute on the portlet thread pool");
+            return;
+        }
+
+        synchronized (this.lock) {
+            this.maxThreads = this.virtualThreadMaxThreads;
+        }
+        logger.info(
+                "Portlet workers will execute on virtual threads, at most {} at once",
+                this.virtualThreadMaxThreads);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.virtualThreadExecutor != null) {
+            this.virtualThreadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @return A thread-per-task executor creating virtual threads, null if they are not supported
+     */
+    ExecutorService newVirtualThreadExecutor() {
+        return createVirtualThreadExecutor(VIRTUAL_THREAD_NAME_PREFIX);
+    }
+
+    /**
+     * A task is handed to the pool as soon as a slot is free, the thread that freed it may not have
+     * returned to the pool yet. Each returning thread must therefore be matched by either a spare
+     * thread or room in the queue to pick the task up from.
+     *
+     * @return true if the pool may reject a task while the scheduler has a free slot
+     */
+    static boolean canRejectHandoff(ThreadPoolExecutor threadPool, int maxThreads) {
+        if (threadPool.getMaximumPoolSize() >= 2L * maxThreads) {
+            return false;
+        }
+        return threadPool.getCorePoolSize() < maxThreads
+                || threadPool.getQueue().remainingCapacity() < maxThreads;
+    }
+
+    /**
+     * Uses reflection as virtual threads are not available at the source level this is compiled
+     * for.
+     *
+     * @return A thread-per-task executor creating virtual threads, null if they are not supported
+     */
+    static ExecutorService createVirtualThreadExecutor(String namePrefix) {
+        try {
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder =
+                    builderType
+                            .getMethod("name", String.class, long.class)
+                            .invoke(builder, namePrefix, 0L);
+            final ThreadFactory threadFactory =
+                    (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+
+            return (ExecutorService)
+                    Executors.class
+                            .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                            .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            //Either an older JVM or virtual threads are a preview feature that is not enabled
+            LoggerFactory.getLogger(PortletWorkerScheduler.class)
+                    .debug("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isVirtualThreads() {
+        return this.virtualThreadExecutor != null;
+    }
+
+    @Override
+    public void setMaxThreadsPerPortlet(int maxThreadsPerPortlet) {
+        this.maxThreadsPerPortlet = maxThreadsPerPortlet;
+    }
+
+    @Override
+    public int getMaxThreadsPerPortlet() {
+        return this.maxThreadsPerPortlet;
+    }
+
+    @Override
+    public void setLatencyThreshold(long latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    @Override
+    public long getLatencyThreshold() {
+        return this.latencyThreshold;
+    }
+
+    @Override
+    public int getMaxThreads() {
+        synchronized (this.lock) {
+            return this.maxThreads;
+        }
+    }
+
+    @Override
+    public int getQueuedCount() {
+        synchronized (this.lock) {
+            return this.queue.size();
+        }
+    }
+
+    @Override
+    public int getActiveCount() {
+        synchronized (this.lock) {
+            return this.activeCount;
+        }
+    }
+
+    @Override
+    public long getFastFailCount() {
+        synchronized (this.lock) {
+            return this.fastFailCount;
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getActiveCounts() {
+        final Map<String, Integer> counts = new TreeMap<String, Integer>();
+        synchronized (this.lock) {
+            for (final Map.Entry<String, PortletState> entry : this.portletStates.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().running);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getRecentExecutionTimes() {
+        final Map<String, Long> times = new TreeMap<String, Long>();
+        synchronized (this.lock) {
+            for (final Map.Entry<String, PortletState> entry : this.portletStates.entrySet()) {
+                final long recentExecutionTime = entry.getValue().recentExecutionTime;
+                if (recentExecutionTime >= 0) {
+                    times.put(entry.getKey(), recentExecutionTime);
+                }
+            }
+        }
+        return times;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PortletTask<T>(callable, callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PortletTask<T>(runnable, value, runnable);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        final PortletTask<?> task;
+        if (command instanceof PortletTask) {
+            task = (PortletTask<?>) command;
+        } else {
+            task = (PortletTask<?>) this.newTaskFor(command, null);
+        }
+
+        final PortletTask<?> next;
+        synchronized (this.lock) {
+            if (this.shutdown) {
+                throw new RejectedExecutionException("PortletWorkerScheduler has been shut down");
+            }
+
+            final PortletState state = this.getPortletState(task.fname);
+            final long threshold = this.latencyThreshold;
+            if (threshold > 0 && state.running > 0 && state.recentExecutionTime > threshold) {
+                //Let the running worker act as the probe for recovery, fail everything else now
+                this.fastFailCount++;
+                final String msg =
+                        "Denying worker execution for "
+                                + task.fname
+                                + " with recent execution time of "
+                                + state.recentExecutionTime
+                                + "ms over threshold of "
+                                + threshold
+                                + "ms";
+                logger.info(msg);
+                throw new RejectedExecutionException(msg);
+            }
+
+            if (!this.queue.offer(task)) {
+                throw new RejectedExecutionException(
+                        "Denying worker execution for "
+                                + task.fname
+                                + ", "
+                                + this.queue.size()
+                                + " workers are already waiting for a thread");
+            }
+
+            next = this.pollDispatchable();
+        }
+
+        if (next != null) {
+            this.dispatch(next);
+        }
+    }
+
+    /** Hand a task, and any tasks queued behind it, to a thread from the pool */
+    private void dispatch(PortletTask<?> task) {
+        final ExecutorService executor =
+                this.virtualThreadExecutor != null
+                        ? this.virtualThreadExecutor
+                        : this.executorService;
+
+        try {
+            executor.execute(new TaskRunner(task));
+        } catch (RejectedExecutionException e) {
+            synchronized (this.lock) {
+                this.activeCount--;
+                this.getPortletState(task.fname).running--;
+            }
+            task.reject(e);
+        }
+    }
+
+    /**
+     * Remove the next task that can be executed without exceeding the thread limits, visiting
+     * portlets round-robin. The active and per-portlet running counts are incremented for the
+     * returned task. Must be called while holding lock.
+     *
+     * @return The next task to execute, null if there is none
+     */
+    private PortletTask<?> pollDispatchable() {
+        while (this.activeCount < this.maxThreads && !this.queue.isEmpty()) {
+            final String fname = this.queue.selectNextElementKey();
+            if (fname == null) {
+                //Every portlet with waiting tasks is at its thread limit
+                return null;
+            }
+
+            final PortletTask<?> task = this.queue.poll();
+            if (task.isDone()) {
+                //Cancelled while waiting, the worker has already given up on it
+                continue;
+            }
+
+            this.activeCount++;
+            this.getPortletState(fname).running++;
+            return task;
+        }
+        return null;
+    }
+
+    /**
+     * Record the completion of a task and pick the next task for the same thread. If there is none
+     * the thread's slot is freed while it is still returning to the pool, see {@link
+     * #canRejectHandoff(ThreadPoolExecutor, int)}.
+     *
+     * @return The next task to execute, null if the thread should be returned to the pool
+     */
+    private PortletTask<?> afterExecute(PortletTask<?> task) {
+        final long executionTime = task.getExecutionTime();
+
+        synchronized (this.lock) {
+            final PortletState state = this.getPortletState(task.fname);
+            state.running--;
+            if (executionTime >= 0) {
+                state.addExecutionTime(executionTime);
+            }
+
+            this.activeCount--;
+            final PortletTask<?> next = this.pollDispatchable();
+            if (next == null && this.activeCount == 0) {
+                this.lock.notifyAll();
+            }
+            return next;
+        }
+    }
+
+    /** Must be called while holding lock */
+    private PortletState getPortletState(String fname) {
+        PortletState state = this.portletStates.get(fname);
+        if (state == null) {
+            state = new PortletState();
+            this.portletStates.put(fname, state);
+        }
+        return state;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this.lock) {
+            this.shutdown = true;
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> pending = new ArrayList<Runnable>();
+        synchronized (this.lock) {
+            this.shutdown = true;
+            this.queue.drainAll(pending);
+            this.lock.notifyAll();
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (this.lock) {
+            return this.shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (this.lock) {
+            return this.shutdown && this.activeCount == 0 && this.queue.isEmpty();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this.lock) {
+            while (!this.isTerminated()) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                this.lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /** Per-portlet scheduling state, MUST be accessed while holding lock */
+    private static final class PortletState {
+        private int running = 0;
+        private long recentExecutionTime = -1;
+
+        /** Exponentially weighted so a few recent executions outweigh a long history */
+        void addExecutionTime(long executionTime) {
+            if (this.recentExecutionTime < 0) {
+                this.recentExecutionTime = executionTime;
+            } else {
+                this.recentExecutionTime = (this.recentExecutionTime * 3 + executionTime) / 4;
+            }
+        }
+    }
+
+    /** Runs a task then keeps the thread busy with queued tasks while any are dispatchable */
+    private final class TaskRunner implements Runnable {
+        private final PortletTask<?> first;
+
+        TaskRunner(PortletTask<?> first) {
+            this.first = first;
+        }
+
+        @Override
+        public void run() {
+            PortletTask<?> task = this.first;
+            while (task != null) {
+                try {
+                    task.run();
+                } finally {
+                    task = afterExecute(task);
+                }
+            }
+        }
+    }
+
+    /** Future that knows which portlet it executes for and how long the execution took */
+    private static final class PortletTask<V> extends FutureTask<V> {
+        private final String fname;
+        private final IPortletExecutionContext context;
+        private long started = -1;
+        private long complete = -1;
+
+        PortletTask(Callable<V> callable, Object source) {
+            super(callable);
+            this.context = getContext(source);
+            this.fname = getFname(this.context);
+        }
+
+        PortletTask(Runnable runnable, V result, Object source) {
+            super(runnable, result);
+            this.context = getContext(source);
+            this.fname = getFname(this.context);
+        }
+
+        private static IPortletExecutionContext getContext(Object source) {
+            if (source instanceof IPortletExecutionContext) {
+                return (IPortletExecutionContext) source;
+            }
+            return null;
+        }
+
+        private static String getFname(IPortletExecutionContext context) {
+            if (context == null || context.getPortletFname() == null) {
+                return UNKNOWN_FNAME;
+            }
+            return context.getPortletFname();
+        }
+
+        @Override
+        public void run() {
+            this.started = System.currentTimeMillis();
+            try {
+                super.run();
+            } finally {
+                this.complete = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * @return How long the portlet executed, from the worker's own timing when available so
+         *     it matches what {@link IPortletExecutionInterceptor}s see, -1 if the task did not run
+         */
+        long getExecutionTime() {
+            if (this.context != null && this.context.isComplete()) {
+                return this.context.getCompleteTime() - this.context.getStartedTime();
+            }
+            if (this.started < 0 || this.isCancelled()) {
+                return -1;
+            }
+            return this.complete - this.started;
+        }
+
+        void reject(RejectedExecutionException e) {
+            this.setException(e);
+        }
+    }
+
+    /** Queues tasks by portlet fname, the next key is chosen by {@link PortletWorkerScheduler} */
+    private final class PortletTaskQueue
+            extends QualityOfServiceBlockingQueue<String, PortletTask<?>> {
+        private final List<String> keys = new ArrayList<String>();
+        private String lastKey = null;
+        private String nextKey = null;
+
+        PortletTaskQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(PortletTask<?> e) {
+            return e.fname;
+        }
+
+        @Override
+        protected String getNextElementKey() {
+            return this.nextKey;
+        }
+
+        /**
+         * Choose the first portlet after the one last polled that has a waiting task and is under
+         * its thread limit. Must be called while holding lock, the following {@link #poll()}
+         * returns a task for the chosen portlet.
+         *
+         * @return The chosen fname, null if no portlet has a task that can be dispatched
+         */
+        String selectNextElementKey() {
+            this.keys.clear();
+            this.keys.addAll(this.getKeySet());
+            final int size = this.keys.size();
+            final int start = this.keys.indexOf(this.lastKey) + 1;
+            final int limit = maxThreadsPerPortlet;
+
+            for (int i = 0; i < size; i++) {
+                final String key = this.keys.get((start + i) % size);
+                if (!this.isKeyEmpty(key)
+                        && (limit <= 0 || getPortletState(key).running < limit)) {
+                    this.lastKey = key;
+                    this.nextKey = key;
+                    return key;
+                }
+            }
+            return null;
+        }
+
+        /** Remove all waiting tasks regardless of thread limits, must be called holding lock */
+        void drainAll(List<Runnable> tasks) {
+            for (final String key : this.getKeySet()) {
+                this.nextKey = key;
+                while (!this.isKeyEmpty(key)) {
+                    tasks.add(this.poll());
+                }
+            }
+        }
+    }
+}
@@ -26,7 +26,7 @@ import org.apereo.portal.security.IPermission;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
-class AnyUnblockedGrantPermissionPolicyTest extends AnyUnblockedGrantPermissionPolicy {
+class AnyUnblockedGrantPermissionPolicyTest {
 
     private static final long TWENTY_FOUR_HOURS_IN_MILLIS = 24L * 60L * 60L * 1000L;
 
@@ -34,6 +34,7 @@ class AnyUnblockedGrantPermissionPolicyTest extends AnyUnblockedGrantPermissionP
         IPermission rslt = new PermissionImpl('UP_SYSTEM');
         rslt.setPrincipal('local.0');
         rslt.setActivity('CUSTOMIZE');
+        rslt.setTarget('ALL');
         rslt.setType('GRANT');
         return rslt;
     }();
@@ -41,6 +42,7 @@ class AnyUnblockedGrantPermissionPolicyTest extends AnyUnblockedGrantPermissionP
         IPermission rslt = new PermissionImpl('UP_SYSTEM');
         rslt.setPrincipal('local.0');
         rslt.setActivity('CUSTOMIZE');
+        rslt.setTarget('ALL');
         rslt.setType('DENY');
         return rslt;
     }();
@@ -48,6 +50,7 @@ class AnyUnblockedGrantPermissionPolicyTest extends AnyUnblockedGrantPermissionP
         IPermission rslt = new PermissionImpl('UP_SYSTEM');
         rslt.setPrincipal('local.0');
         rslt.setActivity('CUSTOMIZE');
+        rslt.setTarget('ALL');
         rslt.setType('GRANT');
         rslt.setExpires(new Date(System.currentTimeMillis() - TWENTY_FOUR_HOURS_IN_MILLIS));
         return rslt;
@@ -56,53 +59,58 @@ class AnyUnblockedGrantPermissionPolicyTest extends AnyUnblockedGrantPermissionP
         IPermission rslt = new PermissionImpl('UP_SYSTEM');
         rslt.setPrincipal('local.0');
         rslt.setActivity('CUSTOMIZE');
+        rslt.setTarget('ALL');
         rslt.setType('GRANT');
         rslt.setEffective(new Date(System.currentTimeMillis() + TWENTY_FOUR_HOURS_IN_MILLIS));
         return rslt;
     }();
 
+    private static boolean hasGrant(IPermission[] permissions) {
+        PrincipalPermissionMatrix matrix = new PrincipalPermissionMatrix(
+            'local.0', permissions, [], [] as Set, System.currentTimeMillis());
+        return matrix.hasUnblockedPathToGrant(
+            PrincipalPermissionMatrix.getActivityKey('UP_SYSTEM', 'CUSTOMIZE'), 'ALL', []);
+    }
+
     @Test
-    void testContainsType() {
-        Set<IPermission> onlyGrant = new HashSet([
+    void testGrantAndDeny() {
+        IPermission[] onlyGrant = [
             activeGrantPermission
-        ]);
-        Set<IPermission> onlyDeny = new HashSet([
+        ];
+        IPermission[] onlyDeny = [
             activeDenyPermission
-        ]);
-        Set<IPermission> bothGrantAndDeny = new HashSet([
+        ];
+        IPermission[] bothGrantAndDeny = [
             activeGrantPermission,
             activeDenyPermission
-        ]);
-
-        assertEquals('Incorrect output from containsType() -- ',
-            super.containsType(onlyGrant, 'GRANT'), true);
-        assertEquals('Incorrect output from containsType() -- ',
-            super.containsType(onlyDeny, 'GRANT'), false);
-        assertEquals('Incorrect output from containsType() -- ',
-            super.containsType(bothGrantAndDeny, 'GRANT'), true);
+        ];
 
-        assertEquals('Incorrect output from containsType() -- ',
-            super.containsType(onlyGrant, 'DENY'), false);
-        assertEquals('Incorrect output from containsType() -- ',
-            super.containsType(onlyDeny, 'DENY'), true);
-        assertEquals('Incorrect output from containsType() -- ',
-            super.containsType(bothGrantAndDeny, 'DENY'), true);
+        assertEquals('GRANT not honored -- ', true, hasGrant(onlyGrant));
+        assertEquals('DENY not honored -- ', false, hasGrant(onlyDeny));
+        assertEquals('DENY does not trump GRANT -- ', false, hasGrant(bothGrantAndDeny));
     }
 
     @Test
-    void testRemoveInactivePermissions() {
-        IPermission[] activePermissions = [
-            activeGrantPermission
-        ];
+    void testInactivePermissionsIgnored() {
         IPermission[] inactivePermissions = [
             expiredGrantPermission,
             futureGrantPermission
         ];
+        IPermission[] inactiveDeny = [
+            activeGrantPermission,
+            {
+                IPermission rslt = new PermissionImpl('UP_SYSTEM');
+                rslt.setPrincipal('local.0');
+                rslt.setActivity('CUSTOMIZE');
+                rslt.setTarget('ALL');
+                rslt.setType('DENY');
+                rslt.setExpires(new Date(System.currentTimeMillis() - TWENTY_FOUR_HOURS_IN_MILLIS));
+                return rslt;
+            }()
+        ];
 
-        IPermission[] inpt = activePermissions + inactivePermissions;
-        Set<IPermission> filteredPermissions = super.removeInactivePermissions(inpt);
-        assertEquals('Incorrect output from removeInactivePermissions() -- ',
-            activePermissions, filteredPermissions.toArray(new IPermission[0]));
+        assertEquals('Inactive GRANT honored -- ', false, hasGrant(inactivePermissions));
+        assertEquals('Inactive DENY honored -- ', true, hasGrant(inactiveDeny));
     }
 
 }
@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.events;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -30,6 +31,7 @@ import java.util.regex.Pattern;
 import javax.portlet.PortletMode;
 import javax.portlet.WindowState;
 import javax.xml.namespace.QName;
+import org.apereo.portal.events.handlers.db.SmilePortalEventCodec;
 import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionWorker;
 import org.apereo.portal.security.SystemPerson;
@@ -79,6 +81,33 @@ public class JacksonPortalEventTest {
         assertEventJsonEquals(json, event);
     }
 
+    @Test
+    public void testSmileCodecRoundTrip() throws Exception {
+        final String sessionId = "1234567890123_system_AAAAAAAAAAA";
+        final PortalEvent.PortalEventBuilder eventBuilder =
+                new PortalEvent.PortalEventBuilder(
+                        this, "example.com", sessionId, SystemPerson.INSTANCE, null);
+
+        final Set<String> groups = ImmutableSet.of("Student", "Employee");
+        final Map<String, List<String>> attributes =
+                ImmutableMap.of(
+                        "username",
+                        (List<String>) ImmutableList.of("system"),
+                        "roles",
+                        (List<String>) ImmutableList.of("student", "employee"));
+
+        final LoginEvent loginEvent = new LoginEvent(eventBuilder, groups, attributes);
+        final String json = mapper.writeValueAsString(loginEvent);
+
+        final SmilePortalEventCodec codec = new SmilePortalEventCodec();
+        final byte[] data = codec.encode(loginEvent);
+
+        final PortalEvent event = codec.decode(data, PortalEvent.class);
+        assertEquals(LoginEvent.class, event.getClass());
+        assertEquals(loginEvent.getTimestamp(), event.getTimestamp());
+        assertEventJsonEquals(json, event);
+    }
+
     @Test
     public void verifyOutputFormat() throws Exception {
         final String sessionId = "1234567890123_system_AAAAAAAAAAA";
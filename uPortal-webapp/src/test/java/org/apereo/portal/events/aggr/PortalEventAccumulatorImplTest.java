@@ -0,0 +1,323 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apereo.portal.events.LoginEvent;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.PortletExecutionEvent;
+import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregator;
+import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.portletexec.PortletExecutionAggregator;
+import org.apereo.portal.events.aggr.session.EventSession;
+import org.apereo.portal.events.aggr.session.EventSessionDao;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class PortalEventAccumulatorImplTest {
+    private static final long TIMESTAMP = 1371745598080l;
+
+    private ObjectMapper mapper;
+    private PortalEventAccumulatorImpl accumulator;
+    private ConcurrentUserAggregator concurrentUserAggregator;
+    private PortletExecutionAggregator portletExecutionAggregator;
+    private IPortalEventAggregator<PortalEvent> loginAggregator;
+    private final List<EventSession> simpleAggregatorSessions = new ArrayList<EventSession>();
+    private final List<String> loadedEventSessionIds = new ArrayList<String>();
+    private String failingEventSessionId;
+    private String newEventSessionId;
+
+    @Mock private IEventAggregationManagementDao eventAggregationManagementDao;
+    @Mock private AggregatedGroupConfig aggregatedGroupConfig;
+    @Mock private EventSession eventSession;
+    @Mock private IEventAggregatorStatus eventAggregatorStatus;
+
+    @Before
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(eventAggregationManagementDao.getDefaultAggregatedGroupConfig())
+                .thenReturn(aggregatedGroupConfig);
+        when(eventSession.getGroupMappings())
+                .thenReturn(Collections.<AggregatedGroupMapping>emptySet());
+
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+
+        concurrentUserAggregator = new ConcurrentUserAggregator();
+        portletExecutionAggregator = new PortletExecutionAggregator();
+        loginAggregator =
+                new BasePortalEventAggregator<PortalEvent>() {
+                    @Override
+                    public boolean supports(Class<? extends PortalEvent> type) {
+                        return LoginEvent.class.isAssignableFrom(type);
+                    }
+                };
+
+        final SimplePortalEventAggregator<PortalEvent> simpleAggregator =
+                new SimplePortalEventAggregator<PortalEvent>() {
+                    @Override
+                    public boolean supports(Class<? extends PortalEvent> type) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean supports(PortalEvent event) {
+                        return true;
+                    }
+
+                    @Override
+                    public void aggregateEvent(PortalEvent e, EventSession eventSession) {
+                        simpleAggregatorSessions.add(eventSession);
+                    }
+                };
+
+        accumulator = new PortalEventAccumulatorImpl();
+        accumulator.setEnabled(true);
+        accumulator.setEventAggregationManagementDao(eventAggregationManagementDao);
+        accumulator.setEventSessionDao(
+                new EventSessionDao() {
+                    @Override
+                    public void storeEventSession(EventSession eventSession) {}
+
+                    @Override
+                    public EventSession getEventSession(PortalEvent event) {
+                        throw new AssertionError("Only raw event aggregation creates sessions");
+                    }
+
+                    @Override
+                    public EventSession findEventSession(PortalEvent event) {
+                        if (event.getEventSessionId().equals(failingEventSessionId)) {
+                            throw new IllegalStateException("Failed to load event session");
+                        }
+                        if (event.getEventSessionId().equals(newEventSessionId)) {
+                            return null;
+                        }
+                        loadedEventSessionIds.add(event.getEventSessionId());
+                        return eventSession;
+                    }
+
+                    @Override
+                    public void deleteEventSession(String eventSessionId) {}
+
+                    @Override
+                    public int purgeEventSessionsBefore(DateTime lastAggregatedEventDate) {
+                        return 0;
+                    }
+                });
+        accumulator.setPortalEventAggregators(
+                ImmutableSet.<IPortalEventAggregator<PortalEvent>>of(
+                        (IPortalEventAggregator) concurrentUserAggregator,
+                        (IPortalEventAggregator) portletExecutionAggregator,
+                        (IPortalEventAggregator) simpleAggregator,
+                        loginAggregator));
+    }
+
+    @Test
+    public void testAccumulateByKey() throws Exception {
+        assertTrue(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP)));
+        assertTrue(accumulate(renderEvent("s1", "fname", 200, TIMESTAMP + 1000)));
+        assertTrue(accumulate(renderEvent("s1", "other", 300, TIMESTAMP + 2000)));
+
+        final List<AccumulatedPortalEvents<PortalEvent>> accumulated =
+                accumulator.removeAccumulatedEvents(false);
+        assertEquals(3, accumulated.size());
+
+        int concurrentUserEvents = 0;
+        for (final AccumulatedPortalEvents<PortalEvent> events : accumulated) {
+            if (events.getAggregator() == (Object) concurrentUserAggregator) {
+                concurrentUserEvents += events.getCount();
+            } else if ("fname"
+                    .equals(((PortletExecutionEvent) events.getFirstEvent()).getFname())) {
+                assertEquals(2, events.getCount());
+                assertEquals(100, events.getValue(0), 0);
+                assertEquals(200, events.getValue(1), 0);
+                assertEquals(TIMESTAMP + 1000, events.getLastEventDate().getMillis());
+            } else {
+                assertEquals(1, events.getCount());
+                assertEquals(300, events.getValue(0), 0);
+            }
+        }
+        assertEquals(3, concurrentUserEvents);
+
+        assertTrue(accumulator.removeAccumulatedEvents(true).isEmpty());
+    }
+
+    @Test
+    public void testNotAccumulatingAggregator() throws Exception {
+        final PortalEvent loginEvent =
+                mapper.readValue(
+                        "{\"@c\":\".LoginEvent\",\"timestamp\":"
+                                + TIMESTAMP
+                                + ",\"serverId\":\"example.com\",\"eventSessionId\":\"s1\",\"userName\":\"system\",\"groups\":[],\"attributes\":{}}",
+                        PortalEvent.class);
+
+        assertFalse(accumulate(loginEvent));
+        assertTrue(accumulator.removeAccumulatedEvents(true).isEmpty());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        accumulator.setEnabled(false);
+        assertFalse(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP)));
+    }
+
+    @Test
+    public void testIncompleteMinute() throws Exception {
+        assertTrue(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP)));
+        assertTrue(
+                accumulate(
+                        renderEvent("s1", "fname", 100, System.currentTimeMillis())));
+
+        assertEquals(2, accumulator.removeAccumulatedEvents(false).size());
+        assertEquals(2, accumulator.removeAccumulatedEvents(true).size());
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        assertTrue(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP)));
+        final List<AccumulatedPortalEvents<PortalEvent>> accumulated =
+                accumulator.removeAccumulatedEvents(false);
+        assertEquals(2, accumulated.size());
+
+        //Events arriving before the restore are merged with the restored events
+        assertTrue(accumulate(renderEvent("s1", "fname", 200, TIMESTAMP + 1000)));
+        accumulator.restoreAccumulatedEvents(accumulated);
+
+        final List<AccumulatedPortalEvents<PortalEvent>> restored =
+                accumulator.removeAccumulatedEvents(false);
+        assertEquals(2, restored.size());
+        for (final AccumulatedPortalEvents<PortalEvent> events : restored) {
+            assertEquals(2, events.getCount());
+            assertEquals(TIMESTAMP + 1000, events.getLastEventDate().getMillis());
+        }
+    }
+
+    @Test
+    public void testMaxAccumulatedEvents() throws Exception {
+        accumulator.setMaxAccumulatedEvents(3);
+        assertTrue(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP)));
+        assertFalse(accumulate(renderEvent("s2", "fname", 100, TIMESTAMP)));
+        assertEquals(2, accumulator.removeAccumulatedEvents(true).size());
+    }
+
+    @Test
+    public void testEventSessionFoundBeforeAccumulating() throws Exception {
+        assertTrue(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP)));
+        assertEquals(Arrays.asList("s1"), loadedEventSessionIds);
+
+        //The simple aggregator gets the event session filtered by the default group config
+        assertEquals(1, simpleAggregatorSessions.size());
+        final EventSession filteredSession = simpleAggregatorSessions.get(0);
+        assertTrue(filteredSession instanceof FilteredEventSession);
+        assertTrue(filteredSession.getGroupMappings().isEmpty());
+    }
+
+    @Test
+    public void testEventSessionFailureAccumulatesNothing() throws Exception {
+        failingEventSessionId = "s2";
+        try {
+            accumulator.accumulate(
+                    Arrays.asList(
+                            renderEvent("s1", "fname", 100, TIMESTAMP),
+                            renderEvent("s2", "fname", 100, TIMESTAMP)));
+            fail("The event session failure should have been thrown");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        assertTrue(accumulator.removeAccumulatedEvents(true).isEmpty());
+        assertTrue(simpleAggregatorSessions.isEmpty());
+    }
+
+    @Test
+    public void testNewEventSessionNotAccumulated() throws Exception {
+        //Raw event aggregation creates the session from the login event
+        newEventSessionId = "s2";
+        assertFalse(accumulate(renderEvent("s2", "fname", 100, TIMESTAMP)));
+        assertTrue(simpleAggregatorSessions.isEmpty());
+        assertTrue(accumulator.removeAccumulatedEvents(true).isEmpty());
+    }
+
+    @Test
+    public void testMinutePassedByRawAggregationNotAccumulated() throws Exception {
+        final DateTime minute = new DateTime(TIMESTAMP).minuteOfHour().roundFloorCopy();
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(minute.plusMinutes(1));
+        when(eventAggregationManagementDao.getEventAggregatorStatus(
+                        IEventAggregatorStatus.ProcessingType.AGGREGATION, false))
+                .thenReturn(eventAggregatorStatus);
+
+        assertFalse(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP)));
+        assertTrue(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP + 60000)));
+
+        final List<AccumulatedPortalEvents<PortalEvent>> accumulated =
+                accumulator.removeAccumulatedEvents(true);
+        assertEquals(2, accumulated.size());
+        assertEquals(minute.plusMinutes(1), accumulated.get(0).getMinute());
+    }
+
+    @Test
+    public void testOrderedByMinute() throws Exception {
+        assertTrue(accumulate(renderEvent("s1", "fname", 100, TIMESTAMP + 60000)));
+        assertTrue(accumulate(renderEvent("s2", "fname", 100, TIMESTAMP + 1000)));
+
+        final DateTime minute = new DateTime(TIMESTAMP).minuteOfHour().roundFloorCopy();
+        final List<AccumulatedPortalEvents<PortalEvent>> accumulated =
+                accumulator.removeAccumulatedEvents(false);
+        assertEquals(4, accumulated.size());
+        assertEquals(minute, accumulated.get(0).getMinute());
+        assertEquals(minute, accumulated.get(1).getMinute());
+        assertEquals(minute.plusMinutes(1), accumulated.get(2).getMinute());
+        assertEquals(minute.plusMinutes(1), accumulated.get(3).getMinute());
+    }
+
+    /** @return true if the event was accumulated */
+    private boolean accumulate(PortalEvent event) {
+        return accumulator.accumulate(Collections.singletonList(event)).isEmpty();
+    }
+
+    private PortalEvent renderEvent(
+            String eventSessionId, String fname, long executionTimeNano, long timestamp)
+            throws Exception {
+        return mapper.readValue(
+                "{\"@c\":\".PortletRenderExecutionEvent\",\"timestamp\":"
+                        + timestamp
+                        + ",\"serverId\":\"example.com\",\"eventSessionId\":\""
+                        + eventSessionId
+                        + "\",\"userName\":\"system\",\"fname\":\""
+                        + fname
+                        + "\",\"windowState\":\"normal\",\"portletMode\":\"view\",\"executionTimeNano\":"
+                        + executionTimeNano
+                        + ",\"parameters\":{},\"targeted\":true,\"usedPortalCache\":false}",
+                PortalEvent.class);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class UniqueStringsTest {
+    @Test
+    public void testExactBelowLimit() {
+        final UniqueStrings uniqueStrings = new UniqueStrings();
+        for (int i = 0; i < UniqueStrings.EXACT_STRING_LIMIT; i++) {
+            assertTrue(uniqueStrings.add("user" + i));
+            assertFalse(uniqueStrings.add("user" + i));
+        }
+
+        assertTrue(uniqueStrings.isExact());
+        assertEquals(UniqueStrings.EXACT_STRING_LIMIT, uniqueStrings.size());
+    }
+
+    @Test
+    public void testSketchAboveLimit() {
+        final UniqueStrings uniqueStrings = new UniqueStrings();
+        final int count = 50000;
+        for (int i = 0; i < count; i++) {
+            uniqueStrings.add("user" + i);
+        }
+        for (int i = 0; i < count; i++) {
+            assertFalse(uniqueStrings.add("user" + i));
+        }
+
+        assertFalse(uniqueStrings.isExact());
+        assertEquals(count, uniqueStrings.size(), count * 0.05);
+    }
+
+    @Test
+    public void testMergeSketches() {
+        final UniqueStrings first = new UniqueStrings();
+        final UniqueStrings second = new UniqueStrings();
+        for (int i = 0; i < 30000; i++) {
+            first.add("user" + i);
+        }
+        for (int i = 20000; i < 50000; i++) {
+            second.add("user" + i);
+        }
+
+        assertTrue(first.addAll(second));
+        assertFalse(first.addAll(second));
+        assertEquals(50000, first.size(), 50000 * 0.05);
+    }
+
+    @Test
+    public void testMergeExactIntoSketch() {
+        final UniqueStrings sketch = new UniqueStrings();
+        for (int i = 0; i < 5000; i++) {
+            sketch.add("user" + i);
+        }
+        final UniqueStrings exact = new UniqueStrings();
+        for (int i = 0; i < 10; i++) {
+            exact.add("other" + i);
+        }
+
+        exact.addAll(sketch);
+        assertFalse(exact.isExact());
+        assertEquals(5010, exact.size(), 5010 * 0.05);
+    }
+
+    @Test
+    public void testSketchSerialization() {
+        final HyperLogLog hyperLogLog = new HyperLogLog(UniqueStrings.SKETCH_PRECISION);
+        for (int i = 0; i < 10000; i++) {
+            hyperLogLog.add("user" + i);
+        }
+
+        final byte[] data = hyperLogLog.toBytes();
+        assertEquals(2 + (1 << UniqueStrings.SKETCH_PRECISION), data.length);
+        assertEquals(hyperLogLog.cardinality(), HyperLogLog.fromBytes(data).cardinality());
+    }
+
+    @Test
+    public void testWrappedSketchUpdatedInPlace() {
+        final byte[] data = new HyperLogLog(UniqueStrings.SKETCH_PRECISION).toBytes();
+        final HyperLogLog hyperLogLog = HyperLogLog.wrap(data);
+        for (int i = 0; i < 10000; i++) {
+            hyperLogLog.add("user" + i);
+        }
+
+        assertTrue(hyperLogLog.wraps(data));
+        assertEquals(hyperLogLog.cardinality(), HyperLogLog.fromBytes(data).cardinality());
+        assertEquals(10000, HyperLogLog.fromBytes(data).cardinality(), 10000 * 0.05);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apereo.portal.events.handlers.QueueingEventHandler.OverflowPolicy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.ApplicationEvent;
+
+public class QueueingEventHandlerTest {
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testDropOldest() {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setMaxQueueSize(3);
+
+        for (int i = 0; i < 5; i++) {
+            handler.onApplicationEvent(new TestEvent(i));
+        }
+        assertEquals(3, handler.getQueueDepth());
+        assertEquals(2, handler.getDroppedEventCount());
+
+        handler.flush();
+        assertEquals("[2, 3, 4]", handler.handledEvents.toString());
+        assertEquals(0, handler.getQueueDepth());
+        assertEquals(3, handler.getFlushedEventCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxQueueSize() {
+        new TestQueueingEventHandler().setMaxQueueSize(0);
+    }
+
+    @Test
+    public void testDropByPriority() {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setMaxQueueSize(3);
+        handler.setOverflowPolicy(OverflowPolicy.DROP_BY_PRIORITY);
+
+        handler.onApplicationEvent(new TestEvent(1));
+        handler.onApplicationEvent(new TestEvent(0));
+        handler.onApplicationEvent(new TestEvent(0));
+        //Each new event drops one of the priority 0 events
+        handler.onApplicationEvent(new TestEvent(2));
+        handler.onApplicationEvent(new TestEvent(1));
+        //Nothing queued has a lower priority, the new event is dropped
+        handler.onApplicationEvent(new TestEvent(0));
+
+        assertEquals(3, handler.getDroppedEventCount());
+
+        handler.flush();
+        assertEquals("[1, 2, 1]", handler.handledEvents.toString());
+    }
+
+    @Test
+    public void testDropByPriorityDropsLowestFirst() {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setMaxQueueSize(3);
+        handler.setOverflowPolicy(OverflowPolicy.DROP_BY_PRIORITY);
+
+        handler.onApplicationEvent(new TestEvent(2));
+        handler.onApplicationEvent(new TestEvent(1));
+        handler.onApplicationEvent(new TestEvent(0));
+        //Drops the priority 0 event, not the older priority 1 event
+        handler.onApplicationEvent(new TestEvent(3));
+        assertEquals(1, handler.getDroppedEventCount());
+        assertEquals(3, handler.getQueueDepth());
+
+        //Drops the priority 1 event
+        handler.onApplicationEvent(new TestEvent(2));
+        assertEquals(2, handler.getDroppedEventCount());
+
+        //Queued events are flushed in the order they arrived
+        handler.flush();
+        assertEquals("[2, 3, 2]", handler.handledEvents.toString());
+        assertEquals(0, handler.getQueueDepth());
+    }
+
+    @Test
+    public void testSpillToFile() throws Exception {
+        final File spillFile = new File(tempFolder.getRoot(), "events.spill");
+
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setMaxQueueSize(2);
+        handler.setBatchSize(2);
+        handler.setOverflowPolicy(OverflowPolicy.SPILL_TO_FILE);
+        handler.setSpillFile(spillFile);
+
+        for (int i = 0; i < 7; i++) {
+            handler.onApplicationEvent(new TestEvent(i));
+        }
+        assertEquals(5, handler.getSpilledEventCount());
+        assertEquals(0, handler.getDroppedEventCount());
+
+        //Spilled events are not replayed while flushing fails
+        handler.fail = true;
+        handler.flush();
+        assertEquals(1, handler.getFailedBatchCount());
+        assertEquals(0, handler.getReplayedEventCount());
+
+        handler.fail = false;
+        handler.onApplicationEvent(new TestEvent(100));
+        handler.flush();
+        assertEquals("[100, 2, 3, 4, 5, 6]", handler.handledEvents.toString());
+        assertEquals(5, handler.getReplayedEventCount());
+        assertFalse(spillFile.exists());
+
+        handler.destroy();
+    }
+
+    private static final class TestEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        private final int priority;
+
+        public TestEvent(int priority) {
+            super(QueueingEventHandlerTest.class);
+            this.priority = priority;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(this.priority);
+        }
+    }
+
+    private static final class TestQueueingEventHandler extends QueueingEventHandler<TestEvent> {
+        private final List<TestEvent> handledEvents = new ArrayList<TestEvent>();
+        private boolean fail = false;
+
+        @Override
+        protected void onApplicationEvents(Iterable<TestEvent> events) {
+            if (this.fail) {
+                throw new IllegalStateException("Simulated failure");
+            }
+            for (final TestEvent event : events) {
+                this.handledEvents.add(event);
+            }
+        }
+
+        @Override
+        protected int getEventPriority(TestEvent event) {
+            return event.priority;
+        }
+
+        @Override
+        protected String serializeEvent(TestEvent event) {
+            return event.toString();
+        }
+
+        @Override
+        protected TestEvent deserializeEvent(String data) {
+            return new TestEvent(Integer.parseInt(data));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Function;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apereo.portal.events.PortalEvent;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class JpaPortalEventStoreAggregationTest {
+    private static final String BROKEN_EVENT_DATA = "broken";
+
+    private final List<PersistentPortalEvent> persistentPortalEvents =
+            new ArrayList<PersistentPortalEvent>();
+    private final List<PortalEvent> portalEvents = new ArrayList<PortalEvent>();
+    private final List<PortalEvent> handledEvents = new ArrayList<PortalEvent>();
+    private final Set<Thread> decodingThreads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private ExecutorService executor;
+    private JpaPortalEventStore portalEventStore;
+    private Session session;
+    private ScrollableResults results;
+    private int handleLimit = Integer.MAX_VALUE;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(2);
+        session = mock(Session.class);
+        results = mock(ScrollableResults.class);
+
+        portalEventStore =
+                new JpaPortalEventStore() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    protected <E extends PortalEvent> E toPortalEvent(
+                            int eventFormat,
+                            String eventData,
+                            byte[] eventDataBinary,
+                            Class<E> eventType) {
+                        decodingThreads.add(Thread.currentThread());
+                        if (BROKEN_EVENT_DATA.equals(eventData)) {
+                            throw new RuntimeException("Broken event data");
+                        }
+                        return (E) portalEvents.get(Integer.parseInt(eventData));
+                    }
+                };
+        portalEventStore.setAggregationPartitionSize(2);
+        portalEventStore.setAggregationDecodeAhead(2);
+        portalEventStore.setAggregationFlushPeriod(3);
+        portalEventStore.setAggregationExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEventsHandledInOrder() {
+        setupEvents(7);
+
+        assertTrue(aggregatePortalEvents());
+
+        assertEquals(portalEvents, handledEvents);
+        assertFalse(decodingThreads.contains(Thread.currentThread()));
+        for (final PersistentPortalEvent persistentPortalEvent : persistentPortalEvents) {
+            verify(persistentPortalEvent).setAggregated(true);
+            verify(session).persist(persistentPortalEvent);
+        }
+        verify(results).close();
+    }
+
+    @Test
+    public void testEventsDecodedOnCallingThreadWithoutExecutor() {
+        portalEventStore.setAggregationExecutor(null);
+        setupEvents(5);
+
+        assertTrue(aggregatePortalEvents());
+
+        assertEquals(portalEvents, handledEvents);
+        assertEquals(Collections.singleton(Thread.currentThread()), decodingThreads);
+    }
+
+    @Test
+    public void testHandledEventsEvictedAfterFlush() {
+        setupEvents(7);
+
+        assertTrue(aggregatePortalEvents());
+
+        //Flushed after the 3rd and 6th events, the 7th is left for the commit
+        verify(session, times(2)).flush();
+        for (int i = 0; i < 6; i++) {
+            verify(session).evict(persistentPortalEvents.get(i));
+        }
+        verify(session, never()).evict(persistentPortalEvents.get(6));
+    }
+
+    @Test
+    public void testBrokenEventMarkedAsError() {
+        setupEvents(5);
+        when(persistentPortalEvents.get(2).getEventData()).thenReturn(BROKEN_EVENT_DATA);
+
+        assertTrue(aggregatePortalEvents());
+
+        final List<PortalEvent> expectedEvents = new ArrayList<PortalEvent>(portalEvents);
+        expectedEvents.remove(2);
+        assertEquals(expectedEvents, handledEvents);
+        verify(persistentPortalEvents.get(2)).setErrorAggregating(true);
+        verify(persistentPortalEvents.get(2), never()).setAggregated(true);
+        verify(persistentPortalEvents.get(3)).setAggregated(true);
+    }
+
+    @Test
+    public void testStopRequested() {
+        setupEvents(7);
+        handleLimit = 3;
+
+        assertFalse(aggregatePortalEvents());
+
+        assertEquals(portalEvents.subList(0, 3), handledEvents);
+        verify(persistentPortalEvents.get(2)).setAggregated(true);
+        verify(persistentPortalEvents.get(3), never()).setAggregated(true);
+        verify(results).close();
+    }
+
+    private boolean aggregatePortalEvents() {
+        return portalEventStore.aggregatePortalEvents(
+                session,
+                results,
+                new Function<PortalEvent, Boolean>() {
+                    @Override
+                    public Boolean apply(PortalEvent event) {
+                        if (handledEvents.size() >= handleLimit) {
+                            return false;
+                        }
+                        handledEvents.add(event);
+                        return true;
+                    }
+                });
+    }
+
+    /** Scroll results of raw events with event data i */
+    private void setupEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            final PersistentPortalEvent persistentPortalEvent = mock(PersistentPortalEvent.class);
+            when(persistentPortalEvent.getEventData()).thenReturn(Integer.toString(i));
+            persistentPortalEvents.add(persistentPortalEvent);
+            portalEvents.add(mock(PortalEvent.class));
+        }
+
+        final int[] position = {-1};
+        when(results.next())
+                .thenAnswer(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) {
+                                return ++position[0] < persistentPortalEvents.size();
+                            }
+                        });
+        when(results.get(0))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                return persistentPortalEvents.get(position[0]);
+                            }
+                        });
+    }
+}
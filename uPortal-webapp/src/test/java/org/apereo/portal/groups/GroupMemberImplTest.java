@@ -0,0 +1,203 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.naming.CompositeName;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import org.apereo.portal.EntityTypes;
+import org.apereo.portal.IBasicEntity;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.spring.locator.ApplicationContextLocator;
+import org.apereo.portal.spring.locator.EntityTypesLocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationContext;
+
+public class GroupMemberImplTest {
+    private static final String PARENT_GROUPS_CACHE =
+            "org.apereo.portal.groups.GroupMemberImpl.parentGroups";
+    private static final String ANCESTOR_GROUPS_CACHE =
+            "org.apereo.portal.groups.GroupMemberImpl.ancestorGroups";
+    private static final String CHILDREN_CACHE =
+            "org.apereo.portal.groups.EntityGroupImpl.children";
+
+    private ApplicationContextLocator applicationContextLocator;
+    private EntityTypesLocator entityTypesLocator;
+    private Cache parentGroupsCache;
+    private IIndividualGroupService groupService;
+
+    private IEntityGroup group1;
+    private IEntityGroup group2;
+    private IEntityGroup group3;
+    private IGroupMember person;
+    private IGroupMember otherPerson;
+
+    @Before
+    public void setup() throws Exception {
+        final CacheManager cacheManager = CacheManager.getInstance();
+        this.parentGroupsCache = createCache(cacheManager, PARENT_GROUPS_CACHE);
+        createCache(cacheManager, ANCESTOR_GROUPS_CACHE);
+        createCache(cacheManager, CHILDREN_CACHE);
+
+        final ApplicationContext applicationContext = mock(ApplicationContext.class);
+        when(applicationContext.getBean("cacheManager", CacheManager.class))
+                .thenReturn(cacheManager);
+        this.applicationContextLocator = new ApplicationContextLocator(applicationContext);
+        this.applicationContextLocator.afterPropertiesSet();
+
+        final EntityTypes entityTypes = mock(EntityTypes.class);
+        when(entityTypes.getEntityIDFromType(Mockito.<Class<? extends IBasicEntity>>any()))
+                .thenReturn(1);
+        this.entityTypesLocator = new EntityTypesLocator(entityTypes);
+        this.entityTypesLocator.afterPropertiesSet();
+
+        this.groupService =
+                mock(
+                        IIndividualGroupService.class,
+                        withSettings().extraInterfaces(ILockableGroupService.class));
+        when(this.groupService.getServiceName()).thenReturn(new CompositeName("local"));
+        when(this.groupService.findMembers(any(IEntityGroup.class)))
+                .thenReturn(Collections.emptyIterator());
+
+        this.group1 = createGroup(new EntityGroupImpl("local.1", IPerson.class));
+        this.group2 = createGroup(new EntityGroupImpl("local.2", IPerson.class));
+        this.group3 = createGroup(new LockableEntityGroupImpl("local.3", IPerson.class));
+        this.person = new EntityImpl("mock.person", IPerson.class);
+        this.otherPerson = new EntityImpl("other.person", IPerson.class);
+
+        //person -> group1 -> group2, otherPerson -> group3
+        setParentGroups(this.person, this.group1);
+        setParentGroups(this.otherPerson, this.group3);
+        setParentGroups(this.group1, this.group2);
+        setParentGroups(this.group2);
+        setParentGroups(this.group3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.entityTypesLocator.destroy();
+        this.applicationContextLocator.destroy();
+    }
+
+    @Test
+    public void testAncestorGroups() throws Exception {
+        assertEquals(
+                new HashSet<IEntityGroup>(Arrays.asList(this.group1, this.group2)),
+                this.person.getAncestorGroups());
+        assertTrue(this.person.isDeepMemberOf(this.group1));
+        assertTrue(this.person.isDeepMemberOf(this.group2));
+        assertFalse(this.person.isDeepMemberOf(this.group3));
+    }
+
+    @Test
+    public void testUpdateInvalidatesAddedMembers() throws Exception {
+        assertFalse(this.person.isDeepMemberOf(this.group3));
+
+        this.group3.addChild(this.person);
+        this.group3.update();
+        setParentGroups(this.person, this.group1, this.group3);
+        setParentGroups(this.group3);
+
+        assertTrue(this.person.isDeepMemberOf(this.group3));
+    }
+
+    @Test
+    public void testUpdateInvalidatesRemovedMembers() throws Exception {
+        assertTrue(this.person.isDeepMemberOf(this.group1));
+
+        this.group1.removeChild(this.person);
+        this.group1.update();
+        setParentGroups(this.person);
+
+        assertFalse(this.person.isDeepMemberOf(this.group1));
+        assertFalse(this.person.isDeepMemberOf(this.group2));
+    }
+
+    @Test
+    public void testUpdateMembersInvalidatesRemovedMembers() throws Exception {
+        assertTrue(this.otherPerson.isDeepMemberOf(this.group3));
+
+        this.group3.removeChild(this.otherPerson);
+        this.group3.updateMembers();
+        setParentGroups(this.otherPerson);
+
+        assertFalse(this.otherPerson.isDeepMemberOf(this.group3));
+    }
+
+    @Test
+    public void testMovedGroupInvalidatesDescendants() throws Exception {
+        assertTrue(this.person.isDeepMemberOf(this.group2));
+
+        //Only group1's parents change, person's cached parent groups are still correct
+        this.group2.removeChild(this.group1);
+        this.group2.update();
+        this.group3.addChild(this.group1);
+        this.group3.update();
+        setParentGroups(this.group1, this.group3);
+        setParentGroups(this.group3);
+
+        assertFalse(this.person.isDeepMemberOf(this.group2));
+        assertTrue(this.person.isDeepMemberOf(this.group3));
+        assertTrue(this.person.isDeepMemberOf(this.group1));
+    }
+
+    @Test
+    public void testMovedMemberKeepsOtherClosures() throws Exception {
+        final Set<IEntityGroup> ancestorGroups = this.otherPerson.getAncestorGroups();
+
+        this.group1.removeChild(this.person);
+        this.group1.update();
+        setParentGroups(this.person);
+
+        assertSame(ancestorGroups, this.otherPerson.getAncestorGroups());
+    }
+
+    private static Cache createCache(CacheManager cacheManager, String name) {
+        cacheManager.removeCache(name);
+        final Cache cache = new Cache(name, 100, false, false, 0, 0);
+        cacheManager.addCache(cache);
+        return cache;
+    }
+
+    private IEntityGroup createGroup(EntityGroupImpl group) throws GroupsException {
+        group.setLocalGroupService(this.groupService);
+        return group;
+    }
+
+    /** Stands in for the group store, which is read when a member's parent groups are not cached */
+    private void setParentGroups(IGroupMember member, IEntityGroup... parentGroups) {
+        this.parentGroupsCache.put(
+                new Element(
+                        member.getUnderlyingEntityIdentifier(),
+                        new HashSet<IEntityGroup>(Arrays.asList(parentGroups))));
+    }
+}
@@ -44,16 +44,22 @@ public class GroupsCacheAuthenticationListenerTest {
         cacheManager.addCache(childrenCache);
         childrenCache.put(new Element(group.getUnderlyingEntityIdentifier(), new Object()));
 
+        final Cache ancestorGroupsCache = new Cache("ancestorGroupsCache", 100, false, false, 0, 0);
+        cacheManager.addCache(ancestorGroupsCache);
+        ancestorGroupsCache.put(new Element(person.getEntityIdentifier(), new Object()));
+
         Assert.assertEquals(parentGroupsCache.getSize(), 1);
         Assert.assertEquals(childrenCache.getSize(), 1);
 
         final LocalGroupsCacheAuthenticationListener listener =
                 new LocalGroupsCacheAuthenticationListener();
         listener.setParentGroupsCache(parentGroupsCache);
+        listener.setAncestorGroupsCache(ancestorGroupsCache);
         listener.setChildrenCache(childrenCache);
         listener.userAuthenticated(person);
 
         Assert.assertEquals(parentGroupsCache.getSize(), 0);
         Assert.assertEquals(childrenCache.getSize(), 0);
+        Assert.assertEquals(ancestorGroupsCache.getSize(), 0);
     }
 }
@@ -0,0 +1,306 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apereo.portal.layout.dlm.RDBMDistributedLayoutStore;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the rows {@link RDBMUserLayoutStore} writes when only part of a layout changed. */
+public class RDBMUserLayoutStoreTest {
+    private static final int USER_ID = 42;
+    private static final int LAYOUT_ID = 1;
+
+    private RDBMUserLayoutStore layoutStore;
+    private RecordingConnection connection;
+
+    @Before
+    public void setup() {
+        this.layoutStore = new RDBMDistributedLayoutStore();
+        this.connection = new RecordingConnection();
+    }
+
+    @Test
+    public void testAddedRows() throws Exception {
+        final LayoutRows storedRows = new LayoutRows();
+        storedRows.addStruct(folder(1, 0, 2));
+        storedRows.addStruct(channel(2, 0, 10));
+
+        final LayoutRows newRows = new LayoutRows();
+        newRows.addStruct(folder(1, 0, 2));
+        newRows.addStruct(channel(2, 3, 10));
+        newRows.addStruct(channel(3, 0, 11));
+        newRows.addParameter(3, "minimized", "false");
+
+        assertTrue(this.store(storedRows, newRows));
+
+        assertEquals(rows(row(3, 0, 11)), this.structRows("INSERT INTO UP_LAYOUT_STRUCT"));
+        assertEquals(rows(row(2, 3, 10)), this.structRows("UPDATE UP_LAYOUT_STRUCT"));
+        assertEquals(rows(), this.executedRows("DELETE FROM UP_LAYOUT_STRUCT"));
+        assertEquals(
+                rows(row("false", USER_ID, LAYOUT_ID, 3, "minimized")),
+                this.executedRows("INSERT INTO UP_LAYOUT_PARAM"));
+        assertEquals(rows(), this.executedRows("UPDATE UP_LAYOUT_PARAM"));
+        assertEquals(rows(), this.executedRows("DELETE FROM UP_LAYOUT_PARAM"));
+    }
+
+    @Test
+    public void testMovedRow() throws Exception {
+        //Channel 3 moves in front of channel 2
+        final LayoutRows storedRows = new LayoutRows();
+        storedRows.addStruct(folder(1, 0, 2));
+        storedRows.addStruct(channel(2, 3, 10));
+        storedRows.addStruct(channel(3, 0, 11));
+        storedRows.addParameter(2, "minimized", "false");
+
+        final LayoutRows newRows = new LayoutRows();
+        newRows.addStruct(folder(1, 0, 3));
+        newRows.addStruct(channel(2, 0, 10));
+        newRows.addStruct(channel(3, 2, 11));
+        newRows.addParameter(2, "minimized", "true");
+
+        assertTrue(this.store(storedRows, newRows));
+
+        assertEquals(rows(), this.structRows("INSERT INTO UP_LAYOUT_STRUCT"));
+        assertEquals(
+                rows(row(1, 0, 3), row(2, 0, 10), row(3, 2, 11)),
+                this.structRows("UPDATE UP_LAYOUT_STRUCT"));
+        assertEquals(rows(), this.executedRows("DELETE FROM UP_LAYOUT_STRUCT"));
+        assertEquals(rows(), this.executedRows("INSERT INTO UP_LAYOUT_PARAM"));
+        assertEquals(
+                rows(row("true", USER_ID, LAYOUT_ID, 2, "minimized")),
+                this.executedRows("UPDATE UP_LAYOUT_PARAM"));
+        assertEquals(rows(), this.executedRows("DELETE FROM UP_LAYOUT_PARAM"));
+    }
+
+    @Test
+    public void testDeletedRow() throws Exception {
+        final LayoutRows storedRows = new LayoutRows();
+        storedRows.addStruct(folder(1, 0, 2));
+        storedRows.addStruct(channel(2, 3, 10));
+        storedRows.addStruct(channel(3, 0, 11));
+        storedRows.addParameter(3, "minimized", "false");
+
+        final LayoutRows newRows = new LayoutRows();
+        newRows.addStruct(folder(1, 0, 2));
+        newRows.addStruct(channel(2, 0, 10));
+
+        assertTrue(this.store(storedRows, newRows));
+
+        assertEquals(rows(), this.structRows("INSERT INTO UP_LAYOUT_STRUCT"));
+        assertEquals(rows(row(2, 0, 10)), this.structRows("UPDATE UP_LAYOUT_STRUCT"));
+        assertEquals(
+                rows(row(USER_ID, LAYOUT_ID, 3)),
+                this.executedRows("DELETE FROM UP_LAYOUT_STRUCT"));
+        assertEquals(rows(), this.executedRows("INSERT INTO UP_LAYOUT_PARAM"));
+        assertEquals(rows(), this.executedRows("UPDATE UP_LAYOUT_PARAM"));
+        assertEquals(
+                rows(row(USER_ID, LAYOUT_ID, 3, "minimized")),
+                this.executedRows("DELETE FROM UP_LAYOUT_PARAM"));
+    }
+
+    @Test
+    public void testUpdatedRowMissingIsInserted() throws Exception {
+        final LayoutRows storedRows = new LayoutRows();
+        storedRows.addStruct(folder(1, 0, 2));
+        storedRows.addStruct(channel(2, 0, 10));
+        storedRows.addStruct(channel(3, 0, 11));
+        storedRows.addParameter(2, "minimized", "false");
+
+        final LayoutRows newRows = new LayoutRows();
+        newRows.addStruct(folder(1, 0, 3));
+        newRows.addStruct(channel(2, 0, 12));
+        newRows.addStruct(channel(3, 2, 11));
+        newRows.addParameter(2, "minimized", "true");
+
+        //Another save removed channel 2 after the stored rows were loaded
+        this.connection.missingStructIds.add(2);
+
+        assertTrue(this.store(storedRows, newRows));
+
+        assertEquals(
+                rows(row(1, 0, 3), row(2, 0, 12), row(3, 2, 11)),
+                this.structRows("UPDATE UP_LAYOUT_STRUCT"));
+        assertEquals(rows(row(2, 0, 12)), this.structRows("INSERT INTO UP_LAYOUT_STRUCT"));
+        assertEquals(
+                rows(row("true", USER_ID, LAYOUT_ID, 2, "minimized")),
+                this.executedRows("UPDATE UP_LAYOUT_PARAM"));
+        assertEquals(
+                rows(row("true", USER_ID, LAYOUT_ID, 2, "minimized")),
+                this.executedRows("INSERT INTO UP_LAYOUT_PARAM"));
+    }
+
+    @Test
+    public void testUnchangedRows() throws Exception {
+        final LayoutRows storedRows = new LayoutRows();
+        storedRows.addStruct(folder(1, 0, 2));
+        storedRows.addStruct(channel(2, 0, 10));
+        storedRows.addParameter(2, "minimized", "false");
+
+        final LayoutRows newRows = new LayoutRows();
+        newRows.addStruct(folder(1, 0, 2));
+        newRows.addStruct(channel(2, 0, 10));
+        newRows.addParameter(2, "minimized", "false");
+
+        assertFalse(this.store(storedRows, newRows));
+
+        assertEquals(0, this.connection.executedSql.size());
+    }
+
+    private boolean store(LayoutRows storedRows, LayoutRows newRows) throws Exception {
+        return this.layoutStore.storeLayoutRowChanges(
+                this.connection.getConnection(), USER_ID, LAYOUT_ID, storedRows, newRows);
+    }
+
+    private List<List<Object>> executedRows(String sqlPrefix) {
+        return this.connection.getExecutedRows(sqlPrefix);
+    }
+
+    /** @return STRUCT_ID, NEXT_STRUCT_ID and CHLD_STRUCT_ID or CHAN_ID of the executed rows */
+    private List<List<Object>> structRows(String sqlPrefix) {
+        final List<List<Object>> structRows = new ArrayList<List<Object>>();
+        for (final List<Object> executedRow : this.executedRows(sqlPrefix)) {
+            assertEquals(USER_ID, executedRow.get(9));
+            assertEquals(LAYOUT_ID, executedRow.get(10));
+            final Object chanId = executedRow.get(3);
+            structRows.add(
+                    row(
+                            executedRow.get(11),
+                            executedRow.get(0),
+                            chanId != null ? chanId : executedRow.get(1)));
+        }
+        return structRows;
+    }
+
+    private static LayoutRows.StructRow folder(int structId, int nextStructId, int childStructId) {
+        return new LayoutRows.StructRow(
+                structId, nextStructId, childStructId, null, null, "Tab", "regular", "N", "N", "N");
+    }
+
+    private static LayoutRows.StructRow channel(int structId, int nextStructId, int chanId) {
+        return new LayoutRows.StructRow(
+                structId, nextStructId, 0, null, chanId, "Portlet", null, "N", "N", "N");
+    }
+
+    private static List<Object> row(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    @SafeVarargs
+    private static List<List<Object>> rows(List<Object>... rows) {
+        return Arrays.asList(rows);
+    }
+
+    /**
+     * Connection that records the parameters of every row in an executed batch. Every statement
+     * changes one row, except for updates to the structs and parameters of {@link
+     * #missingStructIds}.
+     */
+    private static final class RecordingConnection implements InvocationHandler {
+        private final Set<Integer> missingStructIds = new HashSet<Integer>();
+        private final List<String> executedSql = new ArrayList<String>();
+        private final List<List<Object>> executedRows = new ArrayList<List<Object>>();
+
+        Connection getConnection() {
+            return (Connection)
+                    Proxy.newProxyInstance(
+                            Connection.class.getClassLoader(),
+                            new Class<?>[] {Connection.class},
+                            this);
+        }
+
+        /** @return Rows executed by statements starting with the SQL prefix, in order */
+        List<List<Object>> getExecutedRows(String sqlPrefix) {
+            final List<List<Object>> rows = new ArrayList<List<Object>>();
+            for (int i = 0; i < this.executedSql.size(); i++) {
+                if (this.executedSql.get(i).startsWith(sqlPrefix)) {
+                    rows.add(this.executedRows.get(i));
+                }
+            }
+            return rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("prepareStatement".equals(method.getName())) {
+                return Proxy.newProxyInstance(
+                        PreparedStatement.class.getClassLoader(),
+                        new Class<?>[] {PreparedStatement.class},
+                        new RecordingStatement((String) args[0]));
+            }
+            return null;
+        }
+
+        private final class RecordingStatement implements InvocationHandler {
+            private final String sql;
+            private final TreeMap<Integer, Object> parameters = new TreeMap<Integer, Object>();
+            private final List<List<Object>> batch = new ArrayList<List<Object>>();
+
+            RecordingStatement(String sql) {
+                this.sql = sql;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                final String name = method.getName();
+                if ("setNull".equals(name)) {
+                    this.parameters.put((Integer) args[0], null);
+                } else if (name.startsWith("set")) {
+                    this.parameters.put((Integer) args[0], args[1]);
+                } else if ("addBatch".equals(name)) {
+                    this.batch.add(new ArrayList<Object>(this.parameters.values()));
+                    this.parameters.clear();
+                } else if ("executeBatch".equals(name)) {
+                    final int[] updateCounts = new int[this.batch.size()];
+                    for (int i = 0; i < updateCounts.length; i++) {
+                        final List<Object> row = this.batch.get(i);
+                        updateCounts[i] = this.isMissing(row) ? 0 : 1;
+                        executedSql.add(this.sql);
+                        executedRows.add(row);
+                    }
+                    this.batch.clear();
+                    return updateCounts;
+                }
+                return null;
+            }
+
+            /** STRUCT_ID is the last UP_LAYOUT_STRUCT and the fourth UP_LAYOUT_PARAM parameter */
+            private boolean isMissing(List<Object> row) {
+                if (this.sql.startsWith("UPDATE UP_LAYOUT_STRUCT")) {
+                    return missingStructIds.contains(row.get(11));
+                }
+                if (this.sql.startsWith("UPDATE UP_LAYOUT_PARAM")) {
+                    return missingStructIds.contains(row.get(3));
+                }
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for {@link CachedPortletOutput}. */
+public class CachedPortletOutputTest {
+
+    @Test
+    public void testCharacterDataShared() {
+        final CachedPortletOutput first = CachedPortletOutput.create("<p>Simple content</p>");
+        final String copy = new StringBuilder("<p>Simple ").append("content</p>").toString();
+        final CachedPortletOutput second = CachedPortletOutput.create(copy);
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals("<p>Simple content</p>", second.getCharacterData());
+        Assert.assertNull(second.getByteData());
+    }
+
+    @Test
+    public void testByteDataShared() {
+        final CachedPortletOutput first = CachedPortletOutput.create(new byte[] {1, 2, 3});
+        final CachedPortletOutput second = CachedPortletOutput.create(new byte[] {1, 2, 3});
+        final CachedPortletOutput other = CachedPortletOutput.create(new byte[] {1, 2, 4});
+
+        Assert.assertSame(first, second);
+        Assert.assertNotSame(first, other);
+        Assert.assertEquals(3, second.getLength());
+    }
+
+    @Test
+    public void testNullOutput() {
+        Assert.assertNull(CachedPortletOutput.create((String) null));
+        Assert.assertNull(CachedPortletOutput.create((byte[]) null));
+    }
+
+    @Test
+    public void testDeserializedShared() throws Exception {
+        final CachedPortletOutput output = CachedPortletOutput.create("<p>Serialized</p>");
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(output);
+        out.close();
+        final ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        Assert.assertSame(output, in.readObject());
+    }
+
+    @Test
+    public void testCachedPortletDataShared() {
+        final CachedPortletData<Long> first =
+                new CachedPortletData<Long>(1L, null, new byte[] {1, 2, 3}, null, true, null, -1);
+        final CachedPortletData<Long> second =
+                new CachedPortletData<Long>(2L, null, new byte[] {1, 2, 3}, null, true, null, -1);
+
+        Assert.assertSame(first.getCachedStreamOutput(), second.getCachedStreamOutput());
+        Assert.assertNull(second.getCachedWriterOutput());
+    }
+
+    @Test
+    public void testLargeCharacterDataOffHeap() {
+        final OffHeapOutputStore store = new OffHeapOutputStore(1024 * 1024);
+        final String content = largeContent();
+
+        final CachedPortletOutput first = CachedPortletOutput.create(content, store);
+        final CachedPortletOutput second =
+                CachedPortletOutput.create(new StringBuilder(content).toString(), store);
+
+        Assert.assertTrue(first.isOffHeap());
+        Assert.assertTrue(second.isOffHeap());
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(content, second.getCharacterData());
+        Assert.assertEquals(content.length(), second.getLength());
+        Assert.assertNull(second.getByteData());
+        Assert.assertEquals(1, store.getBufferCount());
+        Assert.assertEquals(content.getBytes(StandardCharsets.UTF_8).length, store.getSize());
+    }
+
+    @Test
+    public void testOffHeapSizeLimit() {
+        final OffHeapOutputStore store = new OffHeapOutputStore(1500);
+        final byte[] firstData = new byte[1200];
+        final byte[] secondData = new byte[1200];
+        Arrays.fill(secondData, (byte) 1);
+
+        final CachedPortletOutput first = CachedPortletOutput.create(firstData, store);
+        final CachedPortletOutput second = CachedPortletOutput.create(secondData, store);
+
+        Assert.assertTrue(first.isOffHeap());
+        Assert.assertFalse(second.isOffHeap());
+        Assert.assertArrayEquals(firstData, first.getByteData());
+        Assert.assertArrayEquals(secondData, second.getByteData());
+        Assert.assertEquals(1200, store.getSize());
+    }
+
+    @Test
+    public void testOffHeapReleased() throws Exception {
+        final OffHeapOutputStore store = new OffHeapOutputStore(1024 * 1024);
+        CachedPortletOutput.create(largeContent(), store);
+        Assert.assertEquals(1, store.getBufferCount());
+
+        for (int i = 0; i < 50 && store.getBufferCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, store.getBufferCount());
+        Assert.assertEquals(0, store.getSize());
+    }
+
+    @Test
+    public void testOffHeapSerialized() throws Exception {
+        final OffHeapOutputStore store = new OffHeapOutputStore(1024 * 1024);
+        final String content = largeContent();
+        final CachedPortletOutput output = CachedPortletOutput.create(content, store);
+        Assert.assertTrue(output.isOffHeap());
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(output);
+        out.close();
+        final ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        final CachedPortletOutput read = (CachedPortletOutput) in.readObject();
+        Assert.assertEquals(content, read.getCharacterData());
+    }
+
+    private static String largeContent() {
+        final StringBuilder content = new StringBuilder();
+        while (content.length() < 2 * CachedPortletOutput.MIN_OFF_HEAP_SIZE) {
+            content.append("<p>Caf\u00e9 content</p>");
+        }
+        return content.toString();
+    }
+}
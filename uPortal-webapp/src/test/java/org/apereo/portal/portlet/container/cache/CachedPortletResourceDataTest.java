@@ -0,0 +1,158 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apereo.portal.portlet.rendering.ResourcePortletOutputHandler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/** Tests for the gzip compressed copy of {@link CachedPortletResourceData}. */
+public class CachedPortletResourceDataTest {
+    private static final String CONTENT = createContent();
+
+    @Test
+    public void testGzipReplay() throws IOException {
+        final CachedPortletResourceData<Long> cachedData = this.cacheOutput("text/html", true);
+        Assert.assertNotNull(cachedData.getGzipOutput());
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        cachedData.replay(new ResourcePortletOutputHandler(response), true);
+
+        Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        Assert.assertEquals("123456-gzip", response.getHeader("ETag"));
+        final byte[] body = response.getContentAsByteArray();
+        Assert.assertEquals(body.length, response.getContentLength());
+        Assert.assertEquals(
+                CONTENT,
+                IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(body)), "UTF-8"));
+    }
+
+    @Test
+    public void testIdentityReplay() throws IOException {
+        final CachedPortletResourceData<Long> cachedData = this.cacheOutput("text/html", true);
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        cachedData.replay(new ResourcePortletOutputHandler(response), false);
+
+        Assert.assertNull(response.getHeader("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        Assert.assertEquals("123456", response.getHeader("ETag"));
+        Assert.assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    @Test
+    public void testNotModifiedHeaders() throws IOException {
+        final CachedPortletResourceData<Long> cachedData = this.cacheOutput("text/html", true);
+
+        final MockHttpServletResponse gzipResponse = new MockHttpServletResponse();
+        cachedData.setCachingHeaders(new ResourcePortletOutputHandler(gzipResponse), true);
+        Assert.assertEquals("Accept-Encoding", gzipResponse.getHeader("Vary"));
+        Assert.assertEquals("123456-gzip", gzipResponse.getHeader("ETag"));
+
+        final MockHttpServletResponse identityResponse = new MockHttpServletResponse();
+        cachedData.setCachingHeaders(new ResourcePortletOutputHandler(identityResponse), false);
+        Assert.assertEquals("Accept-Encoding", identityResponse.getHeader("Vary"));
+        Assert.assertEquals("123456", identityResponse.getHeader("ETag"));
+    }
+
+    @Test
+    public void testUncompressedKeepsETag() throws IOException {
+        final CachedPortletResourceData<Long> cachedData = this.cacheOutput("image/png", true);
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        cachedData.replay(new ResourcePortletOutputHandler(response), true);
+
+        Assert.assertNull(response.getHeader("Content-Encoding"));
+        Assert.assertNull(response.getHeader("Vary"));
+        Assert.assertEquals("123456", response.getHeader("ETag"));
+    }
+
+    @Test
+    public void testFirstRenderVary() throws IOException {
+        final MockHttpServletResponse textResponse = new MockHttpServletResponse();
+        this.cacheOutput(textResponse, "text/html", true);
+        Assert.assertEquals("Accept-Encoding", textResponse.getHeader("Vary"));
+
+        final MockHttpServletResponse binaryResponse = new MockHttpServletResponse();
+        this.cacheOutput(binaryResponse, "image/png", true);
+        Assert.assertNull(binaryResponse.getHeader("Vary"));
+    }
+
+    @Test
+    public void testGzipETag() {
+        Assert.assertEquals("123456-gzip", PortletCachingHeaderUtils.getGzipETag("123456"));
+        Assert.assertEquals(
+                "\"123456-gzip\"", PortletCachingHeaderUtils.getGzipETag("\"123456\""));
+        Assert.assertEquals(
+                "W/\"123456-gzip\"", PortletCachingHeaderUtils.getGzipETag("W/\"123456\""));
+    }
+
+    @Test
+    public void testPrivateNotCompressed() throws IOException {
+        Assert.assertNull(this.cacheOutput("text/html", false).getGzipOutput());
+    }
+
+    @Test
+    public void testBinaryNotCompressed() throws IOException {
+        Assert.assertNull(this.cacheOutput("image/png", true).getGzipOutput());
+    }
+
+    @Test
+    public void testGzipAccepted() {
+        Assert.assertTrue(PortletCachingHeaderUtils.isGzipAccepted("gzip, deflate, br"));
+        Assert.assertTrue(PortletCachingHeaderUtils.isGzipAccepted("br;q=1.0, gzip;q=0.8"));
+        Assert.assertTrue(PortletCachingHeaderUtils.isGzipAccepted("*"));
+        Assert.assertFalse(PortletCachingHeaderUtils.isGzipAccepted("gzip;q=0, *"));
+        Assert.assertFalse(PortletCachingHeaderUtils.isGzipAccepted("identity"));
+        Assert.assertFalse(PortletCachingHeaderUtils.isGzipAccepted(null));
+    }
+
+    private CachedPortletResourceData<Long> cacheOutput(String contentType, boolean publicScope)
+            throws IOException {
+        return this.cacheOutput(new MockHttpServletResponse(), contentType, publicScope);
+    }
+
+    private CachedPortletResourceData<Long> cacheOutput(
+            MockHttpServletResponse response, String contentType, boolean publicScope)
+            throws IOException {
+        final CachingPortletResourceOutputHandler cachingOutputHandler =
+                new CachingPortletResourceOutputHandler(
+                        new ResourcePortletOutputHandler(response), 100000, 1024);
+        cachingOutputHandler.setContentType(contentType);
+        final OutputStream outputStream = cachingOutputHandler.getOutputStream();
+        outputStream.write(CONTENT.getBytes("UTF-8"));
+        outputStream.flush();
+
+        final CacheControlImpl cacheControl = new CacheControlImpl();
+        cacheControl.setPublicScope(publicScope);
+        cacheControl.setETag("123456");
+        return cachingOutputHandler.getCachedPortletResourceData(1L, cacheControl);
+    }
+
+    private static String createContent() {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append("<li class=\"entry\">Entry ").append(i).append("</li>");
+        }
+        return content.toString();
+    }
+}
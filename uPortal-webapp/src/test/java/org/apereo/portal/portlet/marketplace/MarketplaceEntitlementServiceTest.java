@@ -0,0 +1,229 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.marketplace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.PortletLifecycleState;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.PermissionsUpdatedEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class MarketplaceEntitlementServiceTest {
+    private static final String CACHE_NAME = "marketplaceGroupEntitlementsCache";
+
+    private MarketplaceEntitlementService entitlementService;
+    private IAuthorizationService authorizationService;
+    private IEntityGroup staff;
+    private IAuthorizationPrincipal alicePrincipal;
+    private IPortletDefinition weather;
+    private IPortletDefinition admin;
+    private List<IPortletDefinition> portlets;
+
+    @Before
+    public void setup() {
+        final CacheManager cacheManager = CacheManager.getInstance();
+        cacheManager.removeCache(CACHE_NAME);
+        final Cache cache = new Cache(CACHE_NAME, 100, false, false, 0, 0);
+        cacheManager.addCache(cache);
+
+        this.authorizationService = mock(IAuthorizationService.class);
+        this.entitlementService = new MarketplaceEntitlementService();
+        this.entitlementService.setAuthorizationService(this.authorizationService);
+        this.entitlementService.setGroupEntitlementsCache(cache);
+
+        this.staff = mock(IEntityGroup.class);
+        when(this.staff.getKey()).thenReturn("local.staff");
+
+        this.weather = createPortlet("1", PortletLifecycleState.PUBLISHED);
+        this.admin = createPortlet("2", PortletLifecycleState.PUBLISHED);
+        this.portlets = Arrays.asList(this.weather, this.admin);
+
+        this.alicePrincipal = createPrincipal("alice", false);
+        when(this.alicePrincipal.hasPermission(
+                        IPermission.PORTAL_SUBSCRIBE,
+                        IPermission.PORTLET_BROWSE_ACTIVITY,
+                        IPermission.PORTLET_PREFIX + "1"))
+                .thenReturn(true);
+        when(this.authorizationService.canPrincipalSubscribe(this.alicePrincipal, "1"))
+                .thenReturn(true);
+    }
+
+    @Test
+    public void testEntitlementsSharedByGroup() {
+        assertEquals(
+                Collections.singletonMap(this.weather, true),
+                this.entitlementService.getBrowseablePortlets(createUser("alice"), this.portlets));
+
+        //bob has no permissions of his own, his answers come from alice's evaluation
+        createPrincipal("bob", false);
+        assertEquals(
+                Collections.singletonMap(this.weather, true),
+                this.entitlementService.getBrowseablePortlets(createUser("bob"), this.portlets));
+    }
+
+    @Test
+    public void testPersonalPermissionsNotShared() {
+        this.entitlementService.getBrowseablePortlets(createUser("alice"), this.portlets);
+
+        createPrincipal("carol", true);
+        assertTrue(
+                this.entitlementService
+                        .getBrowseablePortlets(createUser("carol"), this.portlets)
+                        .isEmpty());
+    }
+
+    @Test
+    public void testPermissionChangeUpdatesAffectedPortlet() {
+        final IPerson alice = createUser("alice");
+        this.entitlementService.getBrowseablePortlets(alice, this.portlets);
+
+        when(this.alicePrincipal.hasPermission(
+                        IPermission.PORTAL_SUBSCRIBE,
+                        IPermission.PORTLET_BROWSE_ACTIVITY,
+                        IPermission.PORTLET_PREFIX + "1"))
+                .thenReturn(false);
+        when(this.alicePrincipal.hasPermission(
+                        IPermission.PORTAL_SUBSCRIBE,
+                        IPermission.PORTLET_BROWSE_ACTIVITY,
+                        IPermission.PORTLET_PREFIX + "2"))
+                .thenReturn(true);
+
+        //Nothing is re-evaluated until the change is published
+        assertEquals(
+                Collections.singletonMap(this.weather, true),
+                this.entitlementService.getBrowseablePortlets(alice, this.portlets));
+
+        final IPermission permission = mock(IPermission.class);
+        when(permission.getOwner()).thenReturn(IPermission.PORTAL_SUBSCRIBE);
+        when(permission.getTarget()).thenReturn(IPermission.PORTLET_PREFIX + "2");
+        final IAuthorizationPrincipal staffPrincipal = mock(IAuthorizationPrincipal.class);
+        when(staffPrincipal.getKey()).thenReturn("local.staff");
+        when(this.authorizationService.getPrincipal(permission)).thenReturn(staffPrincipal);
+        this.entitlementService.onApplicationEvent(
+                new PermissionsUpdatedEvent(this, new IPermission[] {permission}));
+
+        //Only the changed portlet is re-evaluated
+        final Map<IPortletDefinition, Boolean> browseable =
+                this.entitlementService.getBrowseablePortlets(alice, this.portlets);
+        assertEquals(2, browseable.size());
+        assertEquals(Boolean.TRUE, browseable.get(this.weather));
+        assertEquals(Boolean.FALSE, browseable.get(this.admin));
+    }
+
+    @Test
+    public void testChangeDuringEvaluationNotKept() {
+        final IPerson alice = createUser("alice");
+        final IPermission permission = mock(IPermission.class);
+        when(permission.getOwner()).thenReturn(IPermission.PORTAL_SUBSCRIBE);
+        when(permission.getTarget()).thenReturn(IPermission.PORTLET_PREFIX + "1");
+        final IAuthorizationPrincipal staffPrincipal = mock(IAuthorizationPrincipal.class);
+        when(staffPrincipal.getKey()).thenReturn("local.staff");
+        when(this.authorizationService.getPrincipal(permission)).thenReturn(staffPrincipal);
+
+        //The change is published after the old answer was read
+        when(this.alicePrincipal.hasPermission(
+                        IPermission.PORTAL_SUBSCRIBE,
+                        IPermission.PORTLET_BROWSE_ACTIVITY,
+                        IPermission.PORTLET_PREFIX + "1"))
+                .thenAnswer(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) {
+                                entitlementService.onApplicationEvent(
+                                        new PermissionsUpdatedEvent(
+                                                this, new IPermission[] {permission}));
+                                return true;
+                            }
+                        })
+                .thenReturn(false);
+
+        assertEquals(
+                Collections.singletonMap(this.weather, true),
+                this.entitlementService.getBrowseablePortlets(alice, this.portlets));
+
+        //The answer read before the change was not kept
+        assertTrue(this.entitlementService.getBrowseablePortlets(alice, this.portlets).isEmpty());
+    }
+
+    @Test
+    public void testLifecycleChangeReevaluatesPortlet() {
+        final IPerson alice = createUser("alice");
+        this.entitlementService.getBrowseablePortlets(alice, this.portlets);
+
+        when(this.authorizationService.canPrincipalSubscribe(this.alicePrincipal, "1"))
+                .thenReturn(false);
+        when(this.weather.getLifecycleState()).thenReturn(PortletLifecycleState.EXPIRED);
+
+        assertEquals(
+                Collections.singletonMap(this.weather, false),
+                this.entitlementService.getBrowseablePortlets(alice, this.portlets));
+    }
+
+    private IAuthorizationPrincipal createPrincipal(String username, boolean personalPermissions) {
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        when(principal.getKey()).thenReturn(username);
+        when(this.authorizationService.newPrincipal(username, IPerson.class)).thenReturn(principal);
+
+        final IGroupMember member = mock(IGroupMember.class);
+        when(member.getAncestorGroups()).thenReturn(Collections.singleton(this.staff));
+        when(this.authorizationService.getGroupMember(principal)).thenReturn(member);
+
+        final IPermission[] permissions =
+                personalPermissions
+                        ? new IPermission[] {mock(IPermission.class)}
+                        : new IPermission[0];
+        when(this.authorizationService.getPermissionsForPrincipal(
+                        principal, IPermission.PORTAL_SUBSCRIBE, null, null))
+                .thenReturn(permissions);
+        return principal;
+    }
+
+    private static IPerson createUser(String username) {
+        final IPerson user = mock(IPerson.class);
+        when(user.getEntityIdentifier()).thenReturn(new EntityIdentifier(username, IPerson.class));
+        when(user.isGuest()).thenReturn(false);
+        return user;
+    }
+
+    private static IPortletDefinition createPortlet(String id, PortletLifecycleState state) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portletDefinition.getLifecycleState()).thenReturn(state);
+        return portletDefinition;
+    }
+}
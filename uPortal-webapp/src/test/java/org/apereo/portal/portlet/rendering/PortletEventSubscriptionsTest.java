@@ -0,0 +1,60 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.junit.Test;
+
+public class PortletEventSubscriptionsTest {
+    private static final QName SEARCH_REQUEST =
+            new QName("https://source.jasig.org/schemas/uportal/search", "SearchRequest");
+    private static final QName SEARCH_RESULTS =
+            new QName("https://source.jasig.org/schemas/uportal/search", "SearchResults");
+
+    @Test
+    public void testSubscribersInLayoutOrder() {
+        final Set<String> layoutNodeIds = ImmutableSet.of("n1", "n2", "n3");
+        final PortletEventSubscriptions subscriptions =
+                new PortletEventSubscriptions("key", layoutNodeIds);
+        subscriptions.addSubscriber("n1", ImmutableSet.of(SEARCH_REQUEST, SEARCH_RESULTS));
+        subscriptions.addSubscriber("n3", ImmutableSet.of(SEARCH_REQUEST));
+
+        assertEquals(Arrays.asList("n1", "n3"), subscriptions.getSubscribers(SEARCH_REQUEST));
+        assertEquals(Arrays.asList("n1"), subscriptions.getSubscribers(SEARCH_RESULTS));
+        assertEquals(
+                Collections.emptyList(), subscriptions.getSubscribers(new QName("other", "Event")));
+    }
+
+    @Test
+    public void testIsIndexOf() {
+        final PortletEventSubscriptions subscriptions =
+                new PortletEventSubscriptions("key", ImmutableSet.of("n1", "n2"));
+
+        assertTrue(subscriptions.isIndexOf("key", ImmutableSet.of("n1", "n2")));
+        assertFalse(subscriptions.isIndexOf("changed", ImmutableSet.of("n1", "n2")));
+        assertFalse(subscriptions.isIndexOf("key", ImmutableSet.of("n1", "n2", "n4")));
+        assertFalse(
+                new PortletEventSubscriptions(null, ImmutableSet.of("n1"))
+                        .isIndexOf(null, ImmutableSet.of("n1")));
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PortletLatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            final int index = PortletLatencyHistogram.getIndex(value);
+            final long upperBound = PortletLatencyHistogram.getUpperBound(index);
+            assertTrue(value + " > " + upperBound, value <= upperBound);
+            assertTrue(value + " bucket too wide", upperBound - value <= value / 16);
+            if (index > 0) {
+                assertTrue(value > PortletLatencyHistogram.getUpperBound(index - 1));
+            }
+        }
+        assertEquals(
+                PortletLatencyHistogram.MAX_VALUE,
+                PortletLatencyHistogram.getUpperBound(
+                        PortletLatencyHistogram.getIndex(PortletLatencyHistogram.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final PortletLatencyHistogram histogram = new PortletLatencyHistogram(10000);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordValue(i);
+        }
+
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(1000, histogram.getMaxValue());
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertPercentile(500, histogram.getValueAtPercentile(50));
+        assertPercentile(990, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testWindows() {
+        final PortletLatencyHistogram histogram = new PortletLatencyHistogram(100);
+
+        for (int i = 0; i < 100; i++) {
+            histogram.recordValue(5000);
+        }
+        for (int i = 0; i < 50; i++) {
+            histogram.recordValue(50);
+        }
+        //Previous window of slow executions is still counted
+        assertEquals(150, histogram.getTotalCount());
+        assertPercentile(5000, histogram.getValueAtPercentile(99));
+
+        for (int i = 0; i < 100; i++) {
+            histogram.recordValue(50);
+        }
+        //Slow executions have aged out
+        assertEquals(150, histogram.getTotalCount());
+        assertPercentile(50, histogram.getValueAtPercentile(99));
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        assertTrue(
+                "expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,456 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class PortletWorkerSchedulerTest {
+    private ExecutorService threadPool;
+    private PortletWorkerScheduler scheduler;
+
+    @Before
+    public void setup() {
+        this.threadPool = Executors.newCachedThreadPool();
+        this.scheduler = new PortletWorkerScheduler();
+        this.scheduler.setExecutorService(this.threadPool);
+        this.scheduler.setMaxThreads(4);
+        this.scheduler.setMaxThreadsPerPortlet(1);
+    }
+
+    @After
+    public void teardown() {
+        this.threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testPerPortletLimit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestWorker a1 = new TestWorker("a", release);
+        final TestWorker a2 = new TestWorker("a", release);
+        final TestWorker b1 = new TestWorker("b", release);
+
+        final Future<String> fa1 = this.scheduler.submit(a1);
+        final Future<String> fa2 = this.scheduler.submit(a2);
+        final Future<String> fb1 = this.scheduler.submit(b1);
+
+        assertTrue(a1.started.await(1, TimeUnit.SECONDS));
+        assertTrue(b1.started.await(1, TimeUnit.SECONDS));
+
+        //The second worker for "a" waits behind the first even though threads are available
+        final Map<String, Integer> activeCounts = this.scheduler.getActiveCounts();
+        assertEquals(Integer.valueOf(1), activeCounts.get("a"));
+        assertEquals(Integer.valueOf(1), activeCounts.get("b"));
+        assertEquals(1, this.scheduler.getQueuedCount());
+        assertEquals(2, this.scheduler.getActiveCount());
+
+        release.countDown();
+        assertEquals("a", fa1.get(1, TimeUnit.SECONDS));
+        assertEquals("a", fa2.get(1, TimeUnit.SECONDS));
+        assertEquals("b", fb1.get(1, TimeUnit.SECONDS));
+
+        this.scheduler.shutdown();
+        assertTrue(this.scheduler.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        this.scheduler.setMaxThreads(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestWorker blocker = new TestWorker("blocker", release);
+        this.scheduler.submit(blocker);
+        assertTrue(blocker.started.await(1, TimeUnit.SECONDS));
+
+        final StringBuffer order = new StringBuffer();
+        this.scheduler.submit(new TestWorker("a", order));
+        this.scheduler.submit(new TestWorker("a", order));
+        this.scheduler.submit(new TestWorker("a", order));
+        final Future<String> last = this.scheduler.submit(new TestWorker("b", order));
+
+        release.countDown();
+        last.get(1, TimeUnit.SECONDS);
+
+        //"b" is not stuck behind every queued "a" worker
+        assertTrue(order.toString(), order.indexOf("b") < 3);
+    }
+
+    @Test
+    public void testLatencyFastFail() throws Exception {
+        this.scheduler.setLatencyThreshold(10);
+
+        final TestWorker slow = new TestWorker("slow", new CountDownLatch(0));
+        slow.sleep = 50;
+        this.scheduler.submit(slow).get(1, TimeUnit.SECONDS);
+        this.awaitIdle();
+        assertTrue(this.scheduler.getRecentExecutionTimes().get("slow") >= 50);
+
+        //A single worker is still allowed through to measure recovery
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestWorker probe = new TestWorker("slow", release);
+        final Future<String> probeFuture = this.scheduler.submit(probe);
+        assertTrue(probe.started.await(1, TimeUnit.SECONDS));
+
+        try {
+            this.scheduler.submit(new TestWorker("slow", release));
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            //Expected
+        }
+        assertEquals(1, this.scheduler.getFastFailCount());
+
+        final Future<String> other = this.scheduler.submit(new TestWorker("other", release));
+        release.countDown();
+        assertEquals("other", other.get(1, TimeUnit.SECONDS));
+        assertEquals("slow", probeFuture.get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A pool thread is still busy after its last worker until it is back in the pool, a worker
+     * handed off in that window waits for it instead of being rejected.
+     */
+    @Test
+    public void testHandoffToReturningThread() throws Exception {
+        final CountDownLatch returning = new CountDownLatch(1);
+        final CountDownLatch returned = new CountDownLatch(1);
+        final ThreadPoolExecutor threadPool =
+                new ThreadPoolExecutor(
+                        1, 1, 300, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(1)) {
+                    @Override
+                    protected void afterExecute(Runnable r, Throwable t) {
+                        returning.countDown();
+                        try {
+                            returned.await(1, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                };
+        final PortletWorkerScheduler scheduler = new PortletWorkerScheduler();
+        scheduler.setExecutorService(threadPool);
+        scheduler.setMaxThreads(1);
+        scheduler.afterPropertiesSet();
+
+        try {
+            final TestWorker first = new TestWorker("a", new CountDownLatch(0));
+            assertEquals("a", scheduler.submit(first).get(1, TimeUnit.SECONDS));
+            assertTrue(returning.await(1, TimeUnit.SECONDS));
+
+            //The slot is free but the only pool thread has not returned yet
+            assertEquals(0, scheduler.getActiveCount());
+            final TestWorker second = new TestWorker("b", new CountDownLatch(0));
+            final Future<String> secondFuture = scheduler.submit(second);
+            returned.countDown();
+            assertEquals("b", secondFuture.get(1, TimeUnit.SECONDS));
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCanRejectHandoff() {
+        //portletThreadPool before workers were scheduled
+        final ThreadPoolExecutor handoffPool =
+                new ThreadPoolExecutor(
+                        5, 150, 300, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        final ThreadPoolExecutor queueingPool =
+                new ThreadPoolExecutor(
+                        150, 150, 300, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(150));
+        try {
+            assertTrue(PortletWorkerScheduler.canRejectHandoff(handoffPool, 150));
+            assertFalse(PortletWorkerScheduler.canRejectHandoff(handoffPool, 75));
+            assertFalse(PortletWorkerScheduler.canRejectHandoff(queueingPool, 150));
+            assertTrue(PortletWorkerScheduler.canRejectHandoff(queueingPool, 200));
+            assertFalse(
+                    PortletWorkerScheduler.canRejectHandoff(
+                            (ThreadPoolExecutor) this.threadPool, 150));
+        } finally {
+            handoffPool.shutdown();
+            queueingPool.shutdown();
+        }
+    }
+
+    /**
+     * With virtual threads the thread limit is virtualThreadMaxThreads instead of the size of
+     * portletThreadPool, and the pool is not used. A cached pool stands in for the virtual thread
+     * executor so this runs on JVMs without virtual threads.
+     */
+    @Test
+    public void testVirtualThreadLimit() throws Exception {
+        final ExecutorService virtualThreadExecutor = Executors.newCachedThreadPool();
+        final ThreadPoolExecutor portletThreadPool =
+                new ThreadPoolExecutor(
+                        2, 2, 300, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(2));
+        final PortletWorkerScheduler virtual =
+                new PortletWorkerScheduler() {
+                    @Override
+                    ExecutorService newVirtualThreadExecutor() {
+                        return virtualThreadExecutor;
+                    }
+                };
+        virtual.setExecutorService(portletThreadPool);
+        virtual.setMaxThreads(2);
+        virtual.setVirtualThreads(true);
+        virtual.setVirtualThreadMaxThreads(20);
+        virtual.setMaxThreadsPerPortlet(0);
+        virtual.afterPropertiesSet();
+        assertTrue(virtual.isVirtualThreads());
+        assertEquals(20, virtual.getMaxThreads());
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<TestWorker> workers = new ArrayList<TestWorker>();
+        final List<Future<String>> futures = new ArrayList<Future<String>>();
+        try {
+            for (int i = 0; i < 25; i++) {
+                final TestWorker worker = new TestWorker("portlet" + (i % 5), release);
+                workers.add(worker);
+                futures.add(virtual.submit(worker));
+            }
+
+            //Slots are free so workers are dispatched in the order they are submitted
+            for (final TestWorker worker : workers.subList(0, 20)) {
+                assertTrue(worker.started.await(1, TimeUnit.SECONDS));
+            }
+            assertEquals(20, virtual.getActiveCount());
+            assertEquals(5, virtual.getQueuedCount());
+            assertEquals(0, portletThreadPool.getTaskCount());
+
+            release.countDown();
+            for (final Future<String> future : futures) {
+                future.get(1, TimeUnit.SECONDS);
+            }
+            assertEquals(0, portletThreadPool.getTaskCount());
+        } finally {
+            release.countDown();
+            portletThreadPool.shutdownNow();
+            virtual.destroy();
+        }
+    }
+
+    /** Virtual threads are named like the pool threads, skipped on JVMs without them */
+    @Test
+    public void testVirtualThreadExecutor() throws Exception {
+        final ExecutorService executor =
+                PortletWorkerScheduler.createVirtualThreadExecutor("test-");
+        Assume.assumeTrue(executor != null);
+        try {
+            final Future<String> name =
+                    executor.submit(
+                            new Callable<String>() {
+                                @Override
+                                public String call() {
+                                    return Thread.currentThread().getName();
+                                }
+                            });
+            assertTrue(name.get(1, TimeUnit.SECONDS).startsWith("test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Benchmark of I/O bound workers, like proxy portlets, on a pool configured like
+     * portletThreadPool versus on virtual threads. Depends on wall clock time so it is not run with
+     * the build, remove the @Ignore to run it on a JVM with virtual threads.
+     */
+    @Ignore
+    @Test
+    public void benchmarkVirtualThreadThroughput() throws Exception {
+        final ExecutorService probe = PortletWorkerScheduler.createVirtualThreadExecutor("test-");
+        Assume.assumeTrue(probe != null);
+        probe.shutdown();
+
+        final ThreadPoolExecutor fixedPool =
+                new ThreadPoolExecutor(
+                        50, 50, 300, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(50));
+        final PortletWorkerScheduler fixed = new PortletWorkerScheduler();
+        fixed.setExecutorService(fixedPool);
+        fixed.setMaxThreads(50);
+        fixed.setMaxThreadsPerPortlet(0);
+        fixed.afterPropertiesSet();
+
+        final PortletWorkerScheduler virtual = new PortletWorkerScheduler();
+        virtual.setExecutorService(this.threadPool);
+        virtual.setVirtualThreads(true);
+        virtual.setVirtualThreadMaxThreads(1000);
+        virtual.setMaxThreadsPerPortlet(0);
+        virtual.afterPropertiesSet();
+        assertTrue(virtual.isVirtualThreads());
+
+        try {
+            final long fixedTime = this.timeWorkers(fixed, 1000, 20);
+            final long virtualTime = this.timeWorkers(virtual, 1000, 20);
+            assertTrue(
+                    "virtual threads took "
+                            + virtualTime
+                            + "ms, fixed pool took "
+                            + fixedTime
+                            + "ms",
+                    virtualTime < fixedTime);
+        } finally {
+            fixedPool.shutdownNow();
+            virtual.destroy();
+        }
+    }
+
+    /** @return Milliseconds to execute all of the workers */
+    private long timeWorkers(PortletWorkerScheduler scheduler, int workers, long sleep)
+            throws Exception {
+        final List<Future<String>> futures = new ArrayList<Future<String>>(workers);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < workers; i++) {
+            final TestWorker worker = new TestWorker("portlet" + (i % 10), new CountDownLatch(0));
+            worker.sleep = sleep;
+            futures.add(scheduler.submit(worker));
+        }
+        for (final Future<String> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    /** The execution time is recorded just after the future completes */
+    private void awaitIdle() throws InterruptedException {
+        for (int i = 0; i < 100 && this.scheduler.getActiveCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, this.scheduler.getActiveCount());
+    }
+
+    private static final class TestWorker implements Callable<String>, IPortletExecutionContext {
+        private final String fname;
+        private final CountDownLatch release;
+        private final StringBuffer order;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private long sleep = 0;
+
+        TestWorker(String fname, CountDownLatch release) {
+            this.fname = fname;
+            this.release = release;
+            this.order = null;
+        }
+
+        TestWorker(String fname, StringBuffer order) {
+            this.fname = fname;
+            this.release = new CountDownLatch(0);
+            this.order = order;
+        }
+
+        @Override
+        public String call() throws Exception {
+            this.started.countDown();
+            if (this.order != null) {
+                this.order.append(this.fname);
+            }
+            if (this.sleep > 0) {
+                Thread.sleep(this.sleep);
+            }
+            this.release.await(1, TimeUnit.SECONDS);
+            return this.fname;
+        }
+
+        @Override
+        public String getPortletFname() {
+            return this.fname;
+        }
+
+        @Override
+        public ExecutionType getExecutionType() {
+            return ExecutionType.RENDER;
+        }
+
+        @Override
+        public Object setExecutionAttribute(String name, Object value) {
+            return null;
+        }
+
+        @Override
+        public Object getExecutionAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public IPortletWindowId getPortletWindowId() {
+            return null;
+        }
+
+        @Override
+        public long getApplicableTimeout() {
+            return 0;
+        }
+
+        @Override
+        public boolean isSubmitted() {
+            return true;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return false;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return false;
+        }
+
+        @Override
+        public long getSubmittedTime() {
+            return 0;
+        }
+
+        @Override
+        public long getStartedTime() {
+            return 0;
+        }
+
+        @Override
+        public long getCompleteTime() {
+            return 0;
+        }
+
+        @Override
+        public long getWait() {
+            return 0;
+        }
+
+        @Override
+        public long getDuration() {
+            return 0;
+        }
+    }
+}
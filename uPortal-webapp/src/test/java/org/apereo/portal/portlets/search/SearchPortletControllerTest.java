@@ -0,0 +1,332 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.portlet.PortletRequest;
+import org.apereo.portal.search.SearchRequest;
+import org.apereo.portal.search.SearchResult;
+import org.apereo.portal.search.SearchResults;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.portlet.context.PortletRequestAttributes;
+
+public class SearchPortletControllerTest {
+    private SearchPortletController controller;
+    private SearchServiceMonitor monitor;
+    private ExecutorService executor;
+    private PortletRequest request;
+    private SearchRequest query;
+
+    @Before
+    public void setup() {
+        this.controller = new SearchPortletController();
+        this.monitor = new SearchServiceMonitor();
+        this.controller.setSearchServiceMonitor(this.monitor);
+        this.executor = Executors.newCachedThreadPool();
+        this.request = mock(PortletRequest.class);
+        this.query = new SearchRequest();
+        this.query.setQueryId("query");
+        this.query.setSearchTerms("weather");
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        RequestContextHolder.resetRequestAttributes();
+        LocaleContextHolder.resetLocaleContext();
+    }
+
+    @Test
+    public void testSequentialSearch() {
+        this.controller.setPortalSearchServices(
+                Arrays.<IPortalSearchService>asList(
+                        new DelayedSearchService("a", 0),
+                        new FailingSearchService(),
+                        new OtherSearchService("b")));
+
+        assertEquals(
+                Arrays.asList("a", "b"),
+                titles(this.controller.getSearchServiceResults(this.request, this.query)));
+        assertEquals(
+                1,
+                this.monitor
+                        .getSearchServiceStatistics()
+                        .get(FailingSearchService.class.getName())
+                        .getFailures());
+    }
+
+    @Test
+    public void testConcurrentSearchKeepsServiceOrder() {
+        this.controller.setSearchServiceExecutor(this.executor);
+        this.controller.setPortalSearchServices(
+                Arrays.<IPortalSearchService>asList(
+                        new DelayedSearchService("slow", 300), new OtherSearchService("fast")));
+
+        final long start = System.currentTimeMillis();
+        final List<String> titles =
+                titles(this.controller.getSearchServiceResults(this.request, this.query));
+        final long duration = System.currentTimeMillis() - start;
+
+        assertEquals(Arrays.asList("slow", "fast"), titles);
+        assertTrue("Searches did not run concurrently: " + duration, duration < 600);
+    }
+
+    @Test
+    public void testSlowServiceTimesOut() {
+        this.controller.setSearchServiceExecutor(this.executor);
+        this.controller.setSearchServiceTimeout(100);
+        this.controller.setPortalSearchServices(
+                Arrays.<IPortalSearchService>asList(
+                        new DelayedSearchService("slow", 5000), new OtherSearchService("fast")));
+
+        final long start = System.currentTimeMillis();
+        final List<String> titles =
+                titles(this.controller.getSearchServiceResults(this.request, this.query));
+        final long duration = System.currentTimeMillis() - start;
+
+        assertEquals(Arrays.asList("fast"), titles);
+        assertTrue("Did not stop waiting at the timeout: " + duration, duration < 1000);
+
+        assertEquals(
+                1,
+                this.monitor
+                        .getSearchServiceStatistics()
+                        .get(DelayedSearchService.class.getName())
+                        .getTimeouts());
+        assertEquals(
+                1,
+                this.monitor
+                        .getSearchServiceStatistics()
+                        .get(OtherSearchService.class.getName())
+                        .getSearches());
+    }
+
+    @Test
+    public void testRequestContextBoundForConcurrentSearch() throws Exception {
+        final ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor();
+        try {
+            this.controller.setSearchServiceExecutor(singleThreadExecutor);
+            final ContextCapturingSearchService searchService = new ContextCapturingSearchService();
+            this.controller.setPortalSearchServices(
+                    Arrays.<IPortalSearchService>asList(searchService));
+
+            when(this.request.getAttribute("attribute")).thenReturn("value");
+            LocaleContextHolder.setLocale(Locale.FRENCH);
+
+            assertEquals(
+                    Arrays.asList("context"),
+                    titles(this.controller.getSearchServiceResults(this.request, this.query)));
+            assertNotSame(Thread.currentThread(), searchService.thread);
+            assertSame(searchService.request, searchService.boundRequest);
+            assertEquals("value", searchService.attribute);
+            assertEquals(Locale.FRENCH, searchService.locale);
+
+            // The service searched a copy of the query
+            assertNotSame(this.query, searchService.query);
+            assertEquals("weather", searchService.query.getSearchTerms());
+
+            // Nothing is left bound to the executor thread once the search returned
+            assertNull(
+                    singleThreadExecutor
+                            .submit(
+                                    new Callable<RequestAttributes>() {
+                                        @Override
+                                        public RequestAttributes call() {
+                                            return RequestContextHolder.getRequestAttributes();
+                                        }
+                                    })
+                            .get());
+        } finally {
+            singleThreadExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAbandonedSearchCannotUseRequest() throws Exception {
+        this.controller.setSearchServiceExecutor(this.executor);
+        this.controller.setSearchServiceTimeout(100);
+        final AbandonedSearchService searchService = new AbandonedSearchService();
+        this.controller.setPortalSearchServices(
+                Arrays.<IPortalSearchService>asList(searchService));
+
+        assertTrue(this.controller.getSearchServiceResults(this.request, this.query).isEmpty());
+        searchService.proceed.countDown();
+
+        assertTrue(searchService.done.await(5, TimeUnit.SECONDS));
+        assertTrue(searchService.failure instanceof IllegalStateException);
+        verify(this.request, never()).getAttribute("attribute");
+    }
+
+    @Test
+    public void testRejectedServiceSkipped() {
+        this.executor.shutdown();
+        this.controller.setSearchServiceExecutor(this.executor);
+        this.controller.setPortalSearchServices(
+                Arrays.<IPortalSearchService>asList(new OtherSearchService("rejected")));
+
+        assertTrue(this.controller.getSearchServiceResults(this.request, this.query).isEmpty());
+        final SearchServiceStatistics statistics =
+                this.monitor
+                        .getSearchServiceStatistics()
+                        .get(OtherSearchService.class.getName());
+        assertEquals(1, statistics.getRejections());
+        assertEquals(0, statistics.getSearches());
+    }
+
+    @Test
+    public void testStatisticsKeptPerServiceInstance() {
+        final List<IPortalSearchService> searchServices =
+                Arrays.<IPortalSearchService>asList(
+                        new OtherSearchService("a"),
+                        new FailingSearchService(),
+                        new OtherSearchService("b"));
+        this.monitor.setSearchServices(searchServices);
+        this.controller.setPortalSearchServices(searchServices);
+        this.controller.getSearchServiceResults(this.request, this.query);
+        this.controller.getSearchServiceResults(this.request, this.query);
+
+        final Map<String, SearchServiceStatistics> statistics =
+                this.monitor.getSearchServiceStatistics();
+        assertEquals(3, statistics.size());
+        assertEquals(2, statistics.get(OtherSearchService.class.getName() + "[0]").getSearches());
+        assertEquals(2, statistics.get(OtherSearchService.class.getName() + "[2]").getSearches());
+        assertEquals(2, statistics.get(FailingSearchService.class.getName()).getFailures());
+    }
+
+    private static List<String> titles(List<SearchResult> results) {
+        final List<String> titles = new ArrayList<>();
+        for (final SearchResult result : results) {
+            titles.add(result.getTitle());
+        }
+        return titles;
+    }
+
+    private static SearchResults createResults(String title) {
+        final SearchResult result = new SearchResult();
+        result.setTitle(title);
+        final SearchResults results = new SearchResults();
+        results.getSearchResult().add(result);
+        return results;
+    }
+
+    private static class DelayedSearchService implements IPortalSearchService {
+        private final String title;
+        private final long delay;
+
+        DelayedSearchService(String title, long delay) {
+            this.title = title;
+            this.delay = delay;
+        }
+
+        @Override
+        public SearchResults getSearchResults(PortletRequest request, SearchRequest query) {
+            if (this.delay > 0) {
+                try {
+                    Thread.sleep(this.delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return createResults(this.title);
+        }
+    }
+
+    private static class OtherSearchService extends DelayedSearchService {
+        OtherSearchService(String title) {
+            super(title, 0);
+        }
+    }
+
+    private static class ContextCapturingSearchService implements IPortalSearchService {
+        private volatile Thread thread;
+        private volatile PortletRequest request;
+        private volatile PortletRequest boundRequest;
+        private volatile Object attribute;
+        private volatile Locale locale;
+        private volatile SearchRequest query;
+
+        @Override
+        public SearchResults getSearchResults(PortletRequest request, SearchRequest query) {
+            this.thread = Thread.currentThread();
+            this.request = request;
+            this.boundRequest =
+                    ((PortletRequestAttributes) RequestContextHolder.getRequestAttributes())
+                            .getRequest();
+            this.attribute = request.getAttribute("attribute");
+            this.locale = LocaleContextHolder.getLocale();
+            this.query = query;
+            return createResults("context");
+        }
+    }
+
+    /** Keeps going after it is cancelled, then tries to use the request */
+    private static class AbandonedSearchService implements IPortalSearchService {
+        private final CountDownLatch proceed = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Exception failure;
+
+        @Override
+        public SearchResults getSearchResults(PortletRequest request, SearchRequest query) {
+            try {
+                while (true) {
+                    try {
+                        this.proceed.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        //Ignore the cancellation
+                    }
+                }
+                request.getAttribute("attribute");
+                return createResults("abandoned");
+            } catch (RuntimeException e) {
+                this.failure = e;
+                throw e;
+            } finally {
+                this.done.countDown();
+            }
+        }
+    }
+
+    private static class FailingSearchService implements IPortalSearchService {
+        @Override
+        public SearchResults getSearchResults(PortletRequest request, SearchRequest query) {
+            throw new IllegalStateException("Search backend unavailable");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search.portletregistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortletDefinitionIndexTest {
+    private PortletDefinitionIndex index;
+    private IPortletDefinition weather;
+    private IPortletDefinition news;
+    private IPortletDefinition calendar;
+
+    @Before
+    public void setup() {
+        this.weather = createPortlet("1", "Weather", "weather", "Local forecast", "weather");
+        this.news = createPortlet("2", "Campus News", "news", "Stories about the weather", "news");
+        this.calendar = createPortlet("3", "Calendar", "calendar", null, "cal");
+
+        this.index = new PortletDefinitionIndex();
+        this.index.update(Arrays.asList(this.weather, this.news, this.calendar));
+    }
+
+    @Test
+    public void testSubstringMatch() {
+        assertEquals(Arrays.asList(this.calendar), this.index.search("lend"));
+        assertEquals(Arrays.asList(this.news), this.index.search("CAMPUS"));
+        assertTrue(this.index.search("xyz").isEmpty());
+    }
+
+    @Test
+    public void testRanking() {
+        //Title prefix before a description match, regardless of registry order
+        assertEquals(Arrays.asList(this.weather, this.news), this.index.search("weath"));
+        assertEquals(Arrays.asList(this.calendar, this.weather), this.index.search("cal"));
+    }
+
+    @Test
+    public void testShortQuery() {
+        assertEquals(Arrays.asList(this.weather, this.news), this.index.search("w"));
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        final IPortletDefinition renamed = createPortlet("3", "Events", "calendar", null, "cal");
+        final IPortletDefinition bookmarks =
+                createPortlet("4", "Bookmarks", "bookmarks", "Saved links", "bookmarks");
+
+        final List<IPortletDefinition> portlets = new ArrayList<IPortletDefinition>();
+        portlets.add(this.weather);
+        portlets.add(renamed);
+        portlets.add(bookmarks);
+        this.index.update(portlets);
+
+        assertEquals(3, this.index.size());
+        assertTrue(this.index.search("campus").isEmpty());
+        assertEquals(Arrays.asList(renamed), this.index.search("event"));
+        assertEquals(Arrays.asList(renamed), this.index.search("calendar"));
+        assertEquals(Arrays.asList(bookmarks), this.index.search("links"));
+    }
+
+    private static IPortletDefinition createPortlet(
+            String id, String title, String name, String description, String fname) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+
+        final IPortletDefinition portlet = mock(IPortletDefinition.class);
+        when(portlet.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portlet.getTitle()).thenReturn(title);
+        when(portlet.getName()).thenReturn(name);
+        when(portlet.getDescription()).thenReturn(description);
+        when(portlet.getFName()).thenReturn(fname);
+        return portlet;
+    }
+}
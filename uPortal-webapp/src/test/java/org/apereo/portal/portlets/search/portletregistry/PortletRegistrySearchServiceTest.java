@@ -0,0 +1,122 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search.portletregistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PortletRegistrySearchServiceTest {
+    private PortletRegistrySearchService searchService;
+    private IPortletDefinitionRegistry portletDefinitionRegistry;
+    private IPortletDefinition weather;
+
+    @Before
+    public void setup() {
+        this.weather = createPortlet("1", "Weather", "weather", "Local forecast", "weather");
+
+        this.portletDefinitionRegistry = mock(IPortletDefinitionRegistry.class);
+        this.searchService = new PortletRegistrySearchService();
+        this.searchService.setPortletDefinitionRegistry(this.portletDefinitionRegistry);
+    }
+
+    @Test
+    public void testConcurrentRequestsRefreshOnce() throws Exception {
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch finishRefresh = new CountDownLatch(1);
+        when(this.portletDefinitionRegistry.getAllPortletDefinitions())
+                .thenAnswer(
+                        new Answer<List<IPortletDefinition>>() {
+                            @Override
+                            public List<IPortletDefinition> answer(InvocationOnMock invocation)
+                                    throws Throwable {
+                                refreshStarted.countDown();
+                                finishRefresh.await(10, TimeUnit.SECONDS);
+                                return Arrays.asList(weather);
+                            }
+                        });
+
+        final Thread refreshThread =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                searchService.getCandidatePortlets("weather");
+                            }
+                        });
+        refreshThread.start();
+        assertTrue(refreshStarted.await(10, TimeUnit.SECONDS));
+
+        //Requests made during the refresh search the current index instead of refreshing again
+        for (int i = 0; i < 5; i++) {
+            assertTrue(this.searchService.getCandidatePortlets("weather").isEmpty());
+        }
+
+        finishRefresh.countDown();
+        refreshThread.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(
+                Arrays.asList(this.weather), this.searchService.getCandidatePortlets("weather"));
+        verify(this.portletDefinitionRegistry, times(1)).getAllPortletDefinitions();
+    }
+
+    @Test
+    public void testFailedRefreshRetried() {
+        when(this.portletDefinitionRegistry.getAllPortletDefinitions())
+                .thenThrow(new IllegalStateException("Registry unavailable"))
+                .thenReturn(Arrays.asList(this.weather));
+
+        try {
+            this.searchService.getCandidatePortlets("weather");
+            fail("The registry exception should be thrown");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        assertEquals(
+                Arrays.asList(this.weather), this.searchService.getCandidatePortlets("weather"));
+        verify(this.portletDefinitionRegistry, times(2)).getAllPortletDefinitions();
+    }
+
+    private static IPortletDefinition createPortlet(
+            String id, String title, String name, String description, String fname) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+
+        final IPortletDefinition portlet = mock(IPortletDefinition.class);
+        when(portlet.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portlet.getTitle()).thenReturn(title);
+        when(portlet.getName()).thenReturn(name);
+        when(portlet.getDescription()).thenReturn(description);
+        when(portlet.getFName()).thenReturn(fname);
+        return portlet;
+    }
+}
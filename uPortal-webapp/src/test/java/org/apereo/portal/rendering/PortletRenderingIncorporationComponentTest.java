@@ -0,0 +1,170 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+public class PortletRenderingIncorporationComponentTest {
+    @Mock private CharacterPipelineComponent wrappedComponent;
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private HttpServletRequest request;
+    @Mock private HttpServletResponse response;
+    @Mock private IPortletWindowId fastPortlet;
+    @Mock private IPortletWindowId slowPortlet;
+    @Mock private IPortletWindowId laterPortlet;
+
+    private PortletRenderingIncorporationComponent component;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        final List<CharacterEvent> events = new ArrayList<CharacterEvent>();
+        events.add(CharacterDataEventImpl.create("<html><body>"));
+        events.add(new PortletContentPlaceholderEventImpl(this.slowPortlet));
+        events.add(CharacterDataEventImpl.create("<br/>"));
+        events.add(new PortletContentPlaceholderEventImpl(this.fastPortlet));
+        events.add(CharacterDataEventImpl.create("</body></html>"));
+
+        when(this.wrappedComponent.getEventReader(this.request, this.response))
+                .thenReturn(
+                        new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                                new CharacterEventBufferReader(events.listIterator())));
+
+        when(this.portletExecutionManager.isPortletRenderComplete(
+                        this.fastPortlet, this.request, this.response))
+                .thenReturn(true);
+        when(this.portletExecutionManager.isPortletRenderComplete(
+                        this.slowPortlet, this.request, this.response))
+                .thenReturn(false);
+        when(this.portletExecutionManager.getPortletOutput(
+                        this.fastPortlet, this.request, this.response))
+                .thenReturn("FAST");
+        when(this.portletExecutionManager.getPortletOutput(
+                        this.slowPortlet, this.request, this.response))
+                .thenReturn("SLOW");
+
+        this.component = new PortletRenderingIncorporationComponent();
+        this.component.setWrappedComponent(this.wrappedComponent);
+        this.component.setPortletExecutionManager(this.portletExecutionManager);
+    }
+
+    @Test
+    public void testDocumentOrderRendering() {
+        final List<String> chunks = this.render();
+
+        assertEquals("<html><body>SLOW<br/>FAST</body></html>", join(chunks));
+    }
+
+    @Test
+    public void testProgressiveRendering() {
+        this.component.setProgressiveRendering(true);
+
+        final List<String> chunks = this.render();
+
+        final String placeholder =
+                "<div id=\"up-deferred-portlet-0\" class=\"up-portlet-deferred\"></div>";
+        assertEquals("<html><body>", chunks.get(0));
+        assertEquals(placeholder, chunks.get(1));
+        assertEquals("<br/>", chunks.get(2));
+        assertEquals("FAST", chunks.get(3));
+
+        //Slow portlet follows the rest of the body as its own chunk
+        final String deferred = chunks.get(4);
+        assertTrue(
+                deferred,
+                deferred.contains(
+                        "<template id=\"up-deferred-portlet-0-content\">SLOW</template>"));
+        assertTrue(deferred, deferred.endsWith("up.showDeferredPortlet(0);</script>"));
+        assertEquals("</body></html>", chunks.get(5));
+        assertEquals(6, chunks.size());
+    }
+
+    @Test
+    public void testCompletionOrderRendering() {
+        this.component.setProgressiveRendering(true);
+        this.component.setDeferredWaitTime(50);
+
+        final List<CharacterEvent> events = new ArrayList<CharacterEvent>();
+        events.add(CharacterDataEventImpl.create("<html><body>"));
+        events.add(new PortletContentPlaceholderEventImpl(this.slowPortlet));
+        events.add(new PortletContentPlaceholderEventImpl(this.laterPortlet));
+        events.add(CharacterDataEventImpl.create("</body></html>"));
+        when(this.wrappedComponent.getEventReader(this.request, this.response))
+                .thenReturn(
+                        new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                                new CharacterEventBufferReader(events.listIterator())));
+
+        //Still rendering when reached but finishes before the slow portlet
+        when(this.portletExecutionManager.isPortletRenderComplete(
+                        this.laterPortlet, this.request, this.response))
+                .thenReturn(false, true);
+        when(this.portletExecutionManager.getPortletOutput(
+                        this.laterPortlet, this.request, this.response))
+                .thenReturn("LATER");
+
+        final List<String> chunks = this.render();
+
+        assertEquals(6, chunks.size());
+        final String later = chunks.get(3);
+        assertTrue(later, later.contains("up.showDeferredPortlet = function"));
+        assertTrue(
+                later,
+                later.contains("<template id=\"up-deferred-portlet-1-content\">LATER</template>"));
+        final String slow = chunks.get(4);
+        assertTrue(
+                slow,
+                slow.startsWith("<template id=\"up-deferred-portlet-0-content\">SLOW</template>"));
+        assertEquals("</body></html>", chunks.get(5));
+    }
+
+    private List<String> render() {
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader =
+                this.component.getEventReader(this.request, this.response);
+
+        final List<String> chunks = new ArrayList<String>();
+        for (final CharacterEvent event : eventReader) {
+            chunks.add(((CharacterDataEvent) event).getData());
+        }
+        return chunks;
+    }
+
+    private static String join(List<String> chunks) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String chunk : chunks) {
+            builder.append(chunk);
+        }
+        return builder.toString();
+    }
+}
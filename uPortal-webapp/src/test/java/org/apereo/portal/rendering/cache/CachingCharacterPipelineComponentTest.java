@@ -88,8 +88,7 @@ public class CachingCharacterPipelineComponentTest {
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
         final CacheKey cacheKey = CacheKey.build("testCacheKey");
         final CachedEventReader<CharacterEvent> eventReader =
-                new CachedEventReader<CharacterEvent>(
-                        Collections.EMPTY_LIST, Collections.EMPTY_MAP);
+                new CachedEventReader<CharacterEvent>(new Object[0], Collections.EMPTY_MAP, 0);
         final Element cacheElement = new Element(cacheKey, eventReader);
 
         final Ehcache cache = createMock(Ehcache.class);
@@ -21,8 +21,10 @@ import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.events.XMLEvent;
 import net.sf.ehcache.Ehcache;
@@ -86,7 +88,7 @@ public class CachingStAXPipelineComponentTest {
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
         final CacheKey cacheKey = CacheKey.build("testCacheKey");
         final CachedEventReader<XMLEvent> eventReader =
-                new CachedEventReader<XMLEvent>(Collections.EMPTY_LIST, Collections.EMPTY_MAP);
+                new CachedEventReader<XMLEvent>(new Object[0], Collections.EMPTY_MAP, 0);
         final Element cacheElement = new Element(cacheKey, eventReader);
 
         final Ehcache cache = createMock(Ehcache.class);
@@ -114,4 +116,93 @@ public class CachingStAXPipelineComponentTest {
 
         verify(cache, targetComponent, elementsProvider);
     }
+
+    @Test
+    public void testCacheMissDeduplicatesEvents() {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+
+        final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+        final List<XMLEvent> eventBuffer = new ArrayList<XMLEvent>();
+        for (int i = 0; i < 2; i++) {
+            eventBuffer.add(eventFactory.createStartElement("", "", "div"));
+            eventBuffer.add(eventFactory.createCharacters("text"));
+            eventBuffer.add(eventFactory.createEndElement("", "", "div"));
+        }
+        final PipelineEventReader<XMLEventReader, XMLEvent> eventReader =
+                new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(
+                        new XMLEventBufferReader(eventBuffer.listIterator()));
+
+        final Ehcache cache = createMock(Ehcache.class);
+        final StAXPipelineComponent targetComponent = createMock(StAXPipelineComponent.class);
+        final ResourcesElementsProvider elementsProvider =
+                createMock(ResourcesElementsProvider.class);
+
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
+        expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
+        expect(cache.get(cacheKey)).andReturn(null);
+        expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
+        cache.put((Element) notNull());
+        expectLastCall();
+
+        replay(cache, targetComponent, elementsProvider);
+
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+
+        final XMLEventReader actualEventReader =
+                cachingComponent.getEventReader(mockReq, mockRes).getEventReader();
+
+        final List<XMLEvent> actualEvents = new ArrayList<XMLEvent>();
+        while (actualEventReader.hasNext()) {
+            actualEvents.add((XMLEvent) actualEventReader.next());
+        }
+
+        Assert.assertEquals(6, actualEvents.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertSame(actualEvents.get(i), actualEvents.get(i + 3));
+        }
+
+        verify(cache, targetComponent, elementsProvider);
+    }
+
+    @Test
+    public void testDeduplicationKeepsPrefixes() {
+        final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        for (final String prefix : new String[] {"a", "b"}) {
+            events.add(
+                    eventFactory.createStartElement(
+                            prefix,
+                            "urn:test",
+                            "div",
+                            Collections.singleton(
+                                            eventFactory.createAttribute(
+                                                    prefix, "urn:test", "id", "1"))
+                                    .iterator(),
+                            Collections.emptyIterator()));
+            events.add(eventFactory.createEndElement(prefix, "urn:test", "div"));
+        }
+
+        //Both prefixes are bound to the same namespace, the QNames are equal
+        Assert.assertEquals(
+                events.get(0).asStartElement().getName(),
+                events.get(2).asStartElement().getName());
+
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        for (int i = 0; i < 2; i++) {
+            Assert.assertFalse(
+                    cachingComponent
+                            .getDeduplicationKey(events.get(i))
+                            .equals(cachingComponent.getDeduplicationKey(events.get(i + 2))));
+        }
+
+        final XMLEvent duplicate = eventFactory.createEndElement("a", "urn:test", "div");
+        Assert.assertEquals(
+                cachingComponent.getDeduplicationKey(events.get(1)),
+                cachingComponent.getDeduplicationKey(duplicate));
+    }
 }
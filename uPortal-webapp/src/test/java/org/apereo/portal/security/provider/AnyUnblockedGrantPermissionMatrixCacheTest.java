@@ -0,0 +1,250 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Set;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.utils.cache.CacheKey;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/** Tests how {@link AnyUnblockedGrantPermissionPolicy} caches compiled permissions. */
+public class AnyUnblockedGrantPermissionMatrixCacheTest {
+
+    private static final String CACHE_NAME = "permissionMatrixCache";
+    private static final String TARGET = "PORTLET_ID.42";
+
+    private AnyUnblockedGrantPermissionPolicy policy;
+    private Cache cache;
+    private IAuthorizationService service;
+    private IAuthorizationPrincipal user;
+    private IAuthorizationPrincipal staff;
+    private IEntityGroup staffGroup;
+    private IPermissionOwner owner;
+    private IPermissionActivity activity;
+    private IPermissionTarget target;
+
+    @Before
+    public void setup() {
+        final CacheManager cacheManager = CacheManager.getInstance();
+        cacheManager.removeCache(CACHE_NAME);
+        this.cache = new Cache(CACHE_NAME, 100, false, false, 0, 0);
+        cacheManager.addCache(this.cache);
+
+        this.policy = new AnyUnblockedGrantPermissionPolicy();
+        this.policy.setPermissionMatrixCache(this.cache);
+
+        this.service = mock(IAuthorizationService.class);
+
+        this.staffGroup = mock(IEntityGroup.class);
+        final Set<IEntityGroup> staffAncestors = Collections.emptySet();
+        when(this.staffGroup.getAncestorGroups()).thenReturn(staffAncestors);
+        when(this.staffGroup.getParentGroups()).thenReturn(staffAncestors);
+        this.staff = principal("local.staff", true);
+        when(this.service.getGroupMember(this.staff)).thenReturn(this.staffGroup);
+        when(this.service.newPrincipal(this.staffGroup)).thenReturn(this.staff);
+        when(this.service.getPermissionsForPrincipal(this.staff, null, null, null))
+                .thenReturn(new IPermission[] {permission(IPermission.PERMISSION_TYPE_GRANT)});
+
+        final IGroupMember userMember = mock(IGroupMember.class);
+        final Set<IEntityGroup> userAncestors = Collections.singleton(this.staffGroup);
+        when(userMember.getAncestorGroups()).thenReturn(userAncestors);
+        when(userMember.getParentGroups()).thenReturn(userAncestors);
+        this.user = principal("user", false);
+        when(this.service.getGroupMember(this.user)).thenReturn(userMember);
+        when(this.service.getPermissionsForPrincipal(this.user, null, null, null))
+                .thenReturn(new IPermission[0]);
+
+        final Set<String> noContainingGroups = Collections.emptySet();
+        when(this.service.getTargetContainingGroups("UP_PORTLET_SUBSCRIBE", "BROWSE", TARGET))
+                .thenReturn(noContainingGroups);
+
+        this.owner = mock(IPermissionOwner.class);
+        when(this.owner.getFname()).thenReturn("UP_PORTLET_SUBSCRIBE");
+        this.activity = mock(IPermissionActivity.class);
+        when(this.activity.getFname()).thenReturn("BROWSE");
+        this.target = mock(IPermissionTarget.class);
+        when(this.target.getKey()).thenReturn(TARGET);
+    }
+
+    private static IAuthorizationPrincipal principal(String key, boolean group) {
+        final IAuthorizationPrincipal rslt = mock(IAuthorizationPrincipal.class);
+        when(rslt.getKey()).thenReturn(key);
+        when(rslt.getPrincipalString()).thenReturn((group ? "2." : "3.") + key);
+        when(rslt.isGroup()).thenReturn(group);
+        return rslt;
+    }
+
+    private static IPermission permission(String type) {
+        final IPermission rslt = new PermissionImpl("UP_PORTLET_SUBSCRIBE");
+        rslt.setActivity("BROWSE");
+        rslt.setTarget(TARGET);
+        rslt.setType(type);
+        return rslt;
+    }
+
+    private static CacheKey cacheKey(IAuthorizationPrincipal principal) {
+        // Same key AuthorizationImpl removes when the permissions of a principal change
+        return CacheKey.build(
+                AnyUnblockedGrantPermissionPolicy.class.getName(), principal.getPrincipalString());
+    }
+
+    private PrincipalPermissionMatrix getCachedMatrix(IAuthorizationPrincipal principal) {
+        final Element element = this.cache.get(cacheKey(principal));
+        return element != null ? (PrincipalPermissionMatrix) element.getObjectValue() : null;
+    }
+
+    private boolean load() {
+        return this.policy.loadInCacheIfAbsent(
+                this.service, this.user, this.owner, this.activity, this.target);
+    }
+
+    private Boolean getCachedDecision() {
+        return getCachedMatrix(this.user)
+                .getDecision(
+                        PrincipalPermissionMatrix.getActivityKey("UP_PORTLET_SUBSCRIBE", "BROWSE"),
+                        TARGET);
+    }
+
+    @Test
+    public void testDecisionCached() {
+        assertTrue(load());
+        assertFalse(load());
+        assertEquals(Boolean.TRUE, getCachedDecision());
+    }
+
+    @Test
+    public void testRefreshKeepsDecisions() {
+        assertTrue(load());
+        final Element before = this.cache.get(cacheKey(this.user));
+
+        assertTrue(this.policy.refreshInCache(this.service, this.user));
+        final Element after = this.cache.get(cacheKey(this.user));
+        assertNotSame(before, after);
+        assertSame(before.getObjectValue(), after.getObjectValue());
+        assertFalse(load());
+    }
+
+    @Test
+    public void testRefreshSkipsStaleMatrix() {
+        assertFalse(this.policy.refreshInCache(this.service, this.user));
+
+        assertTrue(load());
+        this.cache.remove(cacheKey(this.staff));
+        assertFalse(this.policy.refreshInCache(this.service, this.user));
+    }
+
+    @Test
+    public void testGroupInvalidationRecompilesMembers() {
+        assertTrue(load());
+        final PrincipalPermissionMatrix before = getCachedMatrix(this.user);
+
+        when(this.service.getPermissionsForPrincipal(this.staff, null, null, null))
+                .thenReturn(new IPermission[] {permission(IPermission.PERMISSION_TYPE_DENY)});
+        this.cache.remove(cacheKey(this.staff));
+
+        // Only the group is invalidated, the member notices on its next check
+        assertSame(before, getCachedMatrix(this.user));
+        assertTrue(load());
+        assertNotSame(before, getCachedMatrix(this.user));
+        assertNotNull(getCachedMatrix(this.staff));
+        assertEquals(Boolean.FALSE, getCachedDecision());
+    }
+
+    @Test
+    public void testMatrixMissingParentNotCached() {
+        when(this.service.newPrincipal(this.staffGroup))
+                .thenThrow(new IllegalStateException("broken group"));
+
+        load();
+        assertNull(getCachedMatrix(this.user));
+    }
+
+    @Test
+    public void testMatrixCompiledDuringInvalidationNotCached() {
+        when(this.service.getPermissionsForPrincipal(this.user, null, null, null))
+                .thenAnswer(
+                        new Answer<IPermission[]>() {
+                            @Override
+                            public IPermission[] answer(InvocationOnMock invocation) {
+                                // Permissions change while the user is being compiled
+                                cache.remove(cacheKey(staff));
+                                return new IPermission[0];
+                            }
+                        });
+
+        assertTrue(load());
+        assertNull(getCachedMatrix(this.user));
+    }
+
+    @Test
+    public void testMatrixCompiledDuringOwnInvalidationNotCached() {
+        when(this.service.getPermissionsForPrincipal(this.user, null, null, null))
+                .thenAnswer(
+                        new Answer<IPermission[]>() {
+                            @Override
+                            public IPermission[] answer(InvocationOnMock invocation) {
+                                // Permissions of the user change while they are read
+                                cache.remove(cacheKey(user));
+                                return new IPermission[0];
+                            }
+                        });
+
+        assertTrue(load());
+        assertNull(getCachedMatrix(this.user));
+    }
+
+    @Test
+    public void testUnrelatedRemovalDuringCompileCached() {
+        final IAuthorizationPrincipal other = principal("other", false);
+        when(this.service.getPermissionsForPrincipal(this.user, null, null, null))
+                .thenAnswer(
+                        new Answer<IPermission[]>() {
+                            @Override
+                            public IPermission[] answer(InvocationOnMock invocation) {
+                                // Another user logs in while this one is compiled
+                                cache.put(new Element(cacheKey(other), "compiled"));
+                                cache.remove(cacheKey(other));
+                                return new IPermission[0];
+                            }
+                        });
+
+        assertTrue(load());
+        assertNotNull(getCachedMatrix(this.user));
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.dao.IPermissionOwnerDao;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.permission.target.IPermissionTargetProvider;
+import org.apereo.portal.permission.target.IPermissionTargetProviderRegistry;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.utils.threading.ForkJoinPoolFactoryBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PortletPermissionsCachePrimerTest {
+
+    private static final String OWNER = "UP_PORTLET_SUBSCRIBE";
+    private static final String ACTIVITY = "SUBSCRIBE";
+    private static final String TARGET_PROVIDER = "portletTargetProvider";
+
+    @InjectMocks private PortletPermissionsCachePrimer primer = new PortletPermissionsCachePrimer();
+
+    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPermissionOwnerDao permissionOwnerDao;
+    @Mock private IPermissionTargetProviderRegistry targetProviderRegistry;
+    @Mock private IAuthorizationService authorizationService;
+    @Mock private AnyUnblockedGrantPermissionPolicy policy;
+
+    private ForkJoinPoolFactoryBean forkJoinPoolFactory;
+    private IEntityGroup rootGroup;
+    private IAuthorizationPrincipal rootPrincipal;
+    private IAuthorizationPrincipal staffPrincipal;
+    private IPermissionOwner owner;
+    private IPermissionActivity activity;
+    private IPermissionTarget firstTarget;
+    private IPermissionTarget secondTarget;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        forkJoinPoolFactory = new ForkJoinPoolFactoryBean();
+        forkJoinPoolFactory.setParallelism(2);
+        forkJoinPoolFactory.setThreadNamePrefix("uP-PermCachePrime-");
+        forkJoinPoolFactory.setThreadPriority(Thread.MIN_PRIORITY);
+        forkJoinPoolFactory.afterPropertiesSet();
+        primer.setForkJoinPool(forkJoinPoolFactory.getObject());
+        primer.setPermissionsMap(
+                Collections.<String, Set<String>>singletonMap(
+                        OWNER, new HashSet<>(Collections.singleton(ACTIVITY))));
+
+        rootGroup = mockGroup("root");
+        final IEntityGroup staffGroup = mockGroup("staff");
+        when(rootGroup.hasMembers()).thenReturn(true);
+        when(rootGroup.getChildren())
+                .thenReturn(new HashSet<IGroupMember>(Collections.singleton(staffGroup)));
+        rootPrincipal = mock(IAuthorizationPrincipal.class);
+        staffPrincipal = mock(IAuthorizationPrincipal.class);
+        when(rootPrincipal.getKey()).thenReturn("root");
+        when(staffPrincipal.getKey()).thenReturn("staff");
+        when(authorizationService.newPrincipal(rootGroup)).thenReturn(rootPrincipal);
+        when(authorizationService.newPrincipal(staffGroup)).thenReturn(staffPrincipal);
+
+        owner = mock(IPermissionOwner.class);
+        activity = mock(IPermissionActivity.class);
+        when(activity.getTargetProviderKey()).thenReturn(TARGET_PROVIDER);
+        when(activity.getFname()).thenReturn(ACTIVITY);
+        when(permissionOwnerDao.getPermissionOwner(OWNER)).thenReturn(owner);
+        when(permissionOwnerDao.getPermissionActivity(OWNER, ACTIVITY)).thenReturn(activity);
+
+        final IPermissionTargetProvider targetProvider = mock(IPermissionTargetProvider.class);
+        when(targetProviderRegistry.getTargetProvider(TARGET_PROVIDER)).thenReturn(targetProvider);
+        firstTarget = mock(IPermissionTarget.class);
+        secondTarget = mock(IPermissionTarget.class);
+        when(targetProvider.getTarget("PORTLET_ID.1")).thenReturn(firstTarget);
+        when(targetProvider.getTarget("PORTLET_ID.2")).thenReturn(secondTarget);
+        final List<IPortletDefinition> portletDefinitions =
+                Arrays.asList(mockPortletDefinition("1"), mockPortletDefinition("2"));
+        when(portletDefinitionRegistry.getAllPortletDefinitions()).thenReturn(portletDefinitions);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        forkJoinPoolFactory.destroy();
+    }
+
+    @Test
+    public void testPrimesEveryCombinationOnNamedWorkers() {
+        final List<Thread> workers = new CopyOnWriteArrayList<>();
+        final Answer<Boolean> recordWorker =
+                new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        workers.add(Thread.currentThread());
+                        return true;
+                    }
+                };
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, rootPrincipal, owner, activity, firstTarget))
+                .thenAnswer(recordWorker);
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, rootPrincipal, owner, activity, secondTarget))
+                .thenAnswer(recordWorker);
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, staffPrincipal, owner, activity, firstTarget))
+                .thenAnswer(recordWorker);
+        // Already cached, examined but not evaluated
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, staffPrincipal, owner, activity, secondTarget))
+                .thenReturn(false);
+
+        primer.primeCache(rootGroup);
+
+        assertEquals(1, primer.getRunCount());
+        assertEquals(4, primer.getCombinationCount());
+        assertEquals(3, primer.getEvaluatedCount());
+        assertEquals(0, primer.getRemainingCount());
+        assertFalse(primer.isRunning());
+        assertEquals(3, workers.size());
+        for (Thread worker : workers) {
+            assertTrue(worker.getName(), worker.getName().startsWith("uP-PermCachePrime-"));
+            assertEquals(Thread.MIN_PRIORITY, worker.getPriority());
+        }
+    }
+
+    @Test
+    public void testRefreshesCachedPrincipals() {
+        when(policy.refreshInCache(authorizationService, rootPrincipal))
+                .thenThrow(new IllegalStateException("broken group"));
+
+        primer.primeCache(rootGroup);
+
+        verify(policy).refreshInCache(authorizationService, rootPrincipal);
+        verify(policy).refreshInCache(authorizationService, staffPrincipal);
+        assertEquals(4, primer.getCombinationCount());
+    }
+
+    @Test
+    public void testFailedPrincipalDoesNotStopRun() {
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, rootPrincipal, owner, activity, firstTarget))
+                .thenThrow(new IllegalStateException("broken group"));
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, staffPrincipal, owner, activity, firstTarget))
+                .thenReturn(true);
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, staffPrincipal, owner, activity, secondTarget))
+                .thenReturn(true);
+
+        primer.primeCache(rootGroup);
+
+        assertEquals(1, primer.getRunCount());
+        assertEquals(2, primer.getCombinationCount());
+        assertEquals(2, primer.getEvaluatedCount());
+    }
+
+    @Test
+    public void testSkipsRunWhilePreviousRunIsIncomplete() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(policy.loadInCacheIfAbsent(
+                        authorizationService, rootPrincipal, owner, activity, firstTarget))
+                .thenAnswer(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) throws Exception {
+                                started.countDown();
+                                release.await(10, TimeUnit.SECONDS);
+                                return true;
+                            }
+                        });
+
+        final Thread firstRun =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        primer.primeCache(rootGroup);
+                    }
+                };
+        firstRun.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(primer.isRunning());
+        assertEquals(4, primer.getRemainingCount() + primer.getCombinationCount());
+
+        primer.primeCache(rootGroup);
+        assertEquals(0, primer.getRunCount());
+
+        release.countDown();
+        firstRun.join(10000);
+        assertFalse(primer.isRunning());
+        assertEquals(1, primer.getRunCount());
+        assertEquals(4, primer.getCombinationCount());
+    }
+
+    private IEntityGroup mockGroup(String key) {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getUnderlyingEntityIdentifier())
+                .thenReturn(new EntityIdentifier(key, IPerson.class));
+        when(group.isGroup()).thenReturn(true);
+        return group;
+    }
+
+    private IPortletDefinition mockPortletDefinition(String id) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        return portletDefinition;
+    }
+}
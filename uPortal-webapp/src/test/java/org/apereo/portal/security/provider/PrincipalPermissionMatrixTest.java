@@ -0,0 +1,196 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.security.IPermission;
+import org.junit.Test;
+
+public class PrincipalPermissionMatrixTest {
+
+    private static final String ACTIVITY =
+            PrincipalPermissionMatrix.getActivityKey("UP_PORTLET_SUBSCRIBE", "SUBSCRIBE");
+    private static final String TARGET = "PORTLET_ID.42";
+    private static final long NOW = System.currentTimeMillis();
+
+    private static final Set<IEntityGroup> NO_GROUPS = Collections.emptySet();
+    private static final Set<String> NO_CONTAINING_GROUPS = Collections.emptySet();
+
+    private static IPermission permission(String principal, String target, String type) {
+        final IPermission rslt = new PermissionImpl("UP_PORTLET_SUBSCRIBE");
+        rslt.setPrincipal(principal);
+        rslt.setActivity("SUBSCRIBE");
+        rslt.setTarget(target);
+        rslt.setType(type);
+        return rslt;
+    }
+
+    private static PrincipalPermissionMatrix matrix(
+            String principal, List<PrincipalPermissionMatrix> parents, IPermission... permissions) {
+        return new PrincipalPermissionMatrix(principal, permissions, parents, NO_GROUPS, NOW);
+    }
+
+    private static PrincipalPermissionMatrix matrix(String principal, IPermission... permissions) {
+        return matrix(principal, Collections.<PrincipalPermissionMatrix>emptyList(), permissions);
+    }
+
+    @Test
+    public void testGrantInheritedFromAncestor() {
+        final PrincipalPermissionMatrix everyone =
+                matrix(
+                        "everyone",
+                        permission("everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT));
+        final PrincipalPermissionMatrix staff = matrix("staff", Arrays.asList(everyone));
+        final PrincipalPermissionMatrix user = matrix("user", Arrays.asList(staff));
+
+        assertTrue(user.hasUnblockedPathToGrant(ACTIVITY, TARGET, NO_CONTAINING_GROUPS));
+        assertFalse(user.hasUnblockedPathToGrant(ACTIVITY, "PORTLET_ID.43", NO_CONTAINING_GROUPS));
+    }
+
+    @Test
+    public void testDenyBlocksGrantFurtherUp() {
+        final PrincipalPermissionMatrix everyone =
+                matrix(
+                        "everyone",
+                        permission("everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT));
+        final PrincipalPermissionMatrix students =
+                matrix(
+                        "students",
+                        Arrays.asList(everyone),
+                        permission("students", TARGET, IPermission.PERMISSION_TYPE_DENY));
+        final PrincipalPermissionMatrix user = matrix("user", Arrays.asList(students));
+
+        assertFalse(user.hasUnblockedPathToGrant(ACTIVITY, TARGET, NO_CONTAINING_GROUPS));
+        assertTrue(everyone.hasUnblockedPathToGrant(ACTIVITY, TARGET, NO_CONTAINING_GROUPS));
+    }
+
+    @Test
+    public void testGrantThroughOtherUnblockedPath() {
+        final PrincipalPermissionMatrix everyone =
+                matrix(
+                        "everyone",
+                        permission("everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT));
+        final PrincipalPermissionMatrix students =
+                matrix(
+                        "students",
+                        Arrays.asList(everyone),
+                        permission("students", TARGET, IPermission.PERMISSION_TYPE_DENY));
+        final PrincipalPermissionMatrix staff = matrix("staff", Arrays.asList(everyone));
+        final PrincipalPermissionMatrix user = matrix("user", Arrays.asList(students, staff));
+
+        assertTrue(user.hasUnblockedPathToGrant(ACTIVITY, TARGET, NO_CONTAINING_GROUPS));
+    }
+
+    @Test
+    public void testOwnDenyTrumpsInheritedGrant() {
+        final PrincipalPermissionMatrix staff =
+                matrix("staff", permission("staff", TARGET, IPermission.PERMISSION_TYPE_GRANT));
+        final PrincipalPermissionMatrix user =
+                matrix(
+                        "user",
+                        Arrays.asList(staff),
+                        permission("user", TARGET, IPermission.PERMISSION_TYPE_DENY));
+
+        assertFalse(user.hasUnblockedPathToGrant(ACTIVITY, TARGET, NO_CONTAINING_GROUPS));
+    }
+
+    @Test
+    public void testPermissionOnContainingGroup() {
+        final Set<String> containingGroups = Collections.singleton("local.category");
+        final PrincipalPermissionMatrix staff =
+                matrix(
+                        "staff",
+                        permission("staff", "local.category", IPermission.PERMISSION_TYPE_GRANT));
+        final PrincipalPermissionMatrix students =
+                matrix(
+                        "students",
+                        permission("students", TARGET, IPermission.PERMISSION_TYPE_GRANT),
+                        permission("students", "local.category", IPermission.PERMISSION_TYPE_DENY));
+
+        assertTrue(
+                matrix("staffUser", Arrays.asList(staff))
+                        .hasUnblockedPathToGrant(ACTIVITY, TARGET, containingGroups));
+        // DENY on the category trumps the GRANT on the portlet attached to the same group
+        assertFalse(
+                matrix("studentUser", Arrays.asList(students))
+                        .hasUnblockedPathToGrant(ACTIVITY, TARGET, containingGroups));
+    }
+
+    @Test
+    public void testActivityAbsent() {
+        final PrincipalPermissionMatrix staff =
+                matrix("staff", permission("staff", TARGET, IPermission.PERMISSION_TYPE_GRANT));
+        final PrincipalPermissionMatrix user = matrix("user", Arrays.asList(staff));
+
+        final String browse =
+                PrincipalPermissionMatrix.getActivityKey("UP_PORTLET_SUBSCRIBE", "BROWSE");
+        assertFalse(user.isActivityAbsent(ACTIVITY));
+        assertTrue(user.isActivityAbsent(browse));
+        assertFalse(user.hasUnblockedPathToGrant(browse, TARGET, NO_CONTAINING_GROUPS));
+    }
+
+    @Test
+    public void testDecisionRemembered() {
+        final PrincipalPermissionMatrix staff =
+                matrix("staff", permission("staff", TARGET, IPermission.PERMISSION_TYPE_GRANT));
+        final PrincipalPermissionMatrix user = matrix("user", Arrays.asList(staff));
+
+        assertNull(user.getDecision(ACTIVITY, TARGET));
+        assertTrue(user.hasUnblockedPathToGrant(ACTIVITY, TARGET, NO_CONTAINING_GROUPS));
+        assertEquals(Boolean.TRUE, user.getDecision(ACTIVITY, TARGET));
+        // The parent consulted along the way remembers it as well
+        assertEquals(Boolean.TRUE, staff.getDecision(ACTIVITY, TARGET));
+    }
+
+    @Test
+    public void testInheritedExpirationMakesStale() {
+        final IPermission expiring = permission("staff", TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        expiring.setExpires(new Date(NOW + 60000L));
+        final IPermission expired =
+                permission("staff", "PORTLET_ID.43", IPermission.PERMISSION_TYPE_GRANT);
+        expired.setExpires(new Date(NOW - 60000L));
+        final PrincipalPermissionMatrix staff = matrix("staff", expiring, expired);
+        final PrincipalPermissionMatrix user = matrix("user", Arrays.asList(staff));
+
+        assertTrue(user.hasUnblockedPathToGrant(ACTIVITY, TARGET, NO_CONTAINING_GROUPS));
+        assertFalse(user.hasUnblockedPathToGrant(ACTIVITY, "PORTLET_ID.43", NO_CONTAINING_GROUPS));
+        assertFalse(user.isStale(NOW + 59999L, NO_GROUPS));
+        assertTrue(user.isStale(NOW + 60000L, NO_GROUPS));
+    }
+
+    @Test
+    public void testAncestorInvalidationMakesStale() {
+        final PrincipalPermissionMatrix everyone = matrix("everyone");
+        final PrincipalPermissionMatrix staff = matrix("staff", Arrays.asList(everyone));
+        final PrincipalPermissionMatrix faculty = matrix("faculty", Arrays.asList(everyone));
+        final PrincipalPermissionMatrix user = matrix("user", Arrays.asList(staff, faculty));
+
+        assertFalse(user.isStale(NOW));
+        everyone.invalidate();
+        assertTrue(staff.isStale(NOW));
+        assertTrue(faculty.isStale(NOW));
+        assertTrue(user.isStale(NOW));
+    }
+}